@@ -83,6 +83,12 @@
      */
     void removeCacheEntryListener(CacheEntryListener<T> listener);
 
+    /**
+     * @return statistics about the use of this cache
+     * @since 3.2M1
+     */
+    CacheStatistics getStatistics();
+
     /**
      * Release all the resources this cache use.
      */
@@ -0,0 +1,77 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.cache;
+
+/**
+ * Statistics about the use of a {@link Cache}. The counters are updated concurrently with the use of the cache, so
+ * reading several of them does not give a consistent snapshot.
+ * 
+ * @version $Id$
+ * @since 3.2M1
+ */
+public interface CacheStatistics
+{
+    /**
+     * @return the number of {@link Cache#get(String)} calls which returned a value
+     */
+    long getHitCount();
+
+    /**
+     * @return the number of {@link Cache#get(String)} calls which did not return any value
+     */
+    long getMissCount();
+
+    /**
+     * @return the ratio of {@link Cache#get(String)} calls which returned a value, between 0 and 1
+     */
+    double getHitRatio();
+
+    /**
+     * @return the number of entries removed by the cache itself to respect its capacity
+     */
+    long getEvictionCount();
+
+    /**
+     * @return the number of values put in the cache right after a miss on the same key by the same thread, which is the
+     *         way values are generally loaded in a cache
+     */
+    long getLoadCount();
+
+    /**
+     * @return the total time spent between a miss and the put of the loaded value, in milliseconds
+     */
+    long getTotalLoadTime();
+
+    /**
+     * @return the approximate number of entries in the cache
+     */
+    long getSize();
+
+    /**
+     * @return the total weight of the entries of the cache as computed by the configured
+     *         {@link org.xwiki.cache.eviction.EntryWeigher}, 0 if the cache does not have any weigher
+     */
+    long getWeight();
+
+    /**
+     * Reset the counters (not the size or the weight which reflect the current content of the cache).
+     */
+    void reset();
+}
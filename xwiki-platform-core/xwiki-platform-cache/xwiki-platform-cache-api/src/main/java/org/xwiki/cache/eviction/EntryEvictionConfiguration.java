@@ -47,6 +47,13 @@ public class EntryEvictionConfiguration extends HashMap<String, Object>
      */
     public static final String TIMETOLIVE_ID = "timetolive";
 
+    /**
+     * The key to access the maximum time to idle of an entry. Implementations which don't support it ignore it.
+     * 
+     * @since 3.2M1
+     */
+    public static final String TIMETOIDLE_ID = "timetoidle";
+
     /**
      * The ordering/storing algorithm used by the cache.
      * 
@@ -63,7 +70,8 @@ public class EntryEvictionConfiguration extends HashMap<String, Object>
         /**
          * Evicts the least recently used entry when thresholds are hit.
          * <p>
-         * Support <code>maxentries</code> property. See {@link LRUEvictionConfiguration}.
+         * Support <code>maxentries</code>, <code>maxweight</code> and <code>weigher</code> properties. See
+         * {@link LRUEvictionConfiguration}.
          */
         LRU
     }
@@ -106,4 +114,24 @@ public int getTimeToLive()
 
         return obj == null ? 0 : (Integer) get(TIMETOLIVE_ID);
     }
+
+    /**
+     * @param timeToIdle the maximum time in seconds a cache entry can stay in the cache without being accessed
+     * @since 3.2M1
+     */
+    public void setTimeToIdle(int timeToIdle)
+    {
+        put(TIMETOIDLE_ID, timeToIdle);
+    }
+
+    /**
+     * @return the maximum time in seconds a cache entry can stay in the cache without being accessed
+     * @since 3.2M1
+     */
+    public int getTimeToIdle()
+    {
+        Object obj = get(TIMETOIDLE_ID);
+
+        return obj == null ? 0 : (Integer) obj;
+    }
 }
@@ -32,6 +32,20 @@ public class LRUEvictionConfiguration extends EntryEvictionConfiguration
      */
     public static final String MAXENTRIES_ID = "maxentries";
 
+    /**
+     * The key to access the maximum total weight of the entries the cache can contain.
+     * 
+     * @since 3.2M1
+     */
+    public static final String MAXWEIGHT_ID = "maxweight";
+
+    /**
+     * The key to access the {@link EntryWeigher} used to compute the weight of the entries.
+     * 
+     * @since 3.2M1
+     */
+    public static final String WEIGHER_ID = "weigher";
+
     /**
      * Create a new EntryEvictionConfiguration based on LRU algorithm.
      */
@@ -57,4 +71,43 @@ public int getMaxEntries()
 
         return obj == null ? 0 : (Integer) get(MAXENTRIES_ID);
     }
+
+    /**
+     * @param maxWeight the maximum total weight of the entries the cache can contain, as computed by the
+     *            {@link #setWeigher(EntryWeigher) weigher}. 0 means no limit.
+     * @since 3.2M1
+     */
+    public void setMaxWeight(long maxWeight)
+    {
+        put(MAXWEIGHT_ID, maxWeight);
+    }
+
+    /**
+     * @return the maximum total weight of the entries the cache can contain, 0 means no limit
+     * @since 3.2M1
+     */
+    public long getMaxWeight()
+    {
+        Object obj = get(MAXWEIGHT_ID);
+
+        return obj == null ? 0 : ((Number) obj).longValue();
+    }
+
+    /**
+     * @param weigher used to compute the weight of the entries
+     * @since 3.2M1
+     */
+    public void setWeigher(EntryWeigher< ? > weigher)
+    {
+        put(WEIGHER_ID, weigher);
+    }
+
+    /**
+     * @return used to compute the weight of the entries, null if the entries don't have any weight
+     * @since 3.2M1
+     */
+    public EntryWeigher< ? > getWeigher()
+    {
+        return (EntryWeigher< ? >) get(WEIGHER_ID);
+    }
 }
@@ -0,0 +1,48 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.cache.internal;
+
+import java.util.Map;
+
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheStatistics;
+import org.xwiki.component.annotation.ComponentRole;
+
+/**
+ * Keep track of the caches created through the {@link org.xwiki.cache.CacheManager} to be able to inspect them.
+ * 
+ * @version $Id$
+ * @since 3.2M1
+ */
+@ComponentRole
+public interface CacheRegistry
+{
+    /**
+     * @param name the name of the cache, generally its configuration identifier, can be null
+     * @param cache the cache to register
+     * @return the unique name under which the cache has been registered
+     */
+    String register(String name, Cache< ? > cache);
+
+    /**
+     * @return the statistics of the registered caches which have not been disposed, indexed and sorted by name
+     */
+    Map<String, CacheStatistics> getStatistics();
+}
@@ -0,0 +1,82 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.cache.internal;
+
+/**
+ * JMX interface giving access to the statistics of all the caches created through the
+ * {@link org.xwiki.cache.CacheManager}.
+ * 
+ * @version $Id$
+ * @since 3.2M1
+ */
+public interface CachesMBean
+{
+    /**
+     * @return the names of the caches
+     */
+    String[] getCacheNames();
+
+    /**
+     * @return one line of statistics for each cache
+     */
+    String[] getCacheStatistics();
+
+    /**
+     * @param cacheName the name of the cache
+     * @return the number of entries of the cache, -1 if there is no cache with the provided name
+     */
+    long getSize(String cacheName);
+
+    /**
+     * @param cacheName the name of the cache
+     * @return the total weight of the entries of the cache, -1 if there is no cache with the provided name
+     */
+    long getWeight(String cacheName);
+
+    /**
+     * @param cacheName the name of the cache
+     * @return the number of hits of the cache, -1 if there is no cache with the provided name
+     */
+    long getHitCount(String cacheName);
+
+    /**
+     * @param cacheName the name of the cache
+     * @return the number of misses of the cache, -1 if there is no cache with the provided name
+     */
+    long getMissCount(String cacheName);
+
+    /**
+     * @param cacheName the name of the cache
+     * @return the number of evictions of the cache, -1 if there is no cache with the provided name
+     */
+    long getEvictionCount(String cacheName);
+
+    /**
+     * @param cacheName the name of the cache
+     * @return the average time spent to load a value in the cache in milliseconds, -1 if there is no cache with the
+     *         provided name
+     */
+    double getAverageLoadTime(String cacheName);
+
+    /**
+     * Reset the counters of all the caches.
+     */
+    void reset();
+}
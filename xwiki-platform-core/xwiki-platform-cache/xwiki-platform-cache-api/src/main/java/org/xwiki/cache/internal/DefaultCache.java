@@ -20,7 +20,9 @@
 package org.xwiki.cache.internal;
 
 import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheStatistics;
 import org.xwiki.cache.event.CacheEntryListener;
+import org.xwiki.cache.util.DefaultCacheStatistics;
 
 /**
  * Default implementation of {@link Cache}. Does not really store anything and always return null when trying to get a
@@ -31,6 +33,11 @@
  */
 public class DefaultCache<T> implements Cache<T>
 {
+    /**
+     * The statistics of the cache, always empty.
+     */
+    private final CacheStatistics statistics = new DefaultCacheStatistics();
+
     /**
      * {@inheritDoc}
      * 
@@ -101,6 +108,16 @@ public void removeCacheEntryListener(CacheEntryListener<T> listener)
 
     }
 
+    /**
+     * {@inheritDoc}
+     * 
+     * @see org.xwiki.cache.Cache#getStatistics()
+     */
+    public CacheStatistics getStatistics()
+    {
+        return this.statistics;
+    }
+
     /**
      * {@inheritDoc}
      * 
@@ -20,6 +20,9 @@
  */
 package org.xwiki.cache.internal;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
@@ -56,6 +59,17 @@ public class DefaultCacheManager implements CacheManager
     @Inject
     private CacheManagerConfiguration configuration;
 
+    /**
+     * Used to inspect the created caches.
+     */
+    @Inject
+    private CacheRegistry cacheRegistry;
+
+    /**
+     * The factories already returned, indexed by role hint.
+     */
+    private final ConcurrentMap<String, CacheFactory> factories = new ConcurrentHashMap<String, CacheFactory>();
+
     /**
      * {@inheritDoc}
      * 
@@ -78,6 +92,9 @@ public CacheFactory getLocalCacheFactory() throws ComponentLookupException
 
     /**
      * Lookup the cache creation component with provided hint return it.
+     * <p>
+     * The returned factory registers the caches it creates in the {@link CacheRegistry} and adds them an off heap tier
+     * when their configuration contains an {@link org.xwiki.cache.offheap.OffHeapConfiguration}.
      * 
      * @param cacheHint the role hint to lookup.
      * @return a cache creation service.
@@ -85,7 +102,18 @@ public CacheFactory getLocalCacheFactory() throws ComponentLookupException
      */
     public CacheFactory getCacheFactory(String cacheHint) throws ComponentLookupException
     {
-        return this.componentManager.lookup(CacheFactory.class, cacheHint);
+        CacheFactory factory = this.factories.get(cacheHint);
+
+        if (factory == null) {
+            factory =
+                new ManagedCacheFactory(this.componentManager.lookup(CacheFactory.class, cacheHint), this.cacheRegistry);
+            CacheFactory existingFactory = this.factories.putIfAbsent(cacheHint, factory);
+            if (existingFactory != null) {
+                factory = existingFactory;
+            }
+        }
+
+        return factory;
     }
 
     /**
@@ -121,7 +149,7 @@ public <T> Cache<T> createNewCache(CacheConfiguration config, String cacheHint)
     {
         CacheFactory cacheFactory;
         try {
-            cacheFactory = this.componentManager.lookup(CacheFactory.class, cacheHint);
+            cacheFactory = getCacheFactory(cacheHint);
         } catch (ComponentLookupException e) {
             throw new CacheException("Failed to get cache factory for role hint [" + cacheHint + "]", e);
         }
@@ -0,0 +1,306 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.cache.internal;
+
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.slf4j.Logger;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheStatistics;
+import org.xwiki.cache.util.DefaultCacheStatistics;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+
+/**
+ * Default implementation of {@link CacheRegistry}. The caches are only weakly referenced so that a cache which is not
+ * disposed does not stay in memory because of the registry. The statistics are also exposed in JMX as
+ * {@value #MBEAN_NAME}.
+ * 
+ * @version $Id$
+ * @since 3.2M1
+ */
+@Component
+@Singleton
+public class DefaultCacheRegistry implements CacheRegistry, CachesMBean, Initializable
+{
+    /**
+     * The name of the MBean giving access to the caches statistics.
+     */
+    public static final String MBEAN_NAME = "org.xwiki:type=Caches";
+
+    /**
+     * The name used for caches created without configuration identifier.
+     */
+    private static final String UNNAMED = "unnamed";
+
+    /**
+     * The logger to log.
+     */
+    @Inject
+    private Logger logger;
+
+    /**
+     * The registered caches.
+     */
+    private final ConcurrentMap<String, WeakReference<Cache< ? >>> caches =
+        new ConcurrentHashMap<String, WeakReference<Cache< ? >>>();
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see org.xwiki.component.phase.Initializable#initialize()
+     */
+    public void initialize() throws InitializationException
+    {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(MBEAN_NAME);
+            // Replace the MBean of a previous instance (e.g. when the application is redeployed)
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(new StandardMBean(this, CachesMBean.class), name);
+        } catch (Exception e) {
+            this.logger.warn("Failed to register the caches statistics in JMX", e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see org.xwiki.cache.internal.CacheRegistry#register(java.lang.String, org.xwiki.cache.Cache)
+     */
+    public String register(String name, Cache< ? > cache)
+    {
+        String baseName = name != null ? name : UNNAMED;
+        WeakReference<Cache< ? >> reference = new WeakReference<Cache< ? >>(cache);
+
+        String uniqueName = baseName;
+        for (int index = 2;; ++index) {
+            WeakReference<Cache< ? >> current = this.caches.get(uniqueName);
+            if (current == null) {
+                if (this.caches.putIfAbsent(uniqueName, reference) == null) {
+                    break;
+                }
+            } else if (!isAlive(current.get())) {
+                // Reuse the name of a cache which has been disposed (generally the cache it's replacing)
+                if (this.caches.replace(uniqueName, current, reference)) {
+                    break;
+                }
+            } else {
+                uniqueName = baseName + '#' + index;
+            }
+        }
+
+        return uniqueName;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see org.xwiki.cache.internal.CacheRegistry#getStatistics()
+     */
+    public Map<String, CacheStatistics> getStatistics()
+    {
+        SortedMap<String, CacheStatistics> statistics = new TreeMap<String, CacheStatistics>();
+
+        for (Map.Entry<String, WeakReference<Cache< ? >>> entry : this.caches.entrySet()) {
+            Cache< ? > cache = entry.getValue().get();
+            if (isAlive(cache)) {
+                statistics.put(entry.getKey(), cache.getStatistics());
+            } else {
+                this.caches.remove(entry.getKey(), entry.getValue());
+            }
+        }
+
+        return statistics;
+    }
+
+    /**
+     * @param cache the cache
+     * @return true if the cache still exist and has not been disposed
+     */
+    private boolean isAlive(Cache< ? > cache)
+    {
+        if (cache == null) {
+            return false;
+        }
+
+        CacheStatistics statistics = cache.getStatistics();
+
+        return !(statistics instanceof DefaultCacheStatistics && ((DefaultCacheStatistics) statistics).isDisposed());
+    }
+
+    /**
+     * @param cacheName the name of the cache
+     * @return the statistics of the cache, null if there is no cache with the provided name
+     */
+    private CacheStatistics getStatistics(String cacheName)
+    {
+        WeakReference<Cache< ? >> reference = this.caches.get(cacheName);
+        Cache< ? > cache = reference != null ? reference.get() : null;
+
+        return isAlive(cache) ? cache.getStatistics() : null;
+    }
+
+    // CachesMBean
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see org.xwiki.cache.internal.CachesMBean#getCacheNames()
+     */
+    public String[] getCacheNames()
+    {
+        return getStatistics().keySet().toArray(new String[0]);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see org.xwiki.cache.internal.CachesMBean#getCacheStatistics()
+     */
+    public String[] getCacheStatistics()
+    {
+        Map<String, CacheStatistics> statistics = getStatistics();
+
+        String[] lines = new String[statistics.size()];
+        int index = 0;
+        for (Map.Entry<String, CacheStatistics> entry : statistics.entrySet()) {
+            CacheStatistics cacheStatistics = entry.getValue();
+            lines[index++] =
+                String.format("%s: size=%d, weight=%d, hits=%d, misses=%d, hitRatio=%.2f, evictions=%d, loads=%d, "
+                    + "averageLoadTime=%.2fms", entry.getKey(), cacheStatistics.getSize(),
+                    cacheStatistics.getWeight(), cacheStatistics.getHitCount(), cacheStatistics.getMissCount(),
+                    cacheStatistics.getHitRatio(), cacheStatistics.getEvictionCount(),
+                    cacheStatistics.getLoadCount(), getAverageLoadTime(cacheStatistics));
+        }
+
+        return lines;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see org.xwiki.cache.internal.CachesMBean#getSize(java.lang.String)
+     */
+    public long getSize(String cacheName)
+    {
+        CacheStatistics statistics = getStatistics(cacheName);
+
+        return statistics != null ? statistics.getSize() : -1;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see org.xwiki.cache.internal.CachesMBean#getWeight(java.lang.String)
+     */
+    public long getWeight(String cacheName)
+    {
+        CacheStatistics statistics = getStatistics(cacheName);
+
+        return statistics != null ? statistics.getWeight() : -1;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see org.xwiki.cache.internal.CachesMBean#getHitCount(java.lang.String)
+     */
+    public long getHitCount(String cacheName)
+    {
+        CacheStatistics statistics = getStatistics(cacheName);
+
+        return statistics != null ? statistics.getHitCount() : -1;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see org.xwiki.cache.internal.CachesMBean#getMissCount(java.lang.String)
+     */
+    public long getMissCount(String cacheName)
+    {
+        CacheStatistics statistics = getStatistics(cacheName);
+
+        return statistics != null ? statistics.getMissCount() : -1;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see org.xwiki.cache.internal.CachesMBean#getEvictionCount(java.lang.String)
+     */
+    public long getEvictionCount(String cacheName)
+    {
+        CacheStatistics statistics = getStatistics(cacheName);
+
+        return statistics != null ? statistics.getEvictionCount() : -1;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see org.xwiki.cache.internal.CachesMBean#getAverageLoadTime(java.lang.String)
+     */
+    public double getAverageLoadTime(String cacheName)
+    {
+        CacheStatistics statistics = getStatistics(cacheName);
+
+        return statistics != null ? getAverageLoadTime(statistics) : -1;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see org.xwiki.cache.internal.CachesMBean#reset()
+     */
+    public void reset()
+    {
+        for (CacheStatistics statistics : getStatistics().values()) {
+            statistics.reset();
+        }
+    }
+
+    /**
+     * @param statistics the statistics of a cache
+     * @return the average time spent to load a value in the cache in milliseconds
+     */
+    private double getAverageLoadTime(CacheStatistics statistics)
+    {
+        long loads = statistics.getLoadCount();
+
+        return loads > 0 ? (double) statistics.getTotalLoadTime() / loads : 0;
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.cache.internal;
+
+import java.io.IOException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheFactory;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.internal.tier.TieredCache;
+import org.xwiki.cache.offheap.OffHeapConfiguration;
+
+/**
+ * Wrap the {@link CacheFactory} returned by {@link DefaultCacheManager} to add an off heap tier to the created caches
+ * when requested in their configuration and to register them in the {@link CacheRegistry}.
+ * 
+ * @version $Id$
+ * @since 3.2M1
+ */
+public class ManagedCacheFactory implements CacheFactory
+{
+    /**
+     * The logger to use to log.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(ManagedCacheFactory.class);
+
+    /**
+     * The actual cache factory.
+     */
+    private final CacheFactory factory;
+
+    /**
+     * Used to inspect the created caches.
+     */
+    private final CacheRegistry cacheRegistry;
+
+    /**
+     * @param factory the actual cache factory
+     * @param cacheRegistry used to inspect the created caches
+     */
+    public ManagedCacheFactory(CacheFactory factory, CacheRegistry cacheRegistry)
+    {
+        this.factory = factory;
+        this.cacheRegistry = cacheRegistry;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see org.xwiki.cache.CacheFactory#newCache(org.xwiki.cache.config.CacheConfiguration)
+     */
+    public <T> Cache<T> newCache(CacheConfiguration config) throws CacheException
+    {
+        Cache<T> cache = this.factory.newCache(config);
+
+        Object offHeapConfiguration = config.get(OffHeapConfiguration.CONFIGURATIONID);
+        if (offHeapConfiguration instanceof OffHeapConfiguration
+            && ((OffHeapConfiguration) offHeapConfiguration).getCapacity() > 0) {
+            try {
+                cache = new TieredCache<T>(cache, config, (OffHeapConfiguration) offHeapConfiguration);
+            } catch (IOException e) {
+                // The off heap tier is optional, the cache is still usable without it
+                LOGGER.warn("Failed to create the off heap tier of cache [" + config.getConfigurationId()
+                    + "], only the heap will be used", e);
+            }
+        }
+
+        this.cacheRegistry.register(config.getConfigurationId(), cache);
+
+        return cache;
+    }
+}
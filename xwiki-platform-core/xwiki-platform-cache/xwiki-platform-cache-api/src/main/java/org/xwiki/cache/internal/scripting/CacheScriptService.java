@@ -0,0 +1,85 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.cache.internal.scripting;
+
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.bridge.DocumentAccessBridge;
+import org.xwiki.cache.CacheStatistics;
+import org.xwiki.cache.internal.CacheRegistry;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.script.service.ScriptService;
+
+/**
+ * Provides Cache-specific Scripting APIs.
+ * <p>
+ * The statistics give access to the names of all the caches and allow to reset them, so they are only available to
+ * scripts having programming rights.
+ * 
+ * @version $Id$
+ * @since 3.2M1
+ */
+@Component
+@Named("cache")
+@Singleton
+public class CacheScriptService implements ScriptService
+{
+    /**
+     * Keep track of the created caches.
+     */
+    @Inject
+    private CacheRegistry cacheRegistry;
+
+    /**
+     * Used to check programming rights.
+     */
+    @Inject
+    private DocumentAccessBridge documentAccessBridge;
+
+    /**
+     * @return the statistics of the caches created through the {@link org.xwiki.cache.CacheManager}, indexed and
+     *         sorted by cache name, null if the current script does not have programming rights
+     */
+    public Map<String, CacheStatistics> getStatistics()
+    {
+        if (!this.documentAccessBridge.hasProgrammingRights()) {
+            return null;
+        }
+
+        return this.cacheRegistry.getStatistics();
+    }
+
+    /**
+     * Reset the statistics of all the caches created through the {@link org.xwiki.cache.CacheManager}. Does nothing if
+     * the current script does not have programming rights.
+     */
+    public void reset()
+    {
+        if (this.documentAccessBridge.hasProgrammingRights()) {
+            for (CacheStatistics statistics : this.cacheRegistry.getStatistics().values()) {
+                statistics.reset();
+            }
+        }
+    }
+}
@@ -0,0 +1,420 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.cache.internal.tier;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Store byte arrays outside of the Java heap, in memory mapped files split in fixed size segments.
+ * <p>
+ * The records are appended to the current segment. When it's full the next segment becomes the current one and the
+ * records it contained are dropped (FIFO eviction of whole segments), which means the space used by a removed or
+ * replaced record is only reclaimed when its segment is reused. Only the index (key to address) lives in the heap.
+ * <p>
+ * The files are deleted as soon as they are mapped when the system allows it, otherwise when the store is disposed.
+ * The mappings are released when the store is disposed.
+ * 
+ * @version $Id$
+ * @since 3.2M1
+ */
+public class OffHeapStore
+{
+    /**
+     * The size of the header of a record: expiration date (long) and length (int).
+     */
+    private static final int HEADER_SIZE = 12;
+
+    /**
+     * The number of bits used to store the offset in an address.
+     */
+    private static final int OFFSET_BITS = 32;
+
+    /**
+     * The mask used to extract the offset from an address.
+     */
+    private static final long OFFSET_MASK = 0xFFFFFFFFL;
+
+    /**
+     * A record read from the store.
+     */
+    public static final class Record
+    {
+        /**
+         * The stored data.
+         */
+        private final byte[] data;
+
+        /**
+         * The date after which the record should be ignored, 0 for never.
+         */
+        private final long expiresAt;
+
+        /**
+         * @param data the stored data
+         * @param expiresAt the date after which the record should be ignored, 0 for never
+         */
+        Record(byte[] data, long expiresAt)
+        {
+            this.data = data;
+            this.expiresAt = expiresAt;
+        }
+
+        /**
+         * @return the stored data
+         */
+        public byte[] getData()
+        {
+            return this.data;
+        }
+
+        /**
+         * @param now the current date
+         * @return true if the record expired
+         */
+        public boolean isExpired(long now)
+        {
+            return this.expiresAt > 0 && this.expiresAt <= now;
+        }
+    }
+
+    /**
+     * The files in which the segments are mapped, null for the files already deleted.
+     */
+    private final File[] files;
+
+    /**
+     * The segments.
+     */
+    private final MappedByteBuffer[] segments;
+
+    /**
+     * The keys written in each segment, used to clean the index when a segment is reused.
+     */
+    private final List<String>[] segmentKeys;
+
+    /**
+     * The size of each segment.
+     */
+    private final int segmentSize;
+
+    /**
+     * The address (segment index and offset) of the record of each key.
+     */
+    private final ConcurrentMap<String, Long> index = new ConcurrentHashMap<String, Long>();
+
+    /**
+     * Reads share the lock, writes and segment reuse take it exclusively.
+     */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * The segment in which the records are currently appended.
+     */
+    private int currentSegment;
+
+    /**
+     * The position of the next record in the current segment.
+     */
+    private int position;
+
+    /**
+     * True once the store has been disposed.
+     */
+    private boolean disposed;
+
+    /**
+     * @param capacity the maximum number of bytes to use, at least two segments are used so the segment size is
+     *            reduced to half of the capacity if needed
+     * @param segmentSize the size of a segment
+     * @param directory the directory where to create the files, null for the system temporary directory
+     * @throws IOException when failing to create and map the files
+     */
+    public OffHeapStore(long capacity, int segmentSize, File directory) throws IOException
+    {
+        // Never use more than the capacity
+        int size = (int) Math.min(segmentSize, capacity / 2);
+        if (size <= HEADER_SIZE) {
+            throw new IllegalArgumentException("The capacity [" + capacity + "] and the segment size [" + segmentSize
+                + "] are too small");
+        }
+        int count = (int) Math.min(Integer.MAX_VALUE, capacity / size);
+
+        this.segmentSize = size;
+        this.files = new File[count];
+        this.segments = new MappedByteBuffer[count];
+        this.segmentKeys = new List[count];
+
+        try {
+            for (int i = 0; i < count; ++i) {
+                this.files[i] = File.createTempFile("xwiki-cache-", ".segment", directory);
+                this.segments[i] = map(this.files[i], size);
+                // The mapping stays valid once the file is deleted, except on systems which don't allow to delete it
+                if (this.files[i].delete()) {
+                    this.files[i] = null;
+                }
+                this.segmentKeys[i] = new ArrayList<String>();
+            }
+        } catch (IOException e) {
+            release();
+
+            throw e;
+        }
+    }
+
+    /**
+     * @param file the file to map
+     * @param size the size of the mapping
+     * @return the mapped memory
+     * @throws IOException when failing to map the file
+     */
+    private static MappedByteBuffer map(File file, int size) throws IOException
+    {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.setLength(size);
+
+            // The mapping stays valid after the channel is closed
+            return randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * @return the biggest data which can be stored
+     */
+    public int getMaxDataSize()
+    {
+        return this.segmentSize - HEADER_SIZE;
+    }
+
+    /**
+     * @return the number of records in the store
+     */
+    public int size()
+    {
+        return this.index.size();
+    }
+
+    /**
+     * @param key the key of the record
+     * @return true if the store contains a record for the provided key
+     */
+    public boolean contains(String key)
+    {
+        return this.index.containsKey(key);
+    }
+
+    /**
+     * Store a record, replacing any existing record with the same key.
+     * 
+     * @param key the key of the record
+     * @param data the data to store
+     * @param expiresAt the date after which the record should be ignored, 0 for never
+     * @param droppedKeys filled with the keys of the records dropped to make room for the new one
+     * @return false if the data is too big to be stored
+     */
+    public boolean put(String key, byte[] data, long expiresAt, List<String> droppedKeys)
+    {
+        int recordSize = HEADER_SIZE + data.length;
+        if (recordSize > this.segmentSize) {
+            this.index.remove(key);
+
+            return false;
+        }
+
+        this.lock.writeLock().lock();
+        try {
+            if (this.disposed) {
+                return false;
+            }
+
+            if (this.position + recordSize > this.segmentSize) {
+                nextSegment(droppedKeys);
+                droppedKeys.remove(key);
+            }
+
+            ByteBuffer segment = this.segments[this.currentSegment];
+            segment.putLong(this.position, expiresAt);
+            segment.putInt(this.position + 8, data.length);
+            ByteBuffer target = segment.duplicate();
+            target.position(this.position + HEADER_SIZE);
+            target.put(data);
+
+            this.index.put(key, ((long) this.currentSegment << OFFSET_BITS) | this.position);
+            this.segmentKeys[this.currentSegment].add(key);
+            this.position += recordSize;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+
+        return true;
+    }
+
+    /**
+     * Reuse the oldest segment.
+     * 
+     * @param droppedKeys filled with the keys of the records which were still stored in the reused segment
+     */
+    private void nextSegment(List<String> droppedKeys)
+    {
+        this.currentSegment = (this.currentSegment + 1) % this.segments.length;
+        this.position = 0;
+
+        List<String> keys = this.segmentKeys[this.currentSegment];
+        for (String key : keys) {
+            Long address = this.index.get(key);
+            // The key might have been removed or stored again in another segment since
+            if (address != null && (int) (address >>> OFFSET_BITS) == this.currentSegment
+                && this.index.remove(key, address)) {
+                droppedKeys.add(key);
+            }
+        }
+        keys.clear();
+    }
+
+    /**
+     * Remove a record from the store and return it.
+     * 
+     * @param key the key of the record
+     * @return the record, null if there is no record for this key
+     */
+    public Record remove(String key)
+    {
+        this.lock.readLock().lock();
+        try {
+            Long address = this.index.remove(key);
+            if (address == null) {
+                return null;
+            }
+
+            ByteBuffer segment = this.segments[(int) (address >>> OFFSET_BITS)];
+            int offset = (int) (address & OFFSET_MASK);
+
+            long expiresAt = segment.getLong(offset);
+            byte[] data = new byte[segment.getInt(offset + 8)];
+            ByteBuffer source = segment.duplicate();
+            source.position(offset + HEADER_SIZE);
+            source.get(data);
+
+            return new Record(data, expiresAt);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Remove all the records.
+     */
+    public void clear()
+    {
+        this.lock.writeLock().lock();
+        try {
+            this.index.clear();
+            for (List<String> keys : this.segmentKeys) {
+                keys.clear();
+            }
+            this.currentSegment = 0;
+            this.position = 0;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove all the records, release the mappings and delete the files.
+     */
+    public void dispose()
+    {
+        this.lock.writeLock().lock();
+        try {
+            if (!this.disposed) {
+                this.disposed = true;
+                clear();
+                release();
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Release the mappings and delete the remaining files.
+     */
+    private void release()
+    {
+        for (int i = 0; i < this.segments.length; ++i) {
+            if (this.segments[i] != null) {
+                unmap(this.segments[i]);
+                this.segments[i] = null;
+            }
+        }
+
+        for (int i = 0; i < this.files.length; ++i) {
+            if (this.files[i] != null) {
+                this.files[i].delete();
+                this.files[i] = null;
+            }
+        }
+    }
+
+    /**
+     * Release a mapping without waiting for it to be garbage collected. There's no public API for this so the internal
+     * cleaner of the JVM is called; when it's not available the mapping is released by the garbage collector.
+     * 
+     * @param buffer the mapping to release, must not be used anymore
+     */
+    private static void unmap(MappedByteBuffer buffer)
+    {
+        try {
+            // Java 9 and later
+            Class< ? > unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            invokeCleaner.invoke(theUnsafe.get(null), buffer);
+        } catch (Exception e) {
+            try {
+                // Java 8 and before
+                Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buffer);
+                if (cleaner != null) {
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+            } catch (Exception e2) {
+                // Released by the garbage collector
+            }
+        }
+    }
+}
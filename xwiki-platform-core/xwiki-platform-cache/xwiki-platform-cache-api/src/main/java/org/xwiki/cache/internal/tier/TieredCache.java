@@ -0,0 +1,677 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.cache.internal.tier;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.event.CacheEntryEvent;
+import org.xwiki.cache.event.CacheEntryListener;
+import org.xwiki.cache.eviction.EntryEvictionConfiguration;
+import org.xwiki.cache.offheap.DefaultOffHeapSerializer;
+import org.xwiki.cache.offheap.OffHeapConfiguration;
+import org.xwiki.cache.offheap.OffHeapSerializer;
+import org.xwiki.cache.util.AbstractCache;
+
+/**
+ * A cache made of two tiers: any {@link Cache} implementation (the heap tier) and an {@link OffHeapStore}. The entries
+ * evicted from the heap tier are serialized in the off heap tier and moved back to the heap tier when accessed again.
+ * <p>
+ * The listeners only see the entries entering and leaving the cache as a whole, moving an entry from one tier to the
+ * other does not produce any event. The value of the removed entries which were in the off heap tier is null when they
+ * are evicted.
+ * <p>
+ * The entries evicted because of {@link #evict(String)} (for example when the cache is limited in weight) are moved to
+ * the off heap tier too. The heap tier has to provide the value of the entries it evicts, otherwise they are dropped
+ * and a warning is logged.
+ * <p>
+ * Entries keep their time to live when moving between tiers. The time to idle is restarted when an entry is moved to
+ * the off heap tier.
+ * <p>
+ * Setting, removing and moving back an entry to the heap tier are done under a lock of the entry key so that an
+ * entry moved back to the heap tier never replaces a value set or removed in the meantime. Entries evicted from the
+ * heap tier are dropped instead of being moved to the off heap tier when their key is locked or when entries have
+ * been removed since the eviction started.
+ * 
+ * @param <T> the class of the data stored in the cache.
+ * @version $Id$
+ * @since 3.2M1
+ */
+public class TieredCache<T> extends AbstractCache<T>
+{
+    /**
+     * The logger to use to log.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(TieredCache.class);
+
+    /**
+     * The maximum size of the segments chosen by default.
+     */
+    private static final int MAX_DEFAULT_SEGMENTSIZE = 256 * 1024 * 1024;
+
+    /**
+     * The minimum size of the segments chosen by default.
+     */
+    private static final int MIN_DEFAULT_SEGMENTSIZE = 1024 * 1024;
+
+    /**
+     * The number of segments used by default.
+     */
+    private static final int DEFAULT_SEGMENTS = 16;
+
+    /**
+     * The number of milliseconds in a second.
+     */
+    private static final long SECOND = 1000L;
+
+    /**
+     * The number of locks shared by the keys.
+     */
+    private static final int LOCKS = 32;
+
+    /**
+     * The heap tier.
+     */
+    private final Cache<T> heap;
+
+    /**
+     * The off heap tier.
+     */
+    private final OffHeapStore store;
+
+    /**
+     * Convert the values to and from the off heap tier.
+     */
+    private final OffHeapSerializer<T> serializer;
+
+    /**
+     * Forward the events of the heap tier and move the evicted entries to the off heap tier.
+     */
+    private final HeapListener heapListener = new HeapListener();
+
+    /**
+     * The operation being executed by the current thread, used to distinguish the entries removed on purpose from
+     * the entries evicted by the heap tier.
+     */
+    private final ThreadLocal<Operation> operation = new ThreadLocal<Operation>();
+
+    /**
+     * The locks of the keys, a key always uses the same lock.
+     */
+    private final ReentrantLock[] locks = new ReentrantLock[LOCKS];
+
+    /**
+     * Incremented each time entries have been removed on purpose. An entry evicted from the heap tier while entries
+     * were being removed might have been removed and is not moved to the off heap tier.
+     */
+    private final AtomicLong removals = new AtomicLong();
+
+    /**
+     * When each entry has been set, only maintained when the cache has a time to live.
+     */
+    private final Map<String, Long> writeTimes = new ConcurrentHashMap<String, Long>();
+
+    /**
+     * The time to live of the entries in milliseconds, 0 for none.
+     */
+    private final long timeToLive;
+
+    /**
+     * The time to idle of the entries in milliseconds, 0 for none.
+     */
+    private final long timeToIdle;
+
+    /**
+     * True once it has been logged that the heap tier does not provide the value of the evicted entries.
+     */
+    private volatile boolean missingValueLogged;
+
+    /**
+     * An operation on the heap tier.
+     */
+    private static final class Operation
+    {
+        /**
+         * An entry is set.
+         */
+        static final int SET = 0;
+
+        /**
+         * An entry is moved back to the heap tier.
+         */
+        static final int PROMOTE = 1;
+
+        /**
+         * An entry is removed.
+         */
+        static final int REMOVE = 2;
+
+        /**
+         * All the entries are removed.
+         */
+        static final int REMOVEALL = 3;
+
+        /**
+         * An entry is read.
+         */
+        static final int GET = 4;
+
+        /**
+         * The type of operation.
+         */
+        private final int type;
+
+        /**
+         * The key of the entry, null for {@link #REMOVEALL}.
+         */
+        private final String key;
+
+        /**
+         * True if the entry being set was in the off heap tier.
+         */
+        private final boolean replaced;
+
+        /**
+         * The number of removals when the operation started.
+         */
+        private final long removals;
+
+        /**
+         * @param type the type of operation
+         * @param key the key of the entry
+         * @param replaced true if the entry being set was in the off heap tier
+         * @param removals the number of removals when the operation started
+         */
+        Operation(int type, String key, boolean replaced, long removals)
+        {
+            this.type = type;
+            this.key = key;
+            this.replaced = replaced;
+            this.removals = removals;
+        }
+
+        /**
+         * @param operationType the type of operation
+         * @param entryKey the key of an entry
+         * @return true if this operation is of the provided type and on the provided entry
+         */
+        boolean is(int operationType, String entryKey)
+        {
+            return this.type == operationType && this.key.equals(entryKey);
+        }
+    }
+
+    /**
+     * Listen to the heap tier.
+     */
+    private final class HeapListener implements CacheEntryListener<T>
+    {
+        /**
+         * {@inheritDoc}
+         * 
+         * @see org.xwiki.cache.event.CacheEntryListener#cacheEntryAdded(org.xwiki.cache.event.CacheEntryEvent)
+         */
+        public void cacheEntryAdded(CacheEntryEvent<T> event)
+        {
+            String key = event.getEntry().getKey();
+            Operation current = operation.get();
+
+            if (current == null || !current.is(Operation.PROMOTE, key)) {
+                if (current != null && current.replaced && current.is(Operation.SET, key)) {
+                    sendEntryModifiedEvent(createEvent(key, event.getEntry().getValue()));
+                } else {
+                    sendEntryAddedEvent(createEvent(key, event.getEntry().getValue()));
+                }
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         * 
+         * @see org.xwiki.cache.event.CacheEntryListener#cacheEntryModified(org.xwiki.cache.event.CacheEntryEvent)
+         */
+        public void cacheEntryModified(CacheEntryEvent<T> event)
+        {
+            sendEntryModifiedEvent(createEvent(event.getEntry().getKey(), event.getEntry().getValue()));
+        }
+
+        /**
+         * {@inheritDoc}
+         * 
+         * @see org.xwiki.cache.event.CacheEntryListener#cacheEntryRemoved(org.xwiki.cache.event.CacheEntryEvent)
+         */
+        public void cacheEntryRemoved(CacheEntryEvent<T> event)
+        {
+            String key = event.getEntry().getKey();
+            T value = event.getEntry().getValue();
+            Operation current = operation.get();
+
+            if (current != null && (current.type == Operation.REMOVEALL || current.is(Operation.REMOVE, key))) {
+                writeTimes.remove(key);
+                sendEntryRemovedEvent(createEvent(key, value));
+            } else if (!demote(key, value, current)) {
+                // An older value moved to the off heap tier while this one was set must not be returned anymore
+                store.remove(key);
+                writeTimes.remove(key);
+                recordEviction();
+                sendEntryRemovedEvent(createEvent(key, value));
+            }
+        }
+    }
+
+    /**
+     * @param heap the heap tier
+     * @param configuration the configuration of the cache
+     * @param offHeapConfiguration the configuration of the off heap tier
+     * @throws IOException when failing to create the off heap tier
+     */
+    public TieredCache(Cache<T> heap, CacheConfiguration configuration, OffHeapConfiguration offHeapConfiguration)
+        throws IOException
+    {
+        // The eviction is done by the heap tier
+        this.configuration = new CacheConfiguration();
+        this.configuration.setConfigurationId(configuration.getConfigurationId());
+
+        Object evictionConfiguration = configuration.get(EntryEvictionConfiguration.CONFIGURATIONID);
+        if (evictionConfiguration instanceof EntryEvictionConfiguration) {
+            EntryEvictionConfiguration eviction = (EntryEvictionConfiguration) evictionConfiguration;
+            this.timeToLive = eviction.getTimeToLive() * SECOND;
+            this.timeToIdle = eviction.getTimeToIdle() * SECOND;
+        } else {
+            this.timeToLive = 0;
+            this.timeToIdle = 0;
+        }
+
+        if (offHeapConfiguration.getSerializer() != null) {
+            this.serializer = (OffHeapSerializer<T>) offHeapConfiguration.getSerializer();
+        } else {
+            this.serializer = (OffHeapSerializer<T>) new DefaultOffHeapSerializer();
+        }
+
+        long capacity = offHeapConfiguration.getCapacity();
+        int segmentSize = offHeapConfiguration.getSegmentSize();
+        if (segmentSize <= 0) {
+            segmentSize =
+                (int) Math.min(MAX_DEFAULT_SEGMENTSIZE, Math.max(MIN_DEFAULT_SEGMENTSIZE, capacity / DEFAULT_SEGMENTS));
+        }
+        this.store = new OffHeapStore(capacity, segmentSize, offHeapConfiguration.getDirectory());
+
+        for (int i = 0; i < LOCKS; ++i) {
+            this.locks[i] = new ReentrantLock();
+        }
+
+        this.heap = heap;
+        this.heap.addCacheEntryListener(this.heapListener);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see org.xwiki.cache.Cache#set(java.lang.String, java.lang.Object)
+     */
+    public void set(String key, T value)
+    {
+        ReentrantLock lock = getLock(key);
+        lock.lock();
+        try {
+            boolean replaced = this.store.remove(key) != null;
+
+            if (this.timeToLive > 0) {
+                this.writeTimes.put(key, System.currentTimeMillis());
+            }
+
+            this.operation.set(new Operation(Operation.SET, key, replaced, this.removals.get()));
+            try {
+                this.heap.set(key, value);
+            } finally {
+                this.operation.remove();
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        recordSet(key, value);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see org.xwiki.cache.Cache#get(java.lang.String)
+     */
+    public T get(String key)
+    {
+        T value;
+        this.operation.set(new Operation(Operation.GET, key, false, this.removals.get()));
+        try {
+            value = this.heap.get(key);
+        } finally {
+            this.operation.remove();
+        }
+
+        if (value != null) {
+            // The heap tier restarts the time to live of the entries moved back to it
+            if (isExpired(key, System.currentTimeMillis())) {
+                remove(key);
+                value = null;
+            }
+        } else if (this.store.contains(key)) {
+            value = getOffHeap(key);
+        }
+
+        recordGet(key, value);
+
+        return value;
+    }
+
+    /**
+     * Move back an entry from the off heap tier to the heap tier.
+     * 
+     * @param key the key of the entry
+     * @return the value of the entry, null if it was not in the off heap tier anymore or expired
+     */
+    private T getOffHeap(String key)
+    {
+        T value = null;
+
+        ReentrantLock lock = getLock(key);
+        lock.lock();
+        try {
+            // Set, removed or moved back by another thread since it was not found in the heap tier
+            OffHeapStore.Record record = this.store.remove(key);
+            if (record != null) {
+                if (record.isExpired(System.currentTimeMillis())) {
+                    this.writeTimes.remove(key);
+                    recordEviction();
+                    sendEntryRemovedEvent(createEvent(key, null));
+                } else {
+                    value = this.serializer.deserialize(record.getData());
+                    promote(key, value);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        return value;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see org.xwiki.cache.Cache#remove(java.lang.String)
+     */
+    public void remove(String key)
+    {
+        OffHeapStore.Record record;
+
+        ReentrantLock lock = getLock(key);
+        lock.lock();
+        try {
+            this.operation.set(new Operation(Operation.REMOVE, key, false, this.removals.get()));
+            try {
+                this.heap.remove(key);
+            } finally {
+                this.operation.remove();
+            }
+
+            record = this.store.remove(key);
+
+            // The entry might be being evicted from the heap tier by another thread
+            this.removals.incrementAndGet();
+        } finally {
+            lock.unlock();
+        }
+
+        if (record != null) {
+            this.writeTimes.remove(key);
+            sendEntryRemovedEvent(createEvent(key, this.serializer.deserialize(record.getData())));
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The entry is moved to the off heap tier like the entries evicted by the heap tier itself.
+     * 
+     * @see org.xwiki.cache.util.AbstractCache#evict(java.lang.String)
+     */
+    @Override
+    public void evict(String key)
+    {
+        // Removed from the heap tier outside of a remove operation, so handled as an eviction of the heap tier
+        this.heap.remove(key);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see org.xwiki.cache.Cache#removeAll()
+     */
+    public void removeAll()
+    {
+        this.operation.set(new Operation(Operation.REMOVEALL, null, false, this.removals.get()));
+        try {
+            this.heap.removeAll();
+        } finally {
+            this.operation.remove();
+        }
+
+        this.store.clear();
+        this.writeTimes.clear();
+        this.removals.incrementAndGet();
+
+        recordRemoveAll();
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see org.xwiki.cache.util.AbstractCache#dispose()
+     */
+    @Override
+    public void dispose()
+    {
+        this.heap.removeCacheEntryListener(this.heapListener);
+        this.heap.dispose();
+        this.store.dispose();
+        this.writeTimes.clear();
+
+        super.dispose();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The values are disposed by the heap tier when they leave it.
+     * 
+     * @see org.xwiki.cache.util.AbstractCache#disposeCacheValue(java.lang.Object)
+     */
+    @Override
+    protected void disposeCacheValue(T value)
+    {
+        // Already disposed by the heap tier
+    }
+
+    /**
+     * @return the number of entries currently stored in the off heap tier
+     */
+    public int getOffHeapSize()
+    {
+        return this.store.size();
+    }
+
+    /**
+     * @param key the key of an entry
+     * @return the lock of the key
+     */
+    private ReentrantLock getLock(String key)
+    {
+        return this.locks[(key.hashCode() & Integer.MAX_VALUE) % LOCKS];
+    }
+
+    /**
+     * Move back an entry found in the off heap tier to the heap tier, called with the lock of the key.
+     * 
+     * @param key the key of the entry
+     * @param value the value of the entry
+     */
+    private void promote(String key, T value)
+    {
+        this.operation.set(new Operation(Operation.PROMOTE, key, false, this.removals.get()));
+        try {
+            this.heap.set(key, value);
+        } finally {
+            this.operation.remove();
+        }
+    }
+
+    /**
+     * Move an entry evicted from the heap tier to the off heap tier.
+     * 
+     * @param key the key of the entry
+     * @param value the value of the entry
+     * @param current the operation during which the entry has been evicted, null if evicted by the heap tier itself
+     * @return true if the entry has been stored in the off heap tier
+     */
+    private boolean demote(String key, T value, Operation current)
+    {
+        if (value == null) {
+            // Some implementations don't provide the value of the evicted entries
+            if (!this.missingValueLogged) {
+                this.missingValueLogged = true;
+                LOGGER.warn("The cache implementation used by cache [" + this.configuration.getConfigurationId()
+                    + "] does not provide the value of the entries it evicts, they can't be moved off heap");
+            }
+
+            return false;
+        }
+
+        // Waiting for the lock could deadlock with a thread holding it and evicting an entry whose key uses the lock
+        // held by the current thread
+        ReentrantLock lock = getLock(key);
+        if (!lock.tryLock()) {
+            return false;
+        }
+        try {
+            if (current != null && current.removals != this.removals.get()) {
+                // The entry might have been removed since it was evicted
+                return false;
+            }
+
+            return store(key, value);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Store an entry evicted from the heap tier in the off heap tier, called with the lock of the key.
+     * 
+     * @param key the key of the entry
+     * @param value the value of the entry
+     * @return true if the entry has been stored in the off heap tier
+     */
+    private boolean store(String key, T value)
+    {
+        long now = System.currentTimeMillis();
+        if (isExpired(key, now)) {
+            return false;
+        }
+
+        byte[] data = this.serializer.serialize(value);
+        if (data == null) {
+            return false;
+        }
+
+        List<String> droppedKeys = new ArrayList<String>();
+        if (!this.store.put(key, data, getExpirationDate(key, now), droppedKeys)) {
+            return false;
+        }
+
+        for (String droppedKey : droppedKeys) {
+            this.writeTimes.remove(droppedKey);
+            recordEviction();
+            sendEntryRemovedEvent(createEvent(droppedKey, null));
+        }
+
+        return true;
+    }
+
+    /**
+     * @param key the key of the entry
+     * @param now the current date
+     * @return true if the entry outlived its time to live
+     */
+    private boolean isExpired(String key, long now)
+    {
+        if (this.timeToLive > 0) {
+            Long writeTime = this.writeTimes.get(key);
+
+            return writeTime != null && writeTime + this.timeToLive <= now;
+        }
+
+        return false;
+    }
+
+    /**
+     * @param key the key of the entry
+     * @param now the current date
+     * @return the date after which the entry should not be returned by the off heap tier, 0 for never
+     */
+    private long getExpirationDate(String key, long now)
+    {
+        long expirationDate = 0;
+
+        if (this.timeToLive > 0) {
+            Long writeTime = this.writeTimes.get(key);
+            if (writeTime != null) {
+                expirationDate = writeTime + this.timeToLive;
+            }
+        }
+
+        if (this.timeToIdle > 0) {
+            long idleExpirationDate = now + this.timeToIdle;
+            if (expirationDate == 0 || idleExpirationDate < expirationDate) {
+                expirationDate = idleExpirationDate;
+            }
+        }
+
+        return expirationDate;
+    }
+
+    /**
+     * @param key the key of the entry
+     * @param value the value of the entry
+     * @return the event to send to the listeners of this cache
+     */
+    private CacheEntryEvent<T> createEvent(String key, T value)
+    {
+        return new TieredCacheEntryEvent<T>(new TieredCacheEntry<T>(this, key, value));
+    }
+}
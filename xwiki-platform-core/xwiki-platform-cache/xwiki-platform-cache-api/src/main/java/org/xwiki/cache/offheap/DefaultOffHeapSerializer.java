@@ -0,0 +1,88 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.cache.offheap;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Serializer used by default for the off heap tier. Support {@link String} and byte array values, any other value stays
+ * in the heap tier only.
+ * 
+ * @version $Id$
+ * @since 3.2M1
+ */
+public class DefaultOffHeapSerializer implements OffHeapSerializer<Object>
+{
+    /**
+     * The encoding used to store strings.
+     */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * The first byte of a serialized string.
+     */
+    private static final byte STRING = 0;
+
+    /**
+     * The first byte of a serialized byte array.
+     */
+    private static final byte BYTES = 1;
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see org.xwiki.cache.offheap.OffHeapSerializer#serialize(java.lang.Object)
+     */
+    public byte[] serialize(Object value)
+    {
+        byte[] data;
+        byte type;
+        if (value instanceof String) {
+            data = ((String) value).getBytes(UTF8);
+            type = STRING;
+        } else if (value instanceof byte[]) {
+            data = (byte[]) value;
+            type = BYTES;
+        } else {
+            return null;
+        }
+
+        byte[] result = new byte[data.length + 1];
+        result[0] = type;
+        System.arraycopy(data, 0, result, 1, data.length);
+
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see org.xwiki.cache.offheap.OffHeapSerializer#deserialize(byte[])
+     */
+    public Object deserialize(byte[] data)
+    {
+        if (data[0] == STRING) {
+            return new String(data, 1, data.length - 1, UTF8);
+        }
+
+        return Arrays.copyOfRange(data, 1, data.length);
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.cache.offheap;
+
+import java.io.File;
+import java.util.HashMap;
+
+/**
+ * Configuration of the optional second tier of a cache, stored outside of the Java heap in memory mapped files. The
+ * entries evicted from the cache (the heap tier) are serialized in the second tier instead of being lost, and are moved
+ * back to the heap tier when accessed again. This allows caching much more data without increasing the garbage
+ * collection pauses.
+ * <p>
+ * The second tier is only used when the configuration is stored in the {@link org.xwiki.cache.config.CacheConfiguration}
+ * under {@link #CONFIGURATIONID} with a {@link #setCapacity(long) capacity} greater than 0, and for caches created
+ * through the {@link org.xwiki.cache.CacheManager}.
+ * 
+ * @version $Id$
+ * @since 3.2M1
+ */
+public class OffHeapConfiguration extends HashMap<String, Object>
+{
+    /**
+     * The key use to access the off heap configuration in the {@link org.xwiki.cache.config.CacheConfiguration}.
+     */
+    public static final String CONFIGURATIONID = "offheap";
+
+    /**
+     * The key to access the maximum number of bytes used by the second tier.
+     */
+    public static final String CAPACITY_ID = "capacity";
+
+    /**
+     * The key to access the size in bytes of the segments of the second tier.
+     */
+    public static final String SEGMENTSIZE_ID = "segmentsize";
+
+    /**
+     * The key to access the directory where the memory mapped files are created.
+     */
+    public static final String DIRECTORY_ID = "directory";
+
+    /**
+     * The key to access the {@link OffHeapSerializer} used to store the values in the second tier.
+     */
+    public static final String SERIALIZER_ID = "serializer";
+
+    /**
+     * Serialization version identifier.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @param capacity the maximum number of bytes used by the second tier, 0 to disable it
+     */
+    public void setCapacity(long capacity)
+    {
+        put(CAPACITY_ID, capacity);
+    }
+
+    /**
+     * @return the maximum number of bytes used by the second tier, 0 if it's disabled
+     */
+    public long getCapacity()
+    {
+        Object obj = get(CAPACITY_ID);
+
+        return obj == null ? 0 : ((Number) obj).longValue();
+    }
+
+    /**
+     * @param segmentSize the size in bytes of the segments of the second tier. The second tier is filled one segment
+     *            after the other and when it's full the oldest segment is emptied. A value bigger than a segment is
+     *            not stored in the second tier. 0 to let the cache choose.
+     */
+    public void setSegmentSize(int segmentSize)
+    {
+        put(SEGMENTSIZE_ID, segmentSize);
+    }
+
+    /**
+     * @return the size in bytes of the segments of the second tier, 0 to let the cache choose
+     */
+    public int getSegmentSize()
+    {
+        Object obj = get(SEGMENTSIZE_ID);
+
+        return obj == null ? 0 : (Integer) obj;
+    }
+
+    /**
+     * @param directory the directory where the memory mapped files are created, the system temporary directory by
+     *            default
+     */
+    public void setDirectory(File directory)
+    {
+        put(DIRECTORY_ID, directory);
+    }
+
+    /**
+     * @return the directory where the memory mapped files are created, null for the system temporary directory
+     */
+    public File getDirectory()
+    {
+        return (File) get(DIRECTORY_ID);
+    }
+
+    /**
+     * @param serializer used to store the values in the second tier, by default {@link DefaultOffHeapSerializer}
+     *            which supports {@link String} and byte array values
+     */
+    public void setSerializer(OffHeapSerializer< ? > serializer)
+    {
+        put(SERIALIZER_ID, serializer);
+    }
+
+    /**
+     * @return used to store the values in the second tier, null for {@link DefaultOffHeapSerializer}
+     */
+    public OffHeapSerializer< ? > getSerializer()
+    {
+        return (OffHeapSerializer< ? >) get(SERIALIZER_ID);
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.cache.offheap;
+
+/**
+ * Convert the values of a cache to and from bytes to store them in the off heap tier.
+ * 
+ * @param <T> the class of the data stored in the cache
+ * @version $Id$
+ * @since 3.2M1
+ */
+public interface OffHeapSerializer<T>
+{
+    /**
+     * @param value the value to store in the off heap tier
+     * @return the serialized value, null if the value can't be stored in the off heap tier
+     */
+    byte[] serialize(T value);
+
+    /**
+     * @param data the data returned by {@link #serialize(Object)}
+     * @return the value
+     */
+    T deserialize(byte[] data);
+}
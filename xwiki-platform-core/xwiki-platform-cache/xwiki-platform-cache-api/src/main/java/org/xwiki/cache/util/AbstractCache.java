@@ -19,18 +19,32 @@
  */
 package org.xwiki.cache.util;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 import javax.swing.event.EventListenerList;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheStatistics;
 import org.xwiki.cache.DisposableCacheValue;
 import org.xwiki.cache.config.CacheConfiguration;
 import org.xwiki.cache.event.CacheEntryEvent;
 import org.xwiki.cache.event.CacheEntryListener;
+import org.xwiki.cache.eviction.EntryEvictionConfiguration;
+import org.xwiki.cache.eviction.EntryWeigher;
+import org.xwiki.cache.eviction.LRUEvictionConfiguration;
 
 /**
  * Base class for {@link Cache} implementations. It provides events {@link DisposableCacheValue} management.
+ * <p>
+ * It also maintains the {@link CacheStatistics} of the cache and the eviction based on the weight of the entries (see
+ * {@link LRUEvictionConfiguration#setMaxWeight(long)}) as long as the implementation calls {@link #recordGet(String,
+ * Object)}, {@link #recordSet(String, Object)}, {@link #recordEviction()} and {@link #recordRemoveAll()}.
  * 
  * @param <T>
  * @version $Id$
@@ -52,6 +66,72 @@
      */
     protected final EventListenerList cacheEntryListeners = new EventListenerList();
 
+    /**
+     * The statistics of the cache.
+     */
+    protected final DefaultCacheStatistics statistics = new DefaultCacheStatistics();
+
+    /**
+     * The key which has been missed last by the current thread and when, used to compute the load time.
+     */
+    private final ThreadLocal<PendingLoad> pendingLoad = new ThreadLocal<PendingLoad>();
+
+    /**
+     * The weight of each entry in access order, null when the cache does not have any weigher.
+     */
+    private Map<String, Long> weights;
+
+    /**
+     * Compute the weight of the entries, null when the cache does not have any weigher.
+     */
+    private EntryWeigher<T> weigher;
+
+    /**
+     * The maximum total weight of the entries, 0 for no limit.
+     */
+    private long maxWeight;
+
+    /**
+     * True when the weigher has been read from the configuration.
+     */
+    private volatile boolean weigherInitialized;
+
+    /**
+     * A value missed by a thread and probably being loaded by it.
+     */
+    private static final class PendingLoad
+    {
+        /**
+         * The key of the missed entry.
+         */
+        private final String key;
+
+        /**
+         * When the miss happened.
+         */
+        private final long start;
+
+        /**
+         * @param key the key of the missed entry
+         * @param start when the miss happened
+         */
+        PendingLoad(String key, long start)
+        {
+            this.key = key;
+            this.start = start;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see org.xwiki.cache.Cache#getStatistics()
+     */
+    public CacheStatistics getStatistics()
+    {
+        return this.statistics;
+    }
+
     /**
      * {@inheritDoc}
      * 
@@ -62,6 +142,14 @@ public void dispose()
         for (CacheEntryListener<T> listener : this.cacheEntryListeners.getListeners(CacheEntryListener.class)) {
             this.cacheEntryListeners.remove(CacheEntryListener.class, listener);
         }
+
+        this.statistics.setDisposed();
+        this.pendingLoad.remove();
+        if (this.weights != null) {
+            synchronized (this.weights) {
+                this.weights.clear();
+            }
+        }
     }
 
     /**
@@ -84,6 +172,19 @@ public void removeCacheEntryListener(CacheEntryListener<T> listener)
         cacheEntryListeners.remove(CacheEntryListener.class, listener);
     }
 
+    /**
+     * Evict an entry to make room for other entries. Unlike {@link #remove(String)} the entry is counted as evicted,
+     * and a cache made of several tiers can move it to another tier instead of dropping it.
+     * 
+     * @param key the key of the entry to evict
+     * @since 3.2M1
+     */
+    public void evict(String key)
+    {
+        recordEviction();
+        remove(key);
+    }
+
     /**
      * Helper method to send event when a new cache entry is inserted.
      * 
@@ -95,6 +196,8 @@ protected void sendEntryAddedEvent(CacheEntryEvent<T> event)
                 : this.cacheEntryListeners.getListeners(org.xwiki.cache.event.CacheEntryListener.class)) {
             listener.cacheEntryAdded(event);
         }
+
+        this.statistics.addSize(1);
     }
 
     /**
@@ -109,6 +212,9 @@ protected void sendEntryRemovedEvent(CacheEntryEvent<T> event)
             listener.cacheEntryRemoved(event);
         }
 
+        this.statistics.addSize(-1);
+        removeWeight(event.getEntry().getKey());
+
         disposeCacheValue(event.getEntry().getValue());
     }
 
@@ -125,6 +231,153 @@ protected void sendEntryModifiedEvent(CacheEntryEvent<T> event)
         }
     }
 
+    /**
+     * Update the statistics after a {@link Cache#get(String)} call.
+     * 
+     * @param key the key of the entry
+     * @param value the value returned by the cache, null if the entry was not found
+     */
+    protected void recordGet(String key, T value)
+    {
+        if (value != null) {
+            this.statistics.recordHit();
+
+            if (getWeigher() != null) {
+                // Move the entry at the end of the eviction queue
+                synchronized (this.weights) {
+                    this.weights.get(key);
+                }
+            }
+        } else {
+            this.statistics.recordMiss();
+
+            this.pendingLoad.set(new PendingLoad(key, System.nanoTime()));
+        }
+    }
+
+    /**
+     * Update the statistics after a {@link Cache#set(String, Object)} call and evict the least recently used entries
+     * if the cache is now heavier than the configured maximum weight.
+     * 
+     * @param key the key of the entry
+     * @param value the value stored in the cache
+     */
+    protected void recordSet(String key, T value)
+    {
+        PendingLoad load = this.pendingLoad.get();
+        if (load != null) {
+            if (load.key.equals(key)) {
+                this.statistics.recordLoad(System.nanoTime() - load.start);
+            }
+            this.pendingLoad.remove();
+        }
+
+        EntryWeigher<T> entryWeigher = getWeigher();
+        if (entryWeigher != null) {
+            long weight = entryWeigher.weigh(key, value);
+
+            List<String> evictedKeys = null;
+            synchronized (this.weights) {
+                Long previousWeight = this.weights.put(key, weight);
+                this.statistics.addWeight(previousWeight != null ? weight - previousWeight : weight);
+
+                if (this.maxWeight > 0) {
+                    Iterator<Map.Entry<String, Long>> it = this.weights.entrySet().iterator();
+                    while (this.statistics.getWeight() > this.maxWeight && it.hasNext()) {
+                        Map.Entry<String, Long> eldest = it.next();
+                        // Always keep the entry which has just been set
+                        if (!eldest.getKey().equals(key)) {
+                            it.remove();
+                            this.statistics.addWeight(-eldest.getValue());
+                            if (evictedKeys == null) {
+                                evictedKeys = new ArrayList<String>();
+                            }
+                            evictedKeys.add(eldest.getKey());
+                        }
+                    }
+                }
+            }
+
+            if (evictedKeys != null) {
+                for (String evictedKey : evictedKeys) {
+                    evict(evictedKey);
+                }
+            }
+        }
+    }
+
+    /**
+     * Update the statistics when the cache implementation evicted an entry.
+     */
+    protected void recordEviction()
+    {
+        this.statistics.recordEviction();
+    }
+
+    /**
+     * Update the statistics after a {@link Cache#removeAll()} call.
+     */
+    protected void recordRemoveAll()
+    {
+        if (getWeigher() != null) {
+            synchronized (this.weights) {
+                this.weights.clear();
+                this.statistics.clear();
+            }
+        } else {
+            this.statistics.clear();
+        }
+    }
+
+    /**
+     * @param key the key of the entry removed from the cache
+     */
+    private void removeWeight(String key)
+    {
+        if (getWeigher() != null) {
+            synchronized (this.weights) {
+                Long weight = this.weights.remove(key);
+                if (weight != null) {
+                    this.statistics.addWeight(-weight);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the weigher configured for the cache, null if none
+     */
+    private EntryWeigher<T> getWeigher()
+    {
+        // Don't lock anything as long as there isn't any configuration to read the weigher from, this is called on
+        // every hit
+        if (!this.weigherInitialized && this.configuration != null) {
+            initializeWeigher();
+        }
+
+        return this.weigher;
+    }
+
+    /**
+     * Read the weigher and the maximum weight from the cache configuration.
+     */
+    private synchronized void initializeWeigher()
+    {
+        if (!this.weigherInitialized && this.configuration != null) {
+            Object evictionConfiguration = this.configuration.get(EntryEvictionConfiguration.CONFIGURATIONID);
+            if (evictionConfiguration instanceof LRUEvictionConfiguration) {
+                LRUEvictionConfiguration lru = (LRUEvictionConfiguration) evictionConfiguration;
+                if (lru.getWeigher() != null) {
+                    this.weights = new LinkedHashMap<String, Long>(16, 0.75f, true);
+                    this.maxWeight = lru.getMaxWeight();
+                    this.weigher = (EntryWeigher<T>) lru.getWeigher();
+                }
+            }
+
+            this.weigherInitialized = true;
+        }
+    }
+
     /**
      * Dispose the value being removed from the cache.
      * 
@@ -0,0 +1,245 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.cache.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.xwiki.cache.CacheStatistics;
+
+/**
+ * Thread safe {@link CacheStatistics} implementation updated by {@link AbstractCache}.
+ * 
+ * @version $Id$
+ * @since 3.2M1
+ */
+public class DefaultCacheStatistics implements CacheStatistics
+{
+    /**
+     * @see #getHitCount()
+     */
+    private final AtomicLong hitCount = new AtomicLong();
+
+    /**
+     * @see #getMissCount()
+     */
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * @see #getEvictionCount()
+     */
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * @see #getLoadCount()
+     */
+    private final AtomicLong loadCount = new AtomicLong();
+
+    /**
+     * The total load time in nanoseconds.
+     */
+    private final AtomicLong totalLoadTime = new AtomicLong();
+
+    /**
+     * @see #getSize()
+     */
+    private final AtomicLong size = new AtomicLong();
+
+    /**
+     * @see #getWeight()
+     */
+    private final AtomicLong weight = new AtomicLong();
+
+    /**
+     * @see #isDisposed()
+     */
+    private volatile boolean disposed;
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see org.xwiki.cache.CacheStatistics#getHitCount()
+     */
+    public long getHitCount()
+    {
+        return this.hitCount.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see org.xwiki.cache.CacheStatistics#getMissCount()
+     */
+    public long getMissCount()
+    {
+        return this.missCount.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see org.xwiki.cache.CacheStatistics#getHitRatio()
+     */
+    public double getHitRatio()
+    {
+        long hits = getHitCount();
+        long requests = hits + getMissCount();
+
+        return requests == 0 ? 0 : (double) hits / requests;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see org.xwiki.cache.CacheStatistics#getEvictionCount()
+     */
+    public long getEvictionCount()
+    {
+        return this.evictionCount.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see org.xwiki.cache.CacheStatistics#getLoadCount()
+     */
+    public long getLoadCount()
+    {
+        return this.loadCount.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see org.xwiki.cache.CacheStatistics#getTotalLoadTime()
+     */
+    public long getTotalLoadTime()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(this.totalLoadTime.get());
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see org.xwiki.cache.CacheStatistics#getSize()
+     */
+    public long getSize()
+    {
+        return Math.max(0, this.size.get());
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see org.xwiki.cache.CacheStatistics#getWeight()
+     */
+    public long getWeight()
+    {
+        return Math.max(0, this.weight.get());
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see org.xwiki.cache.CacheStatistics#reset()
+     */
+    public void reset()
+    {
+        this.hitCount.set(0);
+        this.missCount.set(0);
+        this.evictionCount.set(0);
+        this.loadCount.set(0);
+        this.totalLoadTime.set(0);
+    }
+
+    /**
+     * @return true if the cache has been disposed
+     */
+    public boolean isDisposed()
+    {
+        return this.disposed;
+    }
+
+    /**
+     * Indicate that the cache has been disposed.
+     */
+    public void setDisposed()
+    {
+        this.disposed = true;
+    }
+
+    /**
+     * Record a {@link org.xwiki.cache.Cache#get(String)} call which returned a value.
+     */
+    public void recordHit()
+    {
+        this.hitCount.incrementAndGet();
+    }
+
+    /**
+     * Record a {@link org.xwiki.cache.Cache#get(String)} call which did not return any value.
+     */
+    public void recordMiss()
+    {
+        this.missCount.incrementAndGet();
+    }
+
+    /**
+     * Record an entry removed by the cache itself.
+     */
+    public void recordEviction()
+    {
+        this.evictionCount.incrementAndGet();
+    }
+
+    /**
+     * @param nanos the time spent to load a value, in nanoseconds
+     */
+    public void recordLoad(long nanos)
+    {
+        this.loadCount.incrementAndGet();
+        this.totalLoadTime.addAndGet(nanos);
+    }
+
+    /**
+     * @param delta the number of entries added to (positive) or removed from (negative) the cache
+     */
+    public void addSize(long delta)
+    {
+        this.size.addAndGet(delta);
+    }
+
+    /**
+     * @param delta the weight added to (positive) or removed from (negative) the cache
+     */
+    public void addWeight(long delta)
+    {
+        this.weight.addAndGet(delta);
+    }
+
+    /**
+     * Indicate that all the entries have been removed from the cache.
+     */
+    public void clear()
+    {
+        this.size.set(0);
+        this.weight.set(0);
+    }
+}
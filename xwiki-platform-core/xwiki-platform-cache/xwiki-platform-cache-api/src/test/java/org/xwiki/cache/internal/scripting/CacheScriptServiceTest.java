@@ -0,0 +1,143 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.cache.internal.scripting;
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.integration.junit4.JMock;
+import org.jmock.integration.junit4.JUnit4Mockery;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.xwiki.bridge.DocumentAccessBridge;
+import org.xwiki.cache.CacheStatistics;
+import org.xwiki.cache.internal.CacheRegistry;
+import org.xwiki.component.util.ReflectionUtils;
+
+/**
+ * Unit tests for {@link CacheScriptService}.
+ * 
+ * @version $Id$
+ */
+@RunWith(JMock.class)
+public class CacheScriptServiceTest
+{
+    private Mockery mockery = new JUnit4Mockery();
+
+    private CacheRegistry cacheRegistry;
+
+    private DocumentAccessBridge documentAccessBridge;
+
+    private CacheStatistics statistics;
+
+    private CacheScriptService scriptService;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.cacheRegistry = this.mockery.mock(CacheRegistry.class);
+        this.documentAccessBridge = this.mockery.mock(DocumentAccessBridge.class);
+        this.statistics = this.mockery.mock(CacheStatistics.class);
+
+        this.scriptService = new CacheScriptService();
+        ReflectionUtils.setFieldValue(this.scriptService, "cacheRegistry", this.cacheRegistry);
+        ReflectionUtils.setFieldValue(this.scriptService, "documentAccessBridge", this.documentAccessBridge);
+    }
+
+    private void setProgrammingRights(final boolean programmingRights)
+    {
+        this.mockery.checking(new Expectations()
+        {
+            {
+                allowing(documentAccessBridge).hasProgrammingRights();
+                will(returnValue(programmingRights));
+            }
+        });
+    }
+
+    @Test
+    public void testGetStatisticsWithProgrammingRights()
+    {
+        setProgrammingRights(true);
+
+        final Map<String, CacheStatistics> allStatistics = Collections.singletonMap("cache", this.statistics);
+        this.mockery.checking(new Expectations()
+        {
+            {
+                oneOf(cacheRegistry).getStatistics();
+                will(returnValue(allStatistics));
+            }
+        });
+
+        Assert.assertSame(allStatistics, this.scriptService.getStatistics());
+    }
+
+    @Test
+    public void testGetStatisticsWithoutProgrammingRights()
+    {
+        setProgrammingRights(false);
+
+        this.mockery.checking(new Expectations()
+        {
+            {
+                never(cacheRegistry);
+            }
+        });
+
+        Assert.assertNull(this.scriptService.getStatistics());
+    }
+
+    @Test
+    public void testResetWithProgrammingRights()
+    {
+        setProgrammingRights(true);
+
+        this.mockery.checking(new Expectations()
+        {
+            {
+                oneOf(cacheRegistry).getStatistics();
+                will(returnValue(Collections.singletonMap("cache", statistics)));
+                oneOf(statistics).reset();
+            }
+        });
+
+        this.scriptService.reset();
+    }
+
+    @Test
+    public void testResetWithoutProgrammingRights()
+    {
+        setProgrammingRights(false);
+
+        this.mockery.checking(new Expectations()
+        {
+            {
+                never(cacheRegistry);
+                never(statistics);
+            }
+        });
+
+        this.scriptService.reset();
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.cache.internal.tier;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.event.CacheEntryEvent;
+import org.xwiki.cache.util.AbstractCache;
+
+/**
+ * A simple LRU cache used as the heap tier in the tests.
+ * 
+ * @param <T> the class of the data stored in the cache.
+ * @version $Id$
+ */
+public class LRUMapCache<T> extends AbstractCache<T>
+{
+    private final int maxEntries;
+
+    private final LinkedHashMap<String, T> map = new LinkedHashMap<String, T>(16, 0.75f, true);
+
+    private Runnable setHook;
+
+    public LRUMapCache(int maxEntries)
+    {
+        this.maxEntries = maxEntries;
+        this.configuration = new CacheConfiguration();
+    }
+
+    /**
+     * @param setHook called at the beginning of each {@link #set(String, Object)}
+     */
+    public void setSetHook(Runnable setHook)
+    {
+        this.setHook = setHook;
+    }
+
+    public void set(String key, T value)
+    {
+        if (this.setHook != null) {
+            this.setHook.run();
+        }
+
+        T previous;
+        List<String> evictedKeys = new ArrayList<String>();
+        List<T> evictedValues = new ArrayList<T>();
+        synchronized (this.map) {
+            previous = this.map.put(key, value);
+            Iterator<Map.Entry<String, T>> it = this.map.entrySet().iterator();
+            while (this.map.size() > this.maxEntries) {
+                Map.Entry<String, T> entry = it.next();
+                evictedKeys.add(entry.getKey());
+                evictedValues.add(entry.getValue());
+                it.remove();
+            }
+        }
+
+        if (previous != null) {
+            sendEntryModifiedEvent(createEvent(key, value));
+        } else {
+            sendEntryAddedEvent(createEvent(key, value));
+        }
+
+        for (int i = 0; i < evictedKeys.size(); ++i) {
+            recordEviction();
+            sendEntryRemovedEvent(createEvent(evictedKeys.get(i), evictedValues.get(i)));
+        }
+
+        recordSet(key, value);
+    }
+
+    public T get(String key)
+    {
+        T value;
+        synchronized (this.map) {
+            value = this.map.get(key);
+        }
+
+        recordGet(key, value);
+
+        return value;
+    }
+
+    public void remove(String key)
+    {
+        T value;
+        synchronized (this.map) {
+            value = this.map.remove(key);
+        }
+
+        if (value != null) {
+            sendEntryRemovedEvent(createEvent(key, value));
+        }
+    }
+
+    public void removeAll()
+    {
+        Map<String, T> entries;
+        synchronized (this.map) {
+            entries = new LinkedHashMap<String, T>(this.map);
+            this.map.clear();
+        }
+
+        for (Map.Entry<String, T> entry : entries.entrySet()) {
+            sendEntryRemovedEvent(createEvent(entry.getKey(), entry.getValue()));
+        }
+    }
+
+    private CacheEntryEvent<T> createEvent(String key, T value)
+    {
+        return new TieredCacheEntryEvent<T>(new TieredCacheEntry<T>(this, key, value));
+    }
+}
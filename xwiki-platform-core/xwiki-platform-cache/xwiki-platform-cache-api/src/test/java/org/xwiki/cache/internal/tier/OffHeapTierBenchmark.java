@@ -0,0 +1,279 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.cache.internal.tier;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.offheap.OffHeapConfiguration;
+
+/**
+ * Compares the throughput and the garbage collection activity of a cache of large values (like rendered pages or
+ * thumbnails) with and without the off heap tier. This is not run as part of the build, run it by hand with a fixed
+ * heap size so that the results are comparable, for example:
+ * <code>java -Xmx1g -cp ... org.xwiki.cache.internal.tier.OffHeapTierBenchmark [heap entries] [off heap MB]
+ * [threads]</code>
+ * <p>
+ * The heap tier is a simple synchronized LRU cache so that only the cost of the off heap tier is measured.
+ * <p>
+ * The threads access 2000 values of 10KB to 200KB following a Zipf distribution and "render" the missing values, which
+ * costs CPU time and allocations. Three setups are compared: a heap cache too small for the working set, a heap cache
+ * holding the whole working set and the small heap cache backed by an off heap tier.
+ * 
+ * @version $Id$
+ * @since 3.2M1
+ */
+public final class OffHeapTierBenchmark
+{
+    /**
+     * The number of distinct values.
+     */
+    private static final int KEYS = 2000;
+
+    /**
+     * The size of the smallest value in characters.
+     */
+    private static final int MIN_SIZE = 10 * 1024;
+
+    /**
+     * The size of the biggest value in characters.
+     */
+    private static final int MAX_SIZE = 200 * 1024;
+
+    /**
+     * How long each setup is measured, in milliseconds.
+     */
+    private static final long DURATION = 10000;
+
+    /** Utility class. */
+    private OffHeapTierBenchmark()
+    {
+    }
+
+    /**
+     * Run the benchmark.
+     * 
+     * @param args the maximum number of entries of the heap tier, the capacity of the off heap tier in MB and the
+     *            number of threads
+     * @throws Exception when failing to create the caches
+     */
+    public static void main(String[] args) throws Exception
+    {
+        int heapEntries = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        long offHeapCapacity = (args.length > 1 ? Long.parseLong(args[1]) : 512) * 1024 * 1024;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        int[] trace = syntheticTrace(1000000);
+
+        System.out.println(String.format("%d values, %d heap entries, %d MB off heap, %d threads", KEYS, heapEntries,
+            offHeapCapacity / (1024 * 1024), threads));
+
+        run("heap only", newCache(heapEntries, 0), trace, threads);
+        run("heap only (all)", newCache(KEYS, 0), trace, threads);
+        run("heap + off heap", newCache(heapEntries, offHeapCapacity), trace, threads);
+
+        System.exit(0);
+    }
+
+    /**
+     * @param heapEntries the maximum number of entries of the heap tier
+     * @param offHeapCapacity the capacity of the off heap tier, 0 for none
+     * @return a new cache
+     * @throws Exception when failing to create the cache
+     */
+    private static Cache<String> newCache(int heapEntries, long offHeapCapacity) throws Exception
+    {
+        Cache<String> heap = new LRUMapCache<String>(heapEntries);
+        if (offHeapCapacity > 0) {
+            OffHeapConfiguration offHeap = new OffHeapConfiguration();
+            offHeap.setCapacity(offHeapCapacity);
+
+            return new TieredCache<String>(heap, new CacheConfiguration(), offHeap);
+        }
+
+        return heap;
+    }
+
+    /**
+     * Warm up the cache, measure it and print the results.
+     * 
+     * @param name the name of the setup
+     * @param cache the cache
+     * @param trace the accessed keys
+     * @param threads the number of threads
+     * @throws InterruptedException if interrupted while waiting for the threads
+     */
+    private static void run(String name, Cache<String> cache, int[] trace, int threads) throws InterruptedException
+    {
+        execute(cache, trace, threads, DURATION / 2, new AtomicLong());
+
+        System.gc();
+        long gcCount = getGarbageCollectionCount();
+        long gcTime = getGarbageCollectionTime();
+        long hits = cache.getStatistics().getHitCount();
+        long misses = cache.getStatistics().getMissCount();
+
+        AtomicLong renderTime = new AtomicLong();
+        long begin = System.nanoTime();
+        long operations = execute(cache, trace, threads, DURATION, renderTime);
+        double seconds = (System.nanoTime() - begin) / 1e9;
+
+        gcCount = getGarbageCollectionCount() - gcCount;
+        gcTime = getGarbageCollectionTime() - gcTime;
+        hits = cache.getStatistics().getHitCount() - hits;
+        misses = cache.getStatistics().getMissCount() - misses;
+
+        System.out.println(String.format("%-16s %10.0f ops/s  hit rate %6.2f%%  render %6.1f%%  "
+            + "GC %5d collections %7d ms (%5.2f ms average, %5.2f%% of the time)", name, operations / seconds,
+            100.0 * hits / (hits + misses), renderTime.get() / 1e7 / seconds / threads, gcCount, gcTime,
+            gcCount > 0 ? (double) gcTime / gcCount : 0, gcTime / 10.0 / seconds));
+
+        cache.dispose();
+    }
+
+    /**
+     * Have several threads replay the trace, each starting at a different position, and render the missing values.
+     * 
+     * @param cache the cache
+     * @param trace the accessed keys
+     * @param threads the number of threads
+     * @param duration how long to run in milliseconds
+     * @param renderTime incremented with the time spent rendering the missing values, in nanoseconds
+     * @return the number of accesses
+     * @throws InterruptedException if interrupted while waiting for the threads
+     */
+    private static long execute(final Cache<String> cache, final int[] trace, int threads, final long duration,
+        final AtomicLong renderTime) throws InterruptedException
+    {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        final AtomicLong operations = new AtomicLong();
+        for (int t = 0; t < threads; ++t) {
+            final int offset = t * (trace.length / threads);
+            new Thread(new Runnable()
+            {
+                public void run()
+                {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    long end = System.currentTimeMillis() + duration;
+                    long count = 0;
+                    long rendering = 0;
+                    int index = offset;
+                    while ((count & 63) != 0 || System.currentTimeMillis() < end) {
+                        String key = "page" + trace[index];
+                        if (cache.get(key) == null) {
+                            long renderStart = System.nanoTime();
+                            cache.set(key, render(trace[index]));
+                            rendering += System.nanoTime() - renderStart;
+                        }
+                        index = index + 1 < trace.length ? index + 1 : 0;
+                        ++count;
+                    }
+                    operations.addAndGet(count);
+                    renderTime.addAndGet(rendering);
+                    done.countDown();
+                }
+            }).start();
+        }
+
+        start.countDown();
+        done.await();
+
+        return operations.get();
+    }
+
+    /**
+     * Simulate the rendering of a page: CPU time and temporary objects proportional to the size of the result.
+     * 
+     * @param page the index of the page
+     * @return the rendered content
+     */
+    private static String render(int page)
+    {
+        Random random = new Random(page);
+        int size = MIN_SIZE + random.nextInt(MAX_SIZE - MIN_SIZE);
+        StringBuilder builder = new StringBuilder();
+        while (builder.length() < size) {
+            builder.append("<p>").append(Long.toHexString(random.nextLong())).append("</p>\n");
+        }
+        builder.setLength(size);
+
+        return builder.toString();
+    }
+
+    /**
+     * @return the total number of garbage collections
+     */
+    private static long getGarbageCollectionCount()
+    {
+        long count = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, bean.getCollectionCount());
+        }
+
+        return count;
+    }
+
+    /**
+     * @return the total time spent in garbage collection in milliseconds
+     */
+    private static long getGarbageCollectionTime()
+    {
+        long time = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(0, bean.getCollectionTime());
+        }
+
+        return time;
+    }
+
+    /**
+     * @param length the number of accesses
+     * @return Zipf distributed accesses to the pages
+     */
+    private static int[] syntheticTrace(int length)
+    {
+        double[] cumulative = new double[KEYS];
+        double sum = 0;
+        for (int i = 0; i < KEYS; ++i) {
+            sum += 1 / Math.pow(i + 1, 0.8);
+            cumulative[i] = sum;
+        }
+
+        Random random = new Random(42);
+        int[] trace = new int[length];
+        for (int i = 0; i < length; ++i) {
+            int index = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+            trace[i] = index >= 0 ? index : -index - 1;
+        }
+
+        return trace;
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.cache.internal.tier;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.event.CacheEntryEvent;
+import org.xwiki.cache.event.CacheEntryListener;
+import org.xwiki.cache.offheap.OffHeapConfiguration;
+
+/**
+ * Unit tests for {@link TieredCache}.
+ * 
+ * @version $Id$
+ */
+public class TieredCacheTest
+{
+    private static final String KEY = "key";
+
+    private static final String KEY2 = "key2";
+
+    private static final String VALUE = "value";
+
+    private static final int VALUE2 = 2;
+
+    private List<String> removedKeys = new ArrayList<String>();
+
+    private LRUMapCache<Object> heap;
+
+    private TieredCache<Object> cache;
+
+    private TieredCache<Object> createCache(int maxEntries, long capacity, int segmentSize) throws Exception
+    {
+        OffHeapConfiguration offHeap = new OffHeapConfiguration();
+        offHeap.setCapacity(capacity);
+        offHeap.setSegmentSize(segmentSize);
+
+        this.heap = new LRUMapCache<Object>(maxEntries);
+        this.cache = new TieredCache<Object>(this.heap, new CacheConfiguration(), offHeap);
+
+        this.cache.addCacheEntryListener(new CacheEntryListener<Object>()
+        {
+            public void cacheEntryAdded(CacheEntryEvent<Object> event)
+            {
+            }
+
+            public void cacheEntryModified(CacheEntryEvent<Object> event)
+            {
+            }
+
+            public void cacheEntryRemoved(CacheEntryEvent<Object> event)
+            {
+                removedKeys.add(event.getEntry().getKey());
+            }
+        });
+
+        return this.cache;
+    }
+
+    @After
+    public void tearDown()
+    {
+        if (this.cache != null) {
+            this.cache.dispose();
+        }
+    }
+
+    @Test
+    public void testEvictedEntriesAreKeptOffHeap() throws Exception
+    {
+        TieredCache<Object> cache = createCache(1, 1024 * 1024, 0);
+
+        cache.set(KEY, VALUE);
+        cache.set(KEY2, new byte[] {1, 2, 3});
+        cache.set("key3", "value3");
+
+        Assert.assertEquals(2, cache.getOffHeapSize());
+        Assert.assertEquals(VALUE, cache.get(KEY));
+        Assert.assertArrayEquals(new byte[] {1, 2, 3}, (byte[]) cache.get(KEY2));
+        Assert.assertEquals("value3", cache.get("key3"));
+
+        Assert.assertEquals(0, cache.getStatistics().getEvictionCount());
+        Assert.assertEquals(3, cache.getStatistics().getSize());
+        Assert.assertTrue(this.removedKeys.isEmpty());
+
+        cache.remove(KEY);
+        cache.remove(KEY2);
+        cache.remove("key3");
+
+        Assert.assertNull(cache.get(KEY));
+        Assert.assertEquals(3, this.removedKeys.size());
+        Assert.assertEquals(0, cache.getStatistics().getSize());
+    }
+
+    @Test
+    public void testExplicitlyEvictedEntriesAreKeptOffHeap() throws Exception
+    {
+        TieredCache<Object> cache = createCache(10, 1024 * 1024, 0);
+
+        cache.set(KEY, VALUE);
+        cache.set(KEY2, "value2");
+
+        // Like the weight based evictions
+        cache.evict(KEY);
+
+        Assert.assertEquals(1, cache.getOffHeapSize());
+        Assert.assertNull(this.heap.get(KEY));
+        Assert.assertEquals(VALUE, cache.get(KEY));
+        Assert.assertEquals(0, cache.getStatistics().getEvictionCount());
+        Assert.assertEquals(2, cache.getStatistics().getSize());
+        Assert.assertTrue(this.removedKeys.isEmpty());
+
+        // Not moved off heap, so evicted for good
+        cache.set(KEY2, VALUE2);
+        cache.evict(KEY2);
+
+        Assert.assertNull(cache.get(KEY2));
+        Assert.assertEquals(1, cache.getStatistics().getEvictionCount());
+        Assert.assertEquals(1, this.removedKeys.size());
+    }
+
+    @Test
+    public void testUnsupportedValuesAreEvicted() throws Exception
+    {
+        TieredCache<Object> cache = createCache(1, 1024 * 1024, 0);
+
+        cache.set(KEY2, VALUE2);
+        cache.set(KEY, VALUE);
+        cache.set("key3", "value3");
+
+        Assert.assertEquals(VALUE, cache.get(KEY));
+        Assert.assertEquals("value3", cache.get("key3"));
+        Assert.assertNull(cache.get(KEY2));
+        Assert.assertEquals(1, cache.getStatistics().getEvictionCount());
+        Assert.assertEquals(1, this.removedKeys.size());
+    }
+
+    @Test
+    public void testOldestSegmentIsReused() throws Exception
+    {
+        // 2 segments of 4KB each holding 3 values of 1KB
+        TieredCache<Object> cache = createCache(1, 8192, 4096);
+
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 1000; ++i) {
+            value.append('x');
+        }
+
+        for (int i = 0; i < 10; ++i) {
+            cache.set(KEY + i, value.toString() + i);
+        }
+
+        Assert.assertNull(cache.get(KEY + 0));
+        Assert.assertEquals(value.toString() + 9, cache.get(KEY + 9));
+        Assert.assertEquals(value.toString() + 8, cache.get(KEY + 8));
+        Assert.assertTrue(this.removedKeys.contains(KEY + 0));
+        Assert.assertEquals(this.removedKeys.size(), cache.getStatistics().getEvictionCount());
+        Assert.assertEquals(10 - this.removedKeys.size(), cache.getStatistics().getSize());
+    }
+
+    @Test
+    public void testRemoveAll() throws Exception
+    {
+        TieredCache<Object> cache = createCache(1, 1024 * 1024, 0);
+
+        cache.set(KEY, VALUE);
+        cache.set("key3", "value3");
+
+        cache.removeAll();
+
+        Assert.assertNull(cache.get(KEY));
+        Assert.assertNull(cache.get("key3"));
+        Assert.assertEquals(0, cache.getStatistics().getSize());
+        Assert.assertEquals(0, cache.getOffHeapSize());
+    }
+
+    @Test
+    public void testRemoveWhileMovingBackToHeapIsNotOverwritten() throws Exception
+    {
+        final TieredCache<Object> cache = createCache(1, 1024 * 1024, 0);
+
+        cache.set(KEY, VALUE);
+        cache.set(KEY2, "value2");
+
+        // Remove the entry from another thread while it's moved back from the off heap tier to the heap tier
+        final Thread remover = new Thread(new Runnable()
+        {
+            public void run()
+            {
+                cache.remove(KEY);
+            }
+        });
+        this.heap.setSetHook(new Runnable()
+        {
+            public void run()
+            {
+                heap.setSetHook(null);
+                remover.start();
+                try {
+                    // The remover waits for the entry to be moved back
+                    remover.join(200);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                Assert.assertTrue(remover.isAlive());
+            }
+        });
+
+        Assert.assertEquals(VALUE, cache.get(KEY));
+        remover.join();
+
+        Assert.assertNull(cache.get(KEY));
+        Assert.assertTrue(this.removedKeys.contains(KEY));
+    }
+
+    @Test
+    public void testSegmentsNeverExceedTheCapacity() throws Exception
+    {
+        OffHeapStore store = new OffHeapStore(3000, 2048, null);
+        try {
+            Assert.assertEquals(1500 - 12, store.getMaxDataSize());
+        } finally {
+            store.dispose();
+        }
+
+        store = new OffHeapStore(10000, 4096, null);
+        try {
+            List<String> droppedKeys = new ArrayList<String>();
+            Assert.assertTrue(store.put(KEY, new byte[4096 - 12], 0, droppedKeys));
+            Assert.assertFalse(store.put(KEY2, new byte[4096 - 11], 0, droppedKeys));
+        } finally {
+            store.dispose();
+        }
+
+        // Nothing is stored once disposed
+        Assert.assertFalse(store.put(KEY, new byte[1], 0, new ArrayList<String>()));
+        Assert.assertNull(store.remove(KEY));
+    }
+}
@@ -0,0 +1,359 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.cache.concurrent.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.xwiki.cache.concurrent.internal.event.ConcurrentCacheEntryEvent;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.eviction.EntryEvictionConfiguration;
+import org.xwiki.cache.eviction.LRUEvictionConfiguration;
+import org.xwiki.cache.util.AbstractCache;
+
+/**
+ * Local cache designed for highly concurrent accesses.
+ * <p>
+ * The entries are stored in a {@link ConcurrentHashMap}. Reads never block: they are recorded in a lossy
+ * {@link ReadBuffer} and applied in batch to the {@link WindowTinyLfuPolicy} by the thread which gets its lock. Writes
+ * update the policy directly since they are much less frequent than reads.
+ * <p>
+ * Supported configuration: {@link LRUEvictionConfiguration#setMaxEntries(int) maximum number of entries} (0 for no
+ * limit), {@link EntryEvictionConfiguration#setTimeToLive(int) time to live} and
+ * {@link EntryEvictionConfiguration#setTimeToIdle(int) time to idle}.
+ * 
+ * @param <T> the class of the data stored in the cache.
+ * @version $Id$
+ * @since 3.2M1
+ */
+public class ConcurrentCache<T> extends AbstractCache<T>
+{
+    /**
+     * The entries.
+     */
+    private final ConcurrentMap<String, Node<T>> data = new ConcurrentHashMap<String, Node<T>>();
+
+    /**
+     * The maximum time to live of an entry in nanoseconds, 0 for no limit.
+     */
+    private final long timeToLive;
+
+    /**
+     * The maximum time to idle of an entry in nanoseconds, 0 for no limit.
+     */
+    private final long timeToIdle;
+
+    /**
+     * The eviction policy, null when the cache is not bounded and its entries don't expire.
+     */
+    private final WindowTinyLfuPolicy<T> policy;
+
+    /**
+     * The reads not yet applied to the policy.
+     */
+    private final ReadBuffer<T> readBuffer;
+
+    /**
+     * Protect the policy.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * @param configuration the configuration of the cache
+     */
+    public ConcurrentCache(CacheConfiguration configuration)
+    {
+        this.configuration = configuration;
+
+        long maximum = 0;
+        long ttl = 0;
+        long tti = 0;
+        Object evictionConfiguration = configuration.get(EntryEvictionConfiguration.CONFIGURATIONID);
+        if (evictionConfiguration instanceof EntryEvictionConfiguration) {
+            EntryEvictionConfiguration eviction = (EntryEvictionConfiguration) evictionConfiguration;
+            ttl = TimeUnit.SECONDS.toNanos(eviction.getTimeToLive());
+            tti = TimeUnit.SECONDS.toNanos(eviction.getTimeToIdle());
+            if (eviction instanceof LRUEvictionConfiguration) {
+                maximum = ((LRUEvictionConfiguration) eviction).getMaxEntries();
+            }
+        }
+        this.timeToLive = ttl;
+        this.timeToIdle = tti;
+
+        if (maximum > 0 || ttl > 0 || tti > 0) {
+            this.policy = new WindowTinyLfuPolicy<T>(maximum);
+            this.readBuffer = new ReadBuffer<T>();
+        } else {
+            this.policy = null;
+            this.readBuffer = null;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see org.xwiki.cache.Cache#get(java.lang.String)
+     */
+    public T get(String key)
+    {
+        T value = null;
+
+        Node<T> node = this.data.get(key);
+        if (node != null) {
+            if (this.policy == null) {
+                value = node.value;
+            } else {
+                long now = System.nanoTime();
+                if (node.isExpired(now, this.timeToLive, this.timeToIdle)) {
+                    evict(Collections.singletonList(node), true);
+                } else {
+                    value = node.value;
+                    if (this.timeToIdle > 0) {
+                        node.accessTime = now;
+                    }
+                    afterRead(node);
+                }
+            }
+        }
+
+        recordGet(key, value);
+
+        return value;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see org.xwiki.cache.Cache#set(java.lang.String, java.lang.Object)
+     */
+    public void set(String key, T obj)
+    {
+        long now = this.policy != null ? System.nanoTime() : 0;
+
+        Node<T> node = new Node<T>(key, obj, now);
+        T previousValue = null;
+        boolean added = false;
+        while (!added) {
+            Node<T> current = this.data.putIfAbsent(key, node);
+            if (current == null) {
+                added = true;
+            } else {
+                synchronized (current) {
+                    if (current.alive) {
+                        previousValue = current.value;
+                        current.value = obj;
+                        current.writeTime = now;
+                        current.accessTime = now;
+                        node = current;
+                        break;
+                    }
+                }
+                // The current entry has just been removed, try again
+            }
+        }
+
+        List<Node<T>> evicted = null;
+        if (this.policy != null) {
+            evicted = new ArrayList<Node<T>>();
+            this.lock.lock();
+            try {
+                this.readBuffer.drainTo(this.policy);
+                if (added) {
+                    this.policy.onAdd(node, evicted);
+                } else {
+                    this.policy.onAccess(node);
+                }
+                this.policy.expire(now, this.timeToLive, this.timeToIdle, evicted);
+            } finally {
+                this.lock.unlock();
+            }
+        }
+
+        if (added) {
+            sendEntryAddedEvent(new ConcurrentCacheEntryEvent<T>(new ConcurrentCacheEntry<T>(this, key, obj)));
+        } else {
+            if (previousValue != obj) {
+                disposeCacheValue(previousValue);
+            }
+            sendEntryModifiedEvent(new ConcurrentCacheEntryEvent<T>(new ConcurrentCacheEntry<T>(this, key, obj)));
+        }
+
+        if (evicted != null && !evicted.isEmpty()) {
+            evict(evicted, false);
+        }
+
+        recordSet(key, obj);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see org.xwiki.cache.Cache#remove(java.lang.String)
+     */
+    public void remove(String key)
+    {
+        Node<T> node = this.data.get(key);
+        if (node != null && removeNode(node)) {
+            if (this.policy != null) {
+                this.lock.lock();
+                try {
+                    this.policy.onRemove(node);
+                } finally {
+                    this.lock.unlock();
+                }
+            }
+
+            sendEntryRemovedEvent(node);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see org.xwiki.cache.Cache#removeAll()
+     */
+    public void removeAll()
+    {
+        List<Node<T>> removed = new ArrayList<Node<T>>();
+        for (Node<T> node : this.data.values()) {
+            if (removeNode(node)) {
+                removed.add(node);
+            }
+        }
+
+        if (this.policy != null) {
+            this.lock.lock();
+            try {
+                for (Node<T> node : removed) {
+                    this.policy.onRemove(node);
+                }
+            } finally {
+                this.lock.unlock();
+            }
+        }
+
+        for (Node<T> node : removed) {
+            sendEntryRemovedEvent(node);
+        }
+
+        recordRemoveAll();
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see org.xwiki.cache.util.AbstractCache#dispose()
+     */
+    @Override
+    public void dispose()
+    {
+        super.dispose();
+
+        this.data.clear();
+
+        if (this.policy != null) {
+            this.lock.lock();
+            try {
+                this.policy.clear();
+            } finally {
+                this.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Record a read and apply the pending reads to the policy if there is enough of them and nobody else is already
+     * modifying the policy.
+     * 
+     * @param node the entry which has been read
+     */
+    private void afterRead(Node<T> node)
+    {
+        if (this.readBuffer.offer(node) && this.lock.tryLock()) {
+            List<Node<T>> expired = new ArrayList<Node<T>>();
+            try {
+                this.readBuffer.drainTo(this.policy);
+                this.policy.expire(System.nanoTime(), this.timeToLive, this.timeToIdle, expired);
+            } finally {
+                this.lock.unlock();
+            }
+
+            if (!expired.isEmpty()) {
+                evict(expired, false);
+            }
+        }
+    }
+
+    /**
+     * Remove entries chosen by the policy or found expired.
+     * 
+     * @param nodes the entries to remove from the cache
+     * @param updatePolicy true if the entries are still known by the policy
+     */
+    private void evict(List<Node<T>> nodes, boolean updatePolicy)
+    {
+        for (Node<T> node : nodes) {
+            if (removeNode(node)) {
+                if (updatePolicy) {
+                    this.lock.lock();
+                    try {
+                        this.policy.onRemove(node);
+                    } finally {
+                        this.lock.unlock();
+                    }
+                }
+
+                recordEviction();
+                sendEntryRemovedEvent(node);
+            }
+        }
+    }
+
+    /**
+     * @param node the entry to remove from the map
+     * @return true if the entry has been removed, false if it was already removed
+     */
+    private boolean removeNode(Node<T> node)
+    {
+        synchronized (node) {
+            if (node.alive && this.data.remove(node.key, node)) {
+                node.alive = false;
+
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @param node the removed entry
+     */
+    private void sendEntryRemovedEvent(Node<T> node)
+    {
+        sendEntryRemovedEvent(new ConcurrentCacheEntryEvent<T>(new ConcurrentCacheEntry<T>(this, node.key,
+            node.value)));
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.cache.concurrent.internal;
+
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheEntry;
+
+/**
+ * Implements {@link CacheEntry} for {@link ConcurrentCache}.
+ * 
+ * @param <T> the class of the data stored in the cache.
+ * @version $Id$
+ * @since 3.2M1
+ */
+public class ConcurrentCacheEntry<T> implements CacheEntry<T>
+{
+    /**
+     * The cache where this entry comes from.
+     */
+    private Cache<T> cache;
+
+    /**
+     * The key of the entry.
+     */
+    private String key;
+
+    /**
+     * The value of the entry.
+     */
+    private T value;
+
+    /**
+     * @param cache the cache where this entry comes from.
+     * @param key the key of the entry.
+     * @param value the value of the entry.
+     */
+    public ConcurrentCacheEntry(Cache<T> cache, String key, T value)
+    {
+        this.cache = cache;
+        this.key = key;
+        this.value = value;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see org.xwiki.cache.CacheEntry#getCache()
+     */
+    public Cache<T> getCache()
+    {
+        return this.cache;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see org.xwiki.cache.CacheEntry#getKey()
+     */
+    public String getKey()
+    {
+        return this.key;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see org.xwiki.cache.CacheEntry#getValue()
+     */
+    public T getValue()
+    {
+        return this.value;
+    }
+}
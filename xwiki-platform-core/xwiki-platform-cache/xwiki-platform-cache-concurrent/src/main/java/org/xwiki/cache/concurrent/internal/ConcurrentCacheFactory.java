@@ -0,0 +1,52 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.cache.concurrent.internal;
+
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheFactory;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.component.annotation.Component;
+
+/**
+ * Implements {@link CacheFactory} with {@link ConcurrentCache}, a local cache designed for highly concurrent accesses
+ * and resisting to scans. To use it set <code>cache.defaultLocalCache=concurrent/local</code> in xwiki.properties.
+ * 
+ * @version $Id$
+ * @since 3.2M1
+ */
+@Component
+@Named("concurrent/local")
+@Singleton
+public class ConcurrentCacheFactory implements CacheFactory
+{
+    /**
+     * {@inheritDoc}
+     * 
+     * @see org.xwiki.cache.CacheFactory#newCache(org.xwiki.cache.config.CacheConfiguration)
+     */
+    public <T> Cache<T> newCache(CacheConfiguration configuration) throws CacheException
+    {
+        return new ConcurrentCache<T>(configuration);
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.cache.concurrent.internal;
+
+/**
+ * Probabilistic estimation of the recent access frequency of the keys of a cache (a Count-Min sketch with 4 bits
+ * counters). Each key is associated with 4 counters and its frequency is the minimum of them, so that collisions with
+ * other keys can only overestimate it. All the counters are halved periodically so that old accesses have less weight
+ * than recent ones.
+ * <p>
+ * Not thread safe, used under the lock of the {@link WindowTinyLfuPolicy}.
+ * 
+ * @version $Id$
+ * @since 3.2M1
+ */
+public class FrequencySketch
+{
+    /**
+     * Seeds used to derive the 4 indexes of a key.
+     */
+    private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL,
+        0xcbf29ce484222325L};
+
+    /**
+     * Mask keeping the 3 lower bits of each counter when halving them.
+     */
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    /**
+     * The maximum value of a counter.
+     */
+    private static final long MAX_COUNTER = 0xfL;
+
+    /**
+     * The maximum number of longs in the table.
+     */
+    private static final int MAX_TABLE_SIZE = 1 << 30;
+
+    /**
+     * 16 counters of 4 bits per long.
+     */
+    private final long[] table;
+
+    /**
+     * Mask used to get an index in the table from a hash.
+     */
+    private final int tableMask;
+
+    /**
+     * The number of increments after which all the counters are halved.
+     */
+    private final int sampleSize;
+
+    /**
+     * The number of increments since the last reset.
+     */
+    private int size;
+
+    /**
+     * @param maximumSize the maximum number of entries of the cache
+     */
+    public FrequencySketch(long maximumSize)
+    {
+        int tableSize = (int) Math.min(MAX_TABLE_SIZE, Math.max(1, maximumSize));
+        tableSize = Integer.highestOneBit(tableSize - 1) << 1;
+        if (tableSize == 0) {
+            tableSize = 1;
+        }
+
+        this.table = new long[tableSize];
+        this.tableMask = tableSize - 1;
+        this.sampleSize = (int) Math.min(Integer.MAX_VALUE, 10L * Math.max(1, maximumSize));
+    }
+
+    /**
+     * @param hash the hash of the key
+     * @return the estimated number of recent accesses to the key, between 0 and 15
+     */
+    public int frequency(int hash)
+    {
+        int start = (hash & 3) << 2;
+        long frequency = MAX_COUNTER;
+        for (int i = 0; i < 4; ++i) {
+            int index = indexOf(hash, i);
+            long count = (this.table[index] >>> ((start + i) << 2)) & MAX_COUNTER;
+            frequency = Math.min(frequency, count);
+        }
+
+        return (int) frequency;
+    }
+
+    /**
+     * Record an access to a key.
+     * 
+     * @param hash the hash of the key
+     */
+    public void increment(int hash)
+    {
+        int start = (hash & 3) << 2;
+
+        boolean added = false;
+        for (int i = 0; i < 4; ++i) {
+            added |= incrementAt(indexOf(hash, i), start + i);
+        }
+
+        if (added && ++this.size >= this.sampleSize) {
+            reset();
+        }
+    }
+
+    /**
+     * @param index the index of the long in the table
+     * @param counter the index of the counter in the long
+     * @return true if the counter has been incremented, false if it already reached the maximum
+     */
+    private boolean incrementAt(int index, int counter)
+    {
+        int offset = counter << 2;
+        long mask = MAX_COUNTER << offset;
+        if ((this.table[index] & mask) != mask) {
+            this.table[index] += 1L << offset;
+
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Halve all the counters.
+     */
+    private void reset()
+    {
+        for (int i = 0; i < this.table.length; ++i) {
+            this.table[i] = (this.table[i] >>> 1) & RESET_MASK;
+        }
+        this.size /= 2;
+    }
+
+    /**
+     * @param hash the hash of the key
+     * @param i the index of the counter of the key, between 0 and 3
+     * @return the index in the table of the long containing the counter
+     */
+    private int indexOf(int hash, int i)
+    {
+        long h = (hash + SEEDS[i]) * SEEDS[i];
+        h += h >>> 32;
+
+        return ((int) h) & this.tableMask;
+    }
+}
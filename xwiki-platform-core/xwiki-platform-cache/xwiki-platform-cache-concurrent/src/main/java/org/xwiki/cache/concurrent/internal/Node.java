@@ -0,0 +1,132 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.cache.concurrent.internal;
+
+/**
+ * An entry of a {@link ConcurrentCache}.
+ * 
+ * @param <T> the class of the data stored in the cache
+ * @version $Id$
+ * @since 3.2M1
+ */
+public class Node<T>
+{
+    /**
+     * The node is not part of any queue of the policy.
+     */
+    static final int NONE = 0;
+
+    /**
+     * The node is in the admission window of the policy.
+     */
+    static final int WINDOW = 1;
+
+    /**
+     * The node is in the probation segment of the main space of the policy.
+     */
+    static final int PROBATION = 2;
+
+    /**
+     * The node is in the protected segment of the main space of the policy.
+     */
+    static final int PROTECTED = 3;
+
+    /**
+     * The key of the entry.
+     */
+    final String key;
+
+    /**
+     * The spread hash code of the key.
+     */
+    final int hash;
+
+    /**
+     * The value of the entry.
+     */
+    volatile T value;
+
+    /**
+     * When the value has been set, in nanoseconds.
+     */
+    volatile long writeTime;
+
+    /**
+     * When the entry has been accessed for the last time, in nanoseconds.
+     */
+    volatile long accessTime;
+
+    /**
+     * False once the entry has been removed from the cache. Modified while holding the lock of the node.
+     */
+    volatile boolean alive = true;
+
+    /**
+     * The queue of the policy containing the node. Guarded by the lock of the policy.
+     */
+    int queue = NONE;
+
+    /**
+     * The previous node in the queue. Guarded by the lock of the policy.
+     */
+    Node<T> previous;
+
+    /**
+     * The next node in the queue. Guarded by the lock of the policy.
+     */
+    Node<T> next;
+
+    /**
+     * @param key the key of the entry
+     * @param value the value of the entry
+     * @param now the current time in nanoseconds
+     */
+    Node(String key, T value, long now)
+    {
+        this.key = key;
+        this.hash = spread(key.hashCode());
+        this.value = value;
+        this.writeTime = now;
+        this.accessTime = now;
+    }
+
+    /**
+     * @param now the current time in nanoseconds
+     * @param timeToLive the maximum time to live of an entry in nanoseconds, 0 for no limit
+     * @param timeToIdle the maximum time to idle of an entry in nanoseconds, 0 for no limit
+     * @return true if the entry is expired
+     */
+    boolean isExpired(long now, long timeToLive, long timeToIdle)
+    {
+        return (timeToLive > 0 && now - this.writeTime >= timeToLive)
+            || (timeToIdle > 0 && now - this.accessTime >= timeToIdle);
+    }
+
+    /**
+     * @param hashCode a hash code
+     * @return the hash code with better distributed bits
+     */
+    private static int spread(int hashCode)
+    {
+        int h = hashCode * 0x9e3779b9;
+
+        return h ^ (h >>> 16);
+    }
+}
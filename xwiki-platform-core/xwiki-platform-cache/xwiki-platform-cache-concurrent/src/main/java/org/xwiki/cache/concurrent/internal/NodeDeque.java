@@ -0,0 +1,154 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.cache.concurrent.internal;
+
+/**
+ * Doubly linked list of {@link Node}s using the links stored in the nodes themselves so that moving a node does not
+ * allocate anything. The first node is the least recently used one.
+ * <p>
+ * Not thread safe, used under the lock of the {@link WindowTinyLfuPolicy}.
+ * 
+ * @param <T> the class of the data stored in the cache
+ * @version $Id$
+ * @since 3.2M1
+ */
+public class NodeDeque<T>
+{
+    /**
+     * The queue identifier stored in the nodes of this deque.
+     */
+    private final int queue;
+
+    /**
+     * The least recently used node.
+     */
+    private Node<T> first;
+
+    /**
+     * The most recently used node.
+     */
+    private Node<T> last;
+
+    /**
+     * The number of nodes.
+     */
+    private int size;
+
+    /**
+     * @param queue the queue identifier stored in the nodes of this deque
+     */
+    public NodeDeque(int queue)
+    {
+        this.queue = queue;
+    }
+
+    /**
+     * @return the number of nodes
+     */
+    public int size()
+    {
+        return this.size;
+    }
+
+    /**
+     * @return the least recently used node, null if the deque is empty
+     */
+    public Node<T> peekFirst()
+    {
+        return this.first;
+    }
+
+    /**
+     * @return the most recently used node, null if the deque is empty
+     */
+    public Node<T> peekLast()
+    {
+        return this.last;
+    }
+
+    /**
+     * @param node the node
+     * @return true if the node is part of this deque
+     */
+    public boolean contains(Node<T> node)
+    {
+        return node.queue == this.queue;
+    }
+
+    /**
+     * @param node the node to add as the most recently used one
+     */
+    public void addLast(Node<T> node)
+    {
+        node.queue = this.queue;
+        node.previous = this.last;
+        node.next = null;
+        if (this.last == null) {
+            this.first = node;
+        } else {
+            this.last.next = node;
+        }
+        this.last = node;
+        ++this.size;
+    }
+
+    /**
+     * @param node the node to move at the end of the deque
+     */
+    public void moveToLast(Node<T> node)
+    {
+        if (node != this.last) {
+            remove(node);
+            addLast(node);
+        }
+    }
+
+    /**
+     * @param node the node to remove
+     */
+    public void remove(Node<T> node)
+    {
+        if (node.previous == null) {
+            this.first = node.next;
+        } else {
+            node.previous.next = node.next;
+        }
+        if (node.next == null) {
+            this.last = node.previous;
+        } else {
+            node.next.previous = node.previous;
+        }
+
+        node.previous = null;
+        node.next = null;
+        node.queue = Node.NONE;
+        --this.size;
+    }
+
+    /**
+     * Remove all the nodes.
+     */
+    public void clear()
+    {
+        while (this.first != null) {
+            remove(this.first);
+        }
+    }
+}
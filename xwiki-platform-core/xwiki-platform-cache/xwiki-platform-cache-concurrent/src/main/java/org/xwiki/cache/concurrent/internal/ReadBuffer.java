@@ -0,0 +1,147 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.cache.concurrent.internal;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Record the reads of a {@link ConcurrentCache} so that they can be applied to the eviction policy in batch by the
+ * thread holding its lock, instead of having each read wait for the lock. The buffer is striped by thread to limit the
+ * contention between readers and is lossy: when a stripe is full the read is not recorded, which only slightly degrades
+ * the precision of the policy.
+ * 
+ * @param <T> the class of the data stored in the cache
+ * @version $Id$
+ * @since 3.2M1
+ */
+public class ReadBuffer<T>
+{
+    /**
+     * The number of reads a stripe can hold.
+     */
+    private static final int STRIPE_SIZE = 64;
+
+    /**
+     * The mask used to get the index of a read in a stripe.
+     */
+    private static final int STRIPE_MASK = STRIPE_SIZE - 1;
+
+    /**
+     * The number of pending reads in a stripe from which the buffer should be drained.
+     */
+    private static final int DRAIN_THRESHOLD = STRIPE_SIZE / 2;
+
+    /**
+     * A stripe of the buffer, a ring written by several threads and read by the thread holding the policy lock.
+     * 
+     * @param <T> the class of the data stored in the cache
+     */
+    private static final class Stripe<T>
+    {
+        /**
+         * The recorded reads.
+         */
+        private final AtomicReferenceArray<Node<T>> nodes = new AtomicReferenceArray<Node<T>>(STRIPE_SIZE);
+
+        /**
+         * The number of reads recorded in the stripe since its creation.
+         */
+        private final AtomicLong writeCount = new AtomicLong();
+
+        /**
+         * The number of reads applied to the policy since the creation of the stripe.
+         */
+        private volatile long readCount;
+    }
+
+    /**
+     * The stripes.
+     */
+    private final Stripe<T>[] stripes;
+
+    /**
+     * The mask used to get a stripe from a thread identifier.
+     */
+    private final int stripeMask;
+
+    /**
+     * Create a buffer with one stripe per processor.
+     */
+    public ReadBuffer()
+    {
+        int stripeCount = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 2 - 1);
+
+        this.stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; ++i) {
+            this.stripes[i] = new Stripe<T>();
+        }
+        this.stripeMask = stripeCount - 1;
+    }
+
+    /**
+     * Record a read.
+     * 
+     * @param node the node which has been read
+     * @return true if the buffer should be drained
+     */
+    public boolean offer(Node<T> node)
+    {
+        Stripe<T> stripe = this.stripes[(int) Thread.currentThread().getId() & this.stripeMask];
+
+        long writeCount = stripe.writeCount.get();
+        long pending = writeCount - stripe.readCount;
+        if (pending >= STRIPE_SIZE) {
+            // Full, drop the read
+            return true;
+        }
+
+        if (stripe.writeCount.compareAndSet(writeCount, writeCount + 1)) {
+            stripe.nodes.lazySet((int) writeCount & STRIPE_MASK, node);
+            ++pending;
+        }
+
+        return pending >= DRAIN_THRESHOLD;
+    }
+
+    /**
+     * Apply the recorded reads to the policy. Must be called while holding the lock of the policy.
+     * 
+     * @param policy the eviction policy
+     */
+    public void drainTo(WindowTinyLfuPolicy<T> policy)
+    {
+        for (Stripe<T> stripe : this.stripes) {
+            long readCount = stripe.readCount;
+            long writeCount = stripe.writeCount.get();
+            for (; readCount < writeCount; ++readCount) {
+                int index = (int) readCount & STRIPE_MASK;
+                Node<T> node = stripe.nodes.get(index);
+                if (node == null) {
+                    // The reader did not finish recording the read yet
+                    break;
+                }
+                stripe.nodes.lazySet(index, null);
+                policy.onAccess(node);
+            }
+            stripe.readCount = readCount;
+        }
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.cache.concurrent.internal;
+
+import java.util.List;
+
+/**
+ * Window TinyLFU eviction policy.
+ * <p>
+ * New entries go first in a small LRU admission window (1% of the capacity). Entries leaving the window enter the main
+ * space in its probation segment only if their recent access frequency, estimated by a {@link FrequencySketch}, is
+ * higher than the one of the entry they would replace. Entries accessed again while in probation are promoted to the
+ * protected segment (80% of the main space). This way a scan of many entries accessed only once cannot evict the
+ * working set of the cache, while the window still gives a chance to new entries to become popular.
+ * <p>
+ * When the cache is not bounded only the window is used, to find the expired entries.
+ * <p>
+ * Not thread safe, all the methods must be called while holding the lock of the cache.
+ * 
+ * @param <T> the class of the data stored in the cache
+ * @version $Id$
+ * @since 3.2M1
+ */
+public class WindowTinyLfuPolicy<T>
+{
+    /**
+     * The percentage of the capacity used by the admission window.
+     */
+    private static final int WINDOW_PERCENT = 1;
+
+    /**
+     * The percentage of the main space used by the protected segment.
+     */
+    private static final int PROTECTED_PERCENT = 80;
+
+    /**
+     * The maximum number of expired entries removed in one maintenance.
+     */
+    private static final int EXPIRATION_BATCH = 16;
+
+    /**
+     * The maximum number of entries, 0 if the cache is not bounded.
+     */
+    private final long maximum;
+
+    /**
+     * The maximum number of entries in the admission window.
+     */
+    private final long windowMaximum;
+
+    /**
+     * The maximum number of entries in the protected segment.
+     */
+    private final long protectedMaximum;
+
+    /**
+     * The estimation of the access frequency of the keys, null if the cache is not bounded.
+     */
+    private final FrequencySketch sketch;
+
+    /**
+     * The admission window.
+     */
+    private final NodeDeque<T> window = new NodeDeque<T>(Node.WINDOW);
+
+    /**
+     * The probation segment of the main space.
+     */
+    private final NodeDeque<T> probation = new NodeDeque<T>(Node.PROBATION);
+
+    /**
+     * The protected segment of the main space.
+     */
+    private final NodeDeque<T> protectedSegment = new NodeDeque<T>(Node.PROTECTED);
+
+    /**
+     * @param maximum the maximum number of entries, 0 if the cache is not bounded
+     */
+    public WindowTinyLfuPolicy(long maximum)
+    {
+        this.maximum = maximum;
+
+        if (maximum > 0) {
+            this.windowMaximum = Math.max(1, maximum * WINDOW_PERCENT / 100);
+            this.protectedMaximum = (maximum - this.windowMaximum) * PROTECTED_PERCENT / 100;
+            this.sketch = new FrequencySketch(maximum);
+        } else {
+            this.windowMaximum = Long.MAX_VALUE;
+            this.protectedMaximum = 0;
+            this.sketch = null;
+        }
+    }
+
+    /**
+     * @return the number of entries known by the policy
+     */
+    public long size()
+    {
+        return this.window.size() + this.probation.size() + this.protectedSegment.size();
+    }
+
+    /**
+     * A new entry has been added to the cache.
+     * 
+     * @param node the new entry
+     * @param evicted the list where to add the entries to remove from the cache
+     */
+    public void onAdd(Node<T> node, List<Node<T>> evicted)
+    {
+        // The entry may have been removed before the policy has been told it was added
+        if (!node.alive || node.queue != Node.NONE) {
+            return;
+        }
+
+        if (this.sketch != null) {
+            this.sketch.increment(node.hash);
+        }
+
+        this.window.addLast(node);
+
+        if (this.maximum > 0) {
+            while (this.window.size() > this.windowMaximum) {
+                Node<T> candidate = this.window.peekFirst();
+                this.window.remove(candidate);
+                this.probation.addLast(candidate);
+            }
+
+            evict(evicted);
+        }
+    }
+
+    /**
+     * An entry has been read or updated.
+     * 
+     * @param node the entry
+     */
+    public void onAccess(Node<T> node)
+    {
+        if (node.queue == Node.NONE) {
+            // Already removed, or the policy has not been told yet the entry was added
+            return;
+        }
+
+        if (this.sketch != null) {
+            this.sketch.increment(node.hash);
+        }
+
+        switch (node.queue) {
+            case Node.WINDOW:
+                this.window.moveToLast(node);
+                break;
+            case Node.PROBATION:
+                this.probation.remove(node);
+                this.protectedSegment.addLast(node);
+                while (this.protectedSegment.size() > this.protectedMaximum) {
+                    Node<T> demoted = this.protectedSegment.peekFirst();
+                    this.protectedSegment.remove(demoted);
+                    this.probation.addLast(demoted);
+                }
+                break;
+            default:
+                this.protectedSegment.moveToLast(node);
+                break;
+        }
+    }
+
+    /**
+     * An entry has been removed from the cache.
+     * 
+     * @param node the removed entry
+     */
+    public void onRemove(Node<T> node)
+    {
+        switch (node.queue) {
+            case Node.WINDOW:
+                this.window.remove(node);
+                break;
+            case Node.PROBATION:
+                this.probation.remove(node);
+                break;
+            case Node.PROTECTED:
+                this.protectedSegment.remove(node);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Find the least recently used expired entries.
+     * 
+     * @param now the current time in nanoseconds
+     * @param timeToLive the maximum time to live of an entry in nanoseconds, 0 for no limit
+     * @param timeToIdle the maximum time to idle of an entry in nanoseconds, 0 for no limit
+     * @param expired the list where to add the entries to remove from the cache
+     */
+    public void expire(long now, long timeToLive, long timeToIdle, List<Node<T>> expired)
+    {
+        expire(this.window, now, timeToLive, timeToIdle, expired);
+        expire(this.probation, now, timeToLive, timeToIdle, expired);
+        expire(this.protectedSegment, now, timeToLive, timeToIdle, expired);
+    }
+
+    /**
+     * Forget all the entries.
+     */
+    public void clear()
+    {
+        this.window.clear();
+        this.probation.clear();
+        this.protectedSegment.clear();
+    }
+
+    /**
+     * Remove expired entries from the beginning of a queue. Since the queues are in access order this finds all the
+     * entries expired because of the time to idle and most of the ones expired because of the time to live, the others
+     * are removed when accessed or evicted.
+     * 
+     * @param deque the queue
+     * @param now the current time in nanoseconds
+     * @param timeToLive the maximum time to live of an entry in nanoseconds, 0 for no limit
+     * @param timeToIdle the maximum time to idle of an entry in nanoseconds, 0 for no limit
+     * @param expired the list where to add the entries to remove from the cache
+     */
+    private void expire(NodeDeque<T> deque, long now, long timeToLive, long timeToIdle, List<Node<T>> expired)
+    {
+        for (int i = 0; i < EXPIRATION_BATCH; ++i) {
+            Node<T> node = deque.peekFirst();
+            if (node == null || !node.isExpired(now, timeToLive, timeToIdle)) {
+                break;
+            }
+            deque.remove(node);
+            expired.add(node);
+        }
+    }
+
+    /**
+     * Remove entries from the main space until the cache respects its maximum size.
+     * 
+     * @param evicted the list where to add the entries to remove from the cache
+     */
+    private void evict(List<Node<T>> evicted)
+    {
+        while (size() > this.maximum) {
+            Node<T> victim = this.probation.peekFirst();
+            Node<T> candidate = this.probation.peekLast();
+
+            Node<T> loser;
+            if (victim == null) {
+                // Everything is protected or in the window
+                loser = this.protectedSegment.peekFirst();
+                if (loser == null) {
+                    loser = this.window.peekFirst();
+                }
+            } else if (candidate != victim && admit(candidate, victim)) {
+                loser = victim;
+            } else {
+                loser = candidate;
+            }
+
+            onRemove(loser);
+            evicted.add(loser);
+        }
+    }
+
+    /**
+     * @param candidate the entry which just left the admission window
+     * @param victim the entry it would replace
+     * @return true if the candidate has been accessed more frequently than the victim recently
+     */
+    private boolean admit(Node<T> candidate, Node<T> victim)
+    {
+        return this.sketch.frequency(candidate.hash) > this.sketch.frequency(victim.hash);
+    }
+}
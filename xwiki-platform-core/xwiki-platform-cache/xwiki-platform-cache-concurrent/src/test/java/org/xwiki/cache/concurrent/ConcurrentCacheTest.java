@@ -0,0 +1,154 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.cache.concurrent;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheFactory;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.eviction.LRUEvictionConfiguration;
+import org.xwiki.cache.tests.AbstractGenericTestCache;
+
+/**
+ * Validate the concurrent local cache.
+ * 
+ * @version $Id$
+ */
+public class ConcurrentCacheTest extends AbstractGenericTestCache
+{
+    public ConcurrentCacheTest()
+    {
+        super("concurrent/local");
+    }
+
+    @Test
+    public void testCreateAndDestroyCacheLRUMaxEntries() throws Exception
+    {
+        CacheFactory factory = getCacheFactory();
+
+        CacheConfiguration conf = new CacheConfiguration();
+        LRUEvictionConfiguration lec = new LRUEvictionConfiguration();
+        lec.setMaxEntries(1);
+        conf.put(LRUEvictionConfiguration.CONFIGURATIONID, lec);
+
+        Cache<Object> cache = factory.newCache(conf);
+
+        cache.set(KEY, VALUE);
+
+        Assert.assertEquals(VALUE, cache.get(KEY));
+
+        cache.set(KEY2, VALUE2);
+
+        Assert.assertNull(cache.get(KEY));
+        Assert.assertEquals(VALUE2, cache.get(KEY2));
+        Assert.assertEquals(1, cache.getStatistics().getEvictionCount());
+
+        cache.dispose();
+    }
+
+    @Test
+    public void testCreateAndDestroyCacheLRUTimeToLive() throws Exception
+    {
+        CacheFactory factory = getCacheFactory();
+
+        CacheConfiguration conf = new CacheConfiguration();
+        LRUEvictionConfiguration lec = new LRUEvictionConfiguration();
+        lec.setTimeToLive(1);
+        conf.put(LRUEvictionConfiguration.CONFIGURATIONID, lec);
+
+        Cache<Object> cache = factory.newCache(conf);
+
+        cache.set(KEY, VALUE);
+
+        Assert.assertEquals(VALUE, cache.get(KEY));
+
+        Thread.sleep(1100);
+
+        Assert.assertNull(cache.get(KEY));
+
+        cache.dispose();
+    }
+
+    @Test
+    public void testCreateAndDestroyCacheLRUTimeToIdle() throws Exception
+    {
+        CacheFactory factory = getCacheFactory();
+
+        CacheConfiguration conf = new CacheConfiguration();
+        LRUEvictionConfiguration lec = new LRUEvictionConfiguration();
+        lec.setTimeToIdle(1);
+        conf.put(LRUEvictionConfiguration.CONFIGURATIONID, lec);
+
+        Cache<Object> cache = factory.newCache(conf);
+
+        cache.set(KEY, VALUE);
+        cache.set(KEY2, VALUE2);
+
+        for (int i = 0; i < 3; ++i) {
+            Thread.sleep(500);
+            Assert.assertEquals(VALUE, cache.get(KEY));
+        }
+
+        Assert.assertNull(cache.get(KEY2));
+
+        cache.dispose();
+    }
+
+    /**
+     * Validate that a scan of keys accessed only once does not evict the frequently accessed keys.
+     */
+    @Test
+    public void testScanResistance() throws Exception
+    {
+        CacheFactory factory = getCacheFactory();
+
+        CacheConfiguration conf = new CacheConfiguration();
+        LRUEvictionConfiguration lec = new LRUEvictionConfiguration();
+        lec.setMaxEntries(100);
+        conf.put(LRUEvictionConfiguration.CONFIGURATIONID, lec);
+
+        Cache<Object> cache = factory.newCache(conf);
+
+        for (int round = 0; round < 10; ++round) {
+            for (int i = 0; i < 50; ++i) {
+                if (cache.get("hot" + i) == null) {
+                    cache.set("hot" + i, i);
+                }
+            }
+        }
+
+        for (int i = 0; i < 10000; ++i) {
+            cache.set("scan" + i, i);
+        }
+
+        int hits = 0;
+        for (int i = 0; i < 50; ++i) {
+            if (cache.get("hot" + i) != null) {
+                ++hits;
+            }
+        }
+
+        Assert.assertTrue("Only " + hits + " hot entries survived the scan", hits >= 45);
+        Assert.assertTrue(cache.getStatistics().getSize() <= 100);
+
+        cache.dispose();
+    }
+}
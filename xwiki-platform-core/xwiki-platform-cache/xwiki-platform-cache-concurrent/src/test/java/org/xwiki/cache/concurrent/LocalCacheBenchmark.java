@@ -0,0 +1,243 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.cache.concurrent;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheFactory;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.eviction.LRUEvictionConfiguration;
+import org.xwiki.component.embed.EmbeddableComponentManager;
+
+/**
+ * Compares the hit rate and the throughput of the local cache implementations when replaying an access trace. This is
+ * not run as part of the build, run it by hand with:
+ * <code>java -cp ... org.xwiki.cache.concurrent.LocalCacheBenchmark [trace file] [cache size] [threads]</code>
+ * <p>
+ * The trace file contains one key per line, for example the document references extracted from an access log. When no
+ * trace is provided a synthetic one is generated: keys following a Zipf distribution with regular scans of keys
+ * accessed only once, like a crawler going through all the pages of a wiki.
+ * 
+ * @version $Id$
+ * @since 3.2M1
+ */
+public final class LocalCacheBenchmark
+{
+    /**
+     * The cache implementations to compare.
+     */
+    private static final List<String> HINTS = Arrays.asList("concurrent/local", "oscache/local", "jbosscache/local");
+
+    /**
+     * How long the throughput of each implementation is measured, in milliseconds.
+     */
+    private static final long DURATION = 5000;
+
+    /** Utility class. */
+    private LocalCacheBenchmark()
+    {
+    }
+
+    /**
+     * Run the benchmark.
+     * 
+     * @param args the trace file ("-" for a synthetic trace), the maximum number of entries of the caches and the
+     *            number of threads
+     * @throws Exception when failing to read the trace or to create the caches
+     */
+    public static void main(String[] args) throws Exception
+    {
+        String[] trace = args.length > 0 && !"-".equals(args[0]) ? readTrace(args[0]) : syntheticTrace(1000000);
+        int size = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        EmbeddableComponentManager componentManager = new EmbeddableComponentManager();
+        componentManager.initialize(LocalCacheBenchmark.class.getClassLoader());
+
+        System.out.println(String.format("%d accesses, %d entries, %d threads", trace.length, size, threads));
+        for (String hint : HINTS) {
+            CacheFactory factory = componentManager.lookup(CacheFactory.class, hint);
+
+            Cache<String> cache = newCache(factory, size);
+            double hitRate = replay(cache, trace);
+            cache.dispose();
+
+            cache = newCache(factory, size);
+            // Warm up
+            measureThroughput(cache, trace, threads, DURATION / 5);
+            double throughput = measureThroughput(cache, trace, threads, DURATION);
+            cache.dispose();
+
+            System.out.println(String.format("%-18s hit rate %6.2f%% %12.0f ops/s", hint, hitRate * 100, throughput));
+        }
+
+        System.exit(0);
+    }
+
+    /**
+     * @param factory the cache factory
+     * @param size the maximum number of entries
+     * @return a new cache
+     * @throws Exception when failing to create the cache
+     */
+    private static Cache<String> newCache(CacheFactory factory, int size) throws Exception
+    {
+        CacheConfiguration configuration = new CacheConfiguration();
+        configuration.setConfigurationId("benchmark");
+        LRUEvictionConfiguration lru = new LRUEvictionConfiguration();
+        lru.setMaxEntries(size);
+        configuration.put(LRUEvictionConfiguration.CONFIGURATIONID, lru);
+
+        return factory.newCache(configuration);
+    }
+
+    /**
+     * Replay the trace in one thread, loading the missing values like the XWiki caches do.
+     * 
+     * @param cache the cache
+     * @param trace the accessed keys
+     * @return the hit rate
+     */
+    private static double replay(Cache<String> cache, String[] trace)
+    {
+        long hits = 0;
+        for (String key : trace) {
+            if (cache.get(key) != null) {
+                ++hits;
+            } else {
+                cache.set(key, key);
+            }
+        }
+
+        return (double) hits / trace.length;
+    }
+
+    /**
+     * Have several threads replay the trace, each starting at a different position.
+     * 
+     * @param cache the cache
+     * @param trace the accessed keys
+     * @param threads the number of threads
+     * @param duration how long to run in milliseconds
+     * @return the number of accesses per second
+     * @throws InterruptedException if interrupted while waiting for the threads
+     */
+    private static double measureThroughput(final Cache<String> cache, final String[] trace, int threads,
+        final long duration) throws InterruptedException
+    {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        final AtomicLong operations = new AtomicLong();
+        for (int t = 0; t < threads; ++t) {
+            final int offset = t * (trace.length / threads);
+            new Thread(new Runnable()
+            {
+                public void run()
+                {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    long end = System.currentTimeMillis() + duration;
+                    long count = 0;
+                    int index = offset;
+                    while ((count & 1023) != 0 || System.currentTimeMillis() < end) {
+                        String key = trace[index];
+                        if (cache.get(key) == null) {
+                            cache.set(key, key);
+                        }
+                        index = index + 1 < trace.length ? index + 1 : 0;
+                        ++count;
+                    }
+                    operations.addAndGet(count);
+                    done.countDown();
+                }
+            }).start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+
+        return operations.get() / ((System.nanoTime() - begin) / 1e9);
+    }
+
+    /**
+     * @param path the trace file
+     * @return the keys contained in the file, one per line
+     * @throws Exception when failing to read the file
+     */
+    private static String[] readTrace(String path) throws Exception
+    {
+        List<String> keys = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(path), "UTF-8"));
+        try {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                if (line.length() > 0) {
+                    keys.add(line);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        return keys.toArray(new String[keys.size()]);
+    }
+
+    /**
+     * @param length the number of accesses
+     * @return Zipf distributed accesses to 100000 keys, interrupted every 200000 accesses by a scan of 20000 keys
+     *         never accessed before
+     */
+    private static String[] syntheticTrace(int length)
+    {
+        int keys = 100000;
+        double[] cumulative = new double[keys];
+        double sum = 0;
+        for (int i = 0; i < keys; ++i) {
+            sum += 1 / Math.pow(i + 1, 0.9);
+            cumulative[i] = sum;
+        }
+
+        Random random = new Random(42);
+        String[] trace = new String[length];
+        int scanned = 0;
+        for (int i = 0; i < length; ++i) {
+            if (i % 200000 >= 180000) {
+                trace[i] = "scan" + scanned++;
+            } else {
+                int index = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+                trace[i] = "key" + (index >= 0 ? index : -index - 1);
+            }
+        }
+
+        return trace;
+    }
+}
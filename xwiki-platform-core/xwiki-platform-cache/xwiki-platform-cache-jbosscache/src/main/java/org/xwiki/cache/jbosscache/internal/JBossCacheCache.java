@@ -33,9 +33,11 @@
 import org.jboss.cache.notifications.event.NodeModifiedEvent;
 import org.jboss.cache.notifications.event.NodeRemovedEvent;
 import org.jboss.cache.Cache;
+import org.jboss.cache.CacheSPI;
 import org.jboss.cache.CacheFactory;
 import org.jboss.cache.DefaultCacheFactory;
 import org.jboss.cache.Fqn;
+import org.jboss.cache.NodeSPI;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xwiki.cache.DisposableCacheValue;
@@ -82,6 +84,11 @@
      */
     private Map<String, T> cachedObjects = new HashMap<String, T>();
 
+    /**
+     * The values of the nodes being evicted, read before the eviction since the eviction event does not provide them.
+     */
+    private ConcurrentMap<String, T> evictedValues = new ConcurrentHashMap<String, T>();
+
     /**
      * The state of the node before modification.
      */
@@ -147,6 +154,8 @@ public void set(String key, T obj)
         this.cache.put(Fqn.fromRelativeElements(ROOT_FQN, key), DATA_KEY, obj);
 
         pushDisposableCacheValue(key, obj);
+
+        recordSet(key, obj);
     }
 
     /**
@@ -156,7 +165,11 @@ public void set(String key, T obj)
      */
     public T get(String key)
     {
-        return this.cache.get(Fqn.fromRelativeElements(ROOT_FQN, key), DATA_KEY);
+        T value = this.cache.get(Fqn.fromRelativeElements(ROOT_FQN, key), DATA_KEY);
+
+        recordGet(key, value);
+
+        return value;
     }
 
     /**
@@ -167,6 +180,8 @@ public T get(String key)
     public void removeAll()
     {
         this.cache.removeNode(ROOT_FQN);
+
+        recordRemoveAll();
     }
 
     /**
@@ -207,8 +222,17 @@ public void nodeEvicted(NodeEvictedEvent event)
 
         String key = event.getFqn().getLastElementAsString();
 
-        if (!event.isPre()) {
-            cacheEntryRemoved(key, null);
+        if (event.isPre()) {
+            // Peek the node so that reading it does not count as an access for the eviction policy
+            NodeSPI<String, T> node = ((CacheSPI<String, T>) this.cache).peek(event.getFqn(), false);
+            T value = node != null ? node.getDirect(DATA_KEY) : null;
+            if (value != null) {
+                this.evictedValues.put(key, value);
+            }
+        } else {
+            recordEviction();
+
+            cacheEntryRemoved(key, this.evictedValues.remove(key));
         }
     }
 
@@ -110,6 +110,9 @@ public void testCreateAndDestroyCacheLRUMaxEntries() throws Exception
 
         // Wait for the JBoss Eviction policy to be called
         Assert.assertTrue("No value has been evicted from the cache", eventListener.waitForEntryEvent(EventType.REMOVE));
+        // The value of the evicted entry is provided, so that an off heap tier can keep it
+        Assert.assertEquals("key", eventListener.getRemovedEvent().getEntry().getKey());
+        Assert.assertEquals("value", eventListener.getRemovedEvent().getEntry().getValue());
 
         Assert.assertNull(cache.get("key"));
         Assert.assertEquals(2, cache.get("key2"));
@@ -119,6 +119,8 @@ public void remove(String key)
     public void set(String key, T obj)
     {
         this.cacheAdmin.putInCache(cacheKey(key), obj);
+
+        recordSet(key, obj);
     }
 
     /**
@@ -141,6 +143,8 @@ public T get(String key)
             }
         }
 
+        recordGet(key, value);
+
         return value;
     }
 
@@ -152,6 +156,8 @@ public T get(String key)
     public void removeAll()
     {
         this.cacheAdmin.flushAll();
+
+        recordRemoveAll();
     }
 
     /**
@@ -198,6 +204,9 @@ public void cacheEntryFlushed(CacheEntryEvent event)
      */
     public void cacheEntryRemoved(CacheEntryEvent event)
     {
+        // Removed entries are the ones evicted by OSCache, explicitly removed entries are flushed
+        recordEviction();
+
         sendEntryRemovedEvent(new OSCacheCacheEntryEvent<T>(this, event));
     }
 
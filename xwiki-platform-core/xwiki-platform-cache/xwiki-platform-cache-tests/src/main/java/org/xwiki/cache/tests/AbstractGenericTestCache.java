@@ -23,7 +23,11 @@
 import org.junit.Test;
 import org.xwiki.cache.Cache;
 import org.xwiki.cache.CacheFactory;
+import org.xwiki.cache.CacheStatistics;
 import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.eviction.EntryEvictionConfiguration;
+import org.xwiki.cache.eviction.EntryWeigher;
+import org.xwiki.cache.eviction.LRUEvictionConfiguration;
 
 /**
  * Base class for testing cache component implementation.
@@ -161,4 +165,78 @@ public void testEvents() throws Exception
         Assert.assertEquals(KEY, eventListener.getRemovedEvent().getEntry().getKey());
         Assert.assertEquals(VALUE2, eventListener.getRemovedEvent().getEntry().getValue());
     }
+
+    /**
+     * Validate {@link Cache#getStatistics()}.
+     * 
+     * @throws Exception error.
+     */
+    @Test
+    public void testStatistics() throws Exception
+    {
+        CacheFactory factory = getCacheFactory();
+
+        Cache<Object> cache = factory.newCache(new CacheConfiguration());
+
+        Assert.assertNull(cache.get(KEY));
+        cache.set(KEY, VALUE);
+        Assert.assertEquals(VALUE, cache.get(KEY));
+
+        CacheStatistics statistics = cache.getStatistics();
+
+        Assert.assertEquals(1, statistics.getHitCount());
+        Assert.assertEquals(1, statistics.getMissCount());
+        Assert.assertEquals(0.5, statistics.getHitRatio(), 0);
+        Assert.assertEquals(1, statistics.getLoadCount());
+        Assert.assertEquals(1, statistics.getSize());
+
+        statistics.reset();
+
+        Assert.assertEquals(0, statistics.getHitCount());
+        Assert.assertEquals(0, statistics.getMissCount());
+        Assert.assertEquals(0, statistics.getLoadCount());
+        Assert.assertEquals(1, statistics.getSize());
+
+        cache.dispose();
+    }
+
+    /**
+     * Validate the maximum weight constraint.
+     * 
+     * @throws Exception error.
+     */
+    @Test
+    public void testMaxWeight() throws Exception
+    {
+        CacheFactory factory = getCacheFactory();
+
+        CacheConfiguration conf = new CacheConfiguration();
+        LRUEvictionConfiguration lec = new LRUEvictionConfiguration();
+        lec.setMaxWeight(10);
+        lec.setWeigher(new EntryWeigher<Object>()
+        {
+            public long weigh(String key, Object value)
+            {
+                return value.toString().length();
+            }
+        });
+        conf.put(EntryEvictionConfiguration.CONFIGURATIONID, lec);
+
+        Cache<Object> cache = factory.newCache(conf);
+
+        cache.set("key1", "123");
+        cache.set("key2", "456");
+        // Make key1 the most recently used entry
+        Assert.assertEquals("123", cache.get("key1"));
+
+        cache.set("key3", "789012");
+
+        Assert.assertEquals(1, cache.getStatistics().getEvictionCount());
+        Assert.assertEquals(9, cache.getStatistics().getWeight());
+        Assert.assertNull(cache.get("key2"));
+        Assert.assertEquals("123", cache.get("key1"));
+        Assert.assertEquals("789012", cache.get("key3"));
+
+        cache.dispose();
+    }
 }
@@ -0,0 +1,297 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.rendering.internal.macro.chart;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.xwiki.chart.model.ChartModel;
+
+/**
+ * Keep the generated chart images on disk so that a chart is only generated again when its parameters or data change.
+ * The images are named after a hash of the chart parameters and data and the total size of the directory is bounded by
+ * deleting the least recently used images.
+ * 
+ * @version $Id$
+ * @since 3.2M1
+ */
+public class ChartImageCache
+{
+    /**
+     * The extension of the chart images.
+     */
+    public static final String EXTENSION = ".png";
+
+    /**
+     * The algorithm used to compute the key of a chart.
+     */
+    private static final String DIGEST_ALGORITHM = "SHA-1";
+
+    /**
+     * The encoding of the strings added to the digest.
+     */
+    private static final String DIGEST_ENCODING = "UTF-8";
+
+    /**
+     * The separator between the elements added to the digest.
+     */
+    private static final char SEPARATOR = '\n';
+
+    /**
+     * Select the chart images.
+     */
+    private static final FileFilter IMAGE_FILTER = new FileFilter()
+    {
+        public boolean accept(File file)
+        {
+            return file.isFile() && file.getName().endsWith(EXTENSION);
+        }
+    };
+
+    /**
+     * The directory containing the chart images.
+     */
+    private final File directory;
+
+    /**
+     * The maximum total size of the images.
+     */
+    private final long maxSize;
+
+    /**
+     * The current total size of the images, -1 until the directory has been scanned.
+     */
+    private final AtomicLong size = new AtomicLong(-1);
+
+    /**
+     * @param directory the directory containing the chart images
+     * @param maxSize the maximum total size of the images in bytes, 0 or less for no limit
+     */
+    public ChartImageCache(File directory, long maxSize)
+    {
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return the directory containing the chart images
+     */
+    public File getDirectory()
+    {
+        return this.directory;
+    }
+
+    /**
+     * Compute a key identifying a chart image from everything which has an impact on it.
+     * 
+     * @param parameters the parameters of the chart
+     * @param model the data of the chart
+     * @return the key of the chart image
+     */
+    public String getKey(Map<String, String> parameters, ChartModel model)
+    {
+        StringBuilder builder = new StringBuilder();
+
+        for (Map.Entry<String, String> parameter : new TreeMap<String, String>(parameters).entrySet()) {
+            builder.append(parameter.getKey()).append('=').append(parameter.getValue()).append(SEPARATOR);
+        }
+
+        for (int column = 0; column < model.getColumnCount(); ++column) {
+            builder.append(model.getColumnHeader(column)).append(SEPARATOR);
+        }
+        for (int row = 0; row < model.getRowCount(); ++row) {
+            builder.append(model.getRowHeader(row)).append(SEPARATOR);
+            for (int column = 0; column < model.getColumnCount(); ++column) {
+                builder.append(model.getCellValue(row, column)).append(SEPARATOR);
+            }
+        }
+
+        try {
+            MessageDigest digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+
+            return String.format("%040x", new BigInteger(1, digest.digest(builder.toString().getBytes(
+                DIGEST_ENCODING))));
+        } catch (NoSuchAlgorithmException e) {
+            // Should never happen, every JVM is required to support SHA-1
+            throw new RuntimeException("Failed to get a " + DIGEST_ALGORITHM + " digest", e);
+        } catch (IOException e) {
+            // Should never happen, every JVM is required to support UTF-8
+            throw new RuntimeException("Failed to encode the chart key", e);
+        }
+    }
+
+    /**
+     * @param key the key of the chart image
+     * @return the file of the chart image in the cache
+     */
+    public File getFile(String key)
+    {
+        return new File(this.directory, key + EXTENSION);
+    }
+
+    /**
+     * Indicate that a chart image is used again, to keep the most used images when the cache is full.
+     * 
+     * @param imageFile the file of the chart image
+     * @return true if the image exists, false if it needs to be generated
+     */
+    public boolean touch(File imageFile)
+    {
+        if (imageFile.exists()) {
+            imageFile.setLastModified(System.currentTimeMillis());
+
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Save a new chart image and delete the least recently used images if the cache is too big.
+     * 
+     * @param imageFile the file of the chart image
+     * @param image the content of the chart image
+     * @throws IOException when failing to save the image
+     */
+    public void store(File imageFile, byte[] image) throws IOException
+    {
+        File parent = imageFile.getParentFile();
+        parent.mkdirs();
+
+        // Write the image in a temporary file first so that the image is never served half written
+        File temporaryFile = File.createTempFile("chart", ".tmp", parent);
+        try {
+            FileOutputStream fos = new FileOutputStream(temporaryFile);
+            try {
+                fos.write(image);
+            } finally {
+                fos.close();
+            }
+
+            // Only one of the threads generating the same image concurrently creates the file and accounts for its
+            // size, the others keep the existing image
+            synchronized (this) {
+                if (imageFile.exists()) {
+                    return;
+                }
+                if (!temporaryFile.renameTo(imageFile)) {
+                    throw new IOException("Failed to save chart image [" + imageFile + "]");
+                }
+            }
+        } finally {
+            temporaryFile.delete();
+        }
+
+        if (this.maxSize > 0 && parent.equals(this.directory) && addSize(image.length) > this.maxSize) {
+            evict();
+        }
+    }
+
+    /**
+     * @return the total size of the images, -1 if not known yet
+     */
+    long getSize()
+    {
+        return this.size.get();
+    }
+
+    /**
+     * @param added the size of the new image
+     * @return the new total size of the images
+     */
+    private long addSize(long added)
+    {
+        if (this.size.get() < 0) {
+            synchronized (this) {
+                if (this.size.get() < 0) {
+                    // The new image is already in the directory
+                    this.size.set(scanSize());
+
+                    return this.size.get();
+                }
+            }
+        }
+
+        return this.size.addAndGet(added);
+    }
+
+    /**
+     * @return the total size of the images in the directory
+     */
+    private long scanSize()
+    {
+        long total = 0;
+
+        File[] images = this.directory.listFiles(IMAGE_FILTER);
+        if (images != null) {
+            for (File image : images) {
+                total += image.length();
+            }
+        }
+
+        return total;
+    }
+
+    /**
+     * Delete the least recently used images until the cache size is back under its limit.
+     */
+    private synchronized void evict()
+    {
+        File[] images = this.directory.listFiles(IMAGE_FILTER);
+        if (images == null) {
+            return;
+        }
+
+        // Sort on a snapshot of the dates since they can be modified concurrently by #touch
+        final Map<File, Long> dates = new HashMap<File, Long>();
+        long total = 0;
+        for (File image : images) {
+            dates.put(image, image.lastModified());
+            total += image.length();
+        }
+        Arrays.sort(images, new Comparator<File>()
+        {
+            public int compare(File file1, File file2)
+            {
+                return dates.get(file1).compareTo(dates.get(file2));
+            }
+        });
+
+        for (int i = 0; i < images.length && total > this.maxSize; ++i) {
+            long length = images[i].length();
+            if (images[i].delete()) {
+                total -= length;
+            }
+        }
+
+        this.size.set(total);
+    }
+}
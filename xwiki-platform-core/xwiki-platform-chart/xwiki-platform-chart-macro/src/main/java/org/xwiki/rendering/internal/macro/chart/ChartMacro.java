@@ -20,7 +20,6 @@
 package org.xwiki.rendering.internal.macro.chart;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -32,6 +31,7 @@
 import org.xwiki.bridge.DocumentAccessBridge;
 import org.xwiki.chart.ChartGenerator;
 import org.xwiki.chart.ChartGeneratorException;
+import org.xwiki.chart.model.ChartModel;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.component.manager.ComponentManager;
@@ -45,6 +45,7 @@
 import org.xwiki.rendering.macro.AbstractMacro;
 import org.xwiki.rendering.macro.MacroExecutionException;
 import org.xwiki.rendering.macro.chart.ChartDataSource;
+import org.xwiki.rendering.macro.chart.ChartMacroConfiguration;
 import org.xwiki.rendering.macro.chart.ChartMacroParameters;
 import org.xwiki.rendering.macro.descriptor.DefaultContentDescriptor;
 import org.xwiki.rendering.transformation.MacroTransformationContext;
@@ -94,6 +95,17 @@ public class ChartMacro extends AbstractMacro<ChartMacroParameters>
     @Inject
     private Container container;
 
+    /**
+     * Used to get the size of the chart image cache.
+     */
+    @Inject
+    private ChartMacroConfiguration configuration;
+
+    /**
+     * The generated chart images, created the first time a chart is generated.
+     */
+    private volatile ChartImageCache imageCache;
+
     /**
      * Create and initialize the descriptor of the macro.
      */
@@ -153,12 +165,14 @@ private String generateChart(ChartMacroParameters parameters, String content)
         File chartFile;
         try {
             ChartDataSource dataSource = this.componentManager.lookup(ChartDataSource.class, source);
-            byte[] chart =
-                this.chartGenerator.generate(dataSource.buildModel(content, paramsMap), paramsMap);
-            chartFile = getChartImageFile(parameters);
-            FileOutputStream fos = new FileOutputStream(chartFile);
-            fos.write(chart);
-            fos.close();
+            ChartModel model = dataSource.buildModel(content, paramsMap);
+
+            // The same parameters and data always produce the same image so it's only generated the first time
+            ChartImageCache cache = getImageCache();
+            chartFile = getChartImageFile(parameters, cache.getKey(paramsMap, model));
+            if (!cache.touch(chartFile)) {
+                cache.store(chartFile, this.chartGenerator.generate(model, paramsMap));
+            }
         } catch (ComponentLookupException ex) {
             throw new MacroExecutionException("Invalid source parameter.", ex);
         } catch (ChartGeneratorException ex) {
@@ -169,15 +183,48 @@ private String generateChart(ChartMacroParameters parameters, String content)
         return chartFile.getName();
     }
 
+    /**
+     * @return the cache of the generated chart images
+     */
+    private ChartImageCache getImageCache()
+    {
+        if (this.imageCache == null) {
+            synchronized (this) {
+                if (this.imageCache == null) {
+                    File chartsDir = new File(this.container.getApplicationContext().getTemporaryDirectory(), "charts");
+                    this.imageCache = new ChartImageCache(chartsDir, this.configuration.getCacheSize());
+                }
+            }
+        }
+
+        return this.imageCache;
+    }
+
     /**
      * Returns the temporary file into which the chart image will be saved.
      * 
      * @param parameters macro parameters
      * @return the chart image file
+     * @deprecated since 3.2M1 the macro doesn't call this method anymore, the image file depends on the chart data too:
+     *             override {@link #getChartImageFile(ChartMacroParameters, String)} instead
      */
+    @Deprecated
     protected File getChartImageFile(ChartMacroParameters parameters)
     {
         File chartsDir = new File(this.container.getApplicationContext().getTemporaryDirectory(), "charts");
-        return new File(chartsDir, Math.abs(parameters.hashCode()) + ".png");
+        return new File(chartsDir, Math.abs(parameters.hashCode()) + ChartImageCache.EXTENSION);
+    }
+
+    /**
+     * Returns the temporary file into which the chart image will be saved.
+     * 
+     * @param parameters macro parameters
+     * @param chartKey the hash of the chart parameters and data
+     * @return the chart image file
+     * @since 3.2M1
+     */
+    protected File getChartImageFile(ChartMacroParameters parameters, String chartKey)
+    {
+        return getImageCache().getFile(chartKey);
     }
 }
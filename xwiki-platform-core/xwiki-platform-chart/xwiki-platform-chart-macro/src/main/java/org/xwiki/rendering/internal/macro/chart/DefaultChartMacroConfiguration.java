@@ -0,0 +1,67 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.rendering.internal.macro.chart;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.rendering.macro.chart.ChartMacroConfiguration;
+
+/**
+ * Configuration options for the {@link ChartMacro chart macro}, implemented using the {@link ConfigurationSource}
+ * component.
+ * 
+ * @version $Id$
+ * @since 3.2M1
+ */
+@Component
+@Singleton
+public class DefaultChartMacroConfiguration implements ChartMacroConfiguration
+{
+    /**
+     * Prefix for configuration keys for this module.
+     */
+    private static final String PREFIX = "macro.chart.";
+
+    /**
+     * Default value for the size of the chart image cache: 50MB.
+     * 
+     * @see #getCacheSize()
+     */
+    private static final long DEFAULT_CACHE_SIZE = 50L * 1024 * 1024;
+
+    /**
+     * Defines from where to read the rendering configuration data.
+     */
+    @Inject
+    private ConfigurationSource configuration;
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see ChartMacroConfiguration#getCacheSize()
+     */
+    public long getCacheSize()
+    {
+        return this.configuration.getProperty(PREFIX + "cacheSize", DEFAULT_CACHE_SIZE);
+    }
+}
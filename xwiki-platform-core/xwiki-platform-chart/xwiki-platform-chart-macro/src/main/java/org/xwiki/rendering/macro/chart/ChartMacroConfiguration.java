@@ -0,0 +1,44 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.rendering.macro.chart;
+
+import org.xwiki.component.annotation.ComponentRole;
+
+/**
+ * Configuration properties for the {@link org.xwiki.rendering.internal.macro.chart.ChartMacro chart macro}.
+ * <p>
+ * You can override the default values for each of the configuration properties below by defining them in XWiki's global
+ * configuration file using a prefix of "macro.chart" followed by the property name. For example:
+ * <code>macro.chart.cacheSize = 104857600</code>
+ * 
+ * @version $Id$
+ * @since 3.2M1
+ */
+@ComponentRole
+public interface ChartMacroConfiguration
+{
+    /**
+     * The maximum total size of the chart images kept on disk. When it's exceeded the least recently used images are
+     * deleted and generated again the next time they are needed.
+     * 
+     * @return the maximum size in bytes, 0 or less for no limit
+     */
+    long getCacheSize();
+}
@@ -0,0 +1,151 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.rendering.internal.macro.chart;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.xwiki.chart.model.ChartModel;
+import org.xwiki.chart.model.DefaultChartModel;
+
+/**
+ * Unit tests for {@link ChartImageCache}.
+ * 
+ * @version $Id$
+ */
+public class ChartImageCacheTest
+{
+    private static final byte[] IMAGE = "0123456789".getBytes();
+
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.directory = File.createTempFile("charts", "");
+        this.directory.delete();
+        this.directory.mkdirs();
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        FileUtils.deleteDirectory(this.directory);
+    }
+
+    private ChartModel createModel(Number value)
+    {
+        return new DefaultChartModel(new Number[][] { {1, 2}, {3, value}}, new String[] {"r1", "r2"}, new String[] {
+            "c1", "c2"});
+    }
+
+    private Map<String, String> createParameters(Map<String, String> parameters, String type)
+    {
+        parameters.put("type", type);
+        parameters.put("source", "inline");
+
+        return parameters;
+    }
+
+    @Test
+    public void testKeyIsStable()
+    {
+        ChartImageCache cache = new ChartImageCache(this.directory, 0);
+
+        String key = cache.getKey(createParameters(new LinkedHashMap<String, String>(), "bar"), createModel(4));
+
+        // The key must not depend on the JVM, the order of the parameters or the instance of the model since images
+        // generated before a restart are reused
+        Assert.assertEquals("9f150e270d7599eb08e23d368ca8f607f3ca4e80", key);
+        Map<String, String> reversed = new LinkedHashMap<String, String>();
+        reversed.put("source", "inline");
+        reversed.put("type", "bar");
+        Assert.assertEquals(key, cache.getKey(reversed, createModel(4)));
+        Assert.assertEquals(key, cache.getKey(createParameters(new HashMap<String, String>(), "bar"),
+            createModel(4)));
+    }
+
+    @Test
+    public void testKeyDependsOnTheParametersAndTheData()
+    {
+        ChartImageCache cache = new ChartImageCache(this.directory, 0);
+
+        String key = cache.getKey(createParameters(new HashMap<String, String>(), "bar"), createModel(4));
+
+        Assert.assertFalse(key.equals(cache.getKey(createParameters(new HashMap<String, String>(), "pie"),
+            createModel(4))));
+        Assert.assertFalse(key.equals(cache.getKey(createParameters(new HashMap<String, String>(), "bar"),
+            createModel(5))));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedImagesAreEvicted() throws Exception
+    {
+        ChartImageCache cache = new ChartImageCache(this.directory, 25);
+        long now = System.currentTimeMillis();
+
+        File image1 = cache.getFile("image1");
+        cache.store(image1, IMAGE);
+        image1.setLastModified(now - 30000);
+        File image2 = cache.getFile("image2");
+        cache.store(image2, IMAGE);
+        image2.setLastModified(now - 20000);
+
+        // The first image is used again, the second one is now the least recently used
+        Assert.assertTrue(cache.touch(image1));
+
+        File image3 = cache.getFile("image3");
+        cache.store(image3, IMAGE);
+
+        Assert.assertTrue(image1.exists());
+        Assert.assertFalse(image2.exists());
+        Assert.assertTrue(image3.exists());
+        Assert.assertFalse(cache.touch(image2));
+        Assert.assertEquals(20, cache.getSize());
+    }
+
+    @Test
+    public void testImageStoredTwiceIsCountedOnce() throws Exception
+    {
+        ChartImageCache cache = new ChartImageCache(this.directory, 25);
+
+        // What happens when two threads generate the same chart at the same time
+        File image = cache.getFile("image");
+        cache.store(image, IMAGE);
+        cache.store(image, "9876543210".getBytes());
+
+        Assert.assertEquals(10, cache.getSize());
+        Assert.assertEquals("0123456789", FileUtils.readFileToString(image));
+        Assert.assertEquals(1, this.directory.listFiles().length);
+
+        File image2 = cache.getFile("image2");
+        cache.store(image2, IMAGE);
+
+        Assert.assertTrue(image.exists());
+        Assert.assertEquals(20, cache.getSize());
+    }
+}
@@ -77,6 +77,18 @@ public void initialize(ComponentManager componentManager) throws Exception
                     IntegrationTests.class.getClassLoader().getResourceAsStream("wiki.txt"))));
         }});
 
+        // Configuration Mock
+        final ChartMacroConfiguration mockConfiguration = mockery.mock(ChartMacroConfiguration.class);
+        DefaultComponentDescriptor<ChartMacroConfiguration> descriptorCMC =
+            new DefaultComponentDescriptor<ChartMacroConfiguration>();
+        descriptorCMC.setRole(ChartMacroConfiguration.class);
+        componentManager.registerComponent(descriptorCMC, mockConfiguration);
+
+        mockery.checking(new Expectations() {{
+            allowing(mockConfiguration).getCacheSize();
+                will(returnValue(0L));
+        }});
+
         // Document Name Serializer Mock
         final EntityReferenceSerializer mockEntityReferenceSerializer = mockery.mock(EntityReferenceSerializer.class);
         DefaultComponentDescriptor<EntityReferenceSerializer> descriptorERS =
@@ -42,7 +42,7 @@ public class TestChartMacro extends ChartMacro
      * {@inheritDoc}
      */
     @Override
-    protected File getChartImageFile(ChartMacroParameters parameters)
+    protected File getChartImageFile(ChartMacroParameters parameters, String chartKey)
     {
         return new File(System.getProperty("java.io.tmpdir") + "/chart.png");
     }
@@ -19,14 +19,24 @@
  */
 package org.xwiki.extension.xar.internal.handler.packager;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.SequenceInputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
@@ -62,11 +72,74 @@
 import com.xpn.xwiki.XWikiException;
 import com.xpn.xwiki.doc.XWikiDocument;
 import com.xpn.xwiki.doc.merge.MergeConfiguration;
+import com.xpn.xwiki.util.AbstractXWikiRunnable;
 
 @Component
 @Singleton
 public class DefaultPackager implements Packager, Initializable
 {
+    private static final String XWIKICONTEXT = "xwikicontext";
+
+    /**
+     * The maximum size of a XAR entry kept in memory to be parsed in a parser thread. Bigger entries (usually
+     * containing attachments) are parsed while being read from the XAR and their attachments saved as soon as they
+     * are parsed.
+     */
+    private static final int MAX_BUFFERED_ENTRY_SIZE = 1024 * 1024;
+
+    /**
+     * A XAR entry being imported.
+     */
+    private class XarImportEntry implements Callable<Object>
+    {
+        private final String name;
+
+        private final byte[] content;
+
+        private final DocumentImporterHandler handler;
+
+        private final FutureTask<Object> future = new FutureTask<Object>(this);
+
+        /**
+         * @param name the name of the entry in the XAR
+         * @param content the content of the entry
+         * @param handler the handler used to parse and save the entry
+         */
+        XarImportEntry(String name, byte[] content, DocumentImporterHandler handler)
+        {
+            this.name = name;
+            this.content = content;
+            this.handler = handler;
+        }
+
+        public Object call() throws Exception
+        {
+            parseDocument(new ByteArrayInputStream(this.content), this.handler);
+
+            return null;
+        }
+
+        String getName()
+        {
+            return this.name;
+        }
+
+        byte[] getContent()
+        {
+            return this.content;
+        }
+
+        DocumentImporterHandler getHandler()
+        {
+            return this.handler;
+        }
+
+        FutureTask<Object> getFuture()
+        {
+            return this.future;
+        }
+    }
+
     @Inject
     private ComponentManager componentManager;
 
@@ -83,6 +156,9 @@ public class DefaultPackager implements Packager, Initializable
     @Inject
     private Logger logger;
 
+    @Inject
+    private XarImportConfiguration configuration;
+
     private SAXParserFactory parserFactory;
 
     /**
@@ -127,46 +203,330 @@ public void importXAR(XarFile previousXarFile, File xarFile, String wiki, MergeC
     public XarMergeResult importXARToWiki(XarFile previousXarFile, File xarFile, String wiki,
         MergeConfiguration mergeConfiguration) throws IOException
     {
+        XarImportCheckpoint checkpoint =
+            this.configuration.isCheckpointEnabled() ? XarImportCheckpoint.load(xarFile, wiki)
+                : new XarImportCheckpoint(null);
+
         FileInputStream fis = new FileInputStream(xarFile);
         try {
-            return importXARToWiki(previousXarFile, fis, wiki, mergeConfiguration);
+            XarMergeResult mergeResult = importXARToWiki(previousXarFile, fis, wiki, mergeConfiguration, checkpoint);
+
+            // The import went to the end, no need to resume it
+            checkpoint.delete();
+
+            return mergeResult;
         } finally {
+            checkpoint.close();
             fis.close();
         }
     }
 
     public XarMergeResult importXARToWiki(XarFile previousXarFile, InputStream xarInputStream, String wiki,
         MergeConfiguration mergeConfiguration) throws IOException
+    {
+        return importXARToWiki(previousXarFile, xarInputStream, wiki, mergeConfiguration,
+            new XarImportCheckpoint(null));
+    }
+
+    /**
+     * Import the documents of a XAR in a wiki.
+     * <p>
+     * Entries are parsed by a pool of threads while the current thread saves the parsed documents in the order of the
+     * XAR, possibly several documents per transaction. The number of parsed documents waiting to be saved is bounded
+     * to limit memory usage and entries bigger than {@link #MAX_BUFFERED_ENTRY_SIZE} are never kept in memory: they
+     * are parsed and saved by the current thread, in their own transaction, while being read.
+     * 
+     * @param previousXarFile the previous version of the XAR, used to merge the documents, null if none
+     * @param xarInputStream the XAR to import
+     * @param wiki the wiki where to import the XAR
+     * @param mergeConfiguration the merge configuration
+     * @param checkpoint the list of entries already imported by an interrupted import and where to add new ones
+     * @return the result of the merge of the documents
+     * @throws IOException when failing to read the XAR
+     */
+    public XarMergeResult importXARToWiki(XarFile previousXarFile, InputStream xarInputStream, String wiki,
+        MergeConfiguration mergeConfiguration, XarImportCheckpoint checkpoint) throws IOException
     {
         XarMergeResult mergeResult = new XarMergeResult();
 
-        ZipInputStream zis = new ZipInputStream(xarInputStream);
+        XWikiContext xcontext = getXWikiContext();
 
-        for (ZipEntry entry = zis.getNextEntry(); entry != null; entry = zis.getNextEntry()) {
-            if (!entry.isDirectory()) {
-                try {
-                    DocumentImporterHandler documentHandler =
-                        new DocumentImporterHandler(this, this.componentManager, wiki);
-                    documentHandler.setPreviousXarFile(previousXarFile);
-                    documentHandler.setMergeConfiguration(mergeConfiguration);
+        int parserThreads = this.configuration.getParserThreads();
+        ExecutorService parsers = null;
+        // Keep a few documents ahead so that the parsers are never waiting for the saves
+        int maxPending = parserThreads * 2;
+
+        XarImportBatch batch =
+            new XarImportBatch(this.configuration.getBatchSize(), this.configuration.isEventsDeferred(), this.logger,
+                xcontext);
+        List<XarImportEntry> batchEntries = new ArrayList<XarImportEntry>();
+
+        LinkedList<XarImportEntry> pendingEntries = new LinkedList<XarImportEntry>();
+
+        String currentDatabase = xcontext.getDatabase();
+        try {
+            // Transactions are started on the current database
+            xcontext.setDatabase(wiki);
 
-                    parseDocument(zis, documentHandler);
+            if (parserThreads > 1) {
+                parsers = Executors.newFixedThreadPool(parserThreads, createParserThreadFactory(xcontext));
+            }
+
+            ZipInputStream zis = new ZipInputStream(xarInputStream);
+
+            for (ZipEntry entry = zis.getNextEntry(); entry != null; entry = zis.getNextEntry()) {
+                if (!entry.isDirectory() && !checkpoint.isImported(entry.getName())) {
+                    byte[] content = readEntryStart(zis);
+
+                    if (content.length > MAX_BUFFERED_ENTRY_SIZE) {
+                        // Keep the XAR order: save everything which has been read before this entry
+                        while (!pendingEntries.isEmpty()) {
+                            saveEntry(pendingEntries.removeFirst(), batch, batchEntries, previousXarFile, wiki,
+                                mergeConfiguration, mergeResult, checkpoint);
+                        }
+                        commitBatch(batch, batchEntries, previousXarFile, wiki, mergeConfiguration, mergeResult,
+                            checkpoint);
+
+                        importStreamedEntry(entry.getName(), new SequenceInputStream(new ByteArrayInputStream(
+                            content), zis), batch, previousXarFile, wiki, mergeConfiguration, mergeResult,
+                            checkpoint);
+                    } else {
+                        XarImportEntry importEntry =
+                            new XarImportEntry(entry.getName(), content, createImporterHandler(previousXarFile,
+                                wiki, mergeConfiguration, true));
+
+                        if (parsers != null) {
+                            parsers.execute(importEntry.getFuture());
+                        } else {
+                            importEntry.getFuture().run();
+                        }
+                        pendingEntries.add(importEntry);
 
-                    if (documentHandler.getMergeResult() != null) {
-                        mergeResult.addMergeResult(documentHandler.getMergeResult());
+                        if (pendingEntries.size() >= maxPending) {
+                            saveEntry(pendingEntries.removeFirst(), batch, batchEntries, previousXarFile, wiki,
+                                mergeConfiguration, mergeResult, checkpoint);
+                        }
                     }
-                } catch (NotADocumentException e) {
-                    // Impossible to know that before parsing
-                    this.logger.debug("Entry [" + entry + "] is not a document", e);
-                } catch (Exception e) {
-                    this.logger.error("Failed to parse document [" + entry.getName() + "]", e);
                 }
             }
+
+            while (!pendingEntries.isEmpty()) {
+                saveEntry(pendingEntries.removeFirst(), batch, batchEntries, previousXarFile, wiki,
+                    mergeConfiguration, mergeResult, checkpoint);
+            }
+
+            commitBatch(batch, batchEntries, previousXarFile, wiki, mergeConfiguration, mergeResult, checkpoint);
+        } finally {
+            batch.rollback();
+            if (parsers != null) {
+                parsers.shutdownNow();
+            }
+            xcontext.setDatabase(currentDatabase);
         }
 
         return mergeResult;
     }
 
+    /**
+     * Parsing documents may require components which use the execution context so each parser thread gets its own
+     * context containing a copy of the XWiki context of the import.
+     */
+    private ThreadFactory createParserThreadFactory(XWikiContext xcontext)
+    {
+        // Copy the context before any transaction is started by the import so that it's not shared with the parsers
+        final XWikiContext parserContext = (XWikiContext) xcontext.clone();
+
+        return new ThreadFactory()
+        {
+            public Thread newThread(final Runnable runnable)
+            {
+                Thread thread = new Thread(new AbstractXWikiRunnable(XWIKICONTEXT, parserContext.clone())
+                {
+                    @Override
+                    protected void runInternal()
+                    {
+                        runnable.run();
+                    }
+                }, "XAR import parser");
+                thread.setDaemon(true);
+
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * @param deferred true if the document is parsed in a parser thread and saved later by the import thread
+     */
+    private DocumentImporterHandler createImporterHandler(XarFile previousXarFile, String wiki,
+        MergeConfiguration mergeConfiguration, boolean deferred)
+    {
+        DocumentImporterHandler documentHandler = new DocumentImporterHandler(this, this.componentManager, wiki);
+        documentHandler.setPreviousXarFile(previousXarFile);
+        documentHandler.setMergeConfiguration(mergeConfiguration);
+        documentHandler.setDeferred(deferred);
+
+        return documentHandler;
+    }
+
+    /**
+     * Read the beginning of a XAR entry, up to one byte more than {@link #MAX_BUFFERED_ENTRY_SIZE}.
+     * 
+     * @return the whole entry if it's not bigger than {@link #MAX_BUFFERED_ENTRY_SIZE}
+     */
+    private byte[] readEntryStart(InputStream in) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        byte[] buffer = new byte[4096];
+        while (out.size() <= MAX_BUFFERED_ENTRY_SIZE) {
+            int length = in.read(buffer);
+            if (length == -1) {
+                break;
+            }
+            out.write(buffer, 0, length);
+        }
+
+        return out.toByteArray();
+    }
+
+    /**
+     * Parse and save a XAR entry too big to be kept in memory. The attachments are saved as soon as they are parsed
+     * and the whole entry is committed in its own transaction since it can't be parsed again if the transaction fails.
+     */
+    private void importStreamedEntry(String entryName, InputStream in, XarImportBatch batch,
+        XarFile previousXarFile, String wiki, MergeConfiguration mergeConfiguration, XarMergeResult mergeResult,
+        XarImportCheckpoint checkpoint) throws IOException
+    {
+        DocumentImporterHandler documentHandler = createImporterHandler(previousXarFile, wiki, mergeConfiguration,
+            false);
+        documentHandler.setBatch(batch);
+
+        try {
+            parseDocument(in, documentHandler);
+            batch.addEntry(entryName);
+            batch.commit();
+        } catch (NotADocumentException e) {
+            this.logger.debug("Entry [" + entryName + "] is not a document", e);
+
+            return;
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            batch.rollback();
+            this.logger.error("Failed to import document [" + entryName + "]", e);
+
+            return;
+        }
+
+        addMergeResult(documentHandler, mergeResult);
+        checkpoint.addImported(Collections.singletonList(entryName));
+    }
+
+    /**
+     * Save a parsed XAR entry in the current batch and commit the batch if it's full.
+     */
+    private void saveEntry(XarImportEntry entry, XarImportBatch batch, List<XarImportEntry> batchEntries,
+        XarFile previousXarFile, String wiki, MergeConfiguration mergeConfiguration, XarMergeResult mergeResult,
+        XarImportCheckpoint checkpoint) throws IOException
+    {
+        try {
+            entry.getFuture().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for entry [" + entry.getName() + "] to be parsed");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof NotADocumentException) {
+                // Impossible to know that before parsing
+                this.logger.debug("Entry [" + entry.getName() + "] is not a document", e.getCause());
+            } else {
+                this.logger.error("Failed to parse document [" + entry.getName() + "]", e.getCause());
+            }
+
+            return;
+        }
+
+        try {
+            entry.getHandler().setBatch(batch);
+            entry.getHandler().importDocument();
+            batch.addEntry(entry.getName());
+            batchEntries.add(entry);
+        } catch (Exception e) {
+            if (batch.isBatched()) {
+                // The whole transaction is lost, import the entries of the batch one by one to isolate the failure
+                batch.rollback();
+                batchEntries.add(entry);
+                reimportEntries(batchEntries, previousXarFile, wiki, mergeConfiguration, mergeResult, checkpoint);
+            } else {
+                this.logger.error("Failed to import document [" + entry.getName() + "]", e);
+            }
+
+            return;
+        }
+
+        if (batch.isFull()) {
+            commitBatch(batch, batchEntries, previousXarFile, wiki, mergeConfiguration, mergeResult, checkpoint);
+        }
+    }
+
+    private void commitBatch(XarImportBatch batch, List<XarImportEntry> batchEntries, XarFile previousXarFile,
+        String wiki, MergeConfiguration mergeConfiguration, XarMergeResult mergeResult,
+        XarImportCheckpoint checkpoint) throws IOException
+    {
+        List<String> entryNames = new ArrayList<String>(batch.getEntries());
+
+        try {
+            batch.commit();
+        } catch (XWikiException e) {
+            this.logger.warn("Failed to commit import batch, importing its entries one by one", e);
+            reimportEntries(batchEntries, previousXarFile, wiki, mergeConfiguration, mergeResult, checkpoint);
+
+            return;
+        }
+
+        for (XarImportEntry entry : batchEntries) {
+            addMergeResult(entry.getHandler(), mergeResult);
+        }
+        batchEntries.clear();
+
+        checkpoint.addImported(entryNames);
+    }
+
+    /**
+     * Import entries one by one, each in its own transaction, after the batch containing them failed.
+     */
+    private void reimportEntries(List<XarImportEntry> entries, XarFile previousXarFile, String wiki,
+        MergeConfiguration mergeConfiguration, XarMergeResult mergeResult, XarImportCheckpoint checkpoint)
+        throws IOException
+    {
+        for (XarImportEntry entry : entries) {
+            try {
+                DocumentImporterHandler documentHandler =
+                    createImporterHandler(previousXarFile, wiki, mergeConfiguration, true);
+                parseDocument(new ByteArrayInputStream(entry.getContent()), documentHandler);
+                documentHandler.importDocument();
+
+                addMergeResult(documentHandler, mergeResult);
+                checkpoint.addImported(Collections.singletonList(entry.getName()));
+            } catch (NotADocumentException e) {
+                this.logger.debug("Entry [" + entry.getName() + "] is not a document", e);
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                this.logger.error("Failed to import document [" + entry.getName() + "]", e);
+            }
+        }
+
+        entries.clear();
+    }
+
+    private void addMergeResult(DocumentImporterHandler documentHandler, XarMergeResult mergeResult)
+    {
+        if (documentHandler.getMergeResult() != null) {
+            mergeResult.addMergeResult(documentHandler.getMergeResult());
+        }
+    }
+
     /**
      * {@inheritDoc}
      * 
@@ -297,7 +657,11 @@ public List<XarEntry> getEntries(File xarFile) throws IOException
     public void parseDocument(InputStream in, ContentHandler documentHandler) throws ParserConfigurationException,
         SAXException, IOException, NotADocumentException
     {
-        SAXParser saxParser = this.parserFactory.newSAXParser();
+        SAXParser saxParser;
+        // SAXParserFactory is not thread safe and entries can be parsed by several threads
+        synchronized (this.parserFactory) {
+            saxParser = this.parserFactory.newSAXParser();
+        }
         XMLReader xmlReader = saxParser.getXMLReader();
 
         RootHandler handler = new RootHandler(this.componentManager);
@@ -318,6 +682,6 @@ private ExecutionContext getExecutionContext()
 
     private XWikiContext getXWikiContext()
     {
-        return (XWikiContext) getExecutionContext().getProperty("xwikicontext");
+        return (XWikiContext) getExecutionContext().getProperty(XWIKICONTEXT);
     }
 }
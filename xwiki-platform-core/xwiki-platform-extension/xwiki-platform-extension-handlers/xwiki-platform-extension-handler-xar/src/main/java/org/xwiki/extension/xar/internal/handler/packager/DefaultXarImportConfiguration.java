@@ -0,0 +1,90 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.extension.xar.internal.handler.packager;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.configuration.ConfigurationSource;
+
+/**
+ * Default implementation of {@link XarImportConfiguration} based on xwiki.properties.
+ *
+ * @version $Id$
+ * @since 3.2M1
+ */
+@Component
+@Singleton
+public class DefaultXarImportConfiguration implements XarImportConfiguration
+{
+    /**
+     * Configuration key prefix.
+     */
+    private static final String PREFIX = "extension.xar.import.";
+
+    /**
+     * xwiki.properties file configurations.
+     */
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see org.xwiki.extension.xar.internal.handler.packager.XarImportConfiguration#getParserThreads()
+     */
+    public int getParserThreads()
+    {
+        return Math.max(1, this.configuration.getProperty(PREFIX + "parserThreads", 1));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see org.xwiki.extension.xar.internal.handler.packager.XarImportConfiguration#getBatchSize()
+     */
+    public int getBatchSize()
+    {
+        return Math.max(1, this.configuration.getProperty(PREFIX + "batchSize", 1));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see org.xwiki.extension.xar.internal.handler.packager.XarImportConfiguration#isEventsDeferred()
+     */
+    public boolean isEventsDeferred()
+    {
+        return this.configuration.getProperty(PREFIX + "deferEvents", false);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see org.xwiki.extension.xar.internal.handler.packager.XarImportConfiguration#isCheckpointEnabled()
+     */
+    public boolean isCheckpointEnabled()
+    {
+        return this.configuration.getProperty(PREFIX + "checkpoint", false);
+    }
+}
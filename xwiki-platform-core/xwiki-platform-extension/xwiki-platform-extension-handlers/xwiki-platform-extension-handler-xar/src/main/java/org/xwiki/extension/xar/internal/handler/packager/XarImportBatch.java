@@ -0,0 +1,257 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.extension.xar.internal.handler.packager;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.slf4j.Logger;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.store.XWikiCacheStore;
+import com.xpn.xwiki.store.XWikiHibernateStore;
+
+/**
+ * Save the documents of a XAR import. Depending on the configuration, several XAR entries are saved in the same
+ * database transaction and the document created/updated events (which trigger secondary work like indexing, activity
+ * stream or statistics) are only sent once the transaction has been committed.
+ * <p>
+ * With a batch size of 1 and no deferred events, documents are saved exactly like any other document save.
+ *
+ * @version $Id$
+ * @since 3.2M1
+ */
+public class XarImportBatch
+{
+    /**
+     * A document saved in the current batch.
+     */
+    private static class SavedDocument
+    {
+        /**
+         * The saved document.
+         */
+        private final XWikiDocument document;
+
+        /**
+         * The document as it was before being saved, used to send the events.
+         */
+        private final XWikiDocument originalDocument;
+
+        /**
+         * @param document the saved document
+         * @param originalDocument the document as it was before being saved
+         */
+        SavedDocument(XWikiDocument document, XWikiDocument originalDocument)
+        {
+            this.document = document;
+            this.originalDocument = originalDocument;
+        }
+    }
+
+    private final int size;
+
+    private final boolean eventsDeferred;
+
+    private final XWikiContext context;
+
+    private final Logger logger;
+
+    /**
+     * The names of the XAR entries imported in the current batch.
+     */
+    private final List<String> entries = new ArrayList<String>();
+
+    /**
+     * The documents saved in the current batch.
+     */
+    private final List<SavedDocument> savedDocuments = new ArrayList<SavedDocument>();
+
+    /**
+     * The store in which a transaction has been started for the current batch, null if none.
+     */
+    private XWikiHibernateStore transactionStore;
+
+    /**
+     * @param size the number of XAR entries to save in the same transaction
+     * @param eventsDeferred true if the document created/updated events should be sent after the commit
+     * @param logger the logger used to report rollback failures
+     * @param context the XWiki context
+     */
+    public XarImportBatch(int size, boolean eventsDeferred, Logger logger, XWikiContext context)
+    {
+        this.size = size;
+        this.eventsDeferred = eventsDeferred;
+        this.logger = logger;
+        this.context = context;
+    }
+
+    /**
+     * @return true if the import is done in several transactions, each containing several entries
+     */
+    public boolean isBatched()
+    {
+        return this.size > 1;
+    }
+
+    /**
+     * Save a document as part of the current batch.
+     *
+     * @param document the document to save
+     * @param comment the comment of the save
+     * @throws XWikiException when failing to save the document
+     */
+    public void saveDocument(XWikiDocument document, String comment) throws XWikiException
+    {
+        if (isBatched() && this.transactionStore == null) {
+            XWikiHibernateStore store = this.context.getWiki().getHibernateStore();
+            if (store != null && store.beginTransaction(this.context)) {
+                this.transactionStore = store;
+            }
+        }
+
+        if (this.eventsDeferred) {
+            XWikiDocument originalDocument =
+                this.context.getWiki().saveDocumentWithoutSavedNotifications(document, comment, false, this.context);
+            this.savedDocuments.add(new SavedDocument(document, originalDocument));
+        } else {
+            this.context.getWiki().saveDocument(document, comment, this.context);
+            this.savedDocuments.add(new SavedDocument(document, null));
+        }
+    }
+
+    /**
+     * Indicate that a XAR entry has been imported in the current batch.
+     *
+     * @param entryName the name of the XAR entry
+     */
+    public void addEntry(String entryName)
+    {
+        this.entries.add(entryName);
+    }
+
+    /**
+     * @return the names of the XAR entries imported in the current batch
+     */
+    public List<String> getEntries()
+    {
+        return this.entries;
+    }
+
+    /**
+     * @return true if the current batch contains enough entries to be committed
+     */
+    public boolean isFull()
+    {
+        return this.entries.size() >= this.size;
+    }
+
+    /**
+     * Commit the current batch and send the events of its documents if they have been deferred.
+     *
+     * @throws XWikiException when failing to commit
+     */
+    public void commit() throws XWikiException
+    {
+        try {
+            if (this.transactionStore != null) {
+                XWikiHibernateStore store = this.transactionStore;
+                this.transactionStore = null;
+                store.endTransaction(this.context, true);
+            }
+        } catch (RuntimeException e) {
+            evictSavedDocuments();
+            clear();
+            throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
+                XWikiException.ERROR_XWIKI_STORE_HIBERNATE_SAVING_DOC, "Failed to commit the import batch", e);
+        }
+
+        if (this.eventsDeferred) {
+            for (SavedDocument savedDocument : this.savedDocuments) {
+                sendSavedEvents(savedDocument);
+            }
+        }
+
+        clear();
+    }
+
+    /**
+     * Cancel the current batch.
+     */
+    public void rollback()
+    {
+        if (this.transactionStore != null) {
+            XWikiHibernateStore store = this.transactionStore;
+            this.transactionStore = null;
+            try {
+                store.endTransaction(this.context, false);
+            } catch (RuntimeException e) {
+                this.logger.error("Failed to rollback the import batch", e);
+            }
+        }
+
+        evictSavedDocuments();
+        clear();
+    }
+
+    private void clear()
+    {
+        this.entries.clear();
+        this.savedDocuments.clear();
+    }
+
+    /**
+     * Make sure no document saved or loaded in a cancelled transaction stays in the document cache or in the index of
+     * existing documents.
+     */
+    private void evictSavedDocuments()
+    {
+        if (!this.savedDocuments.isEmpty() && this.context.getWiki().getStore() instanceof XWikiCacheStore) {
+            XWikiCacheStore cacheStore = (XWikiCacheStore) this.context.getWiki().getStore();
+            Set<String> wikis = new HashSet<String>();
+            for (SavedDocument savedDocument : this.savedDocuments) {
+                String key = cacheStore.getKey(savedDocument.document.getWikiName(),
+                    savedDocument.document.getFullName(), savedDocument.document.getLanguage());
+                cacheStore.getCache().remove(key);
+                cacheStore.getPageExistCache().remove(key);
+                wikis.add(savedDocument.document.getWikiName());
+            }
+            for (String wiki : wikis) {
+                cacheStore.evictExistenceIndex(wiki);
+            }
+        }
+    }
+
+    /**
+     * Send the events which would have been sent by
+     * {@link com.xpn.xwiki.XWiki#saveDocument(XWikiDocument, String, XWikiContext)}.
+     *
+     * @param savedDocument the saved document
+     */
+    private void sendSavedEvents(SavedDocument savedDocument)
+    {
+        this.context.getWiki().notifyDocumentSaved(savedDocument.document, savedDocument.originalDocument,
+            this.context);
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.extension.xar.internal.handler.packager;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Keep track of the XAR entries which have been imported and committed so that an interrupted import can be resumed
+ * where it stopped. The names of the imported entries are appended to a file, one per line, after a first line
+ * containing the hash of the imported XAR so that entries imported from a different version of the XAR are never
+ * skipped.
+ *
+ * @version $Id$
+ * @since 3.2M1
+ */
+public class XarImportCheckpoint
+{
+    private static final String ENCODING = "UTF-8";
+
+    private final File file;
+
+    /**
+     * The hash of the imported XAR, written as first line of the checkpoint file.
+     */
+    private final String hash;
+
+    private final Set<String> importedEntries = new HashSet<String>();
+
+    private Writer writer;
+
+    /**
+     * @param file the file where to store the checkpoint, null to not store anything (when importing a stream or
+     *            when checkpoints are disabled)
+     */
+    public XarImportCheckpoint(File file)
+    {
+        this(file, null);
+    }
+
+    /**
+     * @param file the file where to store the checkpoint, null to not store anything
+     * @param hash the hash of the imported XAR
+     */
+    private XarImportCheckpoint(File file, String hash)
+    {
+        this.file = file;
+        this.hash = hash;
+    }
+
+    /**
+     * @param xarFile the imported XAR file
+     * @param wiki the wiki where the XAR is imported
+     * @return the checkpoint of the import of the provided XAR file in the provided wiki
+     * @throws IOException when failing to read the XAR file or an existing checkpoint
+     */
+    public static XarImportCheckpoint load(File xarFile, String wiki) throws IOException
+    {
+        String hash;
+        InputStream xarStream = new FileInputStream(xarFile);
+        try {
+            hash = DigestUtils.shaHex(xarStream);
+        } finally {
+            xarStream.close();
+        }
+
+        XarImportCheckpoint checkpoint =
+            new XarImportCheckpoint(new File(xarFile.getParentFile(), xarFile.getName() + '.' + wiki + ".import"),
+                hash);
+
+        if (checkpoint.file.exists()) {
+            List< ? > lines = FileUtils.readLines(checkpoint.file, ENCODING);
+
+            if (!lines.isEmpty() && hash.equals(lines.get(0))) {
+                for (Object line : lines.subList(1, lines.size())) {
+                    checkpoint.importedEntries.add((String) line);
+                }
+            } else {
+                // Left by the interrupted import of another version of the XAR
+                checkpoint.file.delete();
+            }
+        }
+
+        return checkpoint;
+    }
+
+    /**
+     * @param entryName the name of the XAR entry
+     * @return true if the entry has been imported by a previous interrupted import
+     */
+    public boolean isImported(String entryName)
+    {
+        return this.importedEntries.contains(entryName);
+    }
+
+    /**
+     * Remember that the provided entries have been imported and committed.
+     *
+     * @param entryNames the names of the XAR entries
+     * @throws IOException when failing to write the checkpoint
+     */
+    public void addImported(Collection<String> entryNames) throws IOException
+    {
+        if (this.file != null && !entryNames.isEmpty()) {
+            if (this.writer == null) {
+                boolean exists = this.file.exists();
+                this.writer = new OutputStreamWriter(new FileOutputStream(this.file, true), ENCODING);
+                if (!exists) {
+                    this.writer.write(this.hash);
+                    this.writer.write('\n');
+                }
+            }
+            for (String entryName : entryNames) {
+                this.writer.write(entryName);
+                this.writer.write('\n');
+            }
+            this.writer.flush();
+        }
+    }
+
+    /**
+     * Release the checkpoint file, keeping it so that the import can be resumed.
+     */
+    public void close()
+    {
+        IOUtils.closeQuietly(this.writer);
+        this.writer = null;
+    }
+
+    /**
+     * Indicate that the import is finished and that the checkpoint is not needed anymore.
+     */
+    public void delete()
+    {
+        close();
+        if (this.file != null) {
+            this.file.delete();
+        }
+    }
+}
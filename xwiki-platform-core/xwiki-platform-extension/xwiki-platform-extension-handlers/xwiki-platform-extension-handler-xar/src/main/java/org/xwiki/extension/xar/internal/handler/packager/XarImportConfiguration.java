@@ -0,0 +1,56 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.extension.xar.internal.handler.packager;
+
+import org.xwiki.component.annotation.ComponentRole;
+
+/**
+ * Configuration of the XAR import.
+ *
+ * @version $Id$
+ * @since 3.2M1
+ */
+@ComponentRole
+public interface XarImportConfiguration
+{
+    /**
+     * @return the number of threads used to parse the entries of a XAR, 1 means the entries are parsed by the thread
+     *         doing the import
+     */
+    int getParserThreads();
+
+    /**
+     * @return the number of XAR entries saved in the same database transaction, 1 means each document save has its
+     *         own transaction
+     */
+    int getBatchSize();
+
+    /**
+     * @return true if the document created/updated events should only be sent once the batch containing the
+     *         document has been committed
+     */
+    boolean isEventsDeferred();
+
+    /**
+     * @return true if the list of already imported entries should be saved next to the XAR file so that an
+     *         interrupted import can be resumed
+     */
+    boolean isCheckpointEnabled();
+}
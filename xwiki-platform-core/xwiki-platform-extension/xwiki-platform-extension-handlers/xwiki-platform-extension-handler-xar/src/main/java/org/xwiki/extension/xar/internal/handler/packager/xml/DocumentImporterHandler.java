@@ -20,6 +20,8 @@
 package org.xwiki.extension.xar.internal.handler.packager.xml;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.xml.parsers.ParserConfigurationException;
 
@@ -31,6 +33,7 @@
 import org.xwiki.extension.xar.internal.handler.packager.XarEntry;
 import org.xwiki.extension.xar.internal.handler.packager.XarEntryMergeResult;
 import org.xwiki.extension.xar.internal.handler.packager.XarFile;
+import org.xwiki.extension.xar.internal.handler.packager.XarImportBatch;
 import org.xwiki.model.EntityType;
 import org.xwiki.model.reference.EntityReference;
 
@@ -51,6 +54,13 @@ public class DocumentImporterHandler extends DocumentHandler
     
     private MergeConfiguration mergeConfiguration;
 
+    private XarImportBatch batch;
+
+    /**
+     * When true the document is only built during parsing and {@link #importDocument()} has to be called to save it.
+     */
+    private boolean deferred;
+
     public DocumentImporterHandler(DefaultPackager packager, ComponentManager componentManager, String wiki)
     {
         super(componentManager, wiki);
@@ -73,6 +83,49 @@ public XarEntryMergeResult getMergeResult()
         return mergeResult;
     }
 
+    /**
+     * @param batch the batch used to save the documents, null to save them directly
+     */
+    public void setBatch(XarImportBatch batch)
+    {
+        this.batch = batch;
+    }
+
+    /**
+     * @param deferred true if the document should only be saved when calling {@link #importDocument()}, which allows
+     *            parsing the document in a thread which is not the one saving it
+     */
+    public void setDeferred(boolean deferred)
+    {
+        this.deferred = deferred;
+    }
+
+    /**
+     * Save the parsed document and its attachments when parsing has been done in deferred mode.
+     * 
+     * @throws SAXException when failing to save the document
+     */
+    public void importDocument() throws SAXException
+    {
+        List<XWikiAttachment> attachments = new ArrayList<XWikiAttachment>(getDocument().getAttachmentList());
+        getDocument().getAttachmentList().clear();
+
+        for (XWikiAttachment attachment : attachments) {
+            saveAttachment(attachment, "Import: add attachment");
+        }
+
+        saveDocument(attachments.isEmpty() ? "Import" : "Import: final save");
+    }
+
+    private void saveDocument(XWikiDocument document, String comment, XWikiContext context) throws XWikiException
+    {
+        if (this.batch != null) {
+            this.batch.saveDocument(document, comment);
+        } else {
+            context.getWiki().saveDocument(document, comment, context);
+        }
+    }
+
     private void saveDocument(String comment) throws SAXException
     {
         try {
@@ -85,7 +138,7 @@ private void saveDocument(String comment) throws SAXException
             if (previousDocument != null && !dbDocument.isNew()) {
                 MergeResult documentMergeResult = dbDocument.merge(previousDocument, document, this.mergeConfiguration, context);
                 if (documentMergeResult.isModified()) {
-                    context.getWiki().saveDocument(dbDocument, comment, context);
+                    saveDocument(dbDocument, comment, context);
                 }
                 this.mergeResult =
                     new XarEntryMergeResult(new XarEntry(dbDocument.getDocumentReference(), dbDocument.getLanguage()),
@@ -95,7 +148,7 @@ private void saveDocument(String comment) throws SAXException
                     document.setVersion(dbDocument.getVersion());
                 }
 
-                context.getWiki().saveDocument(document, comment, context);
+                saveDocument(document, comment, context);
             }
         } catch (Exception e) {
             throw new SAXException("Failed to save document", e);
@@ -152,7 +205,7 @@ private void saveAttachment(XWikiAttachment attachment, String comment) throws S
                 dbAttachment.setAuthor(attachment.getAuthor());
             }
 
-            context.getWiki().saveDocument(dbDocument, comment, context);
+            saveDocument(dbDocument, comment, context);
 
             // reset content to since it could consume lots of memory and it's not used in diff for now
             attachment.setAttachment_content(null);
@@ -165,14 +218,20 @@ private void saveAttachment(XWikiAttachment attachment, String comment) throws S
     @Override
     protected void endAttachment(String uri, String localName, String qName) throws SAXException
     {
-        AttachmentHandler handler = (AttachmentHandler) getCurrentHandler();
+        if (this.deferred) {
+            super.endAttachment(uri, localName, qName);
+        } else {
+            AttachmentHandler handler = (AttachmentHandler) getCurrentHandler();
 
-        saveAttachment(handler.getAttachment(), "Import: add attachment");
+            saveAttachment(handler.getAttachment(), "Import: add attachment");
+        }
     }
 
     @Override
     protected void endHandlerElement(String uri, String localName, String qName) throws SAXException
     {
-        saveDocument(getDocument().getAttachmentList().isEmpty() ? "Import" : "Import: final save");
+        if (!this.deferred) {
+            saveDocument(getDocument().getAttachmentList().isEmpty() ? "Import" : "Import: final save");
+        }
     }
 }
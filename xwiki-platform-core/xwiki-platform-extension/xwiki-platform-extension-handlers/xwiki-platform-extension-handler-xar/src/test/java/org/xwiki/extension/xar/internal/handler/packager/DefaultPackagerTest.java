@@ -0,0 +1,220 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.extension.xar.internal.handler.packager;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.Assert;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
+import org.jmock.Expectations;
+import org.jmock.lib.action.CustomAction;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xwiki.model.reference.DocumentReference;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.doc.merge.MergeConfiguration;
+import com.xpn.xwiki.objects.classes.BaseClass;
+import com.xpn.xwiki.test.AbstractBridgedComponentTestCase;
+
+/**
+ * Unit tests for {@link DefaultPackager}.
+ *
+ * @version $Id$
+ */
+public class DefaultPackagerTest extends AbstractBridgedComponentTestCase
+{
+    private XWiki mockXWiki;
+
+    private Map<DocumentReference, XWikiDocument> documents = new HashMap<DocumentReference, XWikiDocument>();
+
+    private DefaultPackager packager;
+
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        super.setUp();
+
+        this.directory = new File("target/test-" + getClass().getSimpleName());
+        FileUtils.deleteDirectory(this.directory);
+        this.directory.mkdirs();
+
+        this.mockXWiki = getMockery().mock(XWiki.class);
+        getContext().setWiki(this.mockXWiki);
+
+        getMockery().checking(new Expectations()
+        {
+            {
+                allowing(mockXWiki).getDocument(with(any(DocumentReference.class)), with(any(XWikiContext.class)));
+                will(new CustomAction("getDocument")
+                {
+                    public Object invoke(org.jmock.api.Invocation invocation) throws Throwable
+                    {
+                        XWikiDocument document = documents.get(invocation.getParameter(0));
+
+                        if (document == null) {
+                            document = new XWikiDocument((DocumentReference) invocation.getParameter(0));
+                        }
+
+                        return document;
+                    }
+                });
+
+                allowing(mockXWiki).saveDocument(with(any(XWikiDocument.class)), with(any(String.class)),
+                    with(any(XWikiContext.class)));
+                will(new CustomAction("saveDocument")
+                {
+                    public Object invoke(org.jmock.api.Invocation invocation) throws Throwable
+                    {
+                        XWikiDocument document = (XWikiDocument) invocation.getParameter(0);
+
+                        document.incrementVersion();
+                        document.setNew(false);
+
+                        documents.put(document.getDocumentReference(), document);
+
+                        return null;
+                    }
+                });
+
+                allowing(mockXWiki).getXClass(with(any(DocumentReference.class)), with(any(XWikiContext.class)));
+                will(returnValue(new BaseClass()));
+            }
+        });
+
+        this.packager = (DefaultPackager) getComponentManager().lookup(Packager.class);
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        FileUtils.deleteDirectory(this.directory);
+
+        super.tearDown();
+    }
+
+    private File copyXar(String name) throws Exception
+    {
+        File xarFile = new File(this.directory, name);
+        FileUtils.copyURLToFile(getClass().getResource("/repository/remote/" + name), xarFile);
+
+        return xarFile;
+    }
+
+    private String getDocumentXML(String space, String name, String content)
+    {
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?><xwikidoc><web>" + space + "</web><name>" + name
+            + "</name><language></language><defaultLanguage>en</defaultLanguage><translation>0</translation>"
+            + "<author>XWiki.author</author><version>1.1</version><syntaxId>xwiki/2.0</syntaxId><content>"
+            + content + "</content></xwikidoc>";
+    }
+
+    private InputStream createXar(String... entries) throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ZipOutputStream zos = new ZipOutputStream(out);
+        for (int i = 0; i < entries.length; i += 2) {
+            zos.putNextEntry(new ZipEntry(entries[i]));
+            zos.write(entries[i + 1].getBytes("UTF-8"));
+            zos.closeEntry();
+        }
+        zos.close();
+
+        return new ByteArrayInputStream(out.toByteArray());
+    }
+
+    @Test
+    public void testImportResumesFromCheckpoint() throws Exception
+    {
+        File xarFile = copyXar("test-1.0.xar");
+
+        // Interrupted import of the same XAR
+        XarImportCheckpoint checkpoint = XarImportCheckpoint.load(xarFile, "wiki");
+        checkpoint.addImported(Arrays.asList("space/page.xml"));
+        checkpoint.close();
+
+        checkpoint = XarImportCheckpoint.load(xarFile, "wiki");
+        FileInputStream fis = new FileInputStream(xarFile);
+        try {
+            this.packager.importXARToWiki(null, fis, "wiki", new MergeConfiguration(), checkpoint);
+        } finally {
+            checkpoint.close();
+            fis.close();
+        }
+
+        Assert.assertFalse("Already imported entry has been imported again",
+            this.documents.containsKey(new DocumentReference("wiki", "space", "page")));
+        Assert.assertEquals("page1 content",
+            this.documents.get(new DocumentReference("wiki", "space1", "page1")).getContent());
+
+        // The new entry has been added to the checkpoint
+        checkpoint = XarImportCheckpoint.load(xarFile, "wiki");
+        Assert.assertTrue(checkpoint.isImported("space/page.xml"));
+        Assert.assertTrue(checkpoint.isImported("space1/page1.xml"));
+    }
+
+    @Test
+    public void testImportKeepsNoCheckpointByDefault() throws Exception
+    {
+        File xarFile = copyXar("test-1.0.xar");
+
+        this.packager.importXARToWiki(null, xarFile, "wiki", new MergeConfiguration());
+
+        Assert.assertTrue(this.documents.containsKey(new DocumentReference("wiki", "space", "page")));
+        Assert.assertTrue(this.documents.containsKey(new DocumentReference("wiki", "space1", "page1")));
+        Assert.assertEquals(1, this.directory.list().length);
+    }
+
+    @Test
+    public void testBigEntriesAreImportedWithoutBeingBuffered() throws Exception
+    {
+        String bigContent = StringUtils.repeat("big content ", 100000);
+
+        InputStream xar =
+            createXar("space/before.xml", getDocumentXML("space", "before", "before"), "space/big.xml",
+                getDocumentXML("space", "big", bigContent), "space/after.xml",
+                getDocumentXML("space", "after", "after"));
+
+        this.packager.importXARToWiki(null, xar, "wiki", new MergeConfiguration());
+
+        Assert.assertEquals("before", this.documents.get(new DocumentReference("wiki", "space", "before"))
+            .getContent());
+        Assert.assertEquals(bigContent, this.documents.get(new DocumentReference("wiki", "space", "big"))
+            .getContent());
+        Assert.assertEquals("after", this.documents.get(new DocumentReference("wiki", "space", "after"))
+            .getContent());
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.extension.xar.internal.handler.packager;
+
+import junit.framework.Assert;
+
+import org.jmock.Expectations;
+import org.jmock.Sequence;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+import org.xwiki.cache.Cache;
+import org.xwiki.model.reference.DocumentReference;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.store.XWikiCacheStore;
+import com.xpn.xwiki.store.XWikiHibernateStore;
+import com.xpn.xwiki.test.AbstractBridgedComponentTestCase;
+
+/**
+ * Unit tests for {@link XarImportBatch}.
+ *
+ * @version $Id$
+ */
+public class XarImportBatchTest extends AbstractBridgedComponentTestCase
+{
+    private XWiki mockXWiki;
+
+    private XWikiHibernateStore mockStore;
+
+    private XWikiDocument document1;
+
+    private XWikiDocument document2;
+
+    private XWikiDocument original1;
+
+    private XWikiDocument original2;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        super.setUp();
+
+        this.mockXWiki = getMockery().mock(XWiki.class);
+        this.mockStore = getMockery().mock(XWikiHibernateStore.class);
+        getContext().setWiki(this.mockXWiki);
+
+        this.document1 = new XWikiDocument(new DocumentReference("wiki", "space", "page1"));
+        this.document2 = new XWikiDocument(new DocumentReference("wiki", "space", "page2"));
+        this.original1 = new XWikiDocument(this.document1.getDocumentReference());
+        this.original2 = new XWikiDocument(this.document2.getDocumentReference());
+
+        getMockery().checking(new Expectations()
+        {
+            {
+                allowing(mockXWiki).getHibernateStore();
+                will(returnValue(mockStore));
+            }
+        });
+    }
+
+    private XarImportBatch createBatch(int size, boolean eventsDeferred)
+    {
+        return new XarImportBatch(size, eventsDeferred, LoggerFactory.getLogger(getClass()), getContext());
+    }
+
+    @Test
+    public void testBatchIsSavedInOneTransactionAndNotifiedAfterCommit() throws Exception
+    {
+        final Sequence sequence = getMockery().sequence("import");
+
+        getMockery().checking(new Expectations()
+        {
+            {
+                oneOf(mockStore).beginTransaction(getContext());
+                inSequence(sequence);
+                will(returnValue(true));
+                oneOf(mockXWiki).saveDocumentWithoutSavedNotifications(document1, "Import", false, getContext());
+                inSequence(sequence);
+                will(returnValue(original1));
+                oneOf(mockXWiki).saveDocumentWithoutSavedNotifications(document2, "Import", false, getContext());
+                inSequence(sequence);
+                will(returnValue(original2));
+                oneOf(mockStore).endTransaction(getContext(), true);
+                inSequence(sequence);
+                oneOf(mockXWiki).notifyDocumentSaved(document1, original1, getContext());
+                inSequence(sequence);
+                oneOf(mockXWiki).notifyDocumentSaved(document2, original2, getContext());
+                inSequence(sequence);
+            }
+        });
+
+        XarImportBatch batch = createBatch(2, true);
+
+        Assert.assertTrue(batch.isBatched());
+
+        batch.saveDocument(this.document1, "Import");
+        batch.addEntry("space/page1.xml");
+
+        Assert.assertFalse(batch.isFull());
+
+        batch.saveDocument(this.document2, "Import");
+        batch.addEntry("space/page2.xml");
+
+        Assert.assertTrue(batch.isFull());
+
+        batch.commit();
+
+        Assert.assertTrue(batch.getEntries().isEmpty());
+    }
+
+    @Test
+    public void testRollbackCancelsTheTransactionWithoutNotifying() throws Exception
+    {
+        getMockery().checking(new Expectations()
+        {
+            {
+                oneOf(mockStore).beginTransaction(getContext());
+                will(returnValue(true));
+                oneOf(mockXWiki).saveDocumentWithoutSavedNotifications(document1, "Import", false, getContext());
+                will(returnValue(original1));
+                oneOf(mockStore).endTransaction(getContext(), false);
+                never(mockXWiki).notifyDocumentSaved(document1, original1, getContext());
+                // Not a cache store, nothing to evict
+                allowing(mockXWiki).getStore();
+                will(returnValue(mockStore));
+            }
+        });
+
+        XarImportBatch batch = createBatch(2, true);
+
+        batch.saveDocument(this.document1, "Import");
+        batch.addEntry("space/page1.xml");
+
+        batch.rollback();
+
+        Assert.assertTrue(batch.getEntries().isEmpty());
+
+        // Nothing left to rollback
+        batch.rollback();
+    }
+
+    @Test
+    public void testRollbackEvictsTheSavedDocumentsFromTheCaches() throws Exception
+    {
+        final XWikiCacheStore mockCacheStore = getMockery().mock(XWikiCacheStore.class);
+        final Cache<XWikiDocument> mockCache = getMockery().mock(Cache.class, "documents");
+        final Cache<Boolean> mockPageExistCache = getMockery().mock(Cache.class, "pageExist");
+
+        getMockery().checking(new Expectations()
+        {
+            {
+                oneOf(mockStore).beginTransaction(getContext());
+                will(returnValue(true));
+                oneOf(mockXWiki).saveDocumentWithoutSavedNotifications(document1, "Import", false, getContext());
+                will(returnValue(original1));
+                oneOf(mockXWiki).saveDocumentWithoutSavedNotifications(document2, "Import", false, getContext());
+                will(returnValue(original2));
+                oneOf(mockStore).endTransaction(getContext(), false);
+
+                allowing(mockXWiki).getStore();
+                will(returnValue(mockCacheStore));
+                allowing(mockCacheStore).getCache();
+                will(returnValue(mockCache));
+                allowing(mockCacheStore).getPageExistCache();
+                will(returnValue(mockPageExistCache));
+                allowing(mockCacheStore).getKey("wiki", "space.page1", "");
+                will(returnValue("wiki:space.page1"));
+                allowing(mockCacheStore).getKey("wiki", "space.page2", "");
+                will(returnValue("wiki:space.page2"));
+
+                oneOf(mockCache).remove("wiki:space.page1");
+                oneOf(mockPageExistCache).remove("wiki:space.page1");
+                oneOf(mockCache).remove("wiki:space.page2");
+                oneOf(mockPageExistCache).remove("wiki:space.page2");
+                // The rolled back saves have been recorded in the index of existing documents
+                oneOf(mockCacheStore).evictExistenceIndex("wiki");
+            }
+        });
+
+        XarImportBatch batch = createBatch(2, true);
+
+        batch.saveDocument(this.document1, "Import");
+        batch.saveDocument(this.document2, "Import");
+
+        batch.rollback();
+    }
+
+    @Test
+    public void testNotBatchedDocumentsAreSavedDirectly() throws Exception
+    {
+        getMockery().checking(new Expectations()
+        {
+            {
+                never(mockStore).beginTransaction(getContext());
+                oneOf(mockXWiki).saveDocument(document1, "Import", getContext());
+                never(mockXWiki).notifyDocumentSaved(document1, original1, getContext());
+            }
+        });
+
+        XarImportBatch batch = createBatch(1, false);
+
+        Assert.assertFalse(batch.isBatched());
+
+        batch.saveDocument(this.document1, "Import");
+        batch.addEntry("space/page1.xml");
+
+        Assert.assertTrue(batch.isFull());
+
+        batch.commit();
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.extension.xar.internal.handler.packager;
+
+import java.io.File;
+import java.util.Arrays;
+
+import junit.framework.Assert;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link XarImportCheckpoint}.
+ *
+ * @version $Id$
+ */
+public class XarImportCheckpointTest
+{
+    private File directory;
+
+    private File xarFile;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.directory = new File("target/test-" + getClass().getSimpleName());
+        FileUtils.deleteDirectory(this.directory);
+        this.directory.mkdirs();
+
+        this.xarFile = new File(this.directory, "test.xar");
+        FileUtils.writeStringToFile(this.xarFile, "xar content");
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        FileUtils.deleteDirectory(this.directory);
+    }
+
+    @Test
+    public void testInterruptedImportIsResumed() throws Exception
+    {
+        XarImportCheckpoint checkpoint = XarImportCheckpoint.load(this.xarFile, "wiki");
+        checkpoint.addImported(Arrays.asList("space/page1.xml", "space/page2.xml"));
+        checkpoint.close();
+
+        checkpoint = XarImportCheckpoint.load(this.xarFile, "wiki");
+
+        Assert.assertTrue(checkpoint.isImported("space/page1.xml"));
+        Assert.assertTrue(checkpoint.isImported("space/page2.xml"));
+        Assert.assertFalse(checkpoint.isImported("space/page3.xml"));
+
+        // Entries imported when resuming are added to the existing ones
+        checkpoint.addImported(Arrays.asList("space/page3.xml"));
+        checkpoint.close();
+
+        checkpoint = XarImportCheckpoint.load(this.xarFile, "wiki");
+
+        Assert.assertTrue(checkpoint.isImported("space/page1.xml"));
+        Assert.assertTrue(checkpoint.isImported("space/page3.xml"));
+
+        // Each wiki has its own checkpoint
+        Assert.assertFalse(XarImportCheckpoint.load(this.xarFile, "otherwiki").isImported("space/page1.xml"));
+    }
+
+    @Test
+    public void testCheckpointOfAnotherXarIsIgnored() throws Exception
+    {
+        XarImportCheckpoint checkpoint = XarImportCheckpoint.load(this.xarFile, "wiki");
+        checkpoint.addImported(Arrays.asList("space/page1.xml"));
+        checkpoint.close();
+
+        // New version of the XAR with the same file name
+        FileUtils.writeStringToFile(this.xarFile, "new xar content");
+
+        checkpoint = XarImportCheckpoint.load(this.xarFile, "wiki");
+
+        Assert.assertFalse(checkpoint.isImported("space/page1.xml"));
+
+        checkpoint.addImported(Arrays.asList("space/page2.xml"));
+        checkpoint.close();
+
+        checkpoint = XarImportCheckpoint.load(this.xarFile, "wiki");
+
+        Assert.assertFalse(checkpoint.isImported("space/page1.xml"));
+        Assert.assertTrue(checkpoint.isImported("space/page2.xml"));
+    }
+
+    @Test
+    public void testCheckpointIsRemovedWhenImportIsFinished() throws Exception
+    {
+        XarImportCheckpoint checkpoint = XarImportCheckpoint.load(this.xarFile, "wiki");
+        checkpoint.addImported(Arrays.asList("space/page1.xml"));
+        checkpoint.delete();
+
+        Assert.assertEquals(1, this.directory.list().length);
+        Assert.assertFalse(XarImportCheckpoint.load(this.xarFile, "wiki").isImported("space/page1.xml"));
+    }
+}
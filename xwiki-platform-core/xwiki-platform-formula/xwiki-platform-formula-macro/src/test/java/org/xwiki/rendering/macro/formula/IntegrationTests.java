@@ -72,8 +72,8 @@ public void initialize(ComponentManager componentManager) throws Exception
             atLeast(2).of(mockConfiguration).getRenderer();
             will(returnValue("snuggletex"));
 
-            atLeast(2).of(mockImageStorage).get(with(any(String.class)));
-            will(returnValue(null));
+            atLeast(2).of(mockImageStorage).contains(with(any(String.class)));
+            will(returnValue(false));
 
             atLeast(2).of(mockImageStorage).put(with(any(String.class)), with(any(ImageData.class)));
         }});
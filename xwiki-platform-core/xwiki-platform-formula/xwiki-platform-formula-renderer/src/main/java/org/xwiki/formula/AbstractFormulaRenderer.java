@@ -22,6 +22,11 @@
 import java.io.IOException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -44,6 +49,13 @@ public abstract class AbstractFormulaRenderer implements FormulaRenderer
     @Requirement
     private ImageStorage storage;
 
+    /**
+     * The renderings in progress, indexed by image identifier. Used to make sure that concurrent requests for the same
+     * formula trigger only one rendering.
+     */
+    private final ConcurrentMap<String, FutureTask<Void>> renderings =
+        new ConcurrentHashMap<String, FutureTask<Void>>();
+
     /**
      * {@inheritDoc}
      * 
@@ -54,13 +66,68 @@ public String process(String formula, boolean inline, FontSize size, Type type)
     {
         // Only render the image if it is not already in the cache
         String cacheKey = computeImageID(formula, inline, size, type);
-        if (this.storage.get(cacheKey) == null) {
-            ImageData image = renderImage(formula, inline, size, type);
-            this.storage.put(cacheKey, image);
+        if (!this.storage.contains(cacheKey)) {
+            renderAndStoreImage(cacheKey, formula, inline, size, type);
         }
         return cacheKey;
     }
 
+    /**
+     * Renders a mathematical formula into an image and stores it, waiting for the rendering of another thread if the
+     * same formula is already being rendered.
+     * 
+     * @param imageID the identifier under which the image is stored
+     * @param formula a string representation of the formula, in LaTeX syntax
+     * @param inline specifies if the rendered formula will be displayed inline in the text, or as a separate block
+     * @param size the font size used for displaying the formula
+     * @param type the format in which the formula is rendered
+     * @throws IllegalArgumentException if the LaTeX syntax of the formula is incorrect and the error is unrecoverable
+     * @throws IOException in case of a renderer execution error
+     */
+    private void renderAndStoreImage(final String imageID, final String formula, final boolean inline,
+        final FontSize size, final Type type) throws IllegalArgumentException, IOException
+    {
+        FutureTask<Void> task = new FutureTask<Void>(new Callable<Void>()
+        {
+            public Void call() throws Exception
+            {
+                // Another thread may have finished rendering the same formula between the storage check and the
+                // registration of this task, in which case the image is already stored
+                if (!AbstractFormulaRenderer.this.storage.contains(imageID)) {
+                    AbstractFormulaRenderer.this.storage.put(imageID, renderImage(formula, inline, size, type));
+                }
+                return null;
+            }
+        });
+
+        FutureTask<Void> currentTask = this.renderings.putIfAbsent(imageID, task);
+        if (currentTask == null) {
+            currentTask = task;
+            try {
+                task.run();
+            } finally {
+                this.renderings.remove(imageID, task);
+            }
+        }
+
+        try {
+            currentTask.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the rendering of the formula");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException("Failed to render the formula: " + cause);
+        }
+    }
+
     /**
      * {@inheritDoc}
      * 
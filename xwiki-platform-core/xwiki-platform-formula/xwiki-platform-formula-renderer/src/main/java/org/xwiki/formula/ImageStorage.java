@@ -37,6 +37,15 @@
      */
     ImageData get(String id);
 
+    /**
+     * Check if an image is stored under the given identifier, without retrieving it.
+     * 
+     * @param id the identifier of the data in the storage
+     * @return {@code true} if an image is stored under this identifier, {@code false} otherwise
+     * @since 3.2M1
+     */
+    boolean contains(String id);
+
     /**
      * Store the image under the given identifier.
      * 
@@ -31,12 +31,13 @@
 import org.xwiki.formula.ImageStorage;
 
 /**
- * Cache-based implementation for the {@link ImageStorage} component.
+ * Cache-based implementation for the {@link ImageStorage} component. The images are kept in memory and lost on restart,
+ * see {@link DiskImageStorage} for the default implementation.
  * 
  * @version $Id$
  * @since 2.0M3
  */
-@Component
+@Component("cache")
 public class CacheImageStorage implements ImageStorage, Initializable
 {
     /**
@@ -59,6 +60,16 @@ public ImageData get(String id)
         return this.cache.get(id);
     }
 
+    /**
+     * {@inheritDoc}
+     * 
+     * @see ImageStorage#contains(String)
+     */
+    public boolean contains(String id)
+    {
+        return this.cache.get(id) != null;
+    }
+
     /**
      * {@inheritDoc}
      * 
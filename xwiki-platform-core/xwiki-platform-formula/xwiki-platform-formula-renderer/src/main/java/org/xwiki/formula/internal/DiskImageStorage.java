@@ -0,0 +1,301 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.formula.internal;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.annotation.Requirement;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.container.Container;
+import org.xwiki.formula.FormulaRenderer.Type;
+import org.xwiki.formula.ImageData;
+import org.xwiki.formula.ImageStorage;
+
+/**
+ * Disk-based implementation for the {@link ImageStorage} component. The images are stored as files in a directory of
+ * the container temporary directory so that they survive restarts and don't use the heap. Only an index of the stored
+ * images is kept in memory, used to delete the least recently used images when the total size of the images exceeds
+ * the configured limit.
+ * 
+ * @version $Id$
+ * @since 3.2M1
+ */
+@Component
+public class DiskImageStorage implements ImageStorage, Initializable
+{
+    /** Logging helper object. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(DiskImageStorage.class);
+
+    /** The name of the configuration property containing the maximum total size of the images. */
+    private static final String PROPNAME_MAXSIZE = "formula.storage.maxSize";
+
+    /** The default maximum total size of the images: 20MB. */
+    private static final long DEFAULT_MAXSIZE = 20L * 1024 * 1024;
+
+    /** A stored image. */
+    private static class Entry
+    {
+        /** The file containing the image. */
+        private final File file;
+
+        /** The format of the image. */
+        private final Type type;
+
+        /** The size of the image. */
+        private final long size;
+
+        /**
+         * @param file the file containing the image
+         * @param type the format of the image
+         * @param size the size of the image
+         */
+        Entry(File file, Type type, long size)
+        {
+            this.file = file;
+            this.type = type;
+            this.size = size;
+        }
+    }
+
+    /** Application container, needed for retrieving the work directory where the images are stored. */
+    @Requirement
+    private Container container;
+
+    /** Used to read the maximum total size of the images. */
+    @Requirement
+    private ConfigurationSource configuration;
+
+    /** The directory where the images are stored. */
+    private File directory;
+
+    /** The maximum total size of the images. */
+    private long maxSize;
+
+    /** The stored images, in access order. Access is synchronized on the map itself. */
+    private final Map<String, Entry> index = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    /** The total size of the stored images, protected by {@link #index} lock. */
+    private long size;
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see Initializable#initialize()
+     */
+    public void initialize() throws InitializationException
+    {
+        this.directory = new File(this.container.getApplicationContext().getTemporaryDirectory(), "formula-images");
+        this.directory.mkdirs();
+        this.maxSize = this.configuration.getProperty(PROPNAME_MAXSIZE, DEFAULT_MAXSIZE);
+
+        loadIndex();
+    }
+
+    /**
+     * Index the images stored before the last restart, the least recently modified first.
+     */
+    private void loadIndex()
+    {
+        File[] files = this.directory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>()
+        {
+            public int compare(File file1, File file2)
+            {
+                return Long.valueOf(file1.lastModified()).compareTo(file2.lastModified());
+            }
+        });
+
+        synchronized (this.index) {
+            for (File file : files) {
+                String name = file.getName();
+                Type type = getType(name);
+                if (type != null) {
+                    String id = name.substring(0, name.length() - type.getExtension().length());
+                    this.index.put(id, new Entry(file, type, file.length()));
+                    this.size += file.length();
+                } else if (file.isFile()) {
+                    // Left over of an interrupted write
+                    file.delete();
+                }
+            }
+
+            evict();
+        }
+    }
+
+    /**
+     * @param fileName the name of an image file
+     * @return the format of the image, null if the file is not an image
+     */
+    private Type getType(String fileName)
+    {
+        for (Type type : Type.values()) {
+            if (fileName.endsWith(type.getExtension())) {
+                return type;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see ImageStorage#get(String)
+     */
+    public ImageData get(String id)
+    {
+        Entry entry;
+        synchronized (this.index) {
+            entry = this.index.get(id);
+        }
+
+        if (entry != null) {
+            try {
+                return new ImageData(FileUtils.readFileToByteArray(entry.file), entry.type);
+            } catch (FileNotFoundException e) {
+                // The file has been deleted behind our back
+                remove(id, entry);
+            } catch (IOException e) {
+                LOGGER.warn("Failed to read formula image [" + entry.file + "]", e);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see ImageStorage#contains(String)
+     */
+    public boolean contains(String id)
+    {
+        Entry entry;
+        synchronized (this.index) {
+            entry = this.index.get(id);
+        }
+
+        if (entry != null) {
+            if (entry.file.exists()) {
+                return true;
+            }
+
+            // The file has been deleted behind our back
+            remove(id, entry);
+        }
+
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see ImageStorage#put(String, ImageData)
+     */
+    public void put(String id, ImageData data)
+    {
+        File file = new File(this.directory, id + data.getType().getExtension());
+
+        try {
+            // Write in a temporary file first so that a concurrent get never reads a partial image
+            File temporaryFile = File.createTempFile(id, ".tmp", this.directory);
+            OutputStream out = new FileOutputStream(temporaryFile);
+            try {
+                out.write(data.getData());
+            } finally {
+                IOUtils.closeQuietly(out);
+            }
+            if (!temporaryFile.renameTo(file)) {
+                file.delete();
+                if (!temporaryFile.renameTo(file)) {
+                    temporaryFile.delete();
+                    throw new IOException("Failed to rename [" + temporaryFile + "] to [" + file + "]");
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Failed to store formula image [" + file + "]", e);
+
+            return;
+        }
+
+        synchronized (this.index) {
+            Entry previous = this.index.put(id, new Entry(file, data.getType(), data.getData().length));
+            if (previous != null) {
+                this.size -= previous.size;
+            }
+            this.size += data.getData().length;
+
+            evict();
+        }
+    }
+
+    /**
+     * Forget about an image which does not exist anymore.
+     * 
+     * @param id the identifier of the image
+     * @param entry the entry of the image
+     */
+    private void remove(String id, Entry entry)
+    {
+        synchronized (this.index) {
+            if (this.index.get(id) == entry) {
+                this.index.remove(id);
+                this.size -= entry.size;
+            }
+        }
+    }
+
+    /**
+     * Delete the least recently used images until the total size is under the limit. Must be called with the
+     * {@link #index} lock.
+     */
+    private void evict()
+    {
+        if (this.maxSize > 0) {
+            for (Iterator<Entry> it = this.index.values().iterator(); it.hasNext() && this.size > this.maxSize;) {
+                Entry entry = it.next();
+                it.remove();
+                this.size -= entry.size;
+                entry.file.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.formula;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.formula.FormulaRenderer.FontSize;
+import org.xwiki.formula.FormulaRenderer.Type;
+
+/**
+ * Unit tests for {@link AbstractFormulaRenderer}.
+ * 
+ * @version $Id$
+ */
+public class AbstractFormulaRendererTest
+{
+    private static final String FORMULA = "e^{i\\pi}+1=0";
+
+    /**
+     * In memory storage counting the retrieved images.
+     */
+    private static class TestImageStorage implements ImageStorage
+    {
+        private final Map<String, ImageData> images = new ConcurrentHashMap<String, ImageData>();
+
+        private final AtomicInteger gets = new AtomicInteger();
+
+        public ImageData get(String id)
+        {
+            this.gets.incrementAndGet();
+            return this.images.get(id);
+        }
+
+        public boolean contains(String id)
+        {
+            return this.images.containsKey(id);
+        }
+
+        public void put(String id, ImageData data)
+        {
+            this.images.put(id, data);
+        }
+    }
+
+    /**
+     * Renderer counting the renderings, which can be blocked to simulate a slow renderer.
+     */
+    private static class TestFormulaRenderer extends AbstractFormulaRenderer
+    {
+        private final AtomicInteger renderings = new AtomicInteger();
+
+        private final CountDownLatch started = new CountDownLatch(1);
+
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        protected ImageData renderImage(String formula, boolean inline, FontSize size, Type type)
+            throws IllegalArgumentException, IOException
+        {
+            this.renderings.incrementAndGet();
+            this.started.countDown();
+            try {
+                this.release.await();
+            } catch (InterruptedException e) {
+                throw new IOException("Interrupted");
+            }
+            return new ImageData(formula.getBytes(), type);
+        }
+    }
+
+    private TestImageStorage storage;
+
+    private TestFormulaRenderer renderer;
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.storage = new TestImageStorage();
+        this.renderer = new TestFormulaRenderer();
+        ReflectionUtils.setFieldValue(this.renderer, "storage", this.storage);
+        this.executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        this.renderer.release.countDown();
+        this.executor.shutdownNow();
+    }
+
+    private Callable<String> process()
+    {
+        return new Callable<String>()
+        {
+            public String call() throws Exception
+            {
+                return renderer.process(FORMULA, false, FontSize.DEFAULT, Type.PNG);
+            }
+        };
+    }
+
+    @Test
+    public void testProcessStoresTheImage() throws Exception
+    {
+        this.renderer.release.countDown();
+
+        String id = this.renderer.process(FORMULA, false, FontSize.DEFAULT, Type.PNG);
+
+        Assert.assertEquals(FORMULA, new String(this.renderer.getImage(id).getData()));
+        Assert.assertEquals(1, this.renderer.renderings.get());
+    }
+
+    @Test
+    public void testProcessDoesNotRenderNorReadStoredImages() throws Exception
+    {
+        this.renderer.release.countDown();
+
+        String id = this.renderer.process(FORMULA, false, FontSize.DEFAULT, Type.PNG);
+        Assert.assertEquals(id, this.renderer.process(FORMULA, false, FontSize.DEFAULT, Type.PNG));
+
+        Assert.assertEquals(1, this.renderer.renderings.get());
+        Assert.assertEquals(0, this.storage.gets.get());
+    }
+
+    @Test
+    public void testConcurrentProcessRendersOnce() throws Exception
+    {
+        List<Future<String>> results = new ArrayList<Future<String>>();
+        results.add(this.executor.submit(process()));
+        Assert.assertTrue(this.renderer.started.await(10, TimeUnit.SECONDS));
+
+        // The other requests arrive while the formula is being rendered
+        for (int i = 0; i < 10; i++) {
+            results.add(this.executor.submit(process()));
+        }
+        this.renderer.release.countDown();
+
+        // And some others once the rendering is finished
+        String id = results.get(0).get(10, TimeUnit.SECONDS);
+        for (int i = 0; i < 10; i++) {
+            results.add(this.executor.submit(process()));
+        }
+
+        for (Future<String> result : results) {
+            Assert.assertEquals(id, result.get(10, TimeUnit.SECONDS));
+        }
+        Assert.assertEquals(1, this.renderer.renderings.get());
+    }
+
+    @Test
+    public void testRenderingFailureIsReported() throws Exception
+    {
+        AbstractFormulaRenderer failingRenderer = new AbstractFormulaRenderer()
+        {
+            @Override
+            protected ImageData renderImage(String formula, boolean inline, FontSize size, Type type)
+                throws IllegalArgumentException, IOException
+            {
+                throw new IOException("Renderer not available");
+            }
+        };
+        ReflectionUtils.setFieldValue(failingRenderer, "storage", this.storage);
+
+        try {
+            failingRenderer.process(FORMULA, false, FontSize.DEFAULT, Type.PNG);
+            Assert.fail("Should have thrown an IOException");
+        } catch (IOException expected) {
+            Assert.assertEquals("Renderer not available", expected.getMessage());
+        }
+        Assert.assertTrue(this.storage.images.isEmpty());
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.formula.internal;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.integration.junit4.JMock;
+import org.jmock.integration.junit4.JUnit4Mockery;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.container.ApplicationContext;
+import org.xwiki.container.Container;
+import org.xwiki.formula.FormulaRenderer.Type;
+import org.xwiki.formula.ImageData;
+
+/**
+ * Unit tests for {@link DiskImageStorage}.
+ * 
+ * @version $Id$
+ */
+@RunWith(JMock.class)
+public class DiskImageStorageTest
+{
+    private Mockery mockery = new JUnit4Mockery();
+
+    private File temporaryDirectory;
+
+    private Container container;
+
+    private ConfigurationSource configuration;
+
+    private DiskImageStorage storage;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.temporaryDirectory = File.createTempFile("formula", "test");
+        this.temporaryDirectory.delete();
+        this.temporaryDirectory.mkdirs();
+
+        this.container = this.mockery.mock(Container.class);
+        this.configuration = this.mockery.mock(ConfigurationSource.class);
+        final ApplicationContext applicationContext = this.mockery.mock(ApplicationContext.class);
+        this.mockery.checking(new Expectations() {{
+            allowing(container).getApplicationContext(); will(returnValue(applicationContext));
+            allowing(applicationContext).getTemporaryDirectory(); will(returnValue(temporaryDirectory));
+            allowing(configuration).getProperty(with(equal("formula.storage.maxSize")), with(any(Long.class)));
+                will(returnValue(10L));
+        }});
+
+        this.storage = createStorage();
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        FileUtils.deleteDirectory(this.temporaryDirectory);
+    }
+
+    private DiskImageStorage createStorage() throws Exception
+    {
+        DiskImageStorage diskStorage = new DiskImageStorage();
+        ReflectionUtils.setFieldValue(diskStorage, "container", this.container);
+        ReflectionUtils.setFieldValue(diskStorage, "configuration", this.configuration);
+        diskStorage.initialize();
+
+        return diskStorage;
+    }
+
+    private File getImageFile(String id)
+    {
+        return new File(new File(this.temporaryDirectory, "formula-images"), id + Type.PNG.getExtension());
+    }
+
+    @Test
+    public void testPutGet()
+    {
+        Assert.assertFalse(this.storage.contains("id"));
+        Assert.assertNull(this.storage.get("id"));
+
+        this.storage.put("id", new ImageData("data".getBytes(), Type.PNG));
+
+        Assert.assertTrue(this.storage.contains("id"));
+        ImageData image = this.storage.get("id");
+        Assert.assertEquals("data", new String(image.getData()));
+        Assert.assertEquals(Type.PNG, image.getType());
+        Assert.assertTrue(getImageFile("id").isFile());
+    }
+
+    @Test
+    public void testDeletedFileIsNotContained()
+    {
+        this.storage.put("id", new ImageData("data".getBytes(), Type.PNG));
+        getImageFile("id").delete();
+
+        Assert.assertFalse(this.storage.contains("id"));
+        Assert.assertNull(this.storage.get("id"));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedImagesAreEvicted()
+    {
+        this.storage.put("first", new ImageData("1234".getBytes(), Type.PNG));
+        this.storage.put("second", new ImageData("1234".getBytes(), Type.PNG));
+        this.storage.get("first");
+
+        // Exceeds the 10 bytes limit
+        this.storage.put("third", new ImageData("1234".getBytes(), Type.PNG));
+
+        Assert.assertTrue(this.storage.contains("first"));
+        Assert.assertFalse(this.storage.contains("second"));
+        Assert.assertFalse(getImageFile("second").exists());
+        Assert.assertTrue(this.storage.contains("third"));
+    }
+
+    @Test
+    public void testImagesSurviveRestart() throws Exception
+    {
+        this.storage.put("id", new ImageData("data".getBytes(), Type.PNG));
+
+        DiskImageStorage restartedStorage = createStorage();
+
+        Assert.assertTrue(restartedStorage.contains("id"));
+        Assert.assertEquals("data", new String(restartedStorage.get("id").getData()));
+    }
+}
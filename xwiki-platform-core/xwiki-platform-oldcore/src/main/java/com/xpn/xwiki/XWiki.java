@@ -136,6 +136,7 @@
 import com.xpn.xwiki.internal.event.XObjectPropertyEvent;
 import com.xpn.xwiki.internal.event.XObjectPropertyUpdatedEvent;
 import com.xpn.xwiki.internal.event.XObjectUpdatedEvent;
+import com.xpn.xwiki.monitor.api.RequestTimings;
 import com.xpn.xwiki.notify.XWikiActionRule;
 import com.xpn.xwiki.notify.XWikiDocChangeNotificationInterface;
 import com.xpn.xwiki.notify.XWikiNotificationManager;
@@ -767,6 +768,10 @@ public void initXWiki(XWikiConfig config, XWikiContext context, XWikiEngineConte
         // Prepare the store
         setConfig(config);
 
+        // Timing of the request phases, which can also be enabled later through JMX
+        RequestTimings.setEnabled("1".equals(Param("xwiki.monitor.timings", "0")));
+        RequestTimings.registerMBean();
+
         XWikiStoreInterface basestore = Utils.getComponent(XWikiStoreInterface.class, Param("xwiki.store.main.hint"));
 
         // Check if we need to use the cache store..
@@ -1377,6 +1382,28 @@ public void saveDocument(XWikiDocument doc, String comment, XWikiContext context
 
     public void saveDocument(XWikiDocument doc, String comment, boolean isMinorEdit, XWikiContext context)
         throws XWikiException
+    {
+        XWikiDocument originalDocument = saveDocumentWithoutSavedNotifications(doc, comment, isMinorEdit, context);
+
+        notifyDocumentSaved(doc, originalDocument, context);
+    }
+
+    /**
+     * Same as {@link #saveDocument(XWikiDocument, String, boolean, XWikiContext)} except that the notifications sent
+     * once the document has been saved are not sent. They have to be sent later using
+     * {@link #notifyDocumentSaved(XWikiDocument, XWikiDocument, XWikiContext)}, for example once the transaction in
+     * which the document has been saved has been committed.
+     * 
+     * @param doc the document to save
+     * @param comment the comment of the save
+     * @param isMinorEdit true if the save is a minor edit
+     * @param context the XWiki context
+     * @return the document as it was before being saved
+     * @throws XWikiException when failing to save the document
+     * @since 3.2M1
+     */
+    public XWikiDocument saveDocumentWithoutSavedNotifications(XWikiDocument doc, String comment, boolean isMinorEdit,
+        XWikiContext context) throws XWikiException
     {
         String server = null, database = null;
         try {
@@ -1427,42 +1454,69 @@ public void saveDocument(XWikiDocument doc, String comment, boolean isMinorEdit,
 
             getStore().saveXWikiDoc(doc, context);
 
-            // Since the store#saveXWikiDoc resets originalDocument, we need to temporarily put it
-            // back to send notifications.
-            XWikiDocument newOriginal = doc.getOriginalDocument();
+            return originalDocument;
+        } finally {
+            if ((server != null) && (database != null)) {
+                context.setDatabase(database);
+            }
+        }
+    }
+
+    /**
+     * Send the notifications indicating that a document has been created or updated.
+     * 
+     * @param doc the saved document
+     * @param originalDocument the document as it was before being saved, as returned by
+     *            {@link #saveDocumentWithoutSavedNotifications(XWikiDocument, String, boolean, XWikiContext)}
+     * @param context the XWiki context
+     * @since 3.2M1
+     */
+    public void notifyDocumentSaved(XWikiDocument doc, XWikiDocument originalDocument, XWikiContext context)
+    {
+        String server = null, database = null;
+        // Since the store#saveXWikiDoc resets originalDocument, we need to temporarily put it
+        // back to send notifications.
+        XWikiDocument newOriginal = doc.getOriginalDocument();
 
-            try {
-                doc.setOriginalDocument(originalDocument);
+        try {
+            server = doc.getDocumentReference().getWikiReference().getName();
+
+            if (server != null) {
+                database = context.getDatabase();
+                context.setDatabase(server);
+            }
 
-                // Notify listeners about the document having been created or updated
+            doc.setOriginalDocument(originalDocument);
 
-                // First the legacy notification mechanism
+            ObservationManager om = Utils.getComponent(ObservationManager.class);
 
-                // Then the new observation module
-                // Note that for the moment the event being send is a bridge event, as we are still passing around
-                // an XWikiDocument as source and an XWikiContext as data.
-                // The old version is made available using doc.getOriginalDocument()
+            // Notify listeners about the document having been created or updated
 
-                if (originalDocument.isNew()) {
-                    getNotificationManager().verify(doc, originalDocument,
-                        XWikiDocChangeNotificationInterface.EVENT_NEW, context);
-                    if (om != null) {
-                        om.notify(new DocumentCreatedEvent(doc.getDocumentReference()), doc, context);
-                    }
-                } else {
-                    getNotificationManager().verify(doc, originalDocument,
-                        XWikiDocChangeNotificationInterface.EVENT_CHANGE, context);
-                    if (om != null) {
-                        om.notify(new DocumentUpdatedEvent(doc.getDocumentReference()), doc, context);
-                    }
+            // First the legacy notification mechanism
+
+            // Then the new observation module
+            // Note that for the moment the event being send is a bridge event, as we are still passing around
+            // an XWikiDocument as source and an XWikiContext as data.
+            // The old version is made available using doc.getOriginalDocument()
+
+            if (originalDocument.isNew()) {
+                getNotificationManager().verify(doc, originalDocument,
+                    XWikiDocChangeNotificationInterface.EVENT_NEW, context);
+                if (om != null) {
+                    om.notify(new DocumentCreatedEvent(doc.getDocumentReference()), doc, context);
+                }
+            } else {
+                getNotificationManager().verify(doc, originalDocument,
+                    XWikiDocChangeNotificationInterface.EVENT_CHANGE, context);
+                if (om != null) {
+                    om.notify(new DocumentUpdatedEvent(doc.getDocumentReference()), doc, context);
                 }
-            } catch (Exception ex) {
-                LOGGER.error("Failed to send document save notification for document ["
-                    + this.defaultEntityReferenceSerializer.serialize(doc.getDocumentReference()) + "]", ex);
-            } finally {
-                doc.setOriginalDocument(newOriginal);
             }
+        } catch (Exception ex) {
+            LOGGER.error("Failed to send document save notification for document ["
+                + this.defaultEntityReferenceSerializer.serialize(doc.getDocumentReference()) + "]", ex);
         } finally {
+            doc.setOriginalDocument(newOriginal);
             if ((server != null) && (database != null)) {
                 context.setDatabase(database);
             }
@@ -1798,6 +1852,19 @@ public String parseTemplate(String template, XWikiContext context)
      * @since 2.2.2
      */
     public String evaluateTemplate(String template, XWikiContext context) throws IOException
+    {
+        long timer = RequestTimings.start(RequestTimings.Phase.TEMPLATE);
+        try {
+            return evaluateTemplateInternal(template, context);
+        } finally {
+            RequestTimings.end(RequestTimings.Phase.TEMPLATE, timer);
+        }
+    }
+
+    /**
+     * @see #evaluateTemplate(String, XWikiContext)
+     */
+    private String evaluateTemplateInternal(String template, XWikiContext context) throws IOException
     {
         try {
             String skin = getSkin(context);
@@ -1845,6 +1912,19 @@ public String evaluateTemplate(String template, XWikiContext context) throws IOE
     }
 
     public String parseTemplate(String template, String skin, XWikiContext context)
+    {
+        long timer = RequestTimings.start(RequestTimings.Phase.TEMPLATE);
+        try {
+            return parseTemplateInternal(template, skin, context);
+        } finally {
+            RequestTimings.end(RequestTimings.Phase.TEMPLATE, timer);
+        }
+    }
+
+    /**
+     * @see #parseTemplate(String, String, XWikiContext)
+     */
+    private String parseTemplateInternal(String template, String skin, XWikiContext context)
     {
         try {
             XWikiDocument doc = getDocument(skin, context);
@@ -4645,6 +4725,26 @@ public int copySpaceBetweenWikis(String space, String sourceWiki, String targetW
 
     public int copySpaceBetweenWikis(String space, String sourceWiki, String targetWiki, String language,
         boolean clean, XWikiContext context) throws XWikiException
+    {
+        return copySpaceBetweenWikis(space, sourceWiki, targetWiki, language, clean, true, context);
+    }
+
+    /**
+     * Copy a space, or an entire wiki, to a target wiki.
+     * 
+     * @param space the space to copy, null to copy the entire wiki
+     * @param sourceWiki the source wiki identifier
+     * @param targetWiki the target wiki identifier
+     * @param language the language to copy
+     * @param clean clean the target wiki before copying
+     * @param reset true to reset the copied documents to version 1.1 without history, false to keep their history
+     * @param context the XWiki context
+     * @return the number of copied documents
+     * @throws XWikiException failed to copy the documents
+     * @since 3.2M1
+     */
+    public int copySpaceBetweenWikis(String space, String sourceWiki, String targetWiki, String language,
+        boolean clean, boolean reset, XWikiContext context) throws XWikiException
     {
         String db = context.getDatabase();
         int nb = 0;
@@ -4688,7 +4788,7 @@ public int copySpaceBetweenWikis(String space, String sourceWiki, String targetW
                 sourceDocumentReference.setWikiReference(sourceWikiReference);
                 DocumentReference targetDocumentReference = new DocumentReference(sourceDocumentReference.clone());
                 targetDocumentReference.setWikiReference(targetWikiReference);
-                copyDocument(sourceDocumentReference, targetDocumentReference, language, context);
+                copyDocument(sourceDocumentReference, targetDocumentReference, language, reset, context);
                 nb++;
             }
             return nb;
@@ -4732,6 +4832,25 @@ public int copyWiki(String sourceWiki, String targetWiki, String language, boole
         return copySpaceBetweenWikis(null, sourceWiki, targetWiki, language, clean, context);
     }
 
+    /**
+     * Copy an entire wiki to a target wiki.
+     * 
+     * @param sourceWiki the source wiki identifier
+     * @param targetWiki the target wiki identifier
+     * @param language the language to copy
+     * @param clean clean the target wiki before copying
+     * @param reset true to reset the copied documents to version 1.1 without history, false to keep their history
+     * @param context the XWiki context
+     * @return the number of copied documents
+     * @throws XWikiException failed to copy wiki
+     * @since 3.2M1
+     */
+    public int copyWiki(String sourceWiki, String targetWiki, String language, boolean clean, boolean reset,
+        XWikiContext context) throws XWikiException
+    {
+        return copySpaceBetweenWikis(null, sourceWiki, targetWiki, language, clean, reset, context);
+    }
+
     /**
      * @deprecated use WikiManager plugin instead
      */
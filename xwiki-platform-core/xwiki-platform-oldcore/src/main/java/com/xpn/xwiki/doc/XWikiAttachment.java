@@ -181,6 +181,22 @@ public int getContentSize(XWikiContext context) throws XWikiException
         return this.attachment_content.getSize();
     }
 
+    /**
+     * @param context current XWikiContext
+     * @return the real filesize in byte of the attachment, which can be bigger than {@link Integer#MAX_VALUE}
+     *         contrary to {@link #getContentSize(XWikiContext)} and {@link #getFilesize()}
+     * @throws XWikiException when failing to load the attachment content
+     * @since 3.2M1
+     */
+    public long getLongContentSize(XWikiContext context) throws XWikiException
+    {
+        if (this.attachment_content == null) {
+            this.doc.loadAttachmentContent(this, context);
+        }
+
+        return this.attachment_content.getLongSize();
+    }
+
     public String getFilename()
     {
         return this.filename;
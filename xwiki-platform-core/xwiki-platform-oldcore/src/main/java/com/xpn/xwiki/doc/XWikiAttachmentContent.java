@@ -254,4 +254,14 @@ public int getSize()
     {
         return (int) this.file.getSize();
     }
+
+    /**
+     * @return the true size of the content of the attachment, which can be bigger than {@link Integer#MAX_VALUE}
+     *         contrary to {@link #getSize()}
+     * @since 3.2M1
+     */
+    public long getLongSize()
+    {
+        return this.file.getSize();
+    }
 }
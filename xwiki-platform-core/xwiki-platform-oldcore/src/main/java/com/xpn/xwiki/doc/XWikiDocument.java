@@ -131,8 +131,10 @@
 import com.xpn.xwiki.doc.merge.MergeUtils;
 import com.xpn.xwiki.doc.rcs.XWikiRCSNodeInfo;
 import com.xpn.xwiki.internal.cache.rendering.RenderingCache;
+import com.xpn.xwiki.internal.cache.rendering.RenderingCacheRenderer;
 import com.xpn.xwiki.internal.xml.DOMXMLWriter;
 import com.xpn.xwiki.internal.xml.XMLWriter;
+import com.xpn.xwiki.monitor.api.RequestTimings;
 import com.xpn.xwiki.objects.BaseCollection;
 import com.xpn.xwiki.objects.BaseObject;
 import com.xpn.xwiki.objects.BaseObjectReference;
@@ -798,8 +800,8 @@ public String getRenderedContent(Syntax targetSyntax, XWikiContext context) thro
         return getRenderedContent(targetSyntax, true, context);
     }
 
-    public String getRenderedContent(Syntax targetSyntax, boolean isolateVelocityMacros, XWikiContext context)
-        throws XWikiException
+    public String getRenderedContent(final Syntax targetSyntax, final boolean isolateVelocityMacros,
+        XWikiContext context) throws XWikiException
     {
         // Note: We are currently duplicating code from the other getRendered signature because some calling
         // code is expecting that the rendering will happen in the calling document's context and not in this
@@ -808,7 +810,14 @@ public String getRenderedContent(Syntax targetSyntax, boolean isolateVelocityMac
 
         String content = getTranslatedContent(context);
 
-        String renderedContent = this.renderingCache.getRenderedContent(getDocumentReference(), content, context);
+        String renderedContent =
+            this.renderingCache.getRenderedContent(getDocumentReference(), content, new RenderingCacheRenderer()
+            {
+                public String render(XWikiContext renderingContext) throws XWikiException
+                {
+                    return getRenderedContent(targetSyntax, isolateVelocityMacros, renderingContext);
+                }
+            }, context);
 
         String documentName =
             this.defaultEntityReferenceSerializer.serialize(isolateVelocityMacros ? getDocumentReference() : context
@@ -912,9 +921,17 @@ public String getRenderedContent(String text, String syntaxId, XWikiContext cont
      * @return the given text rendered in the context of this document using the passed Syntax
      * @since 2.0M3
      */
-    public String getRenderedContent(String text, String sourceSyntaxId, String targetSyntaxId, XWikiContext context)
+    public String getRenderedContent(final String text, final String sourceSyntaxId, final String targetSyntaxId,
+        XWikiContext context)
     {
-        String result = this.renderingCache.getRenderedContent(getDocumentReference(), text, context);
+        String result =
+            this.renderingCache.getRenderedContent(getDocumentReference(), text, new RenderingCacheRenderer()
+            {
+                public String render(XWikiContext renderingContext)
+                {
+                    return getRenderedContent(text, sourceSyntaxId, targetSyntaxId, renderingContext);
+                }
+            }, context);
 
         String documentName = this.defaultEntityReferenceSerializer.serialize(getDocumentReference());
 
@@ -7690,6 +7707,7 @@ private static String performSyntaxConversion(XDOM content, Syntax targetSyntax,
                 if (txContext.getXDOM() == null) {
                     txContext.setXDOM(content);
                 }
+                long macrosTimer = RequestTimings.start(RequestTimings.Phase.MACROS);
                 try {
                     transformations.performTransformations(content, txContext);
                 } catch (TransformationException te) {
@@ -7697,11 +7715,18 @@ private static String performSyntaxConversion(XDOM content, Syntax targetSyntax,
                     // continue
                     // TODO: We should have a visual clue for the user in the future to let him know something
                     // didn't work as expected.
+                } finally {
+                    RequestTimings.end(RequestTimings.Phase.MACROS, macrosTimer);
                 }
             }
 
             // Render XDOM
-            return renderXDOM(content, targetSyntax);
+            long renderingTimer = RequestTimings.start(RequestTimings.Phase.RENDERING);
+            try {
+                return renderXDOM(content, targetSyntax);
+            } finally {
+                RequestTimings.end(RequestTimings.Phase.RENDERING, renderingTimer);
+            }
         } catch (Exception e) {
             throw new XWikiException(XWikiException.MODULE_XWIKI_RENDERING, XWikiException.ERROR_XWIKI_UNKNOWN,
                 "Failed to convert document to syntax [" + targetSyntax + "]", e);
@@ -49,6 +49,12 @@
  */
 public class XWikiDocumentArchive
 {
+    /**
+     * Default number of versions that share one full version (checkpoint), ie the maximum number of patches which
+     * need to be applied in order to load any version is this minus one.
+     */
+    private static final int DEFAULT_NODES_PER_FULL = 5;
+
     /** =docId. */
     private long id;
 
@@ -114,6 +120,30 @@ protected void updateNode(XWikiRCSNodeInfo node)
         }
     }
 
+    /**
+     * Count the versions which are restored from the same full version as the given one, going back in history
+     * from it (inclusive) until an older full version is found. Counting stops at the given limit so the cost
+     * does not depend on the length of the history.
+     * 
+     * @param version - the version to start counting from
+     * @param limit - stop counting when reaching this number of versions
+     * @return the number of versions from the given one down to the previous full version, exclusive
+     */
+    private int getPatchChainLength(Version version, int limit)
+    {
+        int length = 0;
+        // tailMap is inclusive and goes from the given version to the oldest one
+        Iterator<Version> it = versionToNode.tailMap(version).keySet().iterator();
+        while (it.hasNext() && length < limit) {
+            Version olderVersion = it.next();
+            if (length > 0 && fullVersions.contains(olderVersion)) {
+                break;
+            }
+            length++;
+        }
+        return length;
+    }
+
     /**
      * Make a patch. It is store only modified nodes(latest). New nodes need be saved after.
      * 
@@ -131,11 +161,10 @@ protected XWikiRCSNodeContent makePatch(XWikiRCSNodeInfo newnode, XWikiDocument
         newnode.setContent(result);
         XWikiRCSNodeInfo latestNode = getLatestNode();
         if (latestNode != null) {
-            int nodesCount = getNodes().size();
             int nodesPerFull =
-                context.getWiki() == null ? 5 : Integer.parseInt(context.getWiki().getConfig()
-                    .getProperty("xwiki.store.rcs.nodesPerFull", "5"));
-            if (nodesPerFull <= 0 || (nodesCount % nodesPerFull) != 0) {
+                context.getWiki() == null ? DEFAULT_NODES_PER_FULL : Integer.parseInt(context.getWiki().getConfig()
+                    .getProperty("xwiki.store.rcs.nodesPerFull", String.valueOf(DEFAULT_NODES_PER_FULL)));
+            if (nodesPerFull <= 0 || getPatchChainLength(latestNode.getVersion(), nodesPerFull) < nodesPerFull) {
                 XWikiRCSNodeContent latestContent = latestNode.getContent(context);
                 latestContent.getPatch().setDiffVersion(latestContent.getPatch().getContent(),
                     doc, context);
@@ -440,8 +469,27 @@ public Version getNearestFullVersion(Version ver)
     private List<XWikiRCSNodeContent> loadRCSNodeContents(Version vfrom, Version vto, XWikiContext context)
         throws XWikiException
     {
+        Collection<XWikiRCSNodeInfo> nodeInfos = getNodes(vfrom, vto);
+
+        // Fetch all the contents which are not already loaded in a single query instead of one query per node.
+        List<XWikiRCSNodeId> missingIds = new ArrayList<XWikiRCSNodeId>();
+        for (XWikiRCSNodeInfo nodeInfo : nodeInfos) {
+            if (nodeInfo.getContent(null) == null) {
+                missingIds.add(nodeInfo.getId());
+            }
+        }
+        if (missingIds.size() > 1 && context != null && context.getWiki() != null) {
+            for (XWikiRCSNodeContent nodeContent : context.getWiki().getVersioningStore().loadRCSNodeContents(
+                missingIds, true, context)) {
+                XWikiRCSNodeInfo nodeInfo = getNode(nodeContent.getId().getVersion());
+                if (nodeInfo != null) {
+                    nodeInfo.setContent(nodeContent);
+                }
+            }
+        }
+
         List<XWikiRCSNodeContent> result = new ArrayList<XWikiRCSNodeContent>();
-        for (XWikiRCSNodeInfo nodeInfo : getNodes(vfrom, vto)) {
+        for (XWikiRCSNodeInfo nodeInfo : nodeInfos) {
             XWikiRCSNodeContent nodeContent = nodeInfo.getContent(context);
             result.add(nodeContent);
         }
@@ -0,0 +1,66 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.cache;
+
+import java.util.List;
+
+import org.xwiki.component.annotation.ComponentRole;
+
+import com.xpn.xwiki.objects.classes.ListItem;
+
+/**
+ * Cache of the results of the queries of the database list properties, shared by all the requests. An entry is
+ * invalidated when a document containing an object of one of the classes selected by the query is created, modified or
+ * deleted, or when any document of the wiki changes if the query does not select objects of specific classes.
+ * 
+ * @version $Id$
+ * @since 3.2M1
+ */
+@ComponentRole
+public interface DBListQueryCache
+{
+    /**
+     * @param wiki the wiki where the query is executed
+     * @param property the full name of the database list property (class and property name)
+     * @param query the query of the property, after its scripts have been executed
+     * @return the cached result of the query, null if it's not in the cache
+     */
+    List<ListItem> get(String wiki, String property, String query);
+
+    /**
+     * @param wiki the wiki where the query is going to be executed
+     * @return the generation of the cache of the wiki, which changes each time a document of the wiki is modified, to
+     *         get before executing the query and to pass to {@link #set(List, String, String, String, long)}
+     */
+    long getGeneration(String wiki);
+
+    /**
+     * Cache the result of a query, unless a document of the wiki has been modified since the provided generation (in
+     * which case the result might be stale).
+     * 
+     * @param result the result of the query
+     * @param wiki the wiki where the query is executed
+     * @param property the full name of the database list property (class and property name)
+     * @param query the query of the property, after its scripts have been executed
+     * @param generation the generation of the cache of the wiki, as returned by {@link #getGeneration(String)} before
+     *            executing the query
+     */
+    void set(List<ListItem> result, String wiki, String property, String query, long generation);
+}
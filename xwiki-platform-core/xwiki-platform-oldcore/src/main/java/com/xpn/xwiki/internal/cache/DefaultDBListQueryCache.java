@@ -0,0 +1,417 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.cache;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang.StringUtils;
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.bridge.event.WikiDeletedEvent;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.event.CacheEntryEvent;
+import org.xwiki.cache.event.CacheEntryListener;
+import org.xwiki.cache.eviction.LRUEvictionConfiguration;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.annotation.Requirement;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.observation.event.Event;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.classes.ListItem;
+
+/**
+ * Default implementation of {@link DBListQueryCache}.
+ * 
+ * @version $Id$
+ * @since 3.2M1
+ */
+@Component
+public class DefaultDBListQueryCache implements DBListQueryCache, Initializable
+{
+    /**
+     * Identifier of the cache.
+     */
+    private static final String NAME = "core.dblistquerycache";
+
+    /**
+     * Name of the property indicating the maximum number of query results in the cache.
+     */
+    private static final String PROPNAME_SIZE = NAME + ".size";
+
+    /**
+     * The default maximum number of query results in the cache.
+     */
+    private static final int PROPVALUE_SIZE = 500;
+
+    /**
+     * Matches the class constraints of a query, like the ones generated for database list properties.
+     */
+    private static final Pattern CLASS_CONSTRAINT = Pattern.compile("className\\s*=\\s*'([^']+)'");
+
+    /**
+     * Event listened by the component.
+     */
+    private static final List<Event> EVENTS = Arrays.<Event> asList(new DocumentCreatedEvent(),
+        new DocumentUpdatedEvent(), new DocumentDeletedEvent(), new WikiDeletedEvent());
+
+    /**
+     * Used to invalidate the query results depending on a modified document.
+     * 
+     * @version $Id$
+     */
+    protected class Listener implements EventListener
+    {
+        /**
+         * {@inheritDoc}
+         * 
+         * @see org.xwiki.observation.EventListener#getName()
+         */
+        public String getName()
+        {
+            return NAME;
+        }
+
+        /**
+         * {@inheritDoc}
+         * 
+         * @see org.xwiki.observation.EventListener#getEvents()
+         */
+        public List<Event> getEvents()
+        {
+            return EVENTS;
+        }
+
+        /**
+         * {@inheritDoc}
+         * 
+         * @see org.xwiki.observation.EventListener#onEvent(org.xwiki.observation.event.Event, java.lang.Object,
+         *      java.lang.Object)
+         */
+        public void onEvent(Event event, Object source, Object data)
+        {
+            if (event instanceof WikiDeletedEvent) {
+                invalidate(((WikiDeletedEvent) event).getWikiId(), null);
+            } else {
+                XWikiDocument document = (XWikiDocument) source;
+
+                Set<String> classes = new HashSet<String>();
+                addClasses(document, classes);
+                addClasses(document.getOriginalDocument(), classes);
+
+                invalidate(document.getDocumentReference().getWikiReference().getName(), classes);
+            }
+        }
+    }
+
+    /**
+     * Used to forget about the entries removed by the cache itself (eviction).
+     * 
+     * @version $Id$
+     */
+    protected class EntryListener implements CacheEntryListener<List<ListItem>>
+    {
+        /**
+         * {@inheritDoc}
+         * 
+         * @see org.xwiki.cache.event.CacheEntryListener#cacheEntryAdded(org.xwiki.cache.event.CacheEntryEvent)
+         */
+        public void cacheEntryAdded(CacheEntryEvent<List<ListItem>> event)
+        {
+            // Entries are registered by #set
+        }
+
+        /**
+         * {@inheritDoc}
+         * 
+         * @see org.xwiki.cache.event.CacheEntryListener#cacheEntryModified(org.xwiki.cache.event.CacheEntryEvent)
+         */
+        public void cacheEntryModified(CacheEntryEvent<List<ListItem>> event)
+        {
+            // Entries are registered by #set
+        }
+
+        /**
+         * {@inheritDoc}
+         * 
+         * @see org.xwiki.cache.event.CacheEntryListener#cacheEntryRemoved(org.xwiki.cache.event.CacheEntryEvent)
+         */
+        public void cacheEntryRemoved(CacheEntryEvent<List<ListItem>> event)
+        {
+            entries.remove(event.getEntry().getKey());
+        }
+    }
+
+    /**
+     * What a cached query result depends on.
+     * 
+     * @version $Id$
+     */
+    private static class Entry
+    {
+        /**
+         * The wiki where the query has been executed.
+         */
+        private final String wiki;
+
+        /**
+         * The classes whose objects are selected by the query, null if the query depends on any document.
+         */
+        private final Set<String> classes;
+
+        /**
+         * @param wiki the wiki where the query has been executed
+         * @param classes the classes whose objects are selected by the query, null if the query depends on any
+         *            document
+         */
+        Entry(String wiki, Set<String> classes)
+        {
+            this.wiki = wiki;
+            this.classes = classes;
+        }
+
+        /**
+         * @param modifiedWiki the wiki where a document has been modified
+         * @param modifiedClasses the classes of the objects of the modified document, null if the whole wiki is
+         *            concerned
+         * @return true if the query result might have been modified
+         */
+        boolean isImpacted(String modifiedWiki, Set<String> modifiedClasses)
+        {
+            return StringUtils.equals(this.wiki, modifiedWiki)
+                && (modifiedClasses == null || this.classes == null || !Collections.disjoint(this.classes,
+                    modifiedClasses));
+        }
+    }
+
+    /**
+     * xwiki.properties file configurations.
+     */
+    @Requirement("xwikiproperties")
+    private ConfigurationSource configuration;
+
+    /**
+     * Used to initialize the actual cache.
+     */
+    @Requirement
+    private CacheManager cacheManager;
+
+    /**
+     * Used to register as event listener to invalidate the cache.
+     */
+    @Requirement
+    private ObservationManager observationManager;
+
+    /**
+     * Used to serialize the class references the same way as they are written in queries.
+     */
+    @Requirement("local")
+    private EntityReferenceSerializer<String> localSerializer;
+
+    /**
+     * The actual cache object.
+     */
+    private Cache<List<ListItem>> cache;
+
+    /**
+     * The dependencies of each entry of the cache, modified concurrently by the requests filling the cache and by the
+     * document events.
+     */
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    /**
+     * The number of modifications of the documents of each wiki, used to not cache results of queries executed while a
+     * document was modified.
+     */
+    private final ConcurrentMap<String, AtomicLong> generations = new ConcurrentHashMap<String, AtomicLong>();
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see org.xwiki.component.phase.Initializable#initialize()
+     */
+    public void initialize() throws InitializationException
+    {
+        CacheConfiguration cacheConfiguration = new CacheConfiguration();
+        cacheConfiguration.setConfigurationId(NAME);
+        LRUEvictionConfiguration lru = new LRUEvictionConfiguration();
+        lru.setMaxEntries(this.configuration.getProperty(PROPNAME_SIZE, PROPVALUE_SIZE));
+        cacheConfiguration.put(LRUEvictionConfiguration.CONFIGURATIONID, lru);
+
+        try {
+            this.cache = this.cacheManager.createNewCache(cacheConfiguration);
+        } catch (CacheException e) {
+            throw new InitializationException("Failed to initialize the database list query cache", e);
+        }
+        this.cache.addCacheEntryListener(new EntryListener());
+
+        this.observationManager.addListener(new Listener());
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.xpn.xwiki.internal.cache.DBListQueryCache#get(java.lang.String, java.lang.String, java.lang.String)
+     */
+    public List<ListItem> get(String wiki, String property, String query)
+    {
+        return this.cache.get(getKey(wiki, property, query));
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.xpn.xwiki.internal.cache.DBListQueryCache#getGeneration(java.lang.String)
+     */
+    public long getGeneration(String wiki)
+    {
+        return getGenerationCounter(wiki).get();
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.xpn.xwiki.internal.cache.DBListQueryCache#set(java.util.List, java.lang.String, java.lang.String,
+     *      java.lang.String, long)
+     */
+    public void set(List<ListItem> result, String wiki, String property, String query, long generation)
+    {
+        String key = getKey(wiki, property, query);
+        Entry entry = new Entry(wiki, getClasses(query));
+
+        // A modification increments the generation before removing the impacted entries. An entry registered before
+        // the generation is checked is thus either refused here or removed by the modification.
+        this.entries.put(key, entry);
+        if (getGeneration(wiki) != generation) {
+            // A document has been modified while the query was executed
+            this.entries.remove(key, entry);
+
+            return;
+        }
+
+        this.cache.set(key, Collections.unmodifiableList(result));
+
+        if (getGeneration(wiki) != generation) {
+            // Modified between the check and the set, the modification might have missed the new value
+            this.entries.remove(key);
+            this.cache.remove(key);
+        }
+    }
+
+    /**
+     * @param wiki the name of a wiki
+     * @return the counter of the modifications of the documents of the wiki
+     */
+    private AtomicLong getGenerationCounter(String wiki)
+    {
+        String wikiKey = StringUtils.defaultString(wiki);
+        AtomicLong counter = this.generations.get(wikiKey);
+        if (counter == null) {
+            counter = new AtomicLong();
+            AtomicLong existingCounter = this.generations.putIfAbsent(wikiKey, counter);
+            if (existingCounter != null) {
+                counter = existingCounter;
+            }
+        }
+
+        return counter;
+    }
+
+    /**
+     * Remove the query results impacted by a modification.
+     * 
+     * @param wiki the wiki where a document has been modified
+     * @param classes the classes of the objects of the modified document, null if the whole wiki is concerned
+     */
+    private void invalidate(String wiki, Set<String> classes)
+    {
+        // Make sure the queries being executed don't cache a result which might not contain the modification
+        getGenerationCounter(wiki).incrementAndGet();
+
+        for (Map.Entry<String, Entry> entry : this.entries.entrySet()) {
+            if (entry.getValue().isImpacted(wiki, classes)) {
+                this.entries.remove(entry.getKey());
+                this.cache.remove(entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * @param document a document, can be null
+     * @param classes where to add the classes (local references) of the objects of the document
+     */
+    private void addClasses(XWikiDocument document, Set<String> classes)
+    {
+        if (document != null) {
+            for (DocumentReference classReference : document.getXObjects().keySet()) {
+                classes.add(this.localSerializer.serialize(classReference));
+            }
+        }
+    }
+
+    /**
+     * @param query a query
+     * @return the classes whose objects are selected by the query, null if they can't be determined
+     */
+    private Set<String> getClasses(String query)
+    {
+        Set<String> classes = new HashSet<String>();
+        Matcher matcher = CLASS_CONSTRAINT.matcher(query);
+        while (matcher.find()) {
+            classes.add(matcher.group(1));
+        }
+
+        return classes.isEmpty() ? null : classes;
+    }
+
+    /**
+     * @param wiki the wiki where the query is executed
+     * @param property the full name of the database list property
+     * @param query the query
+     * @return the key of the query result in the cache
+     */
+    private String getKey(String wiki, String property, String query)
+    {
+        String wikiKey = StringUtils.defaultString(wiki);
+        String propertyKey = StringUtils.defaultString(property);
+
+        return wikiKey.length() + wikiKey + propertyKey.length() + propertyKey + query;
+    }
+}
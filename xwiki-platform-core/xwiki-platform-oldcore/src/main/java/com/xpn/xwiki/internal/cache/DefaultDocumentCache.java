@@ -21,8 +21,14 @@
 
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.xwiki.bridge.event.AbstractDocumentEvent;
 import org.xwiki.bridge.event.DocumentCreatedEvent;
@@ -32,6 +38,9 @@
 import org.xwiki.cache.CacheException;
 import org.xwiki.cache.CacheManager;
 import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.event.CacheEntryEvent;
+import org.xwiki.cache.event.CacheEntryListener;
+import org.xwiki.cache.util.AbstractCache;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.annotation.InstantiationStrategy;
 import org.xwiki.component.annotation.Requirement;
@@ -98,18 +107,84 @@ public void onEvent(Event event, Object source, Object data)
         {
             String documentReferenceString = ((AbstractDocumentEvent) event).getEventFilter().getFilter();
 
-            Collection<String> keys = mappingCache.get(documentReferenceString);
+            Collection<String> keys = mapping.remove(documentReferenceString);
 
             if (keys != null) {
                 for (String key : keys) {
                     cache.remove(key);
+                    forget(key);
                 }
-
-                mappingCache.remove(documentReferenceString);
             }
         }
     }
 
+    /**
+     * Used to forget about the entries removed by the cache itself (eviction, expiration).
+     * 
+     * @version $Id$
+     * @since 3.2M1
+     */
+    protected class EntryListener implements CacheEntryListener<C>
+    {
+        /**
+         * {@inheritDoc}
+         * 
+         * @see org.xwiki.cache.event.CacheEntryListener#cacheEntryAdded(org.xwiki.cache.event.CacheEntryEvent)
+         */
+        public void cacheEntryAdded(CacheEntryEvent<C> event)
+        {
+            // Entries are registered by #set
+        }
+
+        /**
+         * {@inheritDoc}
+         * 
+         * @see org.xwiki.cache.event.CacheEntryListener#cacheEntryModified(org.xwiki.cache.event.CacheEntryEvent)
+         */
+        public void cacheEntryModified(CacheEntryEvent<C> event)
+        {
+            // Entries are registered by #set
+        }
+
+        /**
+         * {@inheritDoc}
+         * 
+         * @see org.xwiki.cache.event.CacheEntryListener#cacheEntryRemoved(org.xwiki.cache.event.CacheEntryEvent)
+         */
+        public void cacheEntryRemoved(CacheEntryEvent<C> event)
+        {
+            forget(event.getEntry().getKey());
+        }
+    }
+
+    /**
+     * Information about an entry of the cache.
+     * 
+     * @version $Id$
+     */
+    private static class Entry
+    {
+        /**
+         * The serialized reference of the document associated to the entry.
+         */
+        private final String documentReference;
+
+        /**
+         * The weight of the entry.
+         */
+        private final long weight;
+
+        /**
+         * @param documentReference the serialized reference of the document associated to the entry
+         * @param weight the weight of the entry
+         */
+        Entry(String documentReference, long weight)
+        {
+            this.documentReference = documentReference;
+            this.weight = weight;
+        }
+    }
+
     /**
      * The listener used to listen to document modification events.
      */
@@ -133,9 +208,39 @@ public void onEvent(Event event, Object source, Object data)
     private Cache<C> cache;
 
     /**
-     * The cache used to follow multiple cache entries related to the same document.
+     * Used to follow multiple cache entries related to the same document. Modified concurrently by the requests
+     * filling the cache and by the document events.
+     */
+    private final ConcurrentMap<String, Set<String>> mapping = new ConcurrentHashMap<String, Set<String>>();
+
+    /**
+     * The entries of the cache from the least recently used to the most recently used, used to find the document of an
+     * entry removed by the cache itself and to limit the total weight of the cache. Access is synchronized on the map
+     * itself.
+     */
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    /**
+     * The serialized document references of the entries evicted because of their weight but which might have been
+     * moved to another tier of the cache instead of being dropped. Their key stays indexed until the cache really
+     * removes them.
+     */
+    private final ConcurrentMap<String, String> evictedEntries = new ConcurrentHashMap<String, String>();
+
+    /**
+     * The total weight of the entries, protected by {@link #entries} lock.
      */
-    private Cache<Collection<String>> mappingCache;
+    private long weight;
+
+    /**
+     * Used to compute the weight of the entries, null if the cache is not limited in weight.
+     */
+    private DocumentCacheWeigher<C> weigher;
+
+    /**
+     * The maximum total weight of the entries.
+     */
+    private long maxWeight;
 
     /**
      * The identifier of the cache and event listener.
@@ -155,14 +260,27 @@ public void onEvent(Event event, Object source, Object data)
      */
     public void create(CacheConfiguration cacheConfiguration) throws CacheException
     {
-        this.name = cacheConfiguration.getConfigurationId();
+        create(cacheConfiguration, null, 0);
+    }
 
-        this.cache = this.cacheManager.createNewCache(cacheConfiguration);
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.xpn.xwiki.internal.cache.DocumentCache#create(org.xwiki.cache.config.CacheConfiguration,
+     *      com.xpn.xwiki.internal.cache.DocumentCacheWeigher, long)
+     */
+    public void create(CacheConfiguration cacheConfiguration, DocumentCacheWeigher<C> weigher, long maxWeight)
+        throws CacheException
+    {
+        this.name = cacheConfiguration.getConfigurationId();
 
-        CacheConfiguration mappingCacheConfiguration = (CacheConfiguration) cacheConfiguration.clone();
-        mappingCacheConfiguration.setConfigurationId(cacheConfiguration.getConfigurationId() + ".mapping");
+        if (maxWeight > 0) {
+            this.weigher = weigher;
+            this.maxWeight = maxWeight;
+        }
 
-        this.mappingCache = this.cacheManager.createNewCache(cacheConfiguration);
+        this.cache = this.cacheManager.createNewCache(cacheConfiguration);
+        this.cache.addCacheEntryListener(new EntryListener());
 
         this.observationManager.addListener(this.listener);
     }
@@ -177,7 +295,27 @@ public void create(CacheConfiguration cacheConfiguration) throws CacheException
      */
     public C get(DocumentReference documentReference, Object... extensions)
     {
-        return this.cache.get(getKey(documentReference, extensions));
+        String key = getKey(documentReference, extensions);
+
+        C data = this.cache.get(key);
+
+        // The access order only matters to choose the entries to evict when the cache is too heavy
+        if (data != null && this.weigher != null) {
+            Entry entry;
+            synchronized (this.entries) {
+                entry = this.entries.get(key);
+            }
+
+            // An entry evicted because of its weight and moved back from another tier of the cache weighs again
+            if (entry == null) {
+                String documentReferenceString = this.evictedEntries.remove(key);
+                if (documentReferenceString != null) {
+                    evict(register(key, documentReferenceString, data));
+                }
+            }
+        }
+
+        return data;
     }
 
     /**
@@ -188,19 +326,166 @@ public C get(DocumentReference documentReference, Object... extensions)
      */
     public void set(C data, DocumentReference documentReference, Object... extensions)
     {
-        String key = getKey(documentReference, extensions);
+        String documentReferenceString = this.serializer.serialize(documentReference);
+        String key = getKey(documentReferenceString, extensions);
+
+        // Index and register the key before filling the cache so that a concurrent document modification can't miss
+        // it
+        index(documentReferenceString, key);
+        Map<String, Entry> evicted = register(key, documentReferenceString, data);
+
         this.cache.set(key, data);
 
-        String documentReferenceString = this.serializer.serialize(documentReference);
+        // A document modification handled between the indexing and the filling of the cache removed the key from the
+        // index before the data was stored: the data is probably stale so don't keep it.
+        if (!isIndexed(documentReferenceString, key)) {
+            this.cache.remove(key);
+            forget(key);
+        }
 
-        Collection<String> keys = this.mappingCache.get(documentReferenceString);
+        evict(evicted);
+    }
+
+    /**
+     * Evict the entries which make the cache too heavy. When the cache supports it, the entries are evicted rather than
+     * removed so that a cache made of several tiers can move them to another tier.
+     * 
+     * @param evicted the entries to evict
+     */
+    private void evict(Map<String, Entry> evicted)
+    {
+        for (Map.Entry<String, Entry> entry : evicted.entrySet()) {
+            String key = entry.getKey();
+            if (this.cache instanceof AbstractCache) {
+                // Keep the key indexed until the cache actually removes the entry
+                this.evictedEntries.put(key, entry.getValue().documentReference);
+                ((AbstractCache<C>) this.cache).evict(key);
+            } else {
+                this.cache.remove(key);
+                unindex(entry.getValue().documentReference, key);
+            }
+        }
+    }
+
+    /**
+     * Remember the document associated to the provided key and select the least recently used entries to remove when
+     * the cache is too heavy.
+     * 
+     * @param key the key of the cache entry
+     * @param documentReferenceString the serialized reference of the document
+     * @param data the data stored in the cache
+     * @return the entries to remove from the cache
+     */
+    private Map<String, Entry> register(String key, String documentReferenceString, C data)
+    {
+        long entryWeight = this.weigher != null ? this.weigher.getWeight(data) : 0;
 
-        if (keys == null) {
-            keys = new HashSet<String>();
-            this.mappingCache.set(documentReferenceString, keys);
+        Map<String, Entry> evicted = Collections.emptyMap();
+
+        this.evictedEntries.remove(key);
+
+        synchronized (this.entries) {
+            Entry previous = this.entries.remove(key);
+            if (previous != null) {
+                this.weight -= previous.weight;
+            }
+            this.entries.put(key, new Entry(documentReferenceString, entryWeight));
+            this.weight += entryWeight;
+
+            if (this.weigher != null && this.weight > this.maxWeight) {
+                evicted = new LinkedHashMap<String, Entry>();
+                for (Iterator<Map.Entry<String, Entry>> it = this.entries.entrySet().iterator(); it.hasNext()
+                    && this.weight > this.maxWeight;) {
+                    Map.Entry<String, Entry> entry = it.next();
+                    // Always keep the entry which has just been added
+                    if (!entry.getKey().equals(key)) {
+                        it.remove();
+                        this.weight -= entry.getValue().weight;
+                        evicted.put(entry.getKey(), entry.getValue());
+                    }
+                }
+            }
         }
 
-        keys.add(key);
+        return evicted;
+    }
+
+    /**
+     * Forget about an entry which has been removed from the cache.
+     * 
+     * @param key the key of the cache entry
+     */
+    private void forget(String key)
+    {
+        Entry entry;
+        synchronized (this.entries) {
+            entry = this.entries.remove(key);
+            if (entry != null) {
+                this.weight -= entry.weight;
+            }
+        }
+
+        if (entry != null) {
+            unindex(entry.documentReference, key);
+        } else {
+            String documentReferenceString = this.evictedEntries.remove(key);
+            if (documentReferenceString != null) {
+                unindex(documentReferenceString, key);
+            }
+        }
+    }
+
+    /**
+     * Associate a cache key to a document.
+     * 
+     * @param documentReferenceString the serialized reference of the document
+     * @param key the key of the cache entry
+     */
+    private void index(String documentReferenceString, String key)
+    {
+        Set<String> keys;
+        do {
+            keys = this.mapping.get(documentReferenceString);
+            if (keys == null) {
+                keys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+                Set<String> existingKeys = this.mapping.putIfAbsent(documentReferenceString, keys);
+                if (existingKeys != null) {
+                    keys = existingKeys;
+                }
+            }
+            keys.add(key);
+            // The set might have been removed in the meantime by #unindex or a document event
+        } while (this.mapping.get(documentReferenceString) != keys);
+    }
+
+    /**
+     * @param documentReferenceString the serialized reference of the document
+     * @param key the key of the cache entry
+     * @return true if the key is currently associated to the document
+     */
+    private boolean isIndexed(String documentReferenceString, String key)
+    {
+        Set<String> keys = this.mapping.get(documentReferenceString);
+
+        return keys != null && keys.contains(key);
+    }
+
+    /**
+     * Remove the association between a cache key and a document.
+     * 
+     * @param documentReferenceString the serialized reference of the document
+     * @param key the key of the cache entry
+     */
+    private void unindex(String documentReferenceString, String key)
+    {
+        Set<String> keys = this.mapping.get(documentReferenceString);
+
+        if (keys != null) {
+            keys.remove(key);
+            if (keys.isEmpty()) {
+                this.mapping.remove(documentReferenceString, keys);
+            }
+        }
     }
 
     /**
@@ -212,30 +497,50 @@ public void set(C data, DocumentReference documentReference, Object... extension
      */
     protected String getKey(DocumentReference documentReference, Object... extensions)
     {
-        StringBuffer buffer = new StringBuffer();
+        return getKey(this.serializer.serialize(documentReference), extensions);
+    }
+
+    /**
+     * Generate a key based on the provided serialized document reference and extensions.
+     * 
+     * @param documentReferenceString the serialized reference of the document
+     * @param extensions the extensions to the document reference
+     * @return the value
+     */
+    private String getKey(String documentReferenceString, Object... extensions)
+    {
+        if (extensions.length == 0) {
+            return documentReferenceString;
+        }
+
+        StringBuilder builder = new StringBuilder();
 
-        if (extensions.length > 0) {
-            buffer.append(escape(this.serializer.serialize(documentReference)));
-            for (Object extension : extensions) {
-                buffer.append(':');
-                buffer.append(escape(extension != null ? extension.toString() : ""));
+        escape(documentReferenceString, builder);
+        for (Object extension : extensions) {
+            builder.append(':');
+            if (extension != null) {
+                escape(extension.toString(), builder);
             }
-        } else {
-            buffer.append(this.serializer.serialize(documentReference));
         }
 
-        return buffer.toString();
+        return builder.toString();
     }
 
     /**
      * Escape each element of the key.
      * 
      * @param str the element of the key to escape
-     * @return the escaped key element
+     * @param builder the builder where to append the escaped key element
      */
-    private String escape(String str)
+    private void escape(String str, StringBuilder builder)
     {
-        return str.replace("\\", "\\\\").replace(":", "\\:");
+        for (int i = 0; i < str.length(); ++i) {
+            char c = str.charAt(i);
+            if (c == '\\' || c == ':') {
+                builder.append('\\');
+            }
+            builder.append(c);
+        }
     }
 
     /**
@@ -248,14 +553,7 @@ public void remove(C data, DocumentReference documentReference, Object... extens
     {
         String key = getKey(documentReference, extensions);
         this.cache.remove(key);
-
-        String documentReferenceString = serializer.serialize(documentReference);
-
-        Collection<String> keys = mappingCache.get(documentReferenceString);
-
-        if (keys != null) {
-            keys.remove(key);
-        }
+        forget(key);
     }
 
     /**
@@ -266,7 +564,24 @@ public void remove(C data, DocumentReference documentReference, Object... extens
     public void removeAll()
     {
         this.cache.removeAll();
-        this.mappingCache.removeAll();
+
+        synchronized (this.entries) {
+            this.entries.clear();
+            this.weight = 0;
+        }
+        this.evictedEntries.clear();
+        this.mapping.clear();
+    }
+
+    /**
+     * @return the total weight of the entries of the cache
+     * @since 3.2M1
+     */
+    public long getWeight()
+    {
+        synchronized (this.entries) {
+            return this.weight;
+        }
     }
 
     /**
@@ -277,6 +592,12 @@ public void removeAll()
     public void dispose()
     {
         this.cache.dispose();
-        this.mappingCache.dispose();
+
+        synchronized (this.entries) {
+            this.entries.clear();
+            this.weight = 0;
+        }
+        this.evictedEntries.clear();
+        this.mapping.clear();
     }
 }
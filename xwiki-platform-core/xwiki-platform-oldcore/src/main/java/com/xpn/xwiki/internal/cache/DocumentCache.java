@@ -44,6 +44,21 @@
      */
     void create(CacheConfiguration cacheConfiguration) throws CacheException;
 
+    /**
+     * Initialize the cache with a limit on the total weight of the stored data. When the limit is exceeded the least
+     * recently used entries are removed from the cache.
+     * <p>
+     * This method should be called before anything else.
+     * 
+     * @param cacheConfiguration the cache configuration
+     * @param weigher used to compute the weight of each entry
+     * @param maxWeight the maximum total weight of the entries, 0 or less for no limit
+     * @throws CacheException failed to initialize the cache
+     * @since 3.2M1
+     */
+    void create(CacheConfiguration cacheConfiguration, DocumentCacheWeigher<C> weigher, long maxWeight)
+        throws CacheException;
+
     /**
      * Get the value associated with the provided key.
      * 
@@ -55,6 +70,11 @@
 
     /**
      * Add a new value or overwrite the existing one associated with the provided key.
+     * <p>
+     * The value is not kept if the document is modified while it is being stored. A value computed before a
+     * modification of the document and stored after the modification has been notified can't be detected, so callers
+     * should include in the extensions whatever the value has been computed from (like the rendering cache does with
+     * the digest of the document source).
      * 
      * @param data the data to store
      * @param documentReference the reference of the document
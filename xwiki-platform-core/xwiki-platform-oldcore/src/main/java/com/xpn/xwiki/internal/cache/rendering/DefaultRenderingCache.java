@@ -19,17 +19,48 @@
  */
 package com.xpn.xwiki.internal.cache.rendering;
 
+import java.lang.management.ManagementFactory;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
 import org.xwiki.cache.CacheException;
 import org.xwiki.cache.config.CacheConfiguration;
 import org.xwiki.cache.eviction.LRUEvictionConfiguration;
+import org.xwiki.cache.offheap.OffHeapConfiguration;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.annotation.Requirement;
 import org.xwiki.component.phase.Initializable;
 import org.xwiki.component.phase.InitializationException;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.context.ExecutionContextManager;
 import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.observation.event.ApplicationStoppedEvent;
+import org.xwiki.observation.event.Event;
 
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.internal.cache.DocumentCache;
+import com.xpn.xwiki.internal.cache.DocumentCacheWeigher;
+import com.xpn.xwiki.web.XWikiServletRequest;
+import com.xpn.xwiki.web.XWikiServletRequestStub;
+import com.xpn.xwiki.web.XWikiServletResponseStub;
 
 /**
  * Default implementation of {@link RenderingCache}.
@@ -45,6 +76,54 @@ public class DefaultRenderingCache implements RenderingCache, Initializable
      */
     private static final String NAME = "core.renderingcache";
 
+    /**
+     * The algorithm used to compute the part of the key identifying the rendering context.
+     */
+    private static final String DIGEST_ALGORITHM = "SHA-1";
+
+    /**
+     * The size of the buffer used to feed the digest.
+     */
+    private static final int DIGEST_BUFFER_SIZE = 4096;
+
+    /**
+     * The name of the JMX bean exposing the statistics of the cache.
+     */
+    private static final String MBEAN_NAME = "org.xwiki:type=RenderingCache";
+
+    /**
+     * The name of the XWiki context property indicating that the current rendering is a background refresh, in which
+     * case the cache must not be used.
+     */
+    private static final String CONTEXT_REFRESHING = NAME + ".refreshing";
+
+    /**
+     * The maximum number of background refreshes waiting to be executed.
+     */
+    private static final int REFRESH_QUEUE_SIZE = 100;
+
+    /**
+     * The part of the duration after which a hot result is refreshed in the background.
+     */
+    private static final double HOT_REFRESH_RATIO = 0.8;
+
+    /**
+     * The number of milliseconds in a second.
+     */
+    private static final long SECOND = 1000L;
+
+    /**
+     * Compute the weight of a rendered content as its number of characters.
+     */
+    private static final DocumentCacheWeigher<RenderingCacheEntry> WEIGHER =
+        new DocumentCacheWeigher<RenderingCacheEntry>()
+        {
+            public long getWeight(RenderingCacheEntry data)
+            {
+                return data.getContent() != null ? data.getContent().length() : 0;
+            }
+        };
+
     /**
      * Configuration of the rendering cache.
      */
@@ -55,7 +134,41 @@ public class DefaultRenderingCache implements RenderingCache, Initializable
      * Actually cache object.
      */
     @Requirement
-    private DocumentCache<String> cache;
+    private DocumentCache<RenderingCacheEntry> cache;
+
+    /**
+     * Used to set the execution context of the background refreshes.
+     */
+    @Requirement
+    private Execution execution;
+
+    /**
+     * Used to initialize the execution context of the background refreshes.
+     */
+    @Requirement
+    private ExecutionContextManager executionContextManager;
+
+    /**
+     * Used to stop the background refreshes when the application is stopped.
+     */
+    @Requirement
+    private ObservationManager observationManager;
+
+    /**
+     * The logger to log.
+     */
+    @Requirement
+    private Logger logger;
+
+    /**
+     * The statistics of the cache.
+     */
+    private final RenderingCacheStatistics statistics = new RenderingCacheStatistics();
+
+    /**
+     * The single background worker refreshing the stale results.
+     */
+    private ExecutorService refresher;
 
     /**
      * {@inheritDoc}
@@ -69,17 +182,107 @@ public void initialize() throws InitializationException
             cacheConfiguration.setConfigurationId(NAME);
             LRUEvictionConfiguration lru = new LRUEvictionConfiguration();
             lru.setMaxEntries(this.configuration.getSize());
-            lru.setTimeToLive(this.configuration.getDuration());
+            // Stale results are kept in the cache to be returned while they are refreshed
+            lru.setTimeToLive(this.configuration.getDuration() + Math.max(0, this.configuration.getMaxStaleness()));
             cacheConfiguration.put(LRUEvictionConfiguration.CONFIGURATIONID, lru);
+            if (this.configuration.getOffHeapCapacity() > 0) {
+                // Keep the results evicted from the heap in memory mapped files instead of rendering them again
+                OffHeapConfiguration offHeap = new OffHeapConfiguration();
+                offHeap.setCapacity(this.configuration.getOffHeapCapacity());
+                offHeap.setSerializer(new RenderingCacheEntrySerializer());
+                cacheConfiguration.put(OffHeapConfiguration.CONFIGURATIONID, offHeap);
+            }
 
             try {
-                this.cache.create(cacheConfiguration);
+                this.cache.create(cacheConfiguration, WEIGHER, this.configuration.getMaxContentSize());
             } catch (CacheException e) {
                 throw new InitializationException("Failed to initialize core rendering cache", e);
             }
+
+            this.refresher =
+                new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(
+                    REFRESH_QUEUE_SIZE), new ThreadFactory()
+                {
+                    public Thread newThread(Runnable runnable)
+                    {
+                        Thread thread = new Thread(runnable, "Rendering cache refresher");
+                        thread.setDaemon(true);
+                        thread.setPriority(Thread.NORM_PRIORITY - 1);
+
+                        return thread;
+                    }
+                });
+
+            registerStatistics();
+
+            this.observationManager.addListener(new EventListener()
+            {
+                public String getName()
+                {
+                    return NAME;
+                }
+
+                public List<Event> getEvents()
+                {
+                    return Collections.<Event> singletonList(new ApplicationStoppedEvent());
+                }
+
+                public void onEvent(Event event, Object source, Object data)
+                {
+                    dispose();
+                }
+            });
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.xpn.xwiki.internal.cache.rendering.RenderingCache#dispose()
+     */
+    public void dispose()
+    {
+        if (this.refresher != null) {
+            // The refreshes requested from now on are rejected, the entries are refreshed by the requests instead
+            this.refresher.shutdownNow();
+
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(MBEAN_NAME));
+            } catch (JMException e) {
+                this.logger.debug("Failed to unregister the rendering cache statistics from JMX", e);
+            }
+
+            this.observationManager.removeListener(NAME);
+        }
+    }
+
+    /**
+     * Expose the statistics of the cache through JMX.
+     */
+    private void registerStatistics()
+    {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(MBEAN_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this.statistics, name);
+        } catch (JMException e) {
+            this.logger.warn("Failed to register the rendering cache statistics in JMX", e);
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.xpn.xwiki.internal.cache.rendering.RenderingCache#getStatistics()
+     */
+    public RenderingCacheStatistics getStatistics()
+    {
+        return this.statistics;
+    }
+
     // cache
 
     /**
@@ -89,22 +292,192 @@ public void initialize() throws InitializationException
      *      java.lang.String, com.xpn.xwiki.XWikiContext)
      */
     public String getRenderedContent(DocumentReference documentReference, String source, XWikiContext context)
+    {
+        return getRenderedContent(documentReference, source, null, context);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.xpn.xwiki.internal.cache.rendering.RenderingCache#getRenderedContent(org.xwiki.model.reference.DocumentReference,
+     *      java.lang.String, com.xpn.xwiki.internal.cache.rendering.RenderingCacheRenderer,
+     *      com.xpn.xwiki.XWikiContext)
+     */
+    public String getRenderedContent(DocumentReference documentReference, String source,
+        RenderingCacheRenderer renderer, XWikiContext context)
     {
         String renderedContent = null;
 
         if (this.configuration.isCached(documentReference)) {
             String refresh = context.getRequest() != null ? context.getRequest().getParameter("refresh") : null;
 
-            if (!"1".equals(refresh)) {
-                renderedContent =
-                    this.cache.get(documentReference, source, getAction(context), context.getLanguage(),
-                        getQueryString(context));
+            if (!"1".equals(refresh) && context.get(CONTEXT_REFRESHING) == null) {
+                String key = getRenderingKey(source, context);
+                RenderingCacheEntry entry = this.cache.get(documentReference, key);
+
+                renderedContent = getContent(entry, documentReference, key, renderer, context);
             }
         }
 
         return renderedContent;
     }
 
+    /**
+     * Decide if the provided cache entry can be returned and refresh it in the background if needed.
+     * 
+     * @param entry the cache entry, null if there is none
+     * @param documentReference the reference of the document being rendered
+     * @param key the key of the entry in the document cache
+     * @param renderer used to refresh the entry in the background, null if not supported by the caller
+     * @param context the XWiki context
+     * @return the content to return, null if the content need to be rendered
+     */
+    private String getContent(RenderingCacheEntry entry, DocumentReference documentReference, String key,
+        RenderingCacheRenderer renderer, XWikiContext context)
+    {
+        if (entry == null) {
+            this.statistics.addMiss();
+
+            return null;
+        }
+
+        int maxStaleness = this.configuration.getMaxStaleness();
+
+        if (maxStaleness <= 0) {
+            // Background refresh is disabled, the cache itself takes care of the expiration
+            this.statistics.addHit();
+            entry.hit();
+
+            return entry.getContent();
+        }
+
+        long age = System.currentTimeMillis() - entry.getDate();
+        long duration = this.configuration.getDuration() * SECOND;
+
+        // The refresh does not have access to the request so results depending on the query string are not refreshed
+        boolean refreshable = renderer != null && StringUtils.isEmpty(getQueryString(context));
+
+        if (age < duration) {
+            this.statistics.addHit();
+            int hits = entry.hit();
+
+            // Refresh hot results before they become stale so that they are never returned stale
+            int hotThreshold = this.configuration.getHotThreshold();
+            if (refreshable && hotThreshold > 0 && hits >= hotThreshold && age >= duration * HOT_REFRESH_RATIO) {
+                refresh(entry, documentReference, key, renderer, context);
+            }
+
+            return entry.getContent();
+        } else if (refreshable && age < duration + maxStaleness * SECOND) {
+            this.statistics.addStaleHit(age - duration);
+            entry.hit();
+
+            refresh(entry, documentReference, key, renderer, context);
+
+            return entry.getContent();
+        }
+
+        this.statistics.addMiss();
+
+        return null;
+    }
+
+    /**
+     * Ask the background worker to refresh the provided entry, unless it's already being refreshed.
+     * 
+     * @param entry the cache entry
+     * @param documentReference the reference of the document being rendered
+     * @param key the key of the entry in the document cache
+     * @param renderer used to refresh the entry
+     * @param context the XWiki context of the current request
+     */
+    private void refresh(final RenderingCacheEntry entry, final DocumentReference documentReference,
+        final String key, final RenderingCacheRenderer renderer, XWikiContext context)
+    {
+        if (entry.startRefresh()) {
+            final XWikiContext refreshContext = createRefreshContext(context);
+
+            try {
+                this.refresher.execute(new Runnable()
+                {
+                    public void run()
+                    {
+                        refresh(entry, documentReference, key, renderer, refreshContext);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // Too many pending refreshes, the entry will be refreshed during a next access
+                entry.endRefresh();
+            }
+        }
+    }
+
+    /**
+     * Render again the provided entry, called by the background worker.
+     * 
+     * @param entry the cache entry
+     * @param documentReference the reference of the document being rendered
+     * @param key the key of the entry in the document cache
+     * @param renderer used to refresh the entry
+     * @param refreshContext the XWiki context to use for the rendering
+     */
+    private void refresh(RenderingCacheEntry entry, DocumentReference documentReference, String key,
+        RenderingCacheRenderer renderer, XWikiContext refreshContext)
+    {
+        long start = System.currentTimeMillis();
+
+        try {
+            ExecutionContext executionContext = new ExecutionContext();
+            this.executionContextManager.initialize(executionContext);
+            executionContext.setProperty("xwikicontext", refreshContext);
+            this.execution.setContext(executionContext);
+
+            // The renderer stores the new result in the cache, unless the rendering failed
+            renderer.render(refreshContext);
+
+            if (this.cache.get(documentReference, key) != entry) {
+                this.statistics.addRefresh(System.currentTimeMillis() - start);
+            } else {
+                this.statistics.addRefreshFailure();
+            }
+        } catch (Exception e) {
+            this.statistics.addRefreshFailure();
+            this.logger.warn("Failed to refresh the rendering cache for document [" + documentReference + "]", e);
+        } finally {
+            entry.endRefresh();
+            this.execution.removeContext();
+        }
+    }
+
+    /**
+     * Create the XWiki context used to refresh a result in the background. The request and the database session of
+     * the current request can't be used once the request is finished.
+     * 
+     * @param context the XWiki context of the current request
+     * @return the XWiki context of the background refresh
+     */
+    private XWikiContext createRefreshContext(XWikiContext context)
+    {
+        XWikiContext refreshContext = (XWikiContext) context.clone();
+
+        refreshContext.remove("hibsession");
+        refreshContext.remove("hibtransaction");
+        refreshContext.remove("vcontext");
+        refreshContext.remove("isInRenderingEngine");
+
+        XWikiServletRequestStub request = new XWikiServletRequestStub();
+        if (context.getRequest() != null) {
+            request.setHost(context.getRequest().getHeader("x-forwarded-host"));
+            request.setScheme(context.getRequest().getScheme());
+        }
+        refreshContext.setRequest(new XWikiServletRequest(request));
+        refreshContext.setResponse(new XWikiServletResponseStub());
+
+        refreshContext.put(CONTEXT_REFRESHING, Boolean.TRUE);
+
+        return refreshContext;
+    }
+
     /**
      * {@inheritDoc}
      * 
@@ -115,11 +488,74 @@ public void setRenderedContent(DocumentReference documentReference, String sourc
         XWikiContext context)
     {
         if (this.configuration.isCached(documentReference)) {
-            this.cache.set(renderedContent, documentReference, source, getAction(context), context.getLanguage(),
-                getQueryString(context));
+            String key = getRenderingKey(source, context);
+
+            // Keep the number of accesses of the previous result so that a hot result stays hot after a refresh
+            RenderingCacheEntry previousEntry = this.cache.get(documentReference, key);
+
+            this.cache.set(new RenderingCacheEntry(renderedContent, previousEntry != null ? previousEntry.getHits()
+                : 0), documentReference, key);
         }
     }
 
+    /**
+     * Compute a fixed size identifier of the source and the rendering parameters so that the cache key does not
+     * contain (and keep in memory) the whole content of the document.
+     * 
+     * @param source the source to render
+     * @param context the XWiki context
+     * @return the hexadecimal digest of the source, action, language and query string
+     */
+    private String getRenderingKey(String source, XWikiContext context)
+    {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // Should never happen, every JVM is required to support SHA-1
+            throw new RuntimeException("Failed to get a " + DIGEST_ALGORITHM + " digest", e);
+        }
+
+        byte[] buffer = new byte[DIGEST_BUFFER_SIZE];
+        update(digest, source, buffer);
+        update(digest, getAction(context), buffer);
+        update(digest, context.getLanguage(), buffer);
+        update(digest, getQueryString(context), buffer);
+
+        return new String(Hex.encodeHex(digest.digest()));
+    }
+
+    /**
+     * Add a string to the digest without creating a byte array copy of it.
+     * 
+     * @param digest the digest to update
+     * @param str the string to add, null is handled like an empty string
+     * @param buffer the buffer used to feed the digest
+     */
+    private void update(MessageDigest digest, String str, byte[] buffer)
+    {
+        int length = str != null ? str.length() : 0;
+
+        // The length is part of the digest so that two different splits of the same characters differ
+        buffer[0] = (byte) (length >>> 24);
+        buffer[1] = (byte) (length >>> 16);
+        buffer[2] = (byte) (length >>> 8);
+        buffer[3] = (byte) length;
+        int position = 4;
+
+        for (int i = 0; i < length; ++i) {
+            if (position == buffer.length) {
+                digest.update(buffer, 0, position);
+                position = 0;
+            }
+            char c = str.charAt(i);
+            buffer[position++] = (byte) (c >>> 8);
+            buffer[position++] = (byte) c;
+        }
+
+        digest.update(buffer, 0, position);
+    }
+
     /**
      * Extract action information from the context.
      * 
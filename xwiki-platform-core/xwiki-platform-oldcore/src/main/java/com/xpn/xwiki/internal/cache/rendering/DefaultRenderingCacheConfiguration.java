@@ -74,6 +74,26 @@ public class DefaultRenderingCacheConfiguration implements RenderingCacheConfigu
      */
     private static final int PROPVALUE_SIZE = 100;
 
+    /**
+     * Name of the property indication the maximum total size of the rendered content stored in the cache.
+     */
+    private static final String PROPNAME_MAXCONTENTSIZE = PREFIX + "maxcontentsize";
+
+    /**
+     * Name of the property indication the time during which a stale result is returned while being refreshed.
+     */
+    private static final String PROPNAME_MAXSTALENESS = PREFIX + "maxstaleness";
+
+    /**
+     * Name of the property indication the number of accesses after which a result is refreshed before being stale.
+     */
+    private static final String PROPNAME_HOTTHRESHOLD = PREFIX + "hotthreshold";
+
+    /**
+     * Name of the property indication the memory used outside of the heap to keep the results evicted from the cache.
+     */
+    private static final String PROPNAME_OFFHEAPCAPACITY = PREFIX + "offheapcapacity";
+
     /**
      * xwiki.properties file configurations.
      */
@@ -155,6 +175,46 @@ public int getSize()
         return this.farmConfiguration.getProperty(PROPNAME_SIZE, PROPVALUE_SIZE);
     }
 
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.xpn.xwiki.internal.cache.rendering.RenderingCacheConfiguration#getMaxContentSize()
+     */
+    public int getMaxContentSize()
+    {
+        return this.farmConfiguration.getProperty(PROPNAME_MAXCONTENTSIZE, 0);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.xpn.xwiki.internal.cache.rendering.RenderingCacheConfiguration#getMaxStaleness()
+     */
+    public int getMaxStaleness()
+    {
+        return this.farmConfiguration.getProperty(PROPNAME_MAXSTALENESS, 0);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.xpn.xwiki.internal.cache.rendering.RenderingCacheConfiguration#getHotThreshold()
+     */
+    public int getHotThreshold()
+    {
+        return this.farmConfiguration.getProperty(PROPNAME_HOTTHRESHOLD, 0);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.xpn.xwiki.internal.cache.rendering.RenderingCacheConfiguration#getOffHeapCapacity()
+     */
+    public long getOffHeapCapacity()
+    {
+        return this.farmConfiguration.getProperty(PROPNAME_OFFHEAPCAPACITY, 0L);
+    }
+
     /**
      * {@inheritDoc}
      * 
@@ -43,6 +43,21 @@
      */
     String getRenderedContent(DocumentReference documentReference, String source, XWikiContext context);
 
+    /**
+     * The stored result of the rendering of the provided source. When the stored result is stale but can still be
+     * served (see {@link RenderingCacheConfiguration#getMaxStaleness()}) it's returned and the provided renderer is
+     * used to refresh it in the background.
+     * 
+     * @param documentReference the reference of the document being rendered
+     * @param source the source to render
+     * @param renderer used to refresh the stored result in the background
+     * @param context the XWiki context
+     * @return the cached result, null if it has not been yet cached or if it's too old
+     * @since 3.2M1
+     */
+    String getRenderedContent(DocumentReference documentReference, String source, RenderingCacheRenderer renderer,
+        XWikiContext context);
+
     /**
      * Stored the result of the provided source rendering if the cache is enabled for the provided document.
      * 
@@ -53,4 +68,17 @@
      */
     void setRenderedContent(DocumentReference documentReference, String source, String renderedContent,
         XWikiContext context);
+
+    /**
+     * @return the statistics of the cache
+     * @since 3.2M1
+     */
+    RenderingCacheStatistics getStatistics();
+
+    /**
+     * Stop the background refreshes and release the resources they use. Called when the application is stopped.
+     * 
+     * @since 3.2M1
+     */
+    void dispose();
 }
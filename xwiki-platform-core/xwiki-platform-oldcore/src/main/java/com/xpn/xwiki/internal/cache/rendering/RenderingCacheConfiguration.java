@@ -46,6 +46,34 @@
      */
     int getSize();
 
+    /**
+     * @return the maximum total size (in characters) of the rendered content stored in the cache, 0 or less for no
+     *         limit
+     * @since 3.2M1
+     */
+    int getMaxContentSize();
+
+    /**
+     * @return the time (in seconds) during which a result older than {@link #getDuration()} is still returned while
+     *         being refreshed in the background, 0 or less to disable background refresh
+     * @since 3.2M1
+     */
+    int getMaxStaleness();
+
+    /**
+     * @return the number of accesses after which a result is refreshed in the background before it becomes stale, 0
+     *         or less to only refresh stale results
+     * @since 3.2M1
+     */
+    int getHotThreshold();
+
+    /**
+     * @return the maximum number of bytes of memory outside of the Java heap used to keep the results evicted from the
+     *         cache, 0 or less to disable it
+     * @since 3.2M1
+     */
+    long getOffHeapCapacity();
+
     /**
      * Indicate if the provided document's rendering result should be cached.
      * 
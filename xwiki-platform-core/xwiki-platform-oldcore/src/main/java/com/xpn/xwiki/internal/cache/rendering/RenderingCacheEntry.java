@@ -0,0 +1,123 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.cache.rendering;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A rendering result stored in the {@link RenderingCache}.
+ * 
+ * @version $Id$
+ * @since 3.2M1
+ */
+public class RenderingCacheEntry
+{
+    /**
+     * The rendering result.
+     */
+    private final String content;
+
+    /**
+     * The date when the content has been rendered.
+     */
+    private final long date;
+
+    /**
+     * The number of times the entry has been accessed.
+     */
+    private final AtomicInteger hits;
+
+    /**
+     * True when a refresh of the entry is planned or running.
+     */
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+
+    /**
+     * @param content the rendering result
+     * @param hits the number of times the previous rendering result of the same content has been accessed
+     */
+    public RenderingCacheEntry(String content, int hits)
+    {
+        this(content, System.currentTimeMillis(), hits);
+    }
+
+    /**
+     * @param content the rendering result
+     * @param date the date when the content has been rendered
+     * @param hits the number of times the entry has been accessed
+     */
+    public RenderingCacheEntry(String content, long date, int hits)
+    {
+        this.content = content;
+        this.date = date;
+        this.hits = new AtomicInteger(hits);
+    }
+
+    /**
+     * @return the rendering result
+     */
+    public String getContent()
+    {
+        return this.content;
+    }
+
+    /**
+     * @return the date when the content has been rendered
+     */
+    public long getDate()
+    {
+        return this.date;
+    }
+
+    /**
+     * @return the number of times the entry has been accessed
+     */
+    public int getHits()
+    {
+        return this.hits.get();
+    }
+
+    /**
+     * Indicate that the entry has been accessed.
+     * 
+     * @return the new number of times the entry has been accessed
+     */
+    public int hit()
+    {
+        return this.hits.incrementAndGet();
+    }
+
+    /**
+     * @return true if the caller is in charge of refreshing the entry, false if someone else already is
+     */
+    public boolean startRefresh()
+    {
+        return this.refreshing.compareAndSet(false, true);
+    }
+
+    /**
+     * Indicate that the refresh of the entry is finished.
+     */
+    public void endRefresh()
+    {
+        this.refreshing.set(false);
+    }
+}
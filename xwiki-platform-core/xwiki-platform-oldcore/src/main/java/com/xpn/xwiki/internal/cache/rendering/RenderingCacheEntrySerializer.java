@@ -0,0 +1,79 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.cache.rendering;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import org.xwiki.cache.offheap.OffHeapSerializer;
+
+/**
+ * Store the {@link RenderingCacheEntry} in the off heap tier of the rendering cache.
+ * 
+ * @version $Id$
+ * @since 3.2M1
+ */
+public class RenderingCacheEntrySerializer implements OffHeapSerializer<RenderingCacheEntry>
+{
+    /**
+     * The encoding used to store the content.
+     */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * The size of the date and the number of hits.
+     */
+    private static final int HEADER_SIZE = 12;
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see org.xwiki.cache.offheap.OffHeapSerializer#serialize(java.lang.Object)
+     */
+    public byte[] serialize(RenderingCacheEntry entry)
+    {
+        if (entry.getContent() == null) {
+            return null;
+        }
+
+        byte[] content = entry.getContent().getBytes(UTF8);
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + content.length);
+        buffer.putLong(entry.getDate());
+        buffer.putInt(entry.getHits());
+        buffer.put(content);
+
+        return buffer.array();
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see org.xwiki.cache.offheap.OffHeapSerializer#deserialize(byte[])
+     */
+    public RenderingCacheEntry deserialize(byte[] data)
+    {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        long date = buffer.getLong();
+        int hits = buffer.getInt();
+
+        return new RenderingCacheEntry(new String(data, HEADER_SIZE, data.length - HEADER_SIZE, UTF8), date, hits);
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.cache.rendering;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+
+/**
+ * Render again a cached content, used by the {@link RenderingCache} to refresh stale entries in the background.
+ * 
+ * @version $Id$
+ * @since 3.2M1
+ */
+public interface RenderingCacheRenderer
+{
+    /**
+     * Render the content. The result is expected to be stored in the cache by the usual
+     * {@link RenderingCache#setRenderedContent(org.xwiki.model.reference.DocumentReference, String, String,
+     * XWikiContext)} call.
+     * 
+     * @param context the XWiki context to use for the rendering, not the one of the request which triggered the
+     *            refresh
+     * @return the rendered content
+     * @throws XWikiException when failing to render the content
+     */
+    String render(XWikiContext context) throws XWikiException;
+}
@@ -0,0 +1,223 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.cache.rendering;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collect the statistics of the {@link RenderingCache}.
+ * 
+ * @version $Id$
+ * @since 3.2M1
+ */
+public class RenderingCacheStatistics implements RenderingCacheStatisticsMBean
+{
+    /**
+     * @see #getHits()
+     */
+    private final AtomicLong hits = new AtomicLong();
+
+    /**
+     * @see #getStaleHits()
+     */
+    private final AtomicLong staleHits = new AtomicLong();
+
+    /**
+     * The total time stale results were past their duration.
+     */
+    private final AtomicLong staleness = new AtomicLong();
+
+    /**
+     * @see #getMisses()
+     */
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @see #getRefreshes()
+     */
+    private final AtomicLong refreshes = new AtomicLong();
+
+    /**
+     * @see #getRefreshFailures()
+     */
+    private final AtomicLong refreshFailures = new AtomicLong();
+
+    /**
+     * The total time taken by the background refreshes.
+     */
+    private final AtomicLong refreshTime = new AtomicLong();
+
+    /**
+     * @see #getMaxRefreshTime()
+     */
+    private final AtomicLong maxRefreshTime = new AtomicLong();
+
+    /**
+     * Indicate that a fresh rendering result has been found in the cache.
+     */
+    public void addHit()
+    {
+        this.hits.incrementAndGet();
+    }
+
+    /**
+     * Indicate that a stale rendering result has been returned.
+     * 
+     * @param staleTime the time (in milliseconds) the result is past its duration
+     */
+    public void addStaleHit(long staleTime)
+    {
+        this.staleHits.incrementAndGet();
+        this.staleness.addAndGet(staleTime);
+    }
+
+    /**
+     * Indicate that no usable rendering result has been found in the cache.
+     */
+    public void addMiss()
+    {
+        this.misses.incrementAndGet();
+    }
+
+    /**
+     * Indicate that a background refresh succeeded.
+     * 
+     * @param time the time (in milliseconds) taken by the refresh
+     */
+    public void addRefresh(long time)
+    {
+        this.refreshes.incrementAndGet();
+        this.refreshTime.addAndGet(time);
+
+        long max = this.maxRefreshTime.get();
+        while (time > max && !this.maxRefreshTime.compareAndSet(max, time)) {
+            max = this.maxRefreshTime.get();
+        }
+    }
+
+    /**
+     * Indicate that a background refresh failed.
+     */
+    public void addRefreshFailure()
+    {
+        this.refreshFailures.incrementAndGet();
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.xpn.xwiki.internal.cache.rendering.RenderingCacheStatisticsMBean#getHits()
+     */
+    public long getHits()
+    {
+        return this.hits.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.xpn.xwiki.internal.cache.rendering.RenderingCacheStatisticsMBean#getStaleHits()
+     */
+    public long getStaleHits()
+    {
+        return this.staleHits.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.xpn.xwiki.internal.cache.rendering.RenderingCacheStatisticsMBean#getMisses()
+     */
+    public long getMisses()
+    {
+        return this.misses.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.xpn.xwiki.internal.cache.rendering.RenderingCacheStatisticsMBean#getAverageStaleness()
+     */
+    public long getAverageStaleness()
+    {
+        long count = this.staleHits.get();
+
+        return count > 0 ? this.staleness.get() / count : 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.xpn.xwiki.internal.cache.rendering.RenderingCacheStatisticsMBean#getRefreshes()
+     */
+    public long getRefreshes()
+    {
+        return this.refreshes.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.xpn.xwiki.internal.cache.rendering.RenderingCacheStatisticsMBean#getRefreshFailures()
+     */
+    public long getRefreshFailures()
+    {
+        return this.refreshFailures.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.xpn.xwiki.internal.cache.rendering.RenderingCacheStatisticsMBean#getAverageRefreshTime()
+     */
+    public long getAverageRefreshTime()
+    {
+        long count = this.refreshes.get();
+
+        return count > 0 ? this.refreshTime.get() / count : 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.xpn.xwiki.internal.cache.rendering.RenderingCacheStatisticsMBean#getMaxRefreshTime()
+     */
+    public long getMaxRefreshTime()
+    {
+        return this.maxRefreshTime.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.xpn.xwiki.internal.cache.rendering.RenderingCacheStatisticsMBean#reset()
+     */
+    public void reset()
+    {
+        this.hits.set(0);
+        this.staleHits.set(0);
+        this.staleness.set(0);
+        this.misses.set(0);
+        this.refreshes.set(0);
+        this.refreshFailures.set(0);
+        this.refreshTime.set(0);
+        this.maxRefreshTime.set(0);
+    }
+}
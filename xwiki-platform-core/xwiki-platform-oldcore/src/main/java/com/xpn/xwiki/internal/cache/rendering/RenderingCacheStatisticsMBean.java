@@ -0,0 +1,74 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.cache.rendering;
+
+/**
+ * Statistics of the {@link RenderingCache} exposed through JMX.
+ * 
+ * @version $Id$
+ * @since 3.2M1
+ */
+public interface RenderingCacheStatisticsMBean
+{
+    /**
+     * @return the number of times a fresh rendering result has been found in the cache
+     */
+    long getHits();
+
+    /**
+     * @return the number of times a stale rendering result has been returned while being refreshed
+     */
+    long getStaleHits();
+
+    /**
+     * @return the number of times no usable rendering result has been found in the cache
+     */
+    long getMisses();
+
+    /**
+     * @return the average time (in milliseconds) stale results were past their duration when returned
+     */
+    long getAverageStaleness();
+
+    /**
+     * @return the number of background refreshes
+     */
+    long getRefreshes();
+
+    /**
+     * @return the number of background refreshes which failed
+     */
+    long getRefreshFailures();
+
+    /**
+     * @return the average time (in milliseconds) taken by a background refresh
+     */
+    long getAverageRefreshTime();
+
+    /**
+     * @return the longest time (in milliseconds) taken by a background refresh
+     */
+    long getMaxRefreshTime();
+
+    /**
+     * Reset all the statistics.
+     */
+    void reset();
+}
@@ -23,6 +23,7 @@
 import java.util.HashSet;
 import java.util.Set;
 
+import org.xwiki.bridge.event.WikiCopiedEvent;
 import org.xwiki.bridge.event.WikiCreatedEvent;
 import org.xwiki.bridge.event.WikiDeletedEvent;
 import org.xwiki.component.annotation.Component;
@@ -51,6 +52,7 @@ public class WikiEventConverter extends AbstractXWikiEventConverter
         {
             add(WikiDeletedEvent.class);
             add(WikiCreatedEvent.class);
+            add(WikiCopiedEvent.class);
         }
     };
 
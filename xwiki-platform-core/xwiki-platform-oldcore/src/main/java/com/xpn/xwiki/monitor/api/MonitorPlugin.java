@@ -32,6 +32,10 @@
 import java.util.Iterator;
 import java.util.Map;
 
+/**
+ * @deprecated since 3.2M1 the core does not feed this plugin anymore, use {@link RequestTimings} instead
+ */
+@Deprecated
 public class MonitorPlugin extends XWikiDefaultPlugin {
     private static final Log log = LogFactory.getLog(MonitorPlugin.class);
 
@@ -52,6 +56,10 @@ public void init(XWikiContext context) {
         reset(context);
         long iActive = context.getWiki().ParamAsLong("xwiki.monitor", 0);
         setActive((iActive>0));
+        // Keep measuring the requests of the wikis which had enabled the monitoring
+        if (isActive()) {
+            RequestTimings.setEnabled(true);
+        }
     }
 
     public void reset(XWikiContext context) {
@@ -0,0 +1,535 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.monitor.api;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Records how long the main phases of the requests take. Replaces {@link MonitorPlugin}, which is neither thread safe
+ * nor cheap enough to be enabled in production.
+ * <p>
+ * Each thread uses its own recorder so that starting and stopping a timer does not involve any shared state. Only the
+ * outermost call of a phase is timed: a document included while rendering another document is part of the rendering
+ * of the including document. Different phases can overlap: a document loaded while evaluating a template counts in
+ * both phases. The durations are then added to lock-free {@link TimingHistogram histograms} which are exposed through
+ * JMX. When the recording is disabled, starting and stopping a timer only reads a volatile field.
+ * <p>
+ * Timers are used the following way:
+ * 
+ * <pre>
+ * long timer = RequestTimings.start(Phase.RENDERING);
+ * try {
+ *     ...
+ * } finally {
+ *     RequestTimings.end(Phase.RENDERING, timer);
+ * }
+ * </pre>
+ * 
+ * @version $Id$
+ * @since 3.2M1
+ */
+public final class RequestTimings implements RequestTimingsMBean
+{
+    /**
+     * The phases of a request which are timed.
+     * 
+     * @version $Id$
+     */
+    public enum Phase
+    {
+        /** Execution of a struts action, from the reception of the request to the end of the response. */
+        ACTION("action"),
+
+        /** Loading of a document from the store. */
+        STORE_LOAD("store.load"),
+
+        /** Saving of a document in the store. */
+        STORE_SAVE("store.save"),
+
+        /** Deletion of a document from the store. */
+        STORE_DELETE("store.delete"),
+
+        /** Execution of a query on the store. */
+        STORE_QUERY("store.query"),
+
+        /** Rendering of a content. */
+        RENDERING("rendering"),
+
+        /** Execution of the rendering transformations, mainly the macros. */
+        MACROS("macros"),
+
+        /** Evaluation of a Velocity template. */
+        TEMPLATE("template"),
+
+        /** Check of access rights. */
+        RIGHTS("rights"),
+
+        /** Search in the Lucene index. */
+        LUCENE("lucene");
+
+        /**
+         * @see #getName()
+         */
+        private final String name;
+
+        /**
+         * @param name the name of the timer of the phase
+         */
+        private Phase(String name)
+        {
+            this.name = name;
+        }
+
+        /**
+         * @return the name of the timer of the phase, as exposed through JMX
+         */
+        public String getName()
+        {
+            return this.name;
+        }
+    }
+
+    /**
+     * The state of the timers of a thread.
+     * 
+     * @version $Id$
+     */
+    private static class Recorder
+    {
+        /**
+         * Number of calls of each phase currently in progress.
+         */
+        private final int[] depth = new int[PHASES.length];
+
+        /**
+         * Time spent in each phase during the current request, in nanoseconds.
+         */
+        private final long[] spent = new long[PHASES.length];
+    }
+
+    /**
+     * Name under which the timings are registered in the MBean server.
+     */
+    public static final String MBEAN_NAME = "org.xwiki:type=RequestTimings";
+
+    /**
+     * Returned by {@link #start(Phase)} when the call is not timed.
+     */
+    private static final long NOT_TIMED = Long.MIN_VALUE;
+
+    /**
+     * Returned by {@link #start(Phase)} when the call is part of an outer call of the same phase.
+     */
+    private static final long NESTED = Long.MIN_VALUE + 1;
+
+    /**
+     * Prefix of the name of the timers of each action.
+     */
+    private static final String ACTION_PREFIX = "action.";
+
+    /**
+     * The timed phases.
+     */
+    private static final Phase[] PHASES = Phase.values();
+
+    /**
+     * Logging helper object.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(RequestTimings.class);
+
+    /**
+     * The unique instance, exposed through JMX.
+     */
+    private static final RequestTimings INSTANCE = new RequestTimings();
+
+    /**
+     * The recorder of each thread.
+     */
+    private static final ThreadLocal<Recorder> RECORDER = new ThreadLocal<Recorder>()
+    {
+        @Override
+        protected Recorder initialValue()
+        {
+            return new Recorder();
+        }
+    };
+
+    /**
+     * True if the durations are recorded.
+     */
+    private static volatile boolean enabled;
+
+    /**
+     * The durations of each phase.
+     */
+    private final TimingHistogram[] phaseHistograms = new TimingHistogram[PHASES.length];
+
+    /**
+     * The durations of each action.
+     */
+    private final ConcurrentMap<String, TimingHistogram> actionHistograms =
+        new ConcurrentHashMap<String, TimingHistogram>();
+
+    /**
+     * Use {@link #getInstance()}.
+     */
+    private RequestTimings()
+    {
+        for (int i = 0; i < this.phaseHistograms.length; ++i) {
+            this.phaseHistograms[i] = new TimingHistogram();
+        }
+    }
+
+    /**
+     * @return the unique instance
+     */
+    public static RequestTimings getInstance()
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * @return true if the durations are recorded
+     */
+    public static boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+     * @param enable true to record the durations
+     */
+    public static void setEnabled(boolean enable)
+    {
+        enabled = enable;
+    }
+
+    /**
+     * Start timing a phase.
+     * 
+     * @param phase the phase which is starting
+     * @return the timer to pass to {@link #end(Phase, long)}
+     */
+    public static long start(Phase phase)
+    {
+        if (!enabled) {
+            return NOT_TIMED;
+        }
+
+        if (RECORDER.get().depth[phase.ordinal()]++ > 0) {
+            return NESTED;
+        }
+
+        return System.nanoTime();
+    }
+
+    /**
+     * Stop timing a phase.
+     * 
+     * @param phase the phase which is ending
+     * @param timer the value returned by {@link #start(Phase)}
+     */
+    public static void end(Phase phase, long timer)
+    {
+        if (timer != NOT_TIMED) {
+            INSTANCE.record(RECORDER.get(), phase, timer);
+        }
+    }
+
+    /**
+     * Start timing a request. Forget about the timers left started by the previous request of the thread, if any.
+     * 
+     * @return the timer to pass to {@link #endRequest(String, long)}
+     */
+    public static long startRequest()
+    {
+        if (!enabled) {
+            return NOT_TIMED;
+        }
+
+        RECORDER.remove();
+
+        return start(Phase.ACTION);
+    }
+
+    /**
+     * Stop timing a request.
+     * 
+     * @param action the name of the action which handled the request
+     * @param timer the value returned by {@link #startRequest()}
+     */
+    public static void endRequest(String action, long timer)
+    {
+        if (timer != NOT_TIMED) {
+            Recorder recorder = RECORDER.get();
+            long duration = INSTANCE.record(recorder, Phase.ACTION, timer);
+            if (duration >= 0 && action != null) {
+                INSTANCE.getActionHistogram(action).record(duration);
+            }
+
+            if (LOGGER.isDebugEnabled()) {
+                log(action, recorder);
+            }
+        }
+    }
+
+    /**
+     * Register the timings in the platform MBean server.
+     */
+    public static void registerMBean()
+    {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(MBEAN_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(INSTANCE, name);
+            }
+        } catch (Exception e) {
+            LOGGER.warn("Failed to register the request timings in JMX", e);
+        }
+    }
+
+    /**
+     * @param recorder the recorder of the current thread
+     * @param phase the phase which is ending
+     * @param timer the value returned by {@link #start(Phase)}
+     * @return the duration of the phase in nanoseconds, -1 if the call was nested in another call of the same phase
+     */
+    private long record(Recorder recorder, Phase phase, long timer)
+    {
+        int index = phase.ordinal();
+
+        // The recorder may have been reset since the phase started
+        if (recorder.depth[index] > 0) {
+            --recorder.depth[index];
+        }
+
+        if (timer == NESTED) {
+            return -1;
+        }
+
+        long duration = System.nanoTime() - timer;
+        recorder.spent[index] += duration;
+        this.phaseHistograms[index].record(duration);
+
+        return duration;
+    }
+
+    /**
+     * @param action the name of an action
+     * @return the histogram of the durations of the action
+     */
+    private TimingHistogram getActionHistogram(String action)
+    {
+        TimingHistogram histogram = this.actionHistograms.get(action);
+        if (histogram == null) {
+            histogram = new TimingHistogram();
+            TimingHistogram existing = this.actionHistograms.putIfAbsent(action, histogram);
+            if (existing != null) {
+                histogram = existing;
+            }
+        }
+
+        return histogram;
+    }
+
+    /**
+     * Log how long the phases of the request took.
+     * 
+     * @param action the name of the action which handled the request
+     * @param recorder the recorder of the current thread
+     */
+    private static void log(String action, Recorder recorder)
+    {
+        StringBuilder builder = new StringBuilder("Timings of [").append(action).append(']');
+        for (Phase phase : PHASES) {
+            long spent = recorder.spent[phase.ordinal()];
+            if (spent > 0) {
+                builder.append(' ').append(phase.getName()).append('=').append(spent / 1000000).append("ms");
+            }
+        }
+        LOGGER.debug(builder.toString());
+    }
+
+    /**
+     * @param timer the name of a timer
+     * @return the histogram of the timer, null if there is none
+     */
+    private TimingHistogram getHistogram(String timer)
+    {
+        for (Phase phase : PHASES) {
+            if (phase.getName().equals(timer)) {
+                return this.phaseHistograms[phase.ordinal()];
+            }
+        }
+
+        if (timer != null && timer.startsWith(ACTION_PREFIX)) {
+            return this.actionHistograms.get(timer.substring(ACTION_PREFIX.length()));
+        }
+
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.xpn.xwiki.monitor.api.RequestTimingsMBean#isActive()
+     */
+    public boolean isActive()
+    {
+        return isEnabled();
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.xpn.xwiki.monitor.api.RequestTimingsMBean#setActive(boolean)
+     */
+    public void setActive(boolean active)
+    {
+        setEnabled(active);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.xpn.xwiki.monitor.api.RequestTimingsMBean#getTimers()
+     */
+    public String[] getTimers()
+    {
+        List<String> timers = new ArrayList<String>();
+        for (Phase phase : PHASES) {
+            if (this.phaseHistograms[phase.ordinal()].getCount() > 0) {
+                timers.add(phase.getName());
+            }
+        }
+        for (String action : this.actionHistograms.keySet()) {
+            timers.add(ACTION_PREFIX + action);
+        }
+
+        return timers.toArray(new String[timers.size()]);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.xpn.xwiki.monitor.api.RequestTimingsMBean#getStatistics()
+     */
+    public String[] getStatistics()
+    {
+        String[] timers = getTimers();
+        String[] statistics = new String[timers.length];
+        for (int i = 0; i < timers.length; ++i) {
+            TimingHistogram histogram = getHistogram(timers[i]);
+            statistics[i] =
+                String.format("%s: count=%d mean=%.2fms p50=%.2fms p90=%.2fms p99=%.2fms max=%.2fms", timers[i],
+                    histogram.getCount(), histogram.getMeanTime(), histogram.getPercentile(50),
+                    histogram.getPercentile(90), histogram.getPercentile(99), histogram.getMaxTime());
+        }
+
+        return statistics;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.xpn.xwiki.monitor.api.RequestTimingsMBean#getCount(java.lang.String)
+     */
+    public long getCount(String timer)
+    {
+        TimingHistogram histogram = getHistogram(timer);
+
+        return histogram != null ? histogram.getCount() : 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.xpn.xwiki.monitor.api.RequestTimingsMBean#getTotalTime(java.lang.String)
+     */
+    public double getTotalTime(String timer)
+    {
+        TimingHistogram histogram = getHistogram(timer);
+
+        return histogram != null ? histogram.getTotalTime() : 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.xpn.xwiki.monitor.api.RequestTimingsMBean#getMeanTime(java.lang.String)
+     */
+    public double getMeanTime(String timer)
+    {
+        TimingHistogram histogram = getHistogram(timer);
+
+        return histogram != null ? histogram.getMeanTime() : 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.xpn.xwiki.monitor.api.RequestTimingsMBean#getPercentile(java.lang.String, double)
+     */
+    public double getPercentile(String timer, double percentile)
+    {
+        TimingHistogram histogram = getHistogram(timer);
+
+        return histogram != null ? histogram.getPercentile(percentile) : 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.xpn.xwiki.monitor.api.RequestTimingsMBean#getMaxTime(java.lang.String)
+     */
+    public double getMaxTime(String timer)
+    {
+        TimingHistogram histogram = getHistogram(timer);
+
+        return histogram != null ? histogram.getMaxTime() : 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.xpn.xwiki.monitor.api.RequestTimingsMBean#reset()
+     */
+    public void reset()
+    {
+        for (TimingHistogram histogram : this.phaseHistograms) {
+            histogram.reset();
+        }
+        for (Map.Entry<String, TimingHistogram> entry : this.actionHistograms.entrySet()) {
+            entry.getValue().reset();
+        }
+    }
+}
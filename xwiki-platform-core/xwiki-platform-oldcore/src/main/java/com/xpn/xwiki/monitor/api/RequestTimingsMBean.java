@@ -0,0 +1,86 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.monitor.api;
+
+/**
+ * JMX interface of {@link RequestTimings}. The timers are identified by the name of a
+ * {@link RequestTimings.Phase phase} or by {@code action.<action name>} for the timers of each action.
+ * 
+ * @version $Id$
+ * @since 3.2M1
+ */
+public interface RequestTimingsMBean
+{
+    /**
+     * @return true if the durations are recorded
+     */
+    boolean isActive();
+
+    /**
+     * @param active true to record the durations
+     */
+    void setActive(boolean active);
+
+    /**
+     * @return the names of the timers which have recorded durations
+     */
+    String[] getTimers();
+
+    /**
+     * @return one line per timer with its number of calls, mean, percentiles and maximum durations
+     */
+    String[] getStatistics();
+
+    /**
+     * @param timer the name of the timer
+     * @return the number of recorded durations
+     */
+    long getCount(String timer);
+
+    /**
+     * @param timer the name of the timer
+     * @return the sum of the recorded durations, in milliseconds
+     */
+    double getTotalTime(String timer);
+
+    /**
+     * @param timer the name of the timer
+     * @return the average recorded duration, in milliseconds
+     */
+    double getMeanTime(String timer);
+
+    /**
+     * @param timer the name of the timer
+     * @param percentile the percentile, between 0 and 100
+     * @return the duration under which the provided percentage of the recorded durations are, in milliseconds
+     */
+    double getPercentile(String timer, double percentile);
+
+    /**
+     * @param timer the name of the timer
+     * @return the longest recorded duration, in milliseconds
+     */
+    double getMaxTime(String timer);
+
+    /**
+     * Forget all the recorded durations.
+     */
+    void reset();
+}
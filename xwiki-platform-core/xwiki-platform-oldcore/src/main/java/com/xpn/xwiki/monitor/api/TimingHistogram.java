@@ -0,0 +1,204 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.monitor.api;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of durations. Durations are stored with a microsecond resolution in log-linear buckets: each
+ * power of two is split in 16 buckets so that the percentiles are known with a relative error lower than 7%, whatever
+ * the magnitude of the durations. Recording a duration only costs a few atomic increments, which makes it possible to
+ * record from many threads at the same time without contention on a lock.
+ * 
+ * @version $Id$
+ * @since 3.2M1
+ */
+public class TimingHistogram
+{
+    /**
+     * Number of bits used to split each power of two.
+     */
+    private static final int SUB_BUCKET_BITS = 4;
+
+    /**
+     * Number of buckets for each power of two.
+     */
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * Total number of buckets, enough for any positive long.
+     */
+    private static final int BUCKET_COUNT = SUB_BUCKET_COUNT * (Long.SIZE - SUB_BUCKET_BITS);
+
+    /**
+     * Number of nanoseconds in a microsecond.
+     */
+    private static final long NANOS_PER_MICRO = 1000L;
+
+    /**
+     * Number of microseconds in a millisecond.
+     */
+    private static final double MICROS_PER_MILLI = 1000.0;
+
+    /**
+     * The number of durations recorded in each bucket.
+     */
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+
+    /**
+     * The sum of the recorded durations, in microseconds.
+     */
+    private final AtomicLong total = new AtomicLong();
+
+    /**
+     * The longest recorded duration, in microseconds.
+     */
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param nanos the duration to record, in nanoseconds
+     */
+    public void record(long nanos)
+    {
+        long micros = Math.max(0, nanos / NANOS_PER_MICRO);
+
+        this.buckets.incrementAndGet(getBucket(micros));
+        this.total.addAndGet(micros);
+
+        long currentMax = this.max.get();
+        while (micros > currentMax && !this.max.compareAndSet(currentMax, micros)) {
+            currentMax = this.max.get();
+        }
+    }
+
+    /**
+     * @return the number of recorded durations
+     */
+    public long getCount()
+    {
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            count += this.buckets.get(i);
+        }
+
+        return count;
+    }
+
+    /**
+     * @return the sum of the recorded durations, in milliseconds
+     */
+    public double getTotalTime()
+    {
+        return this.total.get() / MICROS_PER_MILLI;
+    }
+
+    /**
+     * @return the average recorded duration, in milliseconds
+     */
+    public double getMeanTime()
+    {
+        long count = getCount();
+
+        return count == 0 ? 0 : getTotalTime() / count;
+    }
+
+    /**
+     * @return the longest recorded duration, in milliseconds
+     */
+    public double getMaxTime()
+    {
+        return this.max.get() / MICROS_PER_MILLI;
+    }
+
+    /**
+     * @param percentile the percentile, between 0 and 100
+     * @return the duration under which the provided percentage of the recorded durations are, in milliseconds
+     */
+    public double getPercentile(double percentile)
+    {
+        // Take a snapshot so that the result is consistent even if durations are recorded in the meantime
+        long[] snapshot = new long[BUCKET_COUNT];
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            snapshot[i] = this.buckets.get(i);
+            count += snapshot[i];
+        }
+
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(Math.min(100, Math.max(0, percentile)) * count / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            seen += snapshot[i];
+            if (seen >= Math.max(1, rank)) {
+                return Math.min(getBucketUpperBound(i), this.max.get()) / MICROS_PER_MILLI;
+            }
+        }
+
+        return getMaxTime();
+    }
+
+    /**
+     * Forget all the recorded durations. Durations recorded during the reset might be partially lost.
+     */
+    public void reset()
+    {
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            this.buckets.set(i, 0);
+        }
+        this.total.set(0);
+        this.max.set(0);
+    }
+
+    /**
+     * @param micros a duration in microseconds
+     * @return the index of the bucket containing the duration
+     */
+    static int getBucket(long micros)
+    {
+        if (micros < SUB_BUCKET_COUNT) {
+            return (int) micros;
+        }
+
+        int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(micros);
+        int shift = exponent - SUB_BUCKET_BITS;
+
+        return SUB_BUCKET_COUNT + shift * SUB_BUCKET_COUNT + (int) ((micros >>> shift) & (SUB_BUCKET_COUNT - 1));
+    }
+
+    /**
+     * @param bucket the index of a bucket
+     * @return the highest duration contained in the bucket, in microseconds
+     */
+    static long getBucketUpperBound(int bucket)
+    {
+        if (bucket < SUB_BUCKET_COUNT) {
+            return bucket;
+        }
+
+        int shift = (bucket - SUB_BUCKET_COUNT) / SUB_BUCKET_COUNT;
+        long lowerBound = (long) (SUB_BUCKET_COUNT + (bucket % SUB_BUCKET_COUNT)) << shift;
+
+        return lowerBound + (1L << shift) - 1;
+    }
+}
@@ -156,6 +156,10 @@ public int getNumber()
 
     public void setNumber(int number)
     {
+        if (this.number != number) {
+            setDirty(true);
+        }
+
         this.number = number;
     }
 
@@ -210,6 +214,10 @@ public String getClassName()
      */
     public void setXClassReference(EntityReference xClassReference)
     {
+        if (this.xClassReference == null || !this.xClassReference.equals(xClassReference)) {
+            setDirty(true);
+        }
+
         this.xClassReference = xClassReference;
         this.xClassReferenceCache = null;
     }
@@ -23,6 +23,7 @@
 
 import java.io.Serializable;
 
+import org.apache.commons.lang.ObjectUtils;
 import org.suigeneris.jrcs.diff.Diff;
 import org.suigeneris.jrcs.diff.Revision;
 import org.suigeneris.jrcs.util.ToString;
@@ -64,6 +65,11 @@
 
     private String prettyName;
 
+    /**
+     * True if the element has been modified since it was last loaded from or saved to the database.
+     */
+    private boolean isDirty = true;
+
     /**
      * Used to convert a proper Document Reference to a string but without the wiki name.
      */
@@ -132,6 +138,10 @@ public String getName()
      */
     public void setDocumentReference(DocumentReference reference)
     {
+        if (this.documentReference == null || !this.documentReference.equals(reference)) {
+            setDirty(true);
+        }
+
         // If the name is already set then reset it since we're now using a reference
         this.documentReference = reference;
         this.name = null;
@@ -150,10 +160,34 @@ public void setName(String name)
             throw new IllegalStateException("BaseElement#setName could not be called when a reference has been set.");
         }
 
+        if (!ObjectUtils.equals(this.name, name)) {
+            setDirty(true);
+        }
+
         this.name = name;
         this.referenceCache = null;
     }
 
+    /**
+     * @return true if the element has been modified since it was last loaded from or saved to the database, i.e. if it
+     *         needs to be saved
+     * @since 3.2M1
+     */
+    public boolean isDirty()
+    {
+        return this.isDirty;
+    }
+
+    /**
+     * @param isDirty true if the element has been modified and needs to be saved, false when it has just been loaded
+     *            from or saved to the database
+     * @since 3.2M1
+     */
+    public void setDirty(boolean isDirty)
+    {
+        this.isDirty = isDirty;
+    }
+
     public String getPrettyName()
     {
         return this.prettyName;
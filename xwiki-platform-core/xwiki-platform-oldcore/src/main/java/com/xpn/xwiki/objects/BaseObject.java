@@ -473,6 +473,10 @@ public String getGuid()
 
     public void setGuid(String guid)
     {
+        if (this.guid == null || !this.guid.equals(guid)) {
+            setDirty(true);
+        }
+
         this.guid = guid;
     }
 }
@@ -21,6 +21,8 @@
 
 package com.xpn.xwiki.objects;
 
+import org.apache.commons.lang.ObjectUtils;
+
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.doc.merge.MergeResult;
 import com.xpn.xwiki.doc.merge.MergeUtils;
@@ -52,6 +54,10 @@ public String getValue()
     @Override
     public void setValue(Object value)
     {
+        if (!ObjectUtils.equals(this.value, value)) {
+            setDirty(true);
+        }
+
         this.value = (String) value;
     }
 
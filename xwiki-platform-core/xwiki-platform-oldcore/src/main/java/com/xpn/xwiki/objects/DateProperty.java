@@ -24,6 +24,7 @@
 import java.text.SimpleDateFormat;
 import java.util.Date;
 
+import org.apache.commons.lang.ObjectUtils;
 import org.dom4j.Element;
 import org.dom4j.dom.DOMElement;
 
@@ -58,6 +59,10 @@ public String toXMLString()
     @Override
     public void setValue(Object value)
     {
+        if (!ObjectUtils.equals(this.value, value)) {
+            setDirty(true);
+        }
+
         this.value = (Date) value;
     }
 
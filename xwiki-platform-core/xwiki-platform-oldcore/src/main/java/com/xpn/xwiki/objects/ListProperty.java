@@ -40,6 +40,12 @@ public class ListProperty extends BaseProperty implements Cloneable
 
     private String formStringSeparator = "|";
 
+    /**
+     * Copy of the list taken when the property was last loaded or saved, used to detect the modifications made
+     * directly on the list.
+     */
+    private List<String> cleanList;
+
     public String getFormStringSeparator()
     {
         return this.formStringSeparator;
@@ -170,6 +176,7 @@ public ListProperty clone()
             list.add(entry);
         }
         property.setValue(list);
+        property.setDirty(isDirty());
 
         return property;
     }
@@ -181,6 +188,11 @@ public List<String> getList()
 
     public void setList(List<String> list)
     {
+        // When the list has been loaded or saved, changes are detected by comparing with the clean list
+        if (this.cleanList == null) {
+            setDirty(true);
+        }
+
         if (list == null) {
             this.list = new ArrayList<String>();
         } else {
@@ -195,6 +207,39 @@ public void setList(List<String> list)
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The list can be modified directly so it's compared with the list as it was when the property was last loaded or
+     * saved.
+     * 
+     * @see com.xpn.xwiki.objects.BaseElement#isDirty()
+     */
+    @Override
+    public boolean isDirty()
+    {
+        return super.isDirty() || (this.cleanList != null && !this.cleanList.equals(getList()));
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.xpn.xwiki.objects.BaseElement#setDirty(boolean)
+     */
+    @Override
+    public void setDirty(boolean isDirty)
+    {
+        // A list not yet loaded by Hibernate cannot be copied so the property stays dirty
+        if (isDirty || ((getList() instanceof PersistentCollection) && !((PersistentCollection) getList())
+            .wasInitialized())) {
+            super.setDirty(true);
+            this.cleanList = null;
+        } else {
+            super.setDirty(false);
+            this.cleanList = new ArrayList<String>(getList());
+        }
+    }
+
     /**
      * {@inheritDoc}
      * 
@@ -21,6 +21,8 @@
 
 package com.xpn.xwiki.objects;
 
+import org.apache.commons.lang.ObjectUtils;
+
 public abstract class NumberProperty extends BaseProperty
 {
     private Number value;
@@ -38,6 +40,10 @@ public Object getValue()
     @Override
     public void setValue(Object value)
     {
+        if (!ObjectUtils.equals(this.value, value)) {
+            setDirty(true);
+        }
+
         this.value = (Number) value;
     }
 
@@ -35,11 +35,13 @@
 
 import com.xpn.xwiki.XWiki;
 import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.internal.cache.DBListQueryCache;
 import com.xpn.xwiki.objects.BaseCollection;
 import com.xpn.xwiki.objects.BaseProperty;
 import com.xpn.xwiki.objects.ListProperty;
 import com.xpn.xwiki.objects.meta.PropertyMetaClass;
 import com.xpn.xwiki.plugin.query.QueryPlugin;
+import com.xpn.xwiki.web.Utils;
 
 public class DBListClass extends ListClass
 {
@@ -47,8 +49,6 @@ public class DBListClass extends ListClass
 
     private static final Log LOG = LogFactory.getLog(DBListClass.class);
 
-    private List<ListItem> cachedDBList;
-
     public DBListClass(String name, String prettyname, PropertyMetaClass wclass)
     {
         super(name, prettyname, wclass);
@@ -92,10 +92,17 @@ public List<ListItem> makeList(List<Object> list)
 
     public List<ListItem> getDBList(XWikiContext context)
     {
-        List<ListItem> list = getCachedDBList(context);
+        // Resolving the query executes its scripts so it's done only when needed and at most once. The shared cache
+        // needs it as a key while the request cache does not.
+        String query = isCache() ? getQuery(context) : null;
+        // Taken before executing the query so that a result missing a concurrent modification is not shared
+        long generation = getCacheGeneration(query, context);
+        List<ListItem> list = getCachedDBList(query, context);
         if (list == null) {
             XWiki xwiki = context.getWiki();
-            String query = getQuery(context);
+            if (query == null) {
+                query = getQuery(context);
+            }
 
             if (query == null) {
                 list = new ArrayList<ListItem>();
@@ -111,7 +118,7 @@ public List<ListItem> getDBList(XWikiContext context)
                     list = new ArrayList<ListItem>();
                 }
             }
-            setCachedDBList(list, context);
+            setCachedDBList(list, query, generation, context);
         }
         return list;
     }
@@ -119,7 +126,8 @@ public List<ListItem> getDBList(XWikiContext context)
     @Override
     public List<String> getList(XWikiContext context)
     {
-        List<ListItem> dblist = getDBList(context);
+        // The result of the query can be shared with other requests so it must not be sorted in place
+        List<ListItem> dblist = new ArrayList<ListItem>(getDBList(context));
 
         String sort = getSort();
 
@@ -343,26 +351,89 @@ public void setValueField(String valueField)
 
     public List<ListItem> getCachedDBList(XWikiContext context)
     {
-        if (isCache()) {
-            return this.cachedDBList;
-        } else {
-            return (List<ListItem>) context.get(context.getDatabase() + ":" + getFieldFullName());
-        }
+        return getCachedDBList(isCache() ? getQuery(context) : null, context);
     }
 
     public void setCachedDBList(List<ListItem> cachedDBList, XWikiContext context)
     {
-        if (isCache()) {
-            this.cachedDBList = cachedDBList;
-        } else {
-            context.put(context.getDatabase() + ":" + getFieldFullName(), cachedDBList);
+        String query = isCache() ? getQuery(context) : null;
+        setCachedDBList(cachedDBList, query, getCacheGeneration(query, context), context);
+    }
+
+    /**
+     * @param query the query of the property, after its scripts have been executed, null to use the request cache
+     * @param context the XWiki context
+     * @return the generation of the cache shared by all the requests, 0 if it's not used
+     */
+    private long getCacheGeneration(String query, XWikiContext context)
+    {
+        if (isCache() && query != null) {
+            DBListQueryCache cache = getQueryCache();
+            if (cache != null) {
+                return cache.getGeneration(context.getDatabase());
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * @param query the query of the property, after its scripts have been executed, null to use the request cache
+     * @param context the XWiki context
+     * @return the cached result of the query, null if it's not in the cache
+     */
+    private List<ListItem> getCachedDBList(String query, XWikiContext context)
+    {
+        if (isCache() && query != null) {
+            DBListQueryCache cache = getQueryCache();
+            if (cache != null) {
+                return cache.get(context.getDatabase(), getFieldFullName(), query);
+            }
+        }
+
+        return (List<ListItem>) context.get(context.getDatabase() + ":" + getFieldFullName());
+    }
+
+    /**
+     * @param cachedDBList the result of the query
+     * @param query the query of the property, after its scripts have been executed, null to use the request cache
+     * @param generation the generation of the shared cache taken before executing the query
+     * @param context the XWiki context
+     */
+    private void setCachedDBList(List<ListItem> cachedDBList, String query, long generation, XWikiContext context)
+    {
+        if (isCache() && query != null) {
+            DBListQueryCache cache = getQueryCache();
+            if (cache != null) {
+                cache.set(cachedDBList, context.getDatabase(), getFieldFullName(), query, generation);
+
+                return;
+            }
+        }
+
+        context.put(context.getDatabase() + ":" + getFieldFullName(), cachedDBList);
+    }
+
+    /**
+     * @return the cache shared by all the requests, null if it's not available (in which case the result of the query
+     *         is only cached for the current request)
+     */
+    private DBListQueryCache getQueryCache()
+    {
+        try {
+            return Utils.getComponent(DBListQueryCache.class);
+        } catch (RuntimeException e) {
+            LOG.debug("Failed to get the database list query cache", e);
+
+            return null;
         }
     }
 
     @Override
     public void flushCache()
     {
-        this.cachedDBList = null;
+        // The shared query cache is invalidated by the document events, the result of a modified query is stored under
+        // a different key.
     }
 
     // return first or second column from user query
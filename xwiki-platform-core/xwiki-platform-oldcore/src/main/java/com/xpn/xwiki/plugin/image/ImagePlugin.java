@@ -35,6 +35,7 @@
 import org.xwiki.cache.CacheException;
 import org.xwiki.cache.config.CacheConfiguration;
 import org.xwiki.cache.eviction.LRUEvictionConfiguration;
+import org.xwiki.cache.offheap.OffHeapConfiguration;
 
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
@@ -171,6 +172,20 @@ private void initCache(XWikiContext context)
         }
         lru.setMaxEntries(this.capacity);
 
+        // Keep the thumbnails evicted from the heap in memory mapped files instead of computing them again.
+        String offHeapCapacityParam = context.getWiki().Param("xwiki.plugin.image.cache.offheapcapacity");
+        if (!StringUtils.isBlank(offHeapCapacityParam) && StringUtils.isNumeric(offHeapCapacityParam.trim())) {
+            try {
+                OffHeapConfiguration offHeap = new OffHeapConfiguration();
+                offHeap.setCapacity(Long.parseLong(offHeapCapacityParam.trim()));
+                offHeap.setDirectory(imgTempDir);
+                configuration.put(OffHeapConfiguration.CONFIGURATIONID, offHeap);
+            } catch (NumberFormatException e) {
+                LOG.warn("Failed to parse xwiki.plugin.image.cache.offheapcapacity configuration parameter. "
+                    + "The off heap cache is disabled.", e);
+            }
+        }
+
         try {
             this.imageCache = context.getWiki().getLocalCacheFactory().newCache(configuration);
         } catch (CacheException e) {
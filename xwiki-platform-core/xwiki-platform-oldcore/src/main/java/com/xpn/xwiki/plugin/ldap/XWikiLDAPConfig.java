@@ -397,6 +397,81 @@ public int getCacheExpiration(XWikiContext context)
         }
     }
 
+    /**
+     * First try to retrieve value from XWiki Preferences and then from xwiki.cfg and convert it to an integer.
+     * 
+     * @param name the name of the property in XWikiPreferences.
+     * @param def default value, also used when the value is not a valid integer.
+     * @param context the XWiki context.
+     * @return the value of the property.
+     * @since 3.2M1
+     */
+    public int getLDAPParamAsInt(String name, int def, XWikiContext context)
+    {
+        String param = getLDAPParam(name, null, context);
+
+        if (param != null) {
+            try {
+                return Integer.parseInt(param.trim());
+            } catch (NumberFormatException e) {
+                LOG.warn("Invalid value [" + param + "] for LDAP parameter [" + name + "], using [" + def + "]");
+            }
+        }
+
+        return def;
+    }
+
+    /**
+     * @param context the XWiki context.
+     * @return the maximum number of LDAP connections used at the same time, 0 for no limit.
+     * @since 3.2M1
+     */
+    public int getPoolMaxActive(XWikiContext context)
+    {
+        return getLDAPParamAsInt("ldap_pool_max_active", 50, context);
+    }
+
+    /**
+     * @param context the XWiki context.
+     * @return the maximum number of idle LDAP connections kept per server, 0 to disable connection pooling.
+     * @since 3.2M1
+     */
+    public int getPoolMaxIdle(XWikiContext context)
+    {
+        return getLDAPParamAsInt("ldap_pool_max_idle", 8, context);
+    }
+
+    /**
+     * @param context the XWiki context.
+     * @return the time in seconds after which an idle LDAP connection is closed instead of being reused.
+     * @since 3.2M1
+     */
+    public int getPoolIdleTimeout(XWikiContext context)
+    {
+        return getLDAPParamAsInt("ldap_pool_idle_timeout", 300, context);
+    }
+
+    /**
+     * @param context the XWiki context.
+     * @return the time in milliseconds to wait for a LDAP connection when the maximum number of connections is reached.
+     * @since 3.2M1
+     */
+    public int getPoolMaxWait(XWikiContext context)
+    {
+        return getLDAPParamAsInt("ldap_pool_max_wait", 10000, context);
+    }
+
+    /**
+     * @param context the XWiki context.
+     * @return the maximum number of groups loaded in memory to resolve nested groups without one LDAP search per
+     *         group, 0 to disable it.
+     * @since 3.2M1
+     */
+    public int getGroupGraphMaxSize(XWikiContext context)
+    {
+        return getLDAPParamAsInt("ldap_group_graph_max_size", 10000, context);
+    }
+
     /**
      * @param context the XWiki context.
      * @return the pattern to resolve to find the password to use to connect to LDAP server. It is based on
@@ -40,6 +40,7 @@
 import com.novell.ldap.LDAPEntry;
 import com.novell.ldap.LDAPException;
 import com.novell.ldap.LDAPJSSESecureSocketFactory;
+import com.novell.ldap.LDAPSearchConstraints;
 import com.novell.ldap.LDAPSearchResults;
 import com.novell.ldap.LDAPSocketFactory;
 import com.xpn.xwiki.XWikiContext;
@@ -57,11 +58,26 @@
      */
     private static final Log LOG = LogFactory.getLog(XWikiLDAPConnection.class);
 
+    /**
+     * The number of entries received at once when searching for several entries.
+     */
+    private static final int SEARCH_BATCH_SIZE = 100;
+
     /**
      * The LDAP connection.
      */
     private LDAPConnection connection;
 
+    /**
+     * The pooled connection currently used, null if none.
+     */
+    private XWikiLDAPConnectionPool.PooledConnection pooledConnection;
+
+    /**
+     * False if an error left the connection in an unknown state and it should not be given back to the pool.
+     */
+    private boolean reusable;
+
     /**
      * @return the {@link LDAPConnection}.
      */
@@ -129,7 +145,36 @@ public boolean open(String ldapHost, int ldapPort, String loginDN, String passwo
             port = ssl ? LDAPConnection.DEFAULT_SSL_PORT : LDAPConnection.DEFAULT_PORT;
         }
 
+        // Give back the connection possibly still used by this instance
+        close();
+
+        XWikiLDAPConnectionPool pool = getPool(context);
+        String key = (ssl ? "ldaps://" : "ldap://") + ldapHost + ":" + port;
+        this.pooledConnection = pool.borrow(key);
+        this.reusable = true;
+
         try {
+            if (this.pooledConnection != null) {
+                this.connection = this.pooledConnection.getConnection();
+                try {
+                    // Binding again also makes sure the server did not close the connection
+                    setConstraints(loginDN, password, context);
+                    bind(loginDN, password);
+                    XWikiLDAPStatistics.getInstance().connectionReused();
+
+                    return true;
+                } catch (LDAPException e) {
+                    if (e.getResultCode() == LDAPException.INVALID_CREDENTIALS) {
+                        throw e;
+                    }
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug("Pooled LDAP connection to [" + key + "] is not usable anymore", e);
+                    }
+                    disconnect();
+                    this.reusable = true;
+                }
+            }
+
             if (ssl) {
                 XWikiLDAPConfig config = XWikiLDAPConfig.getInstance();
 
@@ -156,28 +201,78 @@ public boolean open(String ldapHost, int ldapPort, String loginDN, String passwo
             } else {
                 this.connection = new LDAPConnection();
             }
+            this.pooledConnection = new XWikiLDAPConnectionPool.PooledConnection(key, this.connection);
+            XWikiLDAPStatistics.getInstance().connectionCreated();
 
             // connect
             connect(ldapHost, port);
 
             // set referral following
-            LDAPConstraints constraints = this.connection.getConstraints();
-            constraints.setTimeLimit(1000);
-            constraints.setReferralFollowing(true);
-            constraints.setReferralHandler(new LDAPPluginReferralHandler(loginDN, password, context));
-            this.connection.setConstraints(constraints);
+            setConstraints(loginDN, password, context);
 
             // bind
             bind(loginDN, password);
         } catch (UnsupportedEncodingException e) {
+            abortOpen();
             throw new XWikiLDAPException("LDAP bind failed with UnsupportedEncodingException.", e);
         } catch (LDAPException e) {
+            abortOpen();
             throw new XWikiLDAPException("LDAP bind failed with LDAPException.", e);
+        } catch (XWikiLDAPException e) {
+            abortOpen();
+            throw e;
+        } catch (RuntimeException e) {
+            abortOpen();
+            throw e;
         }
 
         return true;
     }
 
+    /**
+     * Give back the connection, or the reservation made in the pool if no connection could be created.
+     */
+    private void abortOpen()
+    {
+        if (this.pooledConnection != null) {
+            close();
+        } else {
+            XWikiLDAPConnectionPool.getInstance().release();
+        }
+    }
+
+    /**
+     * @param context the XWiki context.
+     * @return the connection pool, configured from the LDAP configuration.
+     */
+    private XWikiLDAPConnectionPool getPool(XWikiContext context)
+    {
+        XWikiLDAPConfig config = XWikiLDAPConfig.getInstance();
+
+        XWikiLDAPConnectionPool pool = XWikiLDAPConnectionPool.getInstance();
+        pool.configure(config.getPoolMaxActive(context), config.getPoolMaxIdle(context),
+            config.getPoolIdleTimeout(context) * 1000L, config.getPoolMaxWait(context));
+
+        return pool;
+    }
+
+    /**
+     * Set the referral following and time limit constraints. Done each time the connection is opened since the
+     * referral handler depends on the credentials and the context of the current request.
+     * 
+     * @param loginDN the user DN to connect to LDAP server.
+     * @param password the password to connect to LDAP server.
+     * @param context the XWiki context.
+     */
+    private void setConstraints(String loginDN, String password, XWikiContext context)
+    {
+        LDAPConstraints constraints = this.connection.getConstraints();
+        constraints.setTimeLimit(1000);
+        constraints.setReferralFollowing(true);
+        constraints.setReferralHandler(new LDAPPluginReferralHandler(loginDN, password, context));
+        this.connection.setConstraints(constraints);
+    }
+
     /**
      * Connect to server.
      * 
@@ -192,7 +287,14 @@ private void connect(String ldapHost, int port) throws LDAPException
         }
 
         // connect to the server
-        this.connection.connect(ldapHost, port);
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            this.connection.connect(ldapHost, port);
+            success = true;
+        } finally {
+            XWikiLDAPStatistics.getInstance().record(XWikiLDAPStatistics.OPERATION_CONNECT, start, success);
+        }
     }
 
     /**
@@ -210,18 +312,46 @@ public void bind(String loginDN, String password) throws UnsupportedEncodingExce
         }
 
         // authenticate to the server
-        this.connection.bind(LDAPConnection.LDAP_V3, loginDN, password.getBytes("UTF8"));
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            this.connection.bind(LDAPConnection.LDAP_V3, loginDN, password.getBytes("UTF8"));
+            success = true;
+        } catch (LDAPException e) {
+            // A refused bind leaves the connection usable (and anonymous), any other error leaves it in unknown state
+            if (e.getResultCode() != LDAPException.INVALID_CREDENTIALS) {
+                this.reusable = false;
+            }
+            throw e;
+        } finally {
+            XWikiLDAPStatistics.getInstance().record(XWikiLDAPStatistics.OPERATION_BIND, start, success);
+        }
     }
 
     /**
-     * Close LDAP connection.
+     * Close LDAP connection. The connection is actually kept open in the connection pool to be reused if it's in a
+     * known state.
      */
     public void close()
+    {
+        if (this.pooledConnection != null) {
+            XWikiLDAPConnectionPool.getInstance().release(this.pooledConnection,
+                this.reusable && this.connection.isConnected());
+        } else if (this.connection != null) {
+            disconnect();
+        }
+
+        this.pooledConnection = null;
+        this.connection = null;
+    }
+
+    /**
+     * Really close the current LDAP connection.
+     */
+    private void disconnect()
     {
         try {
-            if (this.connection != null) {
-                this.connection.disconnect();
-            }
+            this.connection.disconnect();
         } catch (LDAPException e) {
             if (LOG.isDebugEnabled()) {
                 LOG.debug("LDAP close failed.", e);
@@ -251,10 +381,16 @@ public boolean checkPassword(String userDN, String password)
      */
     public boolean checkPassword(String userDN, String password, String passwordField)
     {
+        long start = System.nanoTime();
+        boolean success = false;
         try {
             LDAPAttribute attribute = new LDAPAttribute(passwordField, password);
-            return this.connection.compare(userDN, attribute);
+            boolean result = this.connection.compare(userDN, attribute);
+            success = true;
+
+            return result;
         } catch (LDAPException e) {
+            checkConnectionError(e);
             if (e.getResultCode() == LDAPException.NO_SUCH_OBJECT) {
                 if (LOG.isDebugEnabled()) {
                     LOG.debug("Unable to locate user_dn:" + userDN, e);
@@ -268,6 +404,8 @@ public boolean checkPassword(String userDN, String password, String passwordFiel
                     LOG.debug("Unable to verify password", e);
                 }
             }
+        } finally {
+            XWikiLDAPStatistics.getInstance().record(XWikiLDAPStatistics.OPERATION_COMPARE, start, success);
         }
 
         return false;
@@ -293,15 +431,20 @@ public List<XWikiLDAPSearchAttribute> searchLDAP(String baseDN, String filter, S
                 filter, attr != null ? Arrays.asList(attr) : null, ldapScope));
         }
 
+        long start = System.nanoTime();
+        boolean success = false;
         try {
             // filter return all attributes return attrs and values time out value
             searchResults = this.connection.search(baseDN, ldapScope, filter, attr, false);
 
             if (!searchResults.hasMore()) {
+                success = true;
+
                 return null;
             }
 
             LDAPEntry nextEntry = searchResults.next();
+            success = true;
             String foundDN = nextEntry.getDN();
 
             searchAttributeList = new ArrayList<XWikiLDAPSearchAttribute>();
@@ -312,10 +455,12 @@ public List<XWikiLDAPSearchAttribute> searchLDAP(String baseDN, String filter, S
 
             ldapToXWikiAttribute(searchAttributeList, attributeSet);
         } catch (LDAPException e) {
+            checkConnectionError(e);
             if (LOG.isDebugEnabled()) {
                 LOG.debug("LDAP Search failed", e);
             }
         } finally {
+            XWikiLDAPStatistics.getInstance().record(XWikiLDAPStatistics.OPERATION_SEARCH, start, success);
             if (searchResults != null) {
                 try {
                     this.connection.abandon(searchResults);
@@ -334,6 +479,73 @@ public List<XWikiLDAPSearchAttribute> searchLDAP(String baseDN, String filter, S
         return searchAttributeList;
     }
 
+    /**
+     * Execute a LDAP search query returning all the matching entries. The results are received in batches so that
+     * the server does not have to send everything before the first entries are processed.
+     * 
+     * @param baseDN the root DN where to search.
+     * @param filter the LDAP filter.
+     * @param attr the attributes names of values to return.
+     * @param ldapScope {@link LDAPConnection#SCOPE_SUB} oder {@link LDAPConnection#SCOPE_BASE}.
+     * @param maxResults the maximum number of entries to return, the search fails if more entries match.
+     * @return the found entries, each represented by its attributes, the first one being the DN.
+     * @throws XWikiLDAPException when the search fails or returns too many entries.
+     * @since 3.2M1
+     */
+    public List<List<XWikiLDAPSearchAttribute>> searchLDAP(String baseDN, String filter, String[] attr, int ldapScope,
+        int maxResults) throws XWikiLDAPException
+    {
+        List<List<XWikiLDAPSearchAttribute>> entries = new ArrayList<List<XWikiLDAPSearchAttribute>>();
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug(MessageFormat.format("LDAP search: baseDN=[{0}] query=[{1}] attr=[{2}] ldapScope=[{3}]", baseDN,
+                filter, attr != null ? Arrays.asList(attr) : null, ldapScope));
+        }
+
+        LDAPSearchConstraints constraints = this.connection.getSearchConstraints();
+        constraints.setMaxResults(maxResults);
+        constraints.setBatchSize(SEARCH_BATCH_SIZE);
+
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            LDAPSearchResults searchResults = this.connection.search(baseDN, ldapScope, filter, attr, false,
+                constraints);
+
+            while (searchResults.hasMore()) {
+                LDAPEntry entry = searchResults.next();
+
+                List<XWikiLDAPSearchAttribute> searchAttributeList = new ArrayList<XWikiLDAPSearchAttribute>();
+                searchAttributeList.add(new XWikiLDAPSearchAttribute("dn", entry.getDN()));
+                ldapToXWikiAttribute(searchAttributeList, entry.getAttributeSet());
+
+                entries.add(searchAttributeList);
+            }
+            success = true;
+        } catch (LDAPException e) {
+            checkConnectionError(e);
+            throw new XWikiLDAPException("LDAP search failed with LDAPException.", e);
+        } finally {
+            XWikiLDAPStatistics.getInstance().record(XWikiLDAPStatistics.OPERATION_SEARCH, start, success);
+        }
+
+        return entries;
+    }
+
+    /**
+     * Make sure the connection is not given back to the pool after an error which might have broken it.
+     * 
+     * @param e the error.
+     */
+    private void checkConnectionError(LDAPException e)
+    {
+        int resultCode = e.getResultCode();
+        if (resultCode == LDAPException.CONNECT_ERROR || resultCode == LDAPException.SERVER_DOWN
+            || resultCode == LDAPException.LDAP_TIMEOUT || resultCode == LDAPException.OTHER) {
+            this.reusable = false;
+        }
+    }
+
     /**
      * Fill provided <code>searchAttributeList</code> with provided LDAP attributes.
      * 
@@ -0,0 +1,335 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.plugin.ldap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.novell.ldap.LDAPConnection;
+import com.novell.ldap.LDAPException;
+
+/**
+ * Bounded pool of LDAP connections shared by all the {@link XWikiLDAPConnection}s, so that authenticating a user does
+ * not require opening a new socket (and doing a new SSL handshake) to the LDAP server each time.
+ * <p>
+ * Idle connections are kept per server. Connections idle for too long or disconnected are closed when found in the
+ * pool. A reused connection is always bound again by {@link XWikiLDAPConnection}, which both checks that the server
+ * did not close it and makes sure it is not used with the credentials of a previous user.
+ * 
+ * @version $Id$
+ * @since 3.2M1
+ */
+public final class XWikiLDAPConnectionPool
+{
+    /**
+     * Logging tool.
+     */
+    private static final Log LOG = LogFactory.getLog(XWikiLDAPConnectionPool.class);
+
+    /**
+     * Unique instance.
+     */
+    private static final XWikiLDAPConnectionPool INSTANCE = new XWikiLDAPConnectionPool();
+
+    /**
+     * A LDAP connection and the state needed to reuse it.
+     */
+    public static class PooledConnection
+    {
+        /**
+         * The identifier of the server the connection is connected to.
+         */
+        private final String key;
+
+        /**
+         * The LDAP connection.
+         */
+        private final LDAPConnection connection;
+
+        /**
+         * The date when the connection has been released in the pool.
+         */
+        private long releaseDate;
+
+        /**
+         * @param key the identifier of the server the connection is connected to
+         * @param connection the LDAP connection
+         */
+        public PooledConnection(String key, LDAPConnection connection)
+        {
+            this.key = key;
+            this.connection = connection;
+        }
+
+        /**
+         * @return the LDAP connection
+         */
+        public LDAPConnection getConnection()
+        {
+            return this.connection;
+        }
+    }
+
+    /**
+     * The idle connections for each server, the most recently released last.
+     */
+    private final Map<String, LinkedList<PooledConnection>> idleConnections =
+        new HashMap<String, LinkedList<PooledConnection>>();
+
+    /**
+     * The number of idle connections.
+     */
+    private int idleCount;
+
+    /**
+     * The number of connections currently used.
+     */
+    private int activeCount;
+
+    /**
+     * The maximum number of connections used at the same time, 0 for no limit.
+     */
+    private int maxActive;
+
+    /**
+     * The maximum number of idle connections kept for each server.
+     */
+    private int maxIdle;
+
+    /**
+     * The time in milliseconds after which an idle connection is closed.
+     */
+    private long idleTimeout;
+
+    /**
+     * The time in milliseconds to wait for a connection when the maximum number of active connections is reached.
+     */
+    private long maxWait;
+
+    /**
+     * Use {@link #getInstance()}.
+     */
+    private XWikiLDAPConnectionPool()
+    {
+    }
+
+    /**
+     * @return unique instance of {@link XWikiLDAPConnectionPool}.
+     */
+    public static XWikiLDAPConnectionPool getInstance()
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * Update the configuration of the pool.
+     * 
+     * @param maxActive the maximum number of connections used at the same time, 0 for no limit
+     * @param maxIdle the maximum number of idle connections kept for each server, 0 to disable pooling
+     * @param idleTimeout the time in milliseconds after which an idle connection is closed
+     * @param maxWait the time in milliseconds to wait for a connection when the maximum is reached
+     */
+    public synchronized void configure(int maxActive, int maxIdle, long idleTimeout, long maxWait)
+    {
+        this.maxActive = maxActive;
+        this.maxIdle = maxIdle;
+        this.idleTimeout = idleTimeout;
+        this.maxWait = maxWait;
+
+        notifyAll();
+    }
+
+    /**
+     * Reserve a connection to the provided server.
+     * 
+     * @param key the identifier of the server
+     * @return a healthy idle connection or null if a new connection should be created by the caller, in both cases
+     *         {@link #release(PooledConnection, boolean)} or {@link #release()} must be called afterward
+     * @throws XWikiLDAPException when the maximum number of connections is reached and none has been released in time
+     */
+    public PooledConnection borrow(String key) throws XWikiLDAPException
+    {
+        List<PooledConnection> expiredConnections = new ArrayList<PooledConnection>();
+        PooledConnection pooledConnection = null;
+
+        try {
+            synchronized (this) {
+                waitForConnection();
+
+                LinkedList<PooledConnection> connections = this.idleConnections.get(key);
+                if (connections != null) {
+                    long now = System.currentTimeMillis();
+                    while (pooledConnection == null && !connections.isEmpty()) {
+                        PooledConnection candidate = connections.removeLast();
+                        --this.idleCount;
+                        if (isHealthy(candidate, now)) {
+                            pooledConnection = candidate;
+                        } else {
+                            expiredConnections.add(candidate);
+                        }
+                    }
+                }
+
+                ++this.activeCount;
+            }
+        } finally {
+            for (PooledConnection expiredConnection : expiredConnections) {
+                disconnect(expiredConnection);
+            }
+        }
+
+        return pooledConnection;
+    }
+
+    /**
+     * Wait until a connection can be used. Must be called with the pool lock.
+     * 
+     * @throws XWikiLDAPException when no connection has been released in time
+     */
+    private void waitForConnection() throws XWikiLDAPException
+    {
+        long deadline = System.currentTimeMillis() + this.maxWait;
+        while (this.maxActive > 0 && this.activeCount >= this.maxActive) {
+            long timeout = deadline - System.currentTimeMillis();
+            if (timeout <= 0) {
+                throw new XWikiLDAPException("Timeout waiting for a LDAP connection: all the [" + this.maxActive
+                    + "] connections are used");
+            }
+            try {
+                wait(timeout);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new XWikiLDAPException("Interrupted while waiting for a LDAP connection", e);
+            }
+        }
+    }
+
+    /**
+     * @param pooledConnection an idle connection
+     * @param now the current date
+     * @return true if the connection can be reused
+     */
+    private boolean isHealthy(PooledConnection pooledConnection, long now)
+    {
+        return now - pooledConnection.releaseDate < this.idleTimeout && pooledConnection.connection.isConnected();
+    }
+
+    /**
+     * Give back a connection obtained from {@link #borrow(String)} or created after it returned null.
+     * 
+     * @param pooledConnection the connection
+     * @param reusable false if the connection is in an unknown state and should be closed
+     */
+    public void release(PooledConnection pooledConnection, boolean reusable)
+    {
+        boolean pooled = false;
+
+        synchronized (this) {
+            --this.activeCount;
+
+            if (reusable && this.maxIdle > 0) {
+                LinkedList<PooledConnection> connections = this.idleConnections.get(pooledConnection.key);
+                if (connections == null) {
+                    connections = new LinkedList<PooledConnection>();
+                    this.idleConnections.put(pooledConnection.key, connections);
+                }
+                if (connections.size() < this.maxIdle) {
+                    pooledConnection.releaseDate = System.currentTimeMillis();
+                    connections.addLast(pooledConnection);
+                    ++this.idleCount;
+                    pooled = true;
+                }
+            }
+
+            notifyAll();
+        }
+
+        if (!pooled) {
+            disconnect(pooledConnection);
+        }
+    }
+
+    /**
+     * Give back the reservation obtained from {@link #borrow(String)} when no connection could be created.
+     */
+    public synchronized void release()
+    {
+        --this.activeCount;
+
+        notifyAll();
+    }
+
+    /**
+     * Close all the idle connections.
+     */
+    public void clear()
+    {
+        List<PooledConnection> connections = new ArrayList<PooledConnection>();
+
+        synchronized (this) {
+            for (LinkedList<PooledConnection> serverConnections : this.idleConnections.values()) {
+                connections.addAll(serverConnections);
+            }
+            this.idleConnections.clear();
+            this.idleCount = 0;
+        }
+
+        for (PooledConnection connection : connections) {
+            disconnect(connection);
+        }
+    }
+
+    /**
+     * @return the number of connections currently used
+     */
+    public synchronized int getActiveCount()
+    {
+        return this.activeCount;
+    }
+
+    /**
+     * @return the number of idle connections
+     */
+    public synchronized int getIdleCount()
+    {
+        return this.idleCount;
+    }
+
+    /**
+     * @param pooledConnection the connection to close
+     */
+    private void disconnect(PooledConnection pooledConnection)
+    {
+        try {
+            pooledConnection.connection.disconnect();
+        } catch (LDAPException e) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("LDAP close failed.", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.plugin.ldap;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.novell.ldap.LDAPConnection;
+import com.novell.ldap.LDAPDN;
+
+/**
+ * The membership graph of all the groups of a LDAP server, loaded with a single search so that resolving nested
+ * groups does not require one search per group.
+ * 
+ * @version $Id$
+ * @since 3.2M1
+ */
+public class XWikiLDAPGroupGraph
+{
+    /**
+     * Logging tool.
+     */
+    private static final Log LOG = LogFactory.getLog(XWikiLDAPGroupGraph.class);
+
+    /**
+     * The members of each group, indexed by normalized group DN.
+     */
+    private final Map<String, List<String>> groups = new HashMap<String, List<String>>();
+
+    /**
+     * The date when the graph has been loaded.
+     */
+    private final long creationDate = System.currentTimeMillis();
+
+    /**
+     * Use {@link #load(XWikiLDAPConnection, String, Collection, Collection, int)}.
+     */
+    protected XWikiLDAPGroupGraph()
+    {
+    }
+
+    /**
+     * Load the groups of the LDAP server.
+     * 
+     * @param connection the LDAP connection.
+     * @param baseDN the DN under which to search the groups.
+     * @param groupClasses the object classes of groups.
+     * @param groupMemberFields the attributes containing the members of groups.
+     * @param maxSize the maximum number of groups to load.
+     * @return the graph or null if there is more than <code>maxSize</code> groups or the search failed.
+     */
+    public static XWikiLDAPGroupGraph load(XWikiLDAPConnection connection, String baseDN,
+        Collection<String> groupClasses, Collection<String> groupMemberFields, int maxSize)
+    {
+        StringBuilder filter = new StringBuilder("(|");
+        for (String groupClass : groupClasses) {
+            filter.append("(objectClass=");
+            filter.append(XWikiLDAPConnection.escapeLDAPSearchFilter(groupClass));
+            filter.append(')');
+        }
+        filter.append(')');
+
+        List<List<XWikiLDAPSearchAttribute>> entries;
+        try {
+            entries = connection.searchLDAP(baseDN, filter.toString(),
+                groupMemberFields.toArray(new String[groupMemberFields.size()]), LDAPConnection.SCOPE_SUB, maxSize);
+        } catch (XWikiLDAPException e) {
+            LOG.warn("Failed to load the LDAP groups in memory (maybe more than [" + maxSize
+                + "] groups?), falling back on one search per group: " + e.getMessage());
+
+            return null;
+        }
+
+        XWikiLDAPGroupGraph graph = new XWikiLDAPGroupGraph();
+        for (List<XWikiLDAPSearchAttribute> entry : entries) {
+            List<String> members = new ArrayList<String>();
+            for (XWikiLDAPSearchAttribute attribute : entry.subList(1, entry.size())) {
+                if (groupMemberFields.contains(attribute.name.toLowerCase())) {
+                    members.add(attribute.value);
+                }
+            }
+            graph.groups.put(normalize(entry.get(0).value), members);
+        }
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Loaded [" + graph.groups.size() + "] LDAP groups in memory");
+        }
+
+        return graph;
+    }
+
+    /**
+     * @param dn a DN
+     * @return the DN in a form which can be compared with another normalized DN.
+     */
+    public static String normalize(String dn)
+    {
+        try {
+            return LDAPDN.normalize(dn).toLowerCase();
+        } catch (IllegalArgumentException e) {
+            // Not a DN
+            return dn.toLowerCase();
+        }
+    }
+
+    /**
+     * @param dn the DN of an entry.
+     * @return true if the entry is a group.
+     */
+    public boolean isGroup(String dn)
+    {
+        return this.groups.containsKey(normalize(dn));
+    }
+
+    /**
+     * @param groupDN the DN of a group.
+     * @return the direct members of the group (users or groups), empty if the entry is not a group.
+     */
+    public List<String> getMembers(String groupDN)
+    {
+        List<String> members = this.groups.get(normalize(groupDN));
+
+        return members != null ? members : Collections.<String> emptyList();
+    }
+
+    /**
+     * @return the number of groups.
+     */
+    public int size()
+    {
+        return this.groups.size();
+    }
+
+    /**
+     * @param timeToLive the time in milliseconds the graph can be used after it has been loaded.
+     * @return true if the graph should be loaded again.
+     */
+    public boolean isExpired(long timeToLive)
+    {
+        return System.currentTimeMillis() - this.creationDate > timeToLive;
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.plugin.ldap;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Collect the latency of each type of LDAP operation and the usage of the LDAP connection pool. The statistics are
+ * registered in the platform MBean server as {@value #MBEAN_NAME}.
+ * 
+ * @version $Id$
+ * @since 3.2M1
+ */
+public final class XWikiLDAPStatistics implements XWikiLDAPStatisticsMBean
+{
+    /**
+     * The name of the connect operation.
+     */
+    public static final String OPERATION_CONNECT = "connect";
+
+    /**
+     * The name of the bind operation.
+     */
+    public static final String OPERATION_BIND = "bind";
+
+    /**
+     * The name of the search operation.
+     */
+    public static final String OPERATION_SEARCH = "search";
+
+    /**
+     * The name of the compare operation.
+     */
+    public static final String OPERATION_COMPARE = "compare";
+
+    /**
+     * The name under which the statistics are registered in the MBean server.
+     */
+    public static final String MBEAN_NAME = "org.xwiki:type=LDAP";
+
+    /**
+     * Logging tool.
+     */
+    private static final Log LOG = LogFactory.getLog(XWikiLDAPStatistics.class);
+
+    /**
+     * Unique instance.
+     */
+    private static final XWikiLDAPStatistics INSTANCE = new XWikiLDAPStatistics();
+
+    /**
+     * The statistics of one type of operation.
+     */
+    private static class OperationStatistics
+    {
+        /**
+         * Number of calls.
+         */
+        private final AtomicLong count = new AtomicLong();
+
+        /**
+         * Number of failed calls.
+         */
+        private final AtomicLong failures = new AtomicLong();
+
+        /**
+         * Total time spent in the calls, in nanoseconds.
+         */
+        private final AtomicLong totalTime = new AtomicLong();
+
+        /**
+         * Longest call, in nanoseconds.
+         */
+        private final AtomicLong maxTime = new AtomicLong();
+
+        /**
+         * @param time the duration of the call, in nanoseconds
+         * @param success false if the call failed
+         */
+        void add(long time, boolean success)
+        {
+            this.count.incrementAndGet();
+            if (!success) {
+                this.failures.incrementAndGet();
+            }
+            this.totalTime.addAndGet(time);
+            long max = this.maxTime.get();
+            while (time > max && !this.maxTime.compareAndSet(max, time)) {
+                max = this.maxTime.get();
+            }
+        }
+    }
+
+    /**
+     * The statistics of each type of operation.
+     */
+    private final ConcurrentMap<String, OperationStatistics> operations =
+        new ConcurrentHashMap<String, OperationStatistics>();
+
+    /**
+     * Number of created connections.
+     */
+    private final AtomicLong createdConnections = new AtomicLong();
+
+    /**
+     * Number of reused connections.
+     */
+    private final AtomicLong reusedConnections = new AtomicLong();
+
+    /**
+     * Use {@link #getInstance()}.
+     */
+    private XWikiLDAPStatistics()
+    {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(MBEAN_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+            }
+        } catch (Exception e) {
+            LOG.warn("Failed to register the LDAP statistics in the MBean server", e);
+        }
+    }
+
+    /**
+     * @return unique instance of {@link XWikiLDAPStatistics}.
+     */
+    public static XWikiLDAPStatistics getInstance()
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * Record the end of a LDAP operation.
+     * 
+     * @param operation the name of the operation
+     * @param startTime the value of {@link System#nanoTime()} when the operation started
+     * @param success false if the operation failed
+     */
+    public void record(String operation, long startTime, boolean success)
+    {
+        long time = System.nanoTime() - startTime;
+
+        OperationStatistics statistics = this.operations.get(operation);
+        if (statistics == null) {
+            statistics = new OperationStatistics();
+            OperationStatistics existing = this.operations.putIfAbsent(operation, statistics);
+            if (existing != null) {
+                statistics = existing;
+            }
+        }
+        statistics.add(time, success);
+    }
+
+    /**
+     * @param operation the name of the operation
+     * @return the number of calls of the provided operation
+     */
+    public long getCount(String operation)
+    {
+        OperationStatistics statistics = this.operations.get(operation);
+
+        return statistics != null ? statistics.count.get() : 0;
+    }
+
+    /**
+     * Record the creation of a LDAP connection.
+     */
+    void connectionCreated()
+    {
+        this.createdConnections.incrementAndGet();
+    }
+
+    /**
+     * Record the reuse of a pooled LDAP connection.
+     */
+    void connectionReused()
+    {
+        this.reusedConnections.incrementAndGet();
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see XWikiLDAPStatisticsMBean#getOperations()
+     */
+    public String[] getOperations()
+    {
+        List<String> result = new ArrayList<String>(this.operations.size());
+        for (Map.Entry<String, OperationStatistics> entry : this.operations.entrySet()) {
+            OperationStatistics statistics = entry.getValue();
+            long count = statistics.count.get();
+            long average = count > 0 ? statistics.totalTime.get() / count : 0;
+            result.add(String.format("%s: count=%d, failures=%d, average=%dms, max=%dms", entry.getKey(), count,
+                statistics.failures.get(), TimeUnit.NANOSECONDS.toMillis(average),
+                TimeUnit.NANOSECONDS.toMillis(statistics.maxTime.get())));
+        }
+
+        return result.toArray(new String[result.size()]);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see XWikiLDAPStatisticsMBean#getActiveConnections()
+     */
+    public int getActiveConnections()
+    {
+        return XWikiLDAPConnectionPool.getInstance().getActiveCount();
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see XWikiLDAPStatisticsMBean#getIdleConnections()
+     */
+    public int getIdleConnections()
+    {
+        return XWikiLDAPConnectionPool.getInstance().getIdleCount();
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see XWikiLDAPStatisticsMBean#getCreatedConnections()
+     */
+    public long getCreatedConnections()
+    {
+        return this.createdConnections.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see XWikiLDAPStatisticsMBean#getReusedConnections()
+     */
+    public long getReusedConnections()
+    {
+        return this.reusedConnections.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see XWikiLDAPStatisticsMBean#reset()
+     */
+    public void reset()
+    {
+        this.operations.clear();
+        this.createdConnections.set(0);
+        this.reusedConnections.set(0);
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.plugin.ldap;
+
+/**
+ * Statistics of the LDAP operations and connection pool exposed through JMX.
+ * 
+ * @version $Id$
+ * @since 3.2M1
+ */
+public interface XWikiLDAPStatisticsMBean
+{
+    /**
+     * @return for each LDAP operation (connect, bind, search, compare): the number of calls, the number of failures,
+     *         the average and the maximum latency in milliseconds
+     */
+    String[] getOperations();
+
+    /**
+     * @return the number of LDAP connections currently used
+     */
+    int getActiveConnections();
+
+    /**
+     * @return the number of LDAP connections currently waiting in the pool
+     */
+    int getIdleConnections();
+
+    /**
+     * @return the number of LDAP connections which have been created
+     */
+    long getCreatedConnections();
+
+    /**
+     * @return the number of times an idle LDAP connection has been reused instead of creating a new one
+     */
+    long getReusedConnections();
+
+    /**
+     * Reset all the statistics.
+     */
+    void reset();
+}
@@ -25,9 +25,13 @@
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -40,6 +44,7 @@
 import org.xwiki.rendering.syntax.Syntax;
 
 import com.novell.ldap.LDAPConnection;
+import com.novell.ldap.LDAPDN;
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
 import com.xpn.xwiki.doc.XWikiDocument;
@@ -102,6 +107,12 @@
     private static Map<String, Map<String, Cache<Map<String, String>>>> cachePool =
         new HashMap<String, Map<String, Cache<Map<String, String>>>>();
 
+    /**
+     * Contains the groups membership graph for each LDAP host:port and base DN.
+     */
+    private static ConcurrentMap<String, XWikiLDAPGroupGraph> groupGraphs =
+        new ConcurrentHashMap<String, XWikiLDAPGroupGraph>();
+
     /**
      * The LDAP connection.
      */
@@ -235,8 +246,7 @@ public Cache<Map<String, String>> getCache(CacheConfiguration configuration, XWi
     {
         Cache<Map<String, String>> cache;
 
-        String cacheKey = getUidAttributeName() + "." + this.connection.getConnection().getHost() + ":"
-            + this.connection.getConnection().getPort();
+        String cacheKey = getCacheKey();
 
         Map<String, Cache<Map<String, String>>> cacheMap;
 
@@ -257,6 +267,15 @@ public Cache<Map<String, String>> getCache(CacheConfiguration configuration, XWi
         return cache;
     }
 
+    /**
+     * @return the key identifying the LDAP server and uid attribute in the caches.
+     */
+    private String getCacheKey()
+    {
+        return getUidAttributeName() + "." + this.connection.getConnection().getHost() + ":"
+            + this.connection.getConnection().getPort();
+    }
+
     /**
      * @return get {@link XWikiLDAPConnection}.
      */
@@ -402,6 +421,124 @@ public boolean getGroupMembers(String groupDN, Map<String, String> memberMap, Li
         return isGroup;
     }
 
+    /**
+     * Get all members of a given group based on the groupDN, using the provided membership graph to resolve the
+     * subgroups without searching them. Only the members which are not groups and whose identifier can't be found in
+     * their DN are searched.
+     * 
+     * @param groupDN the group to retrieve the members of and scan for subgroups.
+     * @param memberMap the result: maps DN to member id.
+     * @param subgroups all the subgroups identified.
+     * @param graph the membership graph of the LDAP groups, if null the LDAP server is searched for each group.
+     * @param context the XWiki context.
+     * @return whether the groupDN is actually a group.
+     * @since 3.2M1
+     */
+    public boolean getGroupMembers(String groupDN, Map<String, String> memberMap, List<String> subgroups,
+        XWikiLDAPGroupGraph graph, XWikiContext context)
+    {
+        if (graph == null || !graph.isGroup(groupDN)) {
+            return getGroupMembers(groupDN, memberMap, subgroups, context);
+        }
+
+        Set<String> visitedGroups = new HashSet<String>();
+        LinkedList<String> groupsToVisit = new LinkedList<String>();
+        groupsToVisit.add(groupDN);
+        while (!groupsToVisit.isEmpty()) {
+            String currentGroupDN = groupsToVisit.removeFirst();
+
+            // break out if there is a loop of groups
+            if (!visitedGroups.add(XWikiLDAPGroupGraph.normalize(currentGroupDN))) {
+                continue;
+            }
+            if (subgroups != null) {
+                subgroups.add(currentGroupDN);
+            }
+
+            for (String member : graph.getMembers(currentGroupDN)) {
+                if (graph.isGroup(member)) {
+                    groupsToVisit.add(member);
+                } else {
+                    String id = getUidFromDN(member);
+                    if (id == null) {
+                        // Not a DN or not containing the uid, search for it
+                        getGroupMembers(member, memberMap, subgroups, context);
+                    } else if (!memberMap.containsKey(member)) {
+                        memberMap.put(member.toLowerCase(), id.toLowerCase());
+                    }
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @param dn the DN of a user.
+     * @return the value of the uid attribute if it's the first RDN of the DN, null otherwise.
+     */
+    private String getUidFromDN(String dn)
+    {
+        String[] rdns;
+        try {
+            rdns = LDAPDN.explodeDN(dn, false);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+
+        if (rdns == null || rdns.length == 0) {
+            return null;
+        }
+
+        String rdn = rdns[0];
+        int index = rdn.indexOf('=');
+        // Multi-valued and escaped RDNs are left to the LDAP server
+        if (index <= 0 || rdn.indexOf('+') != -1 || rdn.indexOf('\\') != -1
+            || !rdn.substring(0, index).trim().equalsIgnoreCase(getUidAttributeName())) {
+            return null;
+        }
+
+        return rdn.substring(index + 1).trim();
+    }
+
+    /**
+     * Get the membership graph of the LDAP groups, loading it if it's not already loaded or if it expired.
+     * 
+     * @param context the XWiki context.
+     * @return the membership graph or null if it's disabled or could not be loaded.
+     * @since 3.2M1
+     */
+    public XWikiLDAPGroupGraph getGroupGraph(XWikiContext context)
+    {
+        XWikiLDAPConfig config = XWikiLDAPConfig.getInstance();
+
+        int maxSize = config.getGroupGraphMaxSize(context);
+        if (maxSize <= 0) {
+            return null;
+        }
+
+        String graphKey = getCacheKey() + "/" + getBaseDN();
+        long timeToLive = config.getCacheExpiration(context) * 1000L;
+
+        XWikiLDAPGroupGraph graph = groupGraphs.get(graphKey);
+        if (graph == null || graph.isExpired(timeToLive)) {
+            synchronized (groupGraphs) {
+                graph = groupGraphs.get(graphKey);
+                if (graph == null || graph.isExpired(timeToLive)) {
+                    graph = XWikiLDAPGroupGraph.load(getConnection(), getBaseDN(), getGroupClasses(),
+                        getGroupMemberFields(), maxSize);
+                    if (graph == null) {
+                        // Remember the failure so that it's not retried before the expiration
+                        graph = new XWikiLDAPGroupGraph();
+                    }
+                    groupGraphs.put(graphKey, graph);
+                }
+            }
+        }
+
+        return graph.size() > 0 ? graph : null;
+    }
+
     /**
      * Get group members from cache or update it from LDAP if it is not already cached.
      * 
@@ -428,7 +565,8 @@ public Map<String, String> getGroupMembers(String groupDN, XWikiContext context)
                         LOG.debug("Retrieving Members of the group: " + groupDN);
                     }
 
-                    boolean isGroup = getGroupMembers(groupDN, members, new ArrayList<String>(), context);
+                    boolean isGroup =
+                        getGroupMembers(groupDN, members, new ArrayList<String>(), getGroupGraph(context), context);
 
                     if (isGroup) {
                         groupMembers = members;
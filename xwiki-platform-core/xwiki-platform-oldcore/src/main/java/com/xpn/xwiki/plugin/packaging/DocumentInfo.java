@@ -40,6 +40,8 @@
 
     private int fileType;
 
+    private boolean loadedOnExport;
+
     public final static int TYPE_SAMPLE = 0;
 
     public final static int TYPE_NORMAL = 1;
@@ -84,6 +86,24 @@ public void changeSpace(String Space)
         installable = INSTALL_IMPOSSIBLE;
     }
 
+    /**
+     * @return true if the document only holds the identity of a stored document, which is loaded again when exporting
+     *         the package
+     */
+    public boolean isLoadedOnExport()
+    {
+        return this.loadedOnExport;
+    }
+
+    /**
+     * @param loadedOnExport true if the document only holds the identity of a stored document, which is loaded again
+     *            when exporting the package
+     */
+    public void setLoadedOnExport(boolean loadedOnExport)
+    {
+        this.loadedOnExport = loadedOnExport;
+    }
+
     public int getFileType()
     {
         return fileType;
@@ -34,6 +34,12 @@
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
@@ -41,6 +47,8 @@
 import net.sf.json.JSONObject;
 
 import org.apache.commons.io.input.CloseShieldInputStream;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.dom4j.Document;
@@ -50,6 +58,10 @@
 import org.dom4j.dom.DOMElement;
 import org.dom4j.io.OutputFormat;
 import org.dom4j.io.SAXReader;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.context.ExecutionContextManager;
+import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.SpaceReference;
 import org.xwiki.observation.ObservationManager;
 import org.xwiki.query.QueryException;
@@ -63,6 +75,7 @@
 import com.xpn.xwiki.internal.event.XARImportingEvent;
 import com.xpn.xwiki.internal.xml.XMLWriter;
 import com.xpn.xwiki.objects.classes.BaseClass;
+import com.xpn.xwiki.store.XWikiHibernateStore;
 import com.xpn.xwiki.web.Utils;
 
 public class Package
@@ -79,6 +92,11 @@
 
     private static final Log LOG = LogFactory.getLog(Package.class);
 
+    /**
+     * The number of documents between two progress reports of a streaming export.
+     */
+    private static final int EXPORT_PROGRESS_STEP = 100;
+
     private String name = "My package";
 
     private String description = "";
@@ -103,6 +121,22 @@
 
     private List<DocumentFilter> documentFilters = new ArrayList<DocumentFilter>();
 
+    /**
+     * The number of threads used to serialize the documents during a streaming export, 0 for a regular export and -1
+     * to use the xwiki.cfg configuration.
+     */
+    private int exportThreads = -1;
+
+    /**
+     * The number of documents written by the current or last export, exposed so that the progress can be followed.
+     */
+    private volatile int exportedDocuments;
+
+    /**
+     * The number of bytes written by the current or last export.
+     */
+    private volatile long exportedBytes;
+
     public String getName()
     {
         return this.name;
@@ -215,6 +249,49 @@ public void setWithVersions(boolean withVersions)
         this.withVersions = withVersions;
     }
 
+    /**
+     * @param context the XWiki context
+     * @return the number of threads used to serialize the documents during a streaming export, 0 when documents are
+     *         exported one after the other by the calling thread
+     * @since 3.2M1
+     */
+    public int getExportThreads(XWikiContext context)
+    {
+        if (this.exportThreads < 0) {
+            return (int) context.getWiki().ParamAsLong("xwiki.plugin.packaging.export.threads", 0);
+        }
+
+        return this.exportThreads;
+    }
+
+    /**
+     * @param exportThreads the number of threads used to serialize the documents during a streaming export, 0 to
+     *            export documents one after the other and -1 to use the xwiki.cfg configuration
+     * @since 3.2M1
+     */
+    public void setExportThreads(int exportThreads)
+    {
+        this.exportThreads = exportThreads;
+    }
+
+    /**
+     * @return the number of documents written by the current or last export
+     * @since 3.2M1
+     */
+    public int getExportedDocuments()
+    {
+        return this.exportedDocuments;
+    }
+
+    /**
+     * @return the number of bytes written by the current or last export
+     * @since 3.2M1
+     */
+    public long getExportedBytes()
+    {
+        return this.exportedBytes;
+    }
+
     public void addDocumentFilter(Object filter) throws PackageException
     {
         if (filter instanceof DocumentFilter) {
@@ -243,7 +320,7 @@ public boolean add(XWikiDocument doc, int defaultAction, XWikiContext context) t
                 if (defaultAction != DocumentInfo.ACTION_NOT_DEFINED) {
                     di.setAction(defaultAction);
                 }
-                if (!doc.isNew()) {
+                if (!doc.isNew() && !di.isLoadedOnExport()) {
                     di.setDoc(doc);
                 }
 
@@ -256,11 +333,22 @@ public boolean add(XWikiDocument doc, int defaultAction, XWikiContext context) t
         try {
             filter(doc, context);
 
-            DocumentInfo docinfo = new DocumentInfo(doc);
+            BaseClass bclass = doc.getXClass();
+            boolean hasClass = bclass.getFieldList().size() > 0;
+
+            DocumentInfo docinfo;
+            if (getExportThreads(context) > 0 && !hasClass && bclass.getCustomMapping() == null && !doc.isNew()
+                && !doc.isContentDirty() && !doc.isMetaDataDirty()) {
+                // The streaming export loads the document again when serializing it so that the package does not keep
+                // every exported document in memory
+                docinfo = new DocumentInfo(createPlaceholder(doc));
+                docinfo.setLoadedOnExport(true);
+            } else {
+                docinfo = new DocumentInfo(doc);
+            }
             docinfo.setAction(defaultAction);
             this.files.add(docinfo);
-            BaseClass bclass = doc.getXClass();
-            if (bclass.getFieldList().size() > 0) {
+            if (hasClass) {
                 this.classFiles.add(docinfo);
             }
             if (bclass.getCustomMapping() != null) {
@@ -274,6 +362,51 @@ public boolean add(XWikiDocument doc, int defaultAction, XWikiContext context) t
         }
     }
 
+    /**
+     * @param doc a document stored in the database
+     * @return a document with only the identity of the provided document, used to reference a document in the package
+     *         without keeping its content in memory
+     */
+    private XWikiDocument createPlaceholder(XWikiDocument doc)
+    {
+        XWikiDocument placeholder = new XWikiDocument(doc.getDocumentReference());
+        placeholder.setLanguage(doc.getLanguage());
+        placeholder.setDefaultLanguage(doc.getDefaultLanguage());
+        placeholder.setTranslation(doc.getTranslation());
+        placeholder.setNew(false);
+
+        return placeholder;
+    }
+
+    /**
+     * @param docinfo a document of the package
+     * @param context the XWiki context
+     * @return the document to export, null if it has been excluded by a filter
+     * @throws XWikiException when failing to load the document
+     */
+    private XWikiDocument getExportedDocument(DocumentInfo docinfo, XWikiContext context) throws XWikiException
+    {
+        if (!docinfo.isLoadedOnExport()) {
+            return docinfo.getDoc();
+        }
+
+        XWikiDocument doc = context.getWiki().getDocument(docinfo.getDoc().getDocumentReference(), context);
+        if (!StringUtils.isEmpty(docinfo.getLanguage())) {
+            doc = doc.getTranslatedDocument(docinfo.getLanguage(), context);
+        }
+        doc = doc.clone();
+
+        try {
+            filter(doc, context);
+        } catch (ExcludeDocumentException e) {
+            LOG.info("Skip the document " + doc.getDocumentReference());
+
+            return null;
+        }
+
+        return doc;
+    }
+
     public boolean add(XWikiDocument doc, XWikiContext context) throws XWikiException
     {
         return add(doc, DocumentInfo.ACTION_NOT_DEFINED, context);
@@ -336,11 +469,23 @@ public String export(OutputStream os, XWikiContext context) throws IOException,
             return "No Selected file";
         }
 
+        this.exportedDocuments = 0;
+        this.exportedBytes = 0;
+
+        int threads = getExportThreads(context);
+        if (threads > 0) {
+            exportStreaming(os, threads, context);
+
+            return "";
+        }
+
         ZipOutputStream zos = new ZipOutputStream(os);
         for (int i = 0; i < this.files.size(); i++) {
-            DocumentInfo docinfo = this.files.get(i);
-            XWikiDocument doc = docinfo.getDoc();
-            addToZip(doc, zos, this.withVersions, context);
+            XWikiDocument doc = getExportedDocument(this.files.get(i), context);
+            if (doc != null) {
+                addToZip(doc, zos, this.withVersions, context);
+                this.exportedDocuments++;
+            }
         }
         addInfosToZip(zos, context);
         zos.finish();
@@ -349,6 +494,252 @@ public String export(OutputStream os, XWikiContext context) throws IOException,
         return "";
     }
 
+    /**
+     * Export the package by serializing the documents in a pool of threads. The documents are written to the ZIP
+     * stream in the package order as soon as they are serialized, and only a few serialized documents are waiting to be
+     * written at any time so the memory used does not depend on the size of the package. The content of the
+     * attachments and the history loaded to export a document are released once it has been written.
+     * 
+     * @param os the stream where to write the package
+     * @param threads the number of threads serializing the documents
+     * @param context the XWiki context
+     * @throws IOException when failing to write the package
+     * @throws XWikiException when failing to serialize a document
+     */
+    private void exportStreaming(OutputStream os, int threads, XWikiContext context) throws IOException,
+        XWikiException
+    {
+        CountingOutputStream cos = new CountingOutputStream(os);
+        ZipOutputStream zos = new ZipOutputStream(cos);
+
+        // The serializers must not share the database session and transaction of the export so they work on a copy of
+        // the context without them and open their own transaction
+        XWikiContext serializerContext = (XWikiContext) context.clone();
+        serializerContext.remove("hibsession");
+        serializerContext.remove("hibtransaction");
+
+        ExecutorService serializers = Executors.newFixedThreadPool(threads, createSerializerThreadFactory());
+        try {
+            // At most two documents per thread are waiting to be written
+            int maxPending = threads * 2;
+            LinkedList<ExportEntry> pendingEntries = new LinkedList<ExportEntry>();
+
+            long startTime = System.currentTimeMillis();
+            for (DocumentInfo docinfo : this.files) {
+                ExportEntry entry = new ExportEntry(docinfo, serializerContext);
+                entry.future = serializers.submit(entry);
+                pendingEntries.add(entry);
+
+                if (pendingEntries.size() >= maxPending) {
+                    writeEntry(pendingEntries.removeFirst(), zos, cos, startTime);
+                }
+            }
+
+            while (!pendingEntries.isEmpty()) {
+                writeEntry(pendingEntries.removeFirst(), zos, cos, startTime);
+            }
+
+            addInfosToZip(zos, context);
+            zos.finish();
+            zos.flush();
+            this.exportedBytes = cos.getByteCount();
+
+            LOG.info(String.format("Exported %d documents (%d bytes) in %d ms", this.exportedDocuments,
+                this.exportedBytes, System.currentTimeMillis() - startTime));
+        } finally {
+            serializers.shutdownNow();
+        }
+    }
+
+    /**
+     * Wait for a document to be serialized and write it to the ZIP stream.
+     * 
+     * @param entry the document to write
+     * @param zos the ZIP stream
+     * @param cos the stream counting the written bytes
+     * @param startTime the time when the export started, used to report the throughput
+     * @throws IOException when failing to write the document
+     * @throws XWikiException when failing to serialize the document
+     */
+    private void writeEntry(ExportEntry entry, ZipOutputStream zos, CountingOutputStream cos, long startTime)
+        throws IOException, XWikiException
+    {
+        byte[] content;
+        try {
+            content = entry.future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while exporting document [" + entry.getDocumentReference() + "]");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof XWikiException) {
+                throw (XWikiException) e.getCause();
+            }
+
+            Object[] args = new Object[] {entry.getDocumentReference()};
+            throw new XWikiException(XWikiException.MODULE_XWIKI_DOC, XWikiException.ERROR_XWIKI_DOC_EXPORT,
+                "Error exporting document {0}", e.getCause(), args);
+        }
+
+        if (content == null) {
+            // The document has been excluded by a filter
+            return;
+        }
+
+        zos.putNextEntry(new ZipEntry(entry.zipname));
+        zos.write(content);
+        zos.closeEntry();
+
+        this.exportedDocuments++;
+        this.exportedBytes = cos.getByteCount();
+
+        if (this.exportedDocuments % EXPORT_PROGRESS_STEP == 0) {
+            long elapsed = Math.max(1, System.currentTimeMillis() - startTime);
+            LOG.info(String.format("Exported %d/%d documents (%.1f documents/s, %d bytes written)",
+                this.exportedDocuments, this.files.size(), this.exportedDocuments * 1000.0 / elapsed,
+                this.exportedBytes));
+        }
+    }
+
+    /**
+     * @return the factory creating the threads serializing the documents
+     */
+    private ThreadFactory createSerializerThreadFactory()
+    {
+        return new ThreadFactory()
+        {
+            public Thread newThread(final Runnable runnable)
+            {
+                Thread thread = new Thread(new Runnable()
+                {
+                    public void run()
+                    {
+                        try {
+                            runnable.run();
+                        } finally {
+                            // Clean the ThreadLocal variables located in the Execution component
+                            Utils.getComponent(Execution.class).removeContext();
+                        }
+                    }
+                }, "Package export serializer");
+                thread.setDaemon(true);
+
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * A document serialized by a thread of a streaming export.
+     */
+    private final class ExportEntry implements Callable<byte[]>
+    {
+        /**
+         * The document to export.
+         */
+        private final DocumentInfo docinfo;
+
+        /**
+         * The name of the ZIP entry.
+         */
+        private final String zipname;
+
+        /**
+         * The XWiki context to clone for the thread serializing the document, without any database session.
+         */
+        private final XWikiContext context;
+
+        /**
+         * The result of the serialization.
+         */
+        private Future<byte[]> future;
+
+        /**
+         * @param docinfo the document to export
+         * @param context the XWiki context to clone for the thread serializing the document
+         */
+        ExportEntry(DocumentInfo docinfo, XWikiContext context)
+        {
+            this.docinfo = docinfo;
+            this.zipname = getPathFromDocument(docinfo.getDoc(), context);
+            this.context = context;
+        }
+
+        /**
+         * @return the reference of the exported document
+         */
+        DocumentReference getDocumentReference()
+        {
+            return this.docinfo.getDoc().getDocumentReference();
+        }
+
+        /**
+         * {@inheritDoc}
+         * 
+         * @see java.util.concurrent.Callable#call()
+         */
+        public byte[] call() throws Exception
+        {
+            XWikiContext xcontext = getSerializerContext();
+
+            XWikiHibernateStore store = xcontext.getWiki().getHibernateStore();
+            boolean bTransaction = store != null && store.beginTransaction(xcontext);
+            try {
+                XWikiDocument doc = getExportedDocument(this.docinfo, xcontext);
+                if (doc == null) {
+                    return null;
+                }
+
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                try {
+                    doc.toXML(baos, true, false, true, isWithVersions(), xcontext);
+                } finally {
+                    releaseContent(doc);
+                }
+
+                return baos.toByteArray();
+            } finally {
+                if (bTransaction) {
+                    store.endTransaction(xcontext, false);
+                }
+            }
+        }
+
+        /**
+         * @return the XWiki context of the current serializer thread, created the first time the thread serializes a
+         *         document
+         * @throws Exception when failing to initialize the execution context
+         */
+        private XWikiContext getSerializerContext() throws Exception
+        {
+            Execution execution = Utils.getComponent(Execution.class);
+            ExecutionContext econtext = execution.getContext();
+            if (econtext == null) {
+                econtext = new ExecutionContext();
+                Utils.getComponent(ExecutionContextManager.class).initialize(econtext);
+                econtext.setProperty("xwikicontext", this.context.clone());
+                execution.setContext(econtext);
+            }
+
+            return (XWikiContext) econtext.getProperty("xwikicontext");
+        }
+    }
+
+    /**
+     * Release the attachment contents and histories loaded to export the document so that they don't stay in memory
+     * until the end of the export. The document history doesn't need to be released since it's only softly referenced.
+     * 
+     * @param doc the exported document
+     */
+    private void releaseContent(XWikiDocument doc)
+    {
+        for (XWikiAttachment attachment : doc.getAttachmentList()) {
+            if (!attachment.isContentDirty()) {
+                attachment.setAttachment_content(null);
+                attachment.setAttachment_archive(null);
+            }
+        }
+    }
+
     public String exportToDir(File dir, XWikiContext context) throws IOException, XWikiException
     {
         if (!dir.exists()) {
@@ -361,9 +752,10 @@ public String exportToDir(File dir, XWikiContext context) throws IOException, XW
         }
 
         for (int i = 0; i < this.files.size(); i++) {
-            DocumentInfo docinfo = this.files.get(i);
-            XWikiDocument doc = docinfo.getDoc();
-            addToDir(doc, dir, this.withVersions, context);
+            XWikiDocument doc = getExportedDocument(this.files.get(i), context);
+            if (doc != null) {
+                addToDir(doc, dir, this.withVersions, context);
+            }
         }
         addInfosToDir(dir, context);
 
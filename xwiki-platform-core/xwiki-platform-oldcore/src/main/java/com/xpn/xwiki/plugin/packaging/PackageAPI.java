@@ -226,6 +226,24 @@ public String export() throws IOException, XWikiException
         return this.plugin.export(getXWikiContext().getResponse().getOutputStream(), getXWikiContext());
     }
 
+    /**
+     * @return the number of documents written by the current or last export
+     * @since 3.2M1
+     */
+    public int getExportedDocuments()
+    {
+        return this.plugin.getExportedDocuments();
+    }
+
+    /**
+     * @return the number of bytes written by the current or last export
+     * @since 3.2M1
+     */
+    public long getExportedBytes()
+    {
+        return this.plugin.getExportedBytes();
+    }
+
 
     /** 
      * Similar to {@link #Import(byte[])}, except expected errors are catch. This version should be privileged
@@ -53,14 +53,13 @@
 import com.xpn.xwiki.XWikiException;
 import com.xpn.xwiki.doc.XWikiAttachment;
 import com.xpn.xwiki.doc.XWikiDocument;
-import com.xpn.xwiki.monitor.api.MonitorPlugin;
+import com.xpn.xwiki.monitor.api.RequestTimings;
 import com.xpn.xwiki.objects.BaseObject;
 import com.xpn.xwiki.objects.DBStringListProperty;
 import com.xpn.xwiki.objects.classes.BaseClass;
 import com.xpn.xwiki.objects.classes.PropertyClass;
 import com.xpn.xwiki.plugin.query.HibernateQuery.XWikiHibernateQueryTranslator.ObjProperty;
 import com.xpn.xwiki.store.XWikiHibernateStore;
-import com.xpn.xwiki.util.Util;
 /** Query implementation for Hibernate */
 public class HibernateQuery extends DefaultQuery {
 	private static final Log log = LogFactory.getLog(HibernateQuery.class);
@@ -748,13 +747,9 @@ public boolean isMultiValue() {
 	
 	protected List hqlexec(String hql, Map params, int fs, int fr) throws XWikiException {
 		boolean bTransaction = true;
-		final MonitorPlugin monitor  = Util.getMonitorPlugin(getContext());
+		final long timer = RequestTimings.start(RequestTimings.Phase.STORE_QUERY);
 		List r = null;
 		try {
-			 // Start monitoring timer
-            if (monitor!=null)
-                monitor.startTimer("hibernate");
-            
             getHibernateStore().checkHibernate(getContext());
             bTransaction = getHibernateStore().beginTransaction(getContext());            
                         
@@ -789,9 +784,7 @@ protected List hqlexec(String hql, Map params, int fs, int fr) throws XWikiExcep
 				if (bTransaction)
 					getHibernateStore().endTransaction(getContext(), false);
 			} catch (Exception e) {}
-			// End monitoring timer
-			if (monitor!=null)
-				monitor.endTimer("hibernate");
+			RequestTimings.end(RequestTimings.Phase.STORE_QUERY, timer);
 		}
 	}
 	static public class TranslateException extends RuntimeException {
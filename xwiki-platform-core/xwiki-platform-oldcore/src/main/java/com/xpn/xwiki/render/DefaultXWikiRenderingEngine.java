@@ -40,9 +40,8 @@
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
 import com.xpn.xwiki.doc.XWikiDocument;
-import com.xpn.xwiki.monitor.api.MonitorPlugin;
+import com.xpn.xwiki.monitor.api.RequestTimings;
 import com.xpn.xwiki.render.groovy.XWikiGroovyRenderer;
-import com.xpn.xwiki.util.Util;
 import com.xpn.xwiki.web.Utils;
 import com.xpn.xwiki.web.XWikiRequest;
 
@@ -255,16 +254,11 @@ private String renderText(String text, boolean onlyInterpret, XWikiDocument cont
             } catch (Exception e) {
             }
 
-            MonitorPlugin monitor = Util.getMonitorPlugin(context);
+            long timer = RequestTimings.start(RequestTimings.Phase.RENDERING);
             try {
                 // We need to make sure we don't use the cache duretion currently in the system
                 context
                     .setCacheDuration((int) context.getWiki().ParamAsLong("xwiki.rendering.defaultCacheDuration", 0));
-                // Start monitoring timer
-                if (monitor != null) {
-                    monitor.startTimer("rendering");
-                }
-
                 String content = text;
 
                 // Which is the current idoc and sdoc
@@ -334,9 +328,7 @@ private String renderText(String text, boolean onlyInterpret, XWikiDocument cont
                 // We need to make sure we reset the cache Duration
                 context.setCacheDuration(currentCacheDuration);
 
-                if (monitor != null) {
-                    monitor.endTimer("rendering");
-                }
+                RequestTimings.end(RequestTimings.Phase.RENDERING, timer);
             }
         }
     }
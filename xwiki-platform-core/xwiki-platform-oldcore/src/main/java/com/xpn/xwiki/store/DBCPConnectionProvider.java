@@ -22,10 +22,25 @@
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
 import java.sql.Connection;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import org.apache.commons.dbcp.BasicDataSource;
 import org.apache.commons.dbcp.BasicDataSourceFactory;
@@ -76,6 +91,21 @@
  *   hibernate.dbcp.validationQuery select 1 from dual
  * </pre>
  * <p>
+ * In a wiki farm each transaction starts by switching the connection to the schema of the current wiki. When
+ * <code>hibernate.dbcp.schemaAffinity</code> is set to <code>true</code> the provider remembers the schema each
+ * connection is bound to and keeps up to <code>maxIdle</code> released connections aside, handing them out in priority
+ * to transactions targeting the same schema so that the store does not have to switch again (see
+ * {@link XWikiHibernateBaseStore#setDatabase(org.hibernate.Session, com.xpn.xwiki.XWikiContext)}). Since the DBCP
+ * evictor and validation don't see the connections kept aside, they are validated with the
+ * <code>validationQuery</code> when handed out again if <code>testOnBorrow</code> is enabled, and they are given back
+ * to the DBCP pool once they have been idle for <code>schemaAffinityMaxIdleTime</code> milliseconds (1 minute by
+ * default, bounded by <code>minEvictableIdleTimeMillis</code>).
+ * </p>
+ * <p>
+ * The pool usage, the time spent waiting for a connection and the number of schema switches are exposed through JMX
+ * as {@value #MBEAN_NAME}.
+ * </p>
+ * <p>
  * More information about configuring/using DBCP can be found on the <a
  * href="http://jakarta.apache.org/commons/dbcp/">DBCP website</a>. There you will also find the DBCP wiki, mailing
  * lists, issue tracking and other support facilities
@@ -84,15 +114,108 @@
  * @see org.hibernate.connection.ConnectionProvider
  * @author Dirk Verbeeck
  */
-public class DBCPConnectionProvider implements ConnectionProvider
+public class DBCPConnectionProvider implements ConnectionProvider, DBCPConnectionProviderMBean
 {
+    /**
+     * The name under which the pool statistics are registered in the MBean server.
+     * 
+     * @since 3.2M1
+     */
+    public static final String MBEAN_NAME = "org.xwiki:type=ConnectionPool";
 
     private static final Log log = LogFactory.getLog(DBCPConnectionProvider.class);
 
     private static final String PREFIX = "hibernate.dbcp.";
 
+    /**
+     * Property enabling the schema affinity of the released connections.
+     */
+    private static final String SCHEMA_AFFINITY = PREFIX + "schemaAffinity";
+
+    /**
+     * Property containing the maximum time a connection is kept aside, in milliseconds.
+     */
+    private static final String SCHEMA_AFFINITY_MAX_IDLE_TIME = PREFIX + "schemaAffinityMaxIdleTime";
+
+    /**
+     * Default maximum time a connection is kept aside, in milliseconds.
+     */
+    private static final long DEFAULT_SCHEMA_AFFINITY_MAX_IDLE_TIME = 60000;
+
     private BasicDataSource ds;
 
+    /**
+     * A connection kept aside with the schema it is bound to.
+     */
+    private static class AffineConnection
+    {
+        private final Connection connection;
+
+        private final String schema;
+
+        private final long releaseTime = System.currentTimeMillis();
+
+        AffineConnection(Connection connection, String schema)
+        {
+            this.connection = connection;
+            this.schema = schema;
+        }
+    }
+
+    private boolean schemaAffinity;
+
+    /**
+     * The maximum time a connection is kept aside, in milliseconds.
+     */
+    private long affinityMaxIdleTime = DEFAULT_SCHEMA_AFFINITY_MAX_IDLE_TIME;
+
+    /**
+     * Gives back to the pool the connections kept aside for too long even when no connection is requested.
+     */
+    private Timer affinityEvictor;
+
+    /**
+     * The schema the store is about to switch the connection requested by the current thread to.
+     */
+    private final ThreadLocal<String> requestedSchema = new ThreadLocal<String>();
+
+    /**
+     * The schema each connection currently handed out is known to be bound to.
+     */
+    private final Map<Connection, String> schemas =
+        Collections.synchronizedMap(new IdentityHashMap<Connection, String>());
+
+    /**
+     * The released connections kept aside, indexed by schema, the oldest first. Also used as lock for
+     * {@link #affineConnectionCount}.
+     */
+    private final Map<String, LinkedList<AffineConnection>> affineConnections =
+        new HashMap<String, LinkedList<AffineConnection>>();
+
+    private int affineConnectionCount;
+
+    private final AtomicLong connectionRequests = new AtomicLong();
+
+    private final AtomicLong affinityHits = new AtomicLong();
+
+    private final AtomicLong schemaSwitches = new AtomicLong();
+
+    private final AtomicLong avoidedSchemaSwitches = new AtomicLong();
+
+    private final AtomicLong invalidAffineConnections = new AtomicLong();
+
+    private final AtomicLong poolRequests = new AtomicLong();
+
+    /**
+     * Total time spent waiting for the DBCP pool, in nanoseconds.
+     */
+    private final AtomicLong poolWaitTime = new AtomicLong();
+
+    /**
+     * Longest wait for the DBCP pool, in nanoseconds.
+     */
+    private final AtomicLong maxPoolWaitTime = new AtomicLong();
+
     // Old Environment property for backward-compatibility (property removed in Hibernate3)
     private static final String DBCP_PS_MAXACTIVE = "hibernate.dbcp.ps.maxActive";
 
@@ -170,6 +293,13 @@ public void configure(Properties props) throws HibernateException
                 }
             }
 
+            // Not a DBCP property
+            this.schemaAffinity = Boolean.parseBoolean((String) dbcpProperties.remove("schemaAffinity"));
+            String maxIdleTime = (String) dbcpProperties.remove("schemaAffinityMaxIdleTime");
+            if ((maxIdleTime != null) && (maxIdleTime.trim().length() > 0)) {
+                this.affinityMaxIdleTime = Long.parseLong(maxIdleTime.trim());
+            }
+
             // Backward-compatibility
             if (props.getProperty(DBCP_PS_MAXACTIVE) != null) {
                 dbcpProperties.put("poolPreparedStatements", String.valueOf(Boolean.TRUE));
@@ -195,11 +325,18 @@ public void configure(Properties props) throws HibernateException
 
             // Log pool statistics before continuing.
             logStatistics();
+
+            if (this.schemaAffinity) {
+                startAffinityEvictor();
+            }
+
+            registerMBean();
         } catch (Exception e) {
             String message =
                 "Could not create a DBCP pool. "
                     + "There is an error in the hibernate configuration file, please review it.";
             log.fatal(message, e);
+            stopAffinityEvictor();
             if (ds != null) {
                 try {
                     ds.close();
@@ -215,9 +352,19 @@ public void configure(Properties props) throws HibernateException
 
     public Connection getConnection() throws SQLException
     {
+        this.connectionRequests.incrementAndGet();
+
         Connection conn = null;
         try {
-            conn = ds.getConnection();
+            if (this.schemaAffinity) {
+                conn = takeAffineConnection(this.requestedSchema.get());
+            }
+
+            if (conn == null) {
+                long start = System.nanoTime();
+                conn = ds.getConnection();
+                recordPoolWait(System.nanoTime() - start);
+            }
         } finally {
             logStatistics();
         }
@@ -227,16 +374,504 @@ public Connection getConnection() throws SQLException
     public void closeConnection(Connection conn) throws SQLException
     {
         try {
-            conn.close();
+            String schema = this.schemas.remove(conn);
+            if (schema == null || !keepAffineConnection(conn, schema)) {
+                conn.close();
+            }
         } finally {
             logStatistics();
         }
     }
 
+    /**
+     * @param schema the schema the connection is going to be switched to, null if unknown
+     * @return a released connection bound to the provided schema or, when the DBCP pool has no idle connection left,
+     *         the oldest released connection bound to another schema, null if none is available
+     */
+    private Connection takeAffineConnection(String schema)
+    {
+        while (true) {
+            AffineConnection affineConnection = null;
+
+            synchronized (this.affineConnections) {
+                closeExpiredAffineConnections();
+
+                if (this.affineConnectionCount > 0) {
+                    LinkedList<AffineConnection> connections =
+                        schema != null ? this.affineConnections.get(schema) : null;
+                    if (connections != null) {
+                        // The most recently released connection is the least likely to have been closed by the server
+                        affineConnection = connections.getLast();
+                    } else if (ds.getNumIdle() == 0) {
+                        // Rather than opening a new connection or waiting for one
+                        affineConnection = findOldestAffineConnection();
+                    }
+
+                    if (affineConnection != null) {
+                        removeAffineConnection(affineConnection);
+                    }
+                }
+            }
+
+            if (affineConnection == null) {
+                return null;
+            }
+
+            if (validateAffineConnection(affineConnection.connection)) {
+                if (affineConnection.schema.equals(schema)) {
+                    this.affinityHits.incrementAndGet();
+                }
+                this.schemas.put(affineConnection.connection, affineConnection.schema);
+
+                return affineConnection.connection;
+            }
+
+            // Give it back to DBCP, which validates (or discards) its connections, and try the next one
+            this.invalidAffineConnections.incrementAndGet();
+            closeQuietly(affineConnection.connection);
+        }
+    }
+
+    /**
+     * Do the validation DBCP would have done if the connection had been taken from its pool, since a connection kept
+     * aside is not seen by the DBCP evictor.
+     * 
+     * @param conn a connection kept aside
+     * @return true if the connection can be handed out
+     */
+    private boolean validateAffineConnection(Connection conn)
+    {
+        try {
+            if (conn.isClosed()) {
+                return false;
+            }
+
+            String validationQuery = ds.getValidationQuery();
+            if (ds.getTestOnBorrow() && validationQuery != null && validationQuery.trim().length() > 0) {
+                Statement statement = conn.createStatement();
+                try {
+                    ResultSet result = statement.executeQuery(validationQuery);
+                    try {
+                        return result.next();
+                    } finally {
+                        result.close();
+                    }
+                } finally {
+                    statement.close();
+                }
+            }
+
+            return true;
+        } catch (SQLException e) {
+            log.debug("Connection kept aside failed validation", e);
+
+            return false;
+        }
+    }
+
+    /**
+     * @param conn the released connection
+     * @param schema the schema the connection is bound to
+     * @return true if the connection has been kept aside, false if it should be given back to the pool
+     */
+    private boolean keepAffineConnection(Connection conn, String schema)
+    {
+        if (!this.schemaAffinity) {
+            return false;
+        }
+
+        try {
+            if (conn.isClosed()) {
+                return false;
+            }
+
+            // Same as what DBCP does when a connection is given back to the pool
+            if (!conn.getAutoCommit() && !conn.isReadOnly()) {
+                conn.rollback();
+            }
+        } catch (SQLException e) {
+            // Let DBCP deal with it
+            return false;
+        }
+
+        synchronized (this.affineConnections) {
+            if (this.affineConnectionCount >= Math.max(ds.getMaxIdle(), 0)) {
+                return false;
+            }
+
+            LinkedList<AffineConnection> connections = this.affineConnections.get(schema);
+            if (connections == null) {
+                connections = new LinkedList<AffineConnection>();
+                this.affineConnections.put(schema, connections);
+            }
+            connections.addLast(new AffineConnection(conn, schema));
+            ++this.affineConnectionCount;
+        }
+
+        return true;
+    }
+
+    /**
+     * @return the maximum time a connection is kept aside, in milliseconds
+     */
+    private long getAffinityMaxIdleTime()
+    {
+        long maxIdleTime = this.affinityMaxIdleTime;
+        long minEvictableIdleTime = ds.getMinEvictableIdleTimeMillis();
+        if (minEvictableIdleTime > 0 && (maxIdleTime <= 0 || minEvictableIdleTime < maxIdleTime)) {
+            maxIdleTime = minEvictableIdleTime;
+        }
+
+        return maxIdleTime > 0 ? maxIdleTime : DEFAULT_SCHEMA_AFFINITY_MAX_IDLE_TIME;
+    }
+
+    /**
+     * Give back to the pool the connections which have been kept aside for too long. Must be called while holding the
+     * lock on {@link #affineConnections}.
+     */
+    private void closeExpiredAffineConnections()
+    {
+        if (this.affineConnectionCount > 0) {
+            long limit = System.currentTimeMillis() - getAffinityMaxIdleTime();
+            for (Iterator<LinkedList<AffineConnection>> it = this.affineConnections.values().iterator(); it
+                .hasNext();) {
+                LinkedList<AffineConnection> connections = it.next();
+                while (!connections.isEmpty() && connections.getFirst().releaseTime < limit) {
+                    closeQuietly(connections.removeFirst().connection);
+                    --this.affineConnectionCount;
+                }
+                if (connections.isEmpty()) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Must be called while holding the lock on {@link #affineConnections}.
+     * 
+     * @return the connection which has been kept aside for the longest time, null if there is none
+     */
+    private AffineConnection findOldestAffineConnection()
+    {
+        AffineConnection oldest = null;
+        for (LinkedList<AffineConnection> connections : this.affineConnections.values()) {
+            if (oldest == null || connections.getFirst().releaseTime < oldest.releaseTime) {
+                oldest = connections.getFirst();
+            }
+        }
+
+        return oldest;
+    }
+
+    /**
+     * Must be called while holding the lock on {@link #affineConnections}.
+     * 
+     * @param affineConnection the connection to remove from the connections kept aside
+     */
+    private void removeAffineConnection(AffineConnection affineConnection)
+    {
+        LinkedList<AffineConnection> connections = this.affineConnections.get(affineConnection.schema);
+        connections.remove(affineConnection);
+        if (connections.isEmpty()) {
+            this.affineConnections.remove(affineConnection.schema);
+        }
+        --this.affineConnectionCount;
+    }
+
+    /**
+     * Give back to the pool all the connections kept aside.
+     */
+    private void closeAffineConnections()
+    {
+        synchronized (this.affineConnections) {
+            for (LinkedList<AffineConnection> connections : this.affineConnections.values()) {
+                for (AffineConnection affineConnection : connections) {
+                    closeQuietly(affineConnection.connection);
+                }
+            }
+            this.affineConnections.clear();
+            this.affineConnectionCount = 0;
+        }
+    }
+
+    /**
+     * @param conn the connection to give back to the DBCP pool
+     */
+    private void closeQuietly(Connection conn)
+    {
+        try {
+            conn.close();
+        } catch (SQLException e) {
+            log.warn("Failed to close connection", e);
+        }
+    }
+
+    /**
+     * Start giving back to the pool the connections kept aside for too long, even if no connection is requested.
+     */
+    private void startAffinityEvictor()
+    {
+        long period = getAffinityMaxIdleTime();
+        this.affinityEvictor = new Timer("XWiki connection pool schema affinity evictor", true);
+        this.affinityEvictor.schedule(new TimerTask()
+        {
+            @Override
+            public void run()
+            {
+                synchronized (affineConnections) {
+                    closeExpiredAffineConnections();
+                }
+            }
+        }, period, period);
+    }
+
+    private void stopAffinityEvictor()
+    {
+        if (this.affinityEvictor != null) {
+            this.affinityEvictor.cancel();
+            this.affinityEvictor = null;
+        }
+    }
+
+    /**
+     * @param time the time spent waiting for the DBCP pool, in nanoseconds
+     */
+    private void recordPoolWait(long time)
+    {
+        this.poolRequests.incrementAndGet();
+        this.poolWaitTime.addAndGet(time);
+        long max = this.maxPoolWaitTime.get();
+        while (time > max && !this.maxPoolWaitTime.compareAndSet(max, time)) {
+            max = this.maxPoolWaitTime.get();
+        }
+    }
+
+    /**
+     * @return true if the released connections are kept aside to be reused for the same schema
+     * @since 3.2M1
+     */
+    public boolean isSchemaAffinityEnabled()
+    {
+        return this.schemaAffinity;
+    }
+
+    /**
+     * Indicate the schema the next connection requested by the current thread is going to be switched to, so that a
+     * connection already bound to it can be handed out.
+     * 
+     * @param schema the schema, null to clear the hint
+     * @since 3.2M1
+     */
+    public void setRequestedSchema(String schema)
+    {
+        if (schema != null) {
+            this.requestedSchema.set(schema);
+        } else {
+            this.requestedSchema.remove();
+        }
+    }
+
+    /**
+     * @param conn a connection handed out by this provider
+     * @param schema a schema
+     * @return true if the connection is known to be already bound to the provided schema, in which case there is no
+     *         need to switch it
+     * @since 3.2M1
+     */
+    public boolean isBoundToSchema(Connection conn, String schema)
+    {
+        boolean bound = schema != null && schema.equals(this.schemas.get(conn));
+        if (bound) {
+            this.avoidedSchemaSwitches.incrementAndGet();
+        }
+
+        return bound;
+    }
+
+    /**
+     * Remember the schema a connection has been switched to.
+     * 
+     * @param conn a connection handed out by this provider
+     * @param schema the schema the connection has been switched to, null if unknown (for example when the switch
+     *            failed)
+     * @since 3.2M1
+     */
+    public void setBoundSchema(Connection conn, String schema)
+    {
+        if (schema != null) {
+            this.schemas.put(conn, schema);
+            this.schemaSwitches.incrementAndGet();
+        } else {
+            this.schemas.remove(conn);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.xpn.xwiki.store.DBCPConnectionProviderMBean#getActiveConnections()
+     */
+    public int getActiveConnections()
+    {
+        return ds != null ? ds.getNumActive() - getAffineConnections() : 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.xpn.xwiki.store.DBCPConnectionProviderMBean#getIdleConnections()
+     */
+    public int getIdleConnections()
+    {
+        return ds != null ? ds.getNumIdle() : 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.xpn.xwiki.store.DBCPConnectionProviderMBean#getAffineConnections()
+     */
+    public int getAffineConnections()
+    {
+        synchronized (this.affineConnections) {
+            return this.affineConnectionCount;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.xpn.xwiki.store.DBCPConnectionProviderMBean#getMaxActiveConnections()
+     */
+    public int getMaxActiveConnections()
+    {
+        return ds != null ? ds.getMaxActive() : 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.xpn.xwiki.store.DBCPConnectionProviderMBean#getConnectionRequests()
+     */
+    public long getConnectionRequests()
+    {
+        return this.connectionRequests.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.xpn.xwiki.store.DBCPConnectionProviderMBean#getAffinityHits()
+     */
+    public long getAffinityHits()
+    {
+        return this.affinityHits.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.xpn.xwiki.store.DBCPConnectionProviderMBean#getSchemaSwitches()
+     */
+    public long getSchemaSwitches()
+    {
+        return this.schemaSwitches.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.xpn.xwiki.store.DBCPConnectionProviderMBean#getAvoidedSchemaSwitches()
+     */
+    public long getAvoidedSchemaSwitches()
+    {
+        return this.avoidedSchemaSwitches.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.xpn.xwiki.store.DBCPConnectionProviderMBean#getInvalidAffineConnections()
+     */
+    public long getInvalidAffineConnections()
+    {
+        return this.invalidAffineConnections.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.xpn.xwiki.store.DBCPConnectionProviderMBean#getAveragePoolWaitTime()
+     */
+    public double getAveragePoolWaitTime()
+    {
+        long count = this.poolRequests.get();
+
+        return count > 0 ? (double) this.poolWaitTime.get() / count / TimeUnit.MILLISECONDS.toNanos(1) : 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.xpn.xwiki.store.DBCPConnectionProviderMBean#getMaxPoolWaitTime()
+     */
+    public double getMaxPoolWaitTime()
+    {
+        return (double) this.maxPoolWaitTime.get() / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.xpn.xwiki.store.DBCPConnectionProviderMBean#reset()
+     */
+    public void reset()
+    {
+        this.connectionRequests.set(0);
+        this.affinityHits.set(0);
+        this.schemaSwitches.set(0);
+        this.avoidedSchemaSwitches.set(0);
+        this.invalidAffineConnections.set(0);
+        this.poolRequests.set(0);
+        this.poolWaitTime.set(0);
+        this.maxPoolWaitTime.set(0);
+    }
+
+    private void registerMBean()
+    {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(MBEAN_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+        } catch (Exception e) {
+            log.warn("Failed to register the connection pool statistics in the MBean server", e);
+        }
+    }
+
+    private void unregisterMBean()
+    {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(MBEAN_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (Exception e) {
+            log.warn("Failed to unregister the connection pool statistics from the MBean server", e);
+        }
+    }
+
     public void close() throws HibernateException
     {
         log.debug("Close DBCPConnectionProvider");
         logStatistics();
+        unregisterMBean();
+        stopAffinityEvictor();
+        closeAffineConnections();
         try {
             if (ds != null) {
                 ds.close();
@@ -266,8 +901,8 @@ public boolean supportsAggressiveRelease()
     protected void logStatistics()
     {
         if (log.isInfoEnabled()) {
-            log.info("active: " + ds.getNumActive() + " (max: " + ds.getMaxActive() + ")   " + "idle: "
-                + ds.getNumIdle() + "(max: " + ds.getMaxIdle() + ")");
+            log.info("active: " + getActiveConnections() + " (max: " + ds.getMaxActive() + ")   " + "idle: "
+                + ds.getNumIdle() + "(max: " + ds.getMaxIdle() + ")   " + "affine: " + getAffineConnections());
         }
     }
 }
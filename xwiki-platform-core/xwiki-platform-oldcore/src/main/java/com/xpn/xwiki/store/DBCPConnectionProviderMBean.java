@@ -0,0 +1,91 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.store;
+
+/**
+ * Statistics of the database connection pool exposed through JMX.
+ * 
+ * @version $Id$
+ * @since 3.2M1
+ */
+public interface DBCPConnectionProviderMBean
+{
+    /**
+     * @return the number of connections currently used
+     */
+    int getActiveConnections();
+
+    /**
+     * @return the number of connections waiting in the DBCP pool
+     */
+    int getIdleConnections();
+
+    /**
+     * @return the number of released connections kept aside to be reused for the same schema
+     */
+    int getAffineConnections();
+
+    /**
+     * @return the maximum number of connections
+     */
+    int getMaxActiveConnections();
+
+    /**
+     * @return the number of connections which have been requested
+     */
+    long getConnectionRequests();
+
+    /**
+     * @return the number of requests which got a connection already bound to the requested schema
+     */
+    long getAffinityHits();
+
+    /**
+     * @return the number of times a connection has been switched to another schema
+     */
+    long getSchemaSwitches();
+
+    /**
+     * @return the number of times switching a connection to a schema has been skipped because the connection was
+     *         already bound to it
+     */
+    long getAvoidedSchemaSwitches();
+
+    /**
+     * @return the number of connections kept aside which have been given back to the pool because they failed
+     *         validation when handed out again
+     */
+    long getInvalidAffineConnections();
+
+    /**
+     * @return the average time spent waiting for a connection from the DBCP pool, in milliseconds
+     */
+    double getAveragePoolWaitTime();
+
+    /**
+     * @return the longest time spent waiting for a connection from the DBCP pool, in milliseconds
+     */
+    double getMaxPoolWaitTime();
+
+    /**
+     * Reset all the counters.
+     */
+    void reset();
+}
@@ -0,0 +1,332 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.store;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Memory compact index of the documents existing in each wiki, used to answer document existence checks (links to
+ * wanted pages, navigation trees, etc.) without querying the database.
+ * <p>
+ * For each wiki the index contains a 64 bits fingerprint of the full name of each existing document, stored in an open
+ * addressing hash table (about 11 bytes per document). A document which is not in the index is known not to exist. A
+ * document which is in the index exists unless its fingerprint collides with the one of an existing document, which
+ * is very unlikely (about one chance in 10^13 for a wiki containing a million documents).
+ * <p>
+ * The index of a wiki is filled with the list of its documents the first time it's needed (see
+ * {@link #startBuilding(String)} and {@link #build(String, Collection)}) and is then maintained by the store when
+ * documents are created and deleted.
+ * 
+ * @version $Id$
+ * @since 3.2M1
+ */
+public class DocumentExistenceIndex
+{
+    /**
+     * The fingerprints of the documents of one wiki.
+     */
+    private static class WikiIndex
+    {
+        /**
+         * Value of an empty slot.
+         */
+        private static final long EMPTY = 0L;
+
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+        private long[] table;
+
+        private int size;
+
+        /**
+         * True once the list of documents of the wiki has been loaded.
+         */
+        private volatile boolean ready;
+
+        /**
+         * The documents deleted while the list of documents of the wiki was being loaded, null once the index is ready.
+         */
+        private Set<Long> deletedWhileBuilding = new HashSet<Long>();
+
+        WikiIndex(int expectedSize)
+        {
+            this.table = new long[tableSize(expectedSize)];
+        }
+
+        boolean contains(long fingerprint)
+        {
+            this.lock.readLock().lock();
+            try {
+                long[] slots = this.table;
+                int mask = slots.length - 1;
+                for (int i = slot(fingerprint, mask);; i = (i + 1) & mask) {
+                    if (slots[i] == fingerprint) {
+                        return true;
+                    } else if (slots[i] == EMPTY) {
+                        return false;
+                    }
+                }
+            } finally {
+                this.lock.readLock().unlock();
+            }
+        }
+
+        void add(long fingerprint)
+        {
+            this.lock.writeLock().lock();
+            try {
+                if (this.deletedWhileBuilding != null) {
+                    this.deletedWhileBuilding.remove(fingerprint);
+                }
+                insert(fingerprint);
+            } finally {
+                this.lock.writeLock().unlock();
+            }
+        }
+
+        void addAll(Collection<String> fullNames)
+        {
+            this.lock.writeLock().lock();
+            try {
+                for (String fullName : fullNames) {
+                    long fingerprint = fingerprint(fullName);
+                    // Don't resurrect the documents deleted since the list has been loaded
+                    if (!this.deletedWhileBuilding.contains(fingerprint)) {
+                        insert(fingerprint);
+                    }
+                }
+                this.deletedWhileBuilding = null;
+                this.ready = true;
+            } finally {
+                this.lock.writeLock().unlock();
+            }
+        }
+
+        void remove(long fingerprint)
+        {
+            this.lock.writeLock().lock();
+            try {
+                if (this.deletedWhileBuilding != null) {
+                    this.deletedWhileBuilding.add(fingerprint);
+                }
+
+                long[] slots = this.table;
+                int mask = slots.length - 1;
+                int i = slot(fingerprint, mask);
+                while (slots[i] != fingerprint) {
+                    if (slots[i] == EMPTY) {
+                        return;
+                    }
+                    i = (i + 1) & mask;
+                }
+
+                // Backward shift the following entries so that no lookup stops too early
+                for (int next = (i + 1) & mask; slots[next] != EMPTY; next = (next + 1) & mask) {
+                    int home = slot(slots[next], mask);
+                    if (((next - home) & mask) >= ((next - i) & mask)) {
+                        slots[i] = slots[next];
+                        i = next;
+                    }
+                }
+                slots[i] = EMPTY;
+                --this.size;
+            } finally {
+                this.lock.writeLock().unlock();
+            }
+        }
+
+        /**
+         * Must be called while holding the write lock.
+         * 
+         * @param fingerprint the fingerprint to add
+         */
+        private void insert(long fingerprint)
+        {
+            if ((this.size + 1) * 4L > this.table.length * 3L) {
+                long[] oldTable = this.table;
+                this.table = new long[oldTable.length * 2];
+                this.size = 0;
+                for (long oldFingerprint : oldTable) {
+                    if (oldFingerprint != EMPTY) {
+                        insert(oldFingerprint);
+                    }
+                }
+            }
+
+            int mask = this.table.length - 1;
+            for (int i = slot(fingerprint, mask);; i = (i + 1) & mask) {
+                if (this.table[i] == fingerprint) {
+                    return;
+                } else if (this.table[i] == EMPTY) {
+                    this.table[i] = fingerprint;
+                    ++this.size;
+                    return;
+                }
+            }
+        }
+
+        private static int slot(long fingerprint, int mask)
+        {
+            return (int) (fingerprint ^ (fingerprint >>> 32)) & mask;
+        }
+
+        /**
+         * @param expectedSize the expected number of fingerprints
+         * @return a power of two big enough to hold the provided number of fingerprints with a load factor below 0.75
+         */
+        private static int tableSize(int expectedSize)
+        {
+            int tableSize = 16;
+            while (tableSize * 3L < expectedSize * 4L) {
+                tableSize <<= 1;
+            }
+
+            return tableSize;
+        }
+    }
+
+    /**
+     * The index of each wiki, indexed by wiki name.
+     */
+    private final ConcurrentMap<String, WikiIndex> wikis = new ConcurrentHashMap<String, WikiIndex>();
+
+    /**
+     * @param wiki the name of the wiki
+     * @param fullName the full name of the document
+     * @return {@link Boolean#TRUE} if the document exists, {@link Boolean#FALSE} if it does not, null if the index of
+     *         the wiki is not ready
+     */
+    public Boolean exists(String wiki, String fullName)
+    {
+        WikiIndex index = this.wikis.get(wiki);
+        if (index == null || !index.ready) {
+            return null;
+        }
+
+        return index.contains(fingerprint(fullName));
+    }
+
+    /**
+     * Indicate that the list of documents of a wiki is going to be loaded. From now on the documents created or deleted
+     * in the wiki are recorded.
+     * 
+     * @param wiki the name of the wiki
+     * @return true if the caller should load the list of documents and call {@link #build(String, Collection)}, false
+     *         if the index of the wiki is already built or being built
+     */
+    public boolean startBuilding(String wiki)
+    {
+        return this.wikis.putIfAbsent(wiki, new WikiIndex(0)) == null;
+    }
+
+    /**
+     * Fill the index of a wiki with the list of its documents.
+     * 
+     * @param wiki the name of the wiki
+     * @param fullNames the full names of the documents of the wiki, loaded after calling {@link #startBuilding(String)}
+     */
+    public void build(String wiki, Collection<String> fullNames)
+    {
+        WikiIndex index = this.wikis.get(wiki);
+        if (index != null && !index.ready) {
+            index.addAll(fullNames);
+        }
+    }
+
+    /**
+     * Indicate that the list of documents of a wiki could not be loaded.
+     * 
+     * @param wiki the name of the wiki
+     */
+    public void cancelBuilding(String wiki)
+    {
+        WikiIndex index = this.wikis.get(wiki);
+        if (index != null && !index.ready) {
+            this.wikis.remove(wiki, index);
+        }
+    }
+
+    /**
+     * @param wiki the name of the wiki
+     * @param fullName the full name of the document which has been created
+     */
+    public void add(String wiki, String fullName)
+    {
+        WikiIndex index = this.wikis.get(wiki);
+        if (index != null) {
+            index.add(fingerprint(fullName));
+        }
+    }
+
+    /**
+     * @param wiki the name of the wiki
+     * @param fullName the full name of the document which has been deleted
+     */
+    public void remove(String wiki, String fullName)
+    {
+        WikiIndex index = this.wikis.get(wiki);
+        if (index != null) {
+            index.remove(fingerprint(fullName));
+        }
+    }
+
+    /**
+     * Forget the index of a wiki, it will be built again the next time it's needed.
+     * 
+     * @param wiki the name of the wiki
+     */
+    public void removeWiki(String wiki)
+    {
+        this.wikis.remove(wiki);
+    }
+
+    /**
+     * Forget the index of all the wikis.
+     */
+    public void clear()
+    {
+        this.wikis.clear();
+    }
+
+    /**
+     * @param fullName the full name of a document
+     * @return a 64 bits fingerprint of the full name (FNV-1a followed by a final mix), never 0
+     */
+    private static long fingerprint(String fullName)
+    {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < fullName.length(); ++i) {
+            hash ^= fullName.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+
+        return hash != WikiIndex.EMPTY ? hash : 1L;
+    }
+}
@@ -24,12 +24,17 @@
 import java.util.Arrays;
 import java.util.List;
 
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.hibernate.Transaction;
 import org.xwiki.bridge.event.DocumentCreatedEvent;
 import org.xwiki.bridge.event.DocumentDeletedEvent;
 import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.bridge.event.WikiCopiedEvent;
 import org.xwiki.bridge.event.WikiDeletedEvent;
 import org.xwiki.cache.Cache;
 import org.xwiki.cache.CacheException;
@@ -71,6 +76,11 @@ public class XWikiCacheStore implements XWikiCacheStoreInterface, EventListener
 
     private int pageExistCacheCapacity = 10000;
 
+    /**
+     * The index of the existing documents of each wiki, null if disabled.
+     */
+    private DocumentExistenceIndex existenceIndex;
+
     /**
      * Used to know if a received event is a local or remote one.
      */
@@ -110,7 +120,7 @@ public String getName()
     public List<Event> getEvents()
     {
         return Arrays.<Event> asList(new DocumentCreatedEvent(), new DocumentUpdatedEvent(),
-            new DocumentDeletedEvent(), new WikiDeletedEvent());
+            new DocumentDeletedEvent(), new WikiDeletedEvent(), new WikiCopiedEvent());
     }
 
     public synchronized void initCache(XWikiContext context) throws XWikiException
@@ -130,6 +140,10 @@ public synchronized void initCache(XWikiContext context) throws XWikiException
                 }
             } catch (Exception e) {
             }
+            if (this.existenceIndex == null
+                && "1".equals(context.getWiki().Param("xwiki.store.cache.existenceindex", "1"))) {
+                this.existenceIndex = new DocumentExistenceIndex();
+            }
             initCache(this.cacheCapacity, this.pageExistCacheCapacity, context);
         }
     }
@@ -189,6 +203,7 @@ public void saveXWikiDoc(XWikiDocument doc, XWikiContext context, boolean bTrans
         // on the cluster are informed about the change
         getCache().remove(key);
         getPageExistCache().remove(key);
+        updateExistenceIndex(doc, true, context);
 
         /*
          * We do not want to save the document in the cache at this time. If we did, this would introduce the
@@ -198,6 +213,72 @@ public void saveXWikiDoc(XWikiDocument doc, XWikiContext context, boolean bTrans
          */
     }
 
+    /**
+     * Record in the existence index that a document has been saved or deleted. When this is part of an outer
+     * transaction, which is still running, the index of the wiki is evicted if that transaction is rolled back.
+     * 
+     * @param doc the document which has been saved or deleted
+     * @param saved true if the document has been saved, false if it has been deleted
+     * @param context the XWiki context
+     * @throws XWikiException when failing to check if some translations of a deleted document remain
+     */
+    private void updateExistenceIndex(XWikiDocument doc, boolean saved, XWikiContext context) throws XWikiException
+    {
+        if (this.existenceIndex == null) {
+            return;
+        }
+
+        final String wiki = context.getDatabase();
+        if (saved) {
+            this.existenceIndex.add(wiki, doc.getFullName());
+        } else if (!this.store.exists(doc, context)) {
+            // The document exists as long as one of its translations (or its default language) remains
+            this.existenceIndex.remove(wiki, doc.getFullName());
+        }
+
+        if (this.store instanceof XWikiHibernateBaseStore) {
+            Transaction transaction = ((XWikiHibernateBaseStore) this.store).getWriteTransaction(context);
+            if (transaction != null) {
+                transaction.registerSynchronization(new Synchronization()
+                {
+                    public void beforeCompletion()
+                    {
+                        // Nothing to do before the commit
+                    }
+
+                    public void afterCompletion(int status)
+                    {
+                        if (status != Status.STATUS_COMMITTED) {
+                            evictExistenceIndex(wiki);
+                        }
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Forget what is known about the existence of the documents of a wiki. It will be built again the next time it's
+     * needed.
+     * 
+     * @param wiki the name of the wiki
+     * @since 3.2M1
+     */
+    public void evictExistenceIndex(String wiki)
+    {
+        if (this.existenceIndex != null) {
+            this.existenceIndex.removeWiki(wiki);
+        }
+    }
+
+    /**
+     * @return the index of the existing documents of each wiki, null if disabled
+     */
+    DocumentExistenceIndex getExistenceIndex()
+    {
+        return this.existenceIndex;
+    }
+
     public void flushCache()
     {
         if (this.cache != null) {
@@ -209,6 +290,10 @@ public void flushCache()
             this.pageExistCache.dispose();
             this.pageExistCache = null;
         }
+
+        if (this.existenceIndex != null) {
+            this.existenceIndex.clear();
+        }
     }
 
     /**
@@ -219,8 +304,14 @@ public void flushCache()
      */
     public void onEvent(Event event, Object source, Object data)
     {
-        // only react to remote events since local actions are already taken into account
-        if (this.remoteObservationManagerContext.isRemoteState()) {
+        if (event instanceof WikiCopiedEvent) {
+            // A wiki copy doesn't go through the document saves, local or not the cache is not up to date
+            removeWikiDocuments(((WikiCopiedEvent) event).getWikiId(), (XWikiContext) data);
+            if (this.existenceIndex != null) {
+                this.existenceIndex.removeWiki(((WikiCopiedEvent) event).getWikiId());
+            }
+        } else if (this.remoteObservationManagerContext.isRemoteState()) {
+            // only react to remote events since local actions are already taken into account
             if (event instanceof WikiDeletedEvent) {
                 flushCache();
             } else {
@@ -235,7 +326,50 @@ public void onEvent(Event event, Object source, Object data)
                 if (getPageExistCache() != null) {
                     getPageExistCache().remove(key);
                 }
+
+                if (event instanceof DocumentCreatedEvent || event instanceof DocumentDeletedEvent) {
+                    try {
+                        updateExistenceIndex(doc, event instanceof DocumentCreatedEvent, context);
+                    } catch (XWikiException e) {
+                        log.warn("Failed to update the existence index of wiki [" + context.getDatabase() + "]", e);
+                        evictExistenceIndex(context.getDatabase());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove from the cache all the documents of a wiki.
+     * 
+     * @param wiki the wiki
+     * @param context the XWiki context
+     */
+    private void removeWikiDocuments(String wiki, XWikiContext context)
+    {
+        if (getCache() == null && getPageExistCache() == null) {
+            return;
+        }
+
+        String database = context.getDatabase();
+        try {
+            context.setDatabase(wiki);
+            List<Object[]> documents =
+                getStore().search("select doc.fullName, doc.language from XWikiDocument as doc", 0, 0, context);
+            for (Object[] document : documents) {
+                String key = getKey(wiki, (String) document[0], (String) document[1]);
+                if (getCache() != null) {
+                    getCache().remove(key);
+                }
+                if (getPageExistCache() != null) {
+                    getPageExistCache().remove(key);
+                }
             }
+        } catch (XWikiException e) {
+            log.warn("Failed to list the documents of wiki [" + wiki + "], flushing the whole cache", e);
+            flushCache();
+        } finally {
+            context.setDatabase(database);
         }
     }
 
@@ -324,6 +458,8 @@ public void deleteXWikiDoc(XWikiDocument doc, XWikiContext context) throws XWiki
         getCache().remove(key);
         getPageExistCache().remove(key);
         getPageExistCache().set(key, new Boolean(false));
+
+        updateExistenceIndex(doc, false, context);
     }
 
     public List<String> getClassList(XWikiContext context) throws XWikiException
@@ -761,12 +897,46 @@ public boolean exists(XWikiDocument doc, XWikiContext context) throws XWikiExcep
         } catch (Exception e) {
         }
 
+        Boolean indexed = existsInIndex(doc, context);
+        if (indexed != null) {
+            return indexed;
+        }
+
         boolean result = this.store.exists(doc, context);
         getPageExistCache().set(key, new Boolean(result));
 
         return result;
     }
 
+    /**
+     * @param doc the document
+     * @param context the XWiki context
+     * @return true if the document exists according to the index of the current wiki, null if the index is disabled
+     *         or not available
+     */
+    private Boolean existsInIndex(XWikiDocument doc, XWikiContext context)
+    {
+        String wiki = context.getDatabase();
+        if (this.existenceIndex == null || wiki == null) {
+            return null;
+        }
+
+        Boolean result = this.existenceIndex.exists(wiki, doc.getFullName());
+        if (result == null && this.existenceIndex.startBuilding(wiki)) {
+            try {
+                List<String> documents =
+                    getStore().search("select distinct doc.fullName from XWikiDocument as doc", 0, 0, context);
+                this.existenceIndex.build(wiki, documents);
+                result = this.existenceIndex.exists(wiki, doc.getFullName());
+            } catch (Exception e) {
+                log.warn("Failed to load the list of documents of wiki [" + wiki + "]", e);
+                this.existenceIndex.cancelBuilding(wiki);
+            }
+        }
+
+        return result;
+    }
+
     public Cache<XWikiDocument> getCache()
     {
         return this.cache;
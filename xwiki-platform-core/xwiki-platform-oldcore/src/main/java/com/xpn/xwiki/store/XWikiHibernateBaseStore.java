@@ -17,6 +17,7 @@
 import org.hibernate.Transaction;
 import org.hibernate.cfg.Configuration;
 import org.hibernate.cfg.Environment;
+import org.hibernate.connection.ConnectionProvider;
 import org.hibernate.dialect.Dialect;
 import org.hibernate.impl.SessionFactoryImpl;
 import org.hibernate.jdbc.BorrowedConnectionProxy;
@@ -31,10 +32,9 @@
 import com.xpn.xwiki.XWiki;
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
-import com.xpn.xwiki.monitor.api.MonitorPlugin;
+import com.xpn.xwiki.monitor.api.RequestTimings;
 import com.xpn.xwiki.objects.classes.BaseClass;
 import com.xpn.xwiki.store.hibernate.HibernateSessionFactory;
-import com.xpn.xwiki.util.Util;
 import com.xpn.xwiki.web.Utils;
 
 public class XWikiHibernateBaseStore implements Initializable
@@ -55,6 +55,54 @@ public class XWikiHibernateBaseStore implements Initializable
      */
     private static String currentDatabaseKey = "hibcurrentdatabase";
 
+    /**
+     * Key in XWikiContext indicating that the current session has been opened for reading only.
+     */
+    private static final String READ_SESSION_KEY = "hibreadsession";
+
+    /**
+     * Key in XWikiContext for the read only session put aside while a write started during the read is done in its own
+     * session.
+     */
+    private static final String SUSPENDED_READ_SESSION_KEY = "hibsuspendedreadsession";
+
+    /**
+     * Indicate that read only sessions can be kept for the next reads of the request handled by the current thread. It
+     * is not stored in the XWikiContext since the context is cloned for threads which never end the request.
+     */
+    private final ThreadLocal<Boolean> readSessionReuse = new ThreadLocal<Boolean>();
+
+    /**
+     * The read only session kept for the next reads of the request handled by the current thread.
+     */
+    private final ThreadLocal<KeptReadSession> keptReadSession = new ThreadLocal<KeptReadSession>();
+
+    /**
+     * A read only session kept between two reads, or put aside while a write is done.
+     */
+    private static class KeptReadSession
+    {
+        private final Session session;
+
+        /**
+         * The transaction of the session, null when the session is kept between two reads since the transaction, and
+         * thus the JDBC connection, is released at the end of each read.
+         */
+        private final Transaction transaction;
+
+        /**
+         * The database the session is currently switched to.
+         */
+        private final String database;
+
+        KeptReadSession(Session session, Transaction transaction, String database)
+        {
+            this.session = session;
+            this.transaction = transaction;
+            this.database = database;
+        }
+    }
+
     /**
      * THis allows to initialize our storage engine. The hibernate config file path is taken from xwiki.cfg or directly
      * in the WEB-INF directory.
@@ -177,7 +225,7 @@ public Session getSession(XWikiContext context)
         Session session = (Session) context.get("hibsession");
         // Make sure we are in this mode
         try {
-            if (session != null) {
+            if (session != null && !context.containsKey(READ_SESSION_KEY)) {
                 session.setFlushMode(FlushMode.COMMIT);
             }
         } catch (org.hibernate.SessionException ex) {
@@ -228,6 +276,19 @@ public void setTransaction(Transaction transaction, XWikiContext context)
         }
     }
 
+    /**
+     * Allows to get the current transaction from the context when it can write. The read only transactions, which are
+     * always rolled back, are ignored.
+     * 
+     * @param context the XWiki context
+     * @return the current write transaction, null if there isn't any
+     * @since 3.2M1
+     */
+    public Transaction getWriteTransaction(XWikiContext context)
+    {
+        return context.containsKey(READ_SESSION_KEY) ? null : getTransaction(context);
+    }
+
     /**
      * Allows to shut down the hibernate configuration Closing all pools and connections
      * 
@@ -471,7 +532,6 @@ public void updateSchema(String[] createSQL, XWikiContext context)
         Connection connection;
         Statement stmt = null;
         boolean bTransaction = true;
-        MonitorPlugin monitor = Util.getMonitorPlugin(context);
         String sql = "";
 
         try {
@@ -481,10 +541,6 @@ public void updateSchema(String[] createSQL, XWikiContext context)
             setDatabase(session, context);
             stmt = connection.createStatement();
 
-            // Start monitoring timer
-            if (monitor != null) {
-                monitor.startTimer("sqlupgrade");
-            }
             for (int j = 0; j < createSQL.length; j++) {
                 sql = createSQL[j];
                 if (log.isDebugEnabled()) {
@@ -510,11 +566,6 @@ public void updateSchema(String[] createSQL, XWikiContext context)
                 }
             } catch (Exception e) {
             }
-
-            // End monitoring timer
-            if (monitor != null) {
-                monitor.endTimer("sqlupgrade");
-            }
         }
     }
 
@@ -592,6 +643,8 @@ protected boolean isVirtual(XWikiContext context)
     public void setDatabase(Session session, XWikiContext context) throws XWikiException
     {
         if (isVirtual(context)) {
+            DBCPConnectionProvider affineProvider = null;
+            Connection affineConnection = null;
             try {
                 if (log.isDebugEnabled()) {
                     log.debug("Switch database to: [" + context.getDatabase() + "]");
@@ -599,46 +652,70 @@ public void setDatabase(Session session, XWikiContext context) throws XWikiExcep
 
                 if (context.getDatabase() != null) {
                     String schemaName = getSchemaFromWikiName(context);
-                    String escapedSchemaName = escapeSchema(schemaName, context);
 
-                    DatabaseProduct databaseProduct = getDatabaseProductName(context);
-                    if (DatabaseProduct.ORACLE == databaseProduct) {
-                        Statement stmt = null;
+                    // Give the connection pool a chance to provide a connection already bound to the schema
+                    affineProvider = getSchemaAffineConnectionProvider();
+                    if (affineProvider != null) {
+                        affineProvider.setRequestedSchema(schemaName);
                         try {
-                            stmt = session.connection().createStatement();
-                            stmt.execute("alter session set current_schema = " + escapedSchemaName);
+                            session.connection();
                         } finally {
+                            affineProvider.setRequestedSchema(null);
+                        }
+                        affineConnection = getRealConnection(session);
+                    }
+
+                    if (affineConnection == null || !affineProvider.isBoundToSchema(affineConnection, schemaName)) {
+                        String escapedSchemaName = escapeSchema(schemaName, context);
+
+                        DatabaseProduct databaseProduct = getDatabaseProductName(context);
+                        if (DatabaseProduct.ORACLE == databaseProduct) {
+                            Statement stmt = null;
                             try {
-                                if (stmt != null) {
-                                    stmt.close();
+                                stmt = session.connection().createStatement();
+                                stmt.execute("alter session set current_schema = " + escapedSchemaName);
+                            } finally {
+                                try {
+                                    if (stmt != null) {
+                                        stmt.close();
+                                    }
+                                } catch (Exception e) {
                                 }
-                            } catch (Exception e) {
                             }
-                        }
-                    } else if (DatabaseProduct.DERBY == databaseProduct || DatabaseProduct.HSQLDB == databaseProduct
-                        || DatabaseProduct.DB2 == databaseProduct) {
-                        Statement stmt = null;
-                        try {
-                            stmt = session.connection().createStatement();
-                            stmt.execute("SET SCHEMA " + escapedSchemaName);
-                        } finally {
+                        } else if (DatabaseProduct.DERBY == databaseProduct || DatabaseProduct.HSQLDB == databaseProduct
+                            || DatabaseProduct.DB2 == databaseProduct) {
+                            Statement stmt = null;
                             try {
-                                if (stmt != null) {
-                                    stmt.close();
+                                stmt = session.connection().createStatement();
+                                stmt.execute("SET SCHEMA " + escapedSchemaName);
+                            } finally {
+                                try {
+                                    if (stmt != null) {
+                                        stmt.close();
+                                    }
+                                } catch (Exception e) {
                                 }
-                            } catch (Exception e) {
+                            }
+                        } else {
+                            String catalog = session.connection().getCatalog();
+                            catalog = (catalog == null) ? null : catalog.replace('_', '-');
+                            if (!schemaName.equals(catalog)) {
+                                session.connection().setCatalog(schemaName);
                             }
                         }
-                    } else {
-                        String catalog = session.connection().getCatalog();
-                        catalog = (catalog == null) ? null : catalog.replace('_', '-');
-                        if (!schemaName.equals(catalog)) {
-                            session.connection().setCatalog(schemaName);
+
+                        if (affineConnection != null) {
+                            affineProvider.setBoundSchema(affineConnection, schemaName);
                         }
                     }
                     setCurrentDatabase(context, context.getDatabase());
                 }
             } catch (Exception e) {
+                // We don't know anymore which schema the connection is bound to
+                if (affineConnection != null) {
+                    affineProvider.setBoundSchema(affineConnection, null);
+                }
+
                 Object[] args = {context.getDatabase()};
                 throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
                     XWikiException.ERROR_XWIKI_STORE_HIBERNATE_SWITCH_DATABASE,
@@ -647,6 +724,22 @@ public void setDatabase(Session session, XWikiContext context) throws XWikiExcep
         }
     }
 
+    /**
+     * @return the connection provider if it keeps track of the schema each connection is bound to, null otherwise
+     */
+    private DBCPConnectionProvider getSchemaAffineConnectionProvider()
+    {
+        if (getSessionFactory() instanceof SessionFactoryImpl) {
+            ConnectionProvider provider = ((SessionFactoryImpl) getSessionFactory()).getConnectionProvider();
+            if (provider instanceof DBCPConnectionProvider
+                && ((DBCPConnectionProvider) provider).isSchemaAffinityEnabled()) {
+                return (DBCPConnectionProvider) provider;
+            }
+        }
+
+        return null;
+    }
+
     /**
      * Escape schema name depending of the database engine.
      * 
@@ -729,16 +822,42 @@ public boolean beginTransaction(SessionFactory sfactory, boolean withTransaction
         }
 
         if (session != null) {
-            if (log.isDebugEnabled()) {
-                log.debug("Taking session from context " + session);
-            }
-            if (log.isDebugEnabled()) {
-                log.debug("Taking transaction from context " + transaction);
+            if (withTransaction && context.containsKey(READ_SESSION_KEY)
+                && !context.containsKey(SUSPENDED_READ_SESSION_KEY)) {
+                // A write can't join a read only session since nothing would ever be flushed: put the read session
+                // aside and do the write in its own session, the read session is restored when the write ends
+                if (log.isDebugEnabled()) {
+                    log.debug("Suspending read only session " + session + " for a write");
+                }
+                context.put(SUSPENDED_READ_SESSION_KEY,
+                    new KeptReadSession(session, transaction, getCurrentDatabase(context)));
+                context.remove(READ_SESSION_KEY);
+                setSession(null, context);
+                setTransaction(null, context);
+                session = null;
+            } else {
+                if (log.isDebugEnabled()) {
+                    log.debug("Taking session from context " + session);
+                }
+                if (log.isDebugEnabled()) {
+                    log.debug("Taking transaction from context " + transaction);
+                }
+                return false;
             }
-            return false;
         }
 
         if (session == null) {
+            // Reads done in the same request reuse the same session, writes have their own
+            KeptReadSession keptReadSession = takeKeptReadSession();
+            if (keptReadSession != null) {
+                if (!withTransaction && isReusable(keptReadSession, sfactory)) {
+                    reuseReadSession(keptReadSession, context);
+
+                    return true;
+                }
+                closeReadSession(keptReadSession);
+            }
+
             if (log.isDebugEnabled()) {
                 log.debug("Trying to get session from pool");
             }
@@ -752,6 +871,16 @@ public boolean beginTransaction(SessionFactory sfactory, boolean withTransaction
                 log.debug("Taken session from pool " + session);
             }
 
+            if (!withTransaction) {
+                // Nothing to flush and no need to keep a snapshot of the loaded entities to detect modifications
+                session.setFlushMode(FlushMode.MANUAL);
+                session.setDefaultReadOnly(true);
+                context.put(READ_SESSION_KEY, Boolean.TRUE);
+            } else {
+                // The flag might have been left by the context this one has been cloned from
+                context.remove(READ_SESSION_KEY);
+            }
+
             if (log.isDebugEnabled()) {
                 addConnection(getRealConnection(session), context);
             }
@@ -771,6 +900,128 @@ public boolean beginTransaction(SessionFactory sfactory, boolean withTransaction
         return true;
     }
 
+    /**
+     * Allow the read only sessions opened while handling the current request to be kept open and reused for the next
+     * reads of the request instead of opening a new session for each read, if enabled in the configuration
+     * ({@code xwiki.store.hibernate.readsession.reuse}). Each read still has its own transaction so that no database
+     * connection is held between two reads. {@link #endRequest(XWikiContext)} must be called when the request is
+     * finished.
+     * 
+     * @param context the XWiki context of the request
+     * @since 3.2M1
+     */
+    public void startRequest(XWikiContext context)
+    {
+        if (context.getWiki() != null
+            && "1".equals(context.getWiki().Param("xwiki.store.hibernate.readsession.reuse", "0"))) {
+            this.readSessionReuse.set(Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Close the read only session kept for the current request, if any. Must be called by the thread which called
+     * {@link #startRequest(XWikiContext)}.
+     * 
+     * @param context the XWiki context of the request
+     * @since 3.2M1
+     */
+    public void endRequest(XWikiContext context)
+    {
+        this.readSessionReuse.remove();
+
+        KeptReadSession keptReadSession = takeKeptReadSession();
+        if (keptReadSession != null) {
+            closeReadSession(keptReadSession);
+        }
+    }
+
+    /**
+     * @return the read only session kept for the current thread, null if none, which is not kept anymore
+     */
+    private KeptReadSession takeKeptReadSession()
+    {
+        KeptReadSession keptReadSession = this.keptReadSession.get();
+        this.keptReadSession.remove();
+
+        return keptReadSession;
+    }
+
+    /**
+     * @param keptReadSession the read only session kept for the current thread
+     * @param sfactory the session factory of the session to begin, null for the default one
+     * @return true if the kept session can be used for the read to begin
+     */
+    private boolean isReusable(KeptReadSession keptReadSession, SessionFactory sfactory)
+    {
+        SessionFactory factory = sfactory != null ? sfactory : getSessionFactory();
+
+        return keptReadSession.session.isOpen()
+            && keptReadSession.session.getSessionFactory() == factory;
+    }
+
+    /**
+     * Make the kept read only session the current session and begin a new transaction.
+     * 
+     * @param keptReadSession the read only session kept for the current thread
+     * @param context the XWiki context
+     * @throws XWikiException when failing to switch the session to the current database
+     */
+    private void reuseReadSession(KeptReadSession keptReadSession, XWikiContext context) throws XWikiException
+    {
+        if (log.isDebugEnabled()) {
+            log.debug("Reusing read only session " + keptReadSession.session);
+        }
+
+        setSession(keptReadSession.session, context);
+        context.put(READ_SESSION_KEY, Boolean.TRUE);
+
+        // The connection has been given back to the pool at the end of the previous read so the new one has to be
+        // switched to the current database (the connection pool avoids it when the connection is already bound to it)
+        setDatabase(keptReadSession.session, context);
+
+        setTransaction(keptReadSession.session.beginTransaction(), context);
+    }
+
+    /**
+     * Make the read only session put aside by a write the current session again.
+     * 
+     * @param context the XWiki context
+     */
+    private void restoreSuspendedReadSession(XWikiContext context)
+    {
+        KeptReadSession suspendedReadSession = (KeptReadSession) context.remove(SUSPENDED_READ_SESSION_KEY);
+        if (suspendedReadSession != null) {
+            if (log.isDebugEnabled()) {
+                log.debug("Restoring read only session " + suspendedReadSession.session);
+            }
+
+            setSession(suspendedReadSession.session, context);
+            setTransaction(suspendedReadSession.transaction, context);
+            setCurrentDatabase(context, suspendedReadSession.database);
+            context.put(READ_SESSION_KEY, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * @param keptReadSession the read only session to close
+     */
+    private void closeReadSession(KeptReadSession keptReadSession)
+    {
+        try {
+            if (keptReadSession.transaction != null && keptReadSession.session.isOpen()) {
+                keptReadSession.transaction.rollback();
+            }
+        } catch (HibernateException e) {
+            log.warn("Failed to end read only transaction", e);
+        } finally {
+            try {
+                closeSession(keptReadSession.session);
+            } catch (HibernateException e) {
+                log.warn("Failed to close read only session", e);
+            }
+        }
+    }
+
     /**
      * Adding a connection to the Monitor module
      * 
@@ -853,12 +1104,33 @@ public void endTransaction(XWikiContext context, boolean commit)
     public void endTransaction(XWikiContext context, boolean commit, boolean withTransaction) throws HibernateException
     {
         Session session = null;
+        boolean readSession = false;
         try {
             session = getSession(context);
+            readSession = context.remove(READ_SESSION_KEY) != null;
             Transaction transaction = getTransaction(context);
             setSession(null, context);
             setTransaction(null, context);
 
+            if (readSession && session != null && Boolean.TRUE.equals(this.readSessionReuse.get())
+                && this.keptReadSession.get() == null) {
+                // End the read transaction right away so that the JDBC connection goes back to the pool (Hibernate
+                // releases it after each transaction by default) and keep only the session for the next read of the
+                // request, detaching what has been loaded so that the next reads don't get stale entities
+                try {
+                    if (transaction != null) {
+                        preCloseSession(session);
+                        transaction.rollback();
+                    }
+                } finally {
+                    session.clear();
+                    this.keptReadSession.set(new KeptReadSession(session, null, getCurrentDatabase(context)));
+                    session = null;
+                }
+
+                return;
+            }
+
             if (transaction != null) {
                 // We need to clean up our connection map first because the connection will
                 // be aggressively closed by hibernate 3.1 and more
@@ -878,7 +1150,14 @@ public void endTransaction(XWikiContext context, boolean commit, boolean withTra
             throw new HibernateException("Failed to commit or rollback transaction. Root cause ["
                 + getExceptionMessage(e) + "]", e);
         } finally {
-            closeSession(session);
+            try {
+                closeSession(session);
+            } finally {
+                if (!readSession) {
+                    // The write which suspended the read session is done
+                    restoreSuspendedReadSession(context);
+                }
+            }
         }
     }
 
@@ -974,7 +1253,14 @@ public void cleanUp(XWikiContext context)
                     log.warn("Cleanup of session was needed: " + session);
                 }
                 endTransaction(context, false);
+
+                // Ending a write restores the read session it suspended
+                if (getSession(context) != null) {
+                    endTransaction(context, false);
+                }
             }
+
+            endRequest(context);
         } catch (HibernateException e) {
         }
     }
@@ -1062,16 +1348,13 @@ protected String makeMapping(String entityName, String tableName, String customm
     public <T> T execute(XWikiContext context, boolean bTransaction, boolean doCommit, HibernateCallback<T> cb)
         throws XWikiException
     {
-        MonitorPlugin monitor = Util.getMonitorPlugin(context);
+        RequestTimings.Phase phase = doCommit ? RequestTimings.Phase.STORE_SAVE : RequestTimings.Phase.STORE_QUERY;
+        long timer = RequestTimings.start(phase);
         try {
-            // Start monitoring timer
-            if (monitor != null) {
-                monitor.startTimer("hibernate");
-            }
-
             if (bTransaction) {
                 checkHibernate(context);
-                bTransaction = beginTransaction(context);
+                // Don't commit means nothing to write so a read only session is enough
+                bTransaction = beginTransaction(null, doCommit, context);
             }
 
             if (context.getDatabase() != null && !context.getDatabase().equals(getCurrentDatabase(context))) {
@@ -1091,14 +1374,13 @@ public <T> T execute(XWikiContext context, boolean bTransaction, boolean doCommi
                 if (bTransaction) {
                     endTransaction(context, doCommit);
                 }
-                if (monitor != null) {
-                    monitor.endTimer("hibernate");
-                }
             } catch (Exception e) {
                 if (log.isErrorEnabled()) {
                     log.error("Exeption while close transaction", e);
                 }
             }
+
+            RequestTimings.end(phase, timer);
         }
     }
 
@@ -22,13 +22,18 @@
 import java.io.Serializable;
 import java.lang.reflect.Field;
 import java.sql.Connection;
+import java.sql.ResultSet;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -36,6 +41,8 @@
 import java.util.UUID;
 
 import javax.inject.Inject;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
 
 import org.apache.commons.lang.ArrayUtils;
 import org.apache.commons.lang.StringUtils;
@@ -45,12 +52,17 @@
 import org.hibernate.Query;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
 import org.hibernate.cfg.Configuration;
 import org.hibernate.cfg.Settings;
 import org.hibernate.connection.ConnectionProvider;
+import org.hibernate.dialect.Dialect;
 import org.hibernate.impl.SessionFactoryImpl;
+import org.hibernate.mapping.Column;
 import org.hibernate.mapping.PersistentClass;
 import org.hibernate.mapping.Property;
+import org.hibernate.mapping.RootClass;
+import org.hibernate.mapping.Table;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xwiki.component.annotation.Component;
@@ -70,10 +82,14 @@
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
 import com.xpn.xwiki.doc.XWikiAttachment;
+import com.xpn.xwiki.doc.XWikiAttachmentArchive;
+import com.xpn.xwiki.doc.XWikiAttachmentContent;
 import com.xpn.xwiki.doc.XWikiDocument;
 import com.xpn.xwiki.doc.XWikiLink;
 import com.xpn.xwiki.doc.XWikiLock;
-import com.xpn.xwiki.monitor.api.MonitorPlugin;
+import com.xpn.xwiki.doc.rcs.XWikiRCSNodeContent;
+import com.xpn.xwiki.doc.rcs.XWikiRCSNodeInfo;
+import com.xpn.xwiki.monitor.api.RequestTimings;
 import com.xpn.xwiki.objects.BaseCollection;
 import com.xpn.xwiki.objects.BaseElement;
 import com.xpn.xwiki.objects.BaseObject;
@@ -99,7 +115,6 @@
 import com.xpn.xwiki.objects.classes.TextAreaClass;
 import com.xpn.xwiki.render.XWikiRenderer;
 import com.xpn.xwiki.stats.impl.XWikiStats;
-import com.xpn.xwiki.util.Util;
 import com.xpn.xwiki.web.Utils;
 
 /**
@@ -112,6 +127,21 @@ public class XWikiHibernateStore extends XWikiHibernateBaseStore implements XWik
 {
     private static final Logger log = LoggerFactory.getLogger(XWikiHibernateStore.class);
 
+    /**
+     * The entities stored in the wiki database which are part of the documents.
+     */
+    private static final Set<String> DOCUMENT_ENTITIES = new HashSet<String>(Arrays.asList(
+        XWikiDocument.class.getName(), XWikiLink.class.getName(), XWikiAttachment.class.getName(),
+        XWikiAttachmentContent.class.getName(), XWikiAttachmentArchive.class.getName(),
+        XWikiRCSNodeInfo.class.getName(), XWikiRCSNodeContent.class.getName(), BaseObject.class.getName(),
+        BaseProperty.class.getName()));
+
+    /**
+     * The maximum number of object identifiers in the queries checking which of the modified objects and properties
+     * of a document already exist in the database.
+     */
+    private static final int EXISTENCE_QUERY_CHUNK_SIZE = 200;
+
     private Map<String, String[]> validTypesMap = new HashMap<String, String[]>();
 
     /**
@@ -382,6 +412,203 @@ public void deleteWiki(String wikiName, XWikiContext context) throws XWikiExcept
         }
     }
 
+    /**
+     * Copy the documents of a wiki, with their objects, attachments and history, into another wiki directly at the
+     * database level. This is a lot faster than copying the documents one by one but it bypasses everything the
+     * document save does (events, links extraction, etc.) so the caller is responsible for notifying that the
+     * content of the target wiki changed.
+     * <p>
+     * The result is the same as copying each document with
+     * {@link XWiki#copyDocument(DocumentReference, DocumentReference, String, boolean, XWikiContext)} without
+     * resetting the history: the documents keep their version and history and are marked as copied from the source
+     * wiki with a major edit. Copies resetting the history have to be done document by document.
+     * <p>
+     * The copy is only done when the database supports querying several wikis with the same connection and the
+     * target wiki doesn't contain any document, object, attachment or history yet. Otherwise nothing is done and false
+     * is returned.
+     * 
+     * @param sourceWiki the wiki to copy
+     * @param targetWiki the wiki where to copy the documents
+     * @param context the XWiki context
+     * @return true if the wiki has been copied, false if the copy is not supported
+     * @throws XWikiException when failing to copy the wiki, in which case nothing has been copied
+     * @since 3.2M1
+     */
+    public boolean copyWiki(String sourceWiki, String targetWiki, XWikiContext context) throws XWikiException
+    {
+        boolean bTransaction = true;
+        String database = context.getDatabase();
+        Statement stmt = null;
+        String sql = null;
+        try {
+            DatabaseProduct databaseProduct = getDatabaseProductName(context);
+            if (databaseProduct != DatabaseProduct.MYSQL && databaseProduct != DatabaseProduct.HSQLDB
+                && databaseProduct != DatabaseProduct.DERBY && databaseProduct != DatabaseProduct.ORACLE
+                && databaseProduct != DatabaseProduct.DB2) {
+                return false;
+            }
+
+            context.setDatabase(targetWiki);
+            bTransaction = beginTransaction(context);
+            Session session = getSession(context);
+            Connection connection = session.connection();
+            stmt = connection.createStatement();
+
+            Dialect dialect = Dialect.getDialect(getConfiguration().getProperties());
+            String sourceSchema = escapeSchema(getSchemaFromWikiName(sourceWiki, context), context) + '.';
+            String targetSchema = escapeSchema(getSchemaFromWikiName(targetWiki, context), context) + '.';
+
+            List<Table> tables = getDocumentTables();
+
+            // Don't mix the copied rows with existing ones
+            for (Table table : tables) {
+                sql = "select count(*) from " + targetSchema + table.getQuotedName(dialect);
+                ResultSet result = stmt.executeQuery(sql);
+                boolean empty = result.next() && result.getLong(1) == 0;
+                result.close();
+                if (!empty) {
+                    return false;
+                }
+            }
+
+            for (Table table : tables) {
+                StringBuilder columns = new StringBuilder();
+                for (Iterator< ? > it = table.getColumnIterator(); it.hasNext();) {
+                    if (columns.length() > 0) {
+                        columns.append(',');
+                    }
+                    columns.append(((Column) it.next()).getQuotedName(dialect));
+                }
+
+                String tableName = table.getQuotedName(dialect);
+                sql = "insert into " + targetSchema + tableName + " (" + columns + ") select " + columns + " from "
+                    + sourceSchema + tableName;
+                int count = stmt.executeUpdate(sql);
+
+                if (log.isDebugEnabled()) {
+                    log.debug("Copied " + count + " rows of table [" + tableName + "] from wiki [" + sourceWiki
+                        + "] to wiki [" + targetWiki + "]");
+                }
+            }
+            sql = null;
+
+            markCopiedDocuments(sourceWiki, session);
+
+            endTransaction(context, true);
+            bTransaction = false;
+
+            return true;
+        } catch (Exception e) {
+            Object[] args = {sourceWiki, targetWiki, sql};
+            throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
+                XWikiException.ERROR_XWIKI_STORE_HIBERNATE_COPY_DATABASE,
+                "Exception while copying wiki database {0} to {1} (query [{2}])", e, args);
+        } finally {
+            context.setDatabase(database);
+            try {
+                if (stmt != null) {
+                    stmt.close();
+                }
+            } catch (Exception e) {
+            }
+            try {
+                if (bTransaction) {
+                    endTransaction(context, false);
+                }
+            } catch (Exception e) {
+            }
+        }
+    }
+
+    /**
+     * Set the comment and minor edit flag of the copied documents as the document by document copy saves them.
+     * 
+     * @param sourceWiki the wiki the documents have been copied from
+     * @param session the session of the target wiki
+     */
+    void markCopiedDocuments(String sourceWiki, Session session)
+    {
+        String prefix = getCopyComment(new WikiReference(sourceWiki)) + ':';
+
+        Query query = session.createQuery("update XWikiDocument set comment = concat(:prefix, fullName), "
+            + "minorEdit1 = :minorEdit");
+        query.setString("prefix", prefix);
+        query.setBoolean("minorEdit", false);
+        query.executeUpdate();
+
+        // The serialized reference is not the full name when the names contain characters which need to be escaped
+        query = session.createQuery("select distinct doc.space, doc.name from XWikiDocument as doc");
+        @SuppressWarnings("unchecked")
+        List<Object[]> documentNames = query.list();
+        for (Object[] names : documentNames) {
+            String space = (String) names[0];
+            String name = (String) names[1];
+            String comment = getCopyComment(new DocumentReference(sourceWiki, space, name));
+            if (!comment.equals(prefix + space + '.' + name)) {
+                Query update = session.createQuery("update XWikiDocument set comment = :comment "
+                    + "where space = :space and name = :name");
+                update.setString("comment", comment);
+                update.setString("space", space);
+                update.setString("name", name);
+                update.executeUpdate();
+            }
+        }
+    }
+
+    /**
+     * @param sourceReference the reference of the copied entity
+     * @return the comment of the documents copied from the provided entity, as set by
+     *         {@link XWiki#copyDocument(DocumentReference, DocumentReference, String, boolean, XWikiContext)}
+     */
+    private String getCopyComment(EntityReference sourceReference)
+    {
+        return "Copied from " + this.defaultEntityReferenceSerializer.serialize(sourceReference);
+    }
+
+    /**
+     * @return the tables containing the documents, objects, attachments and history, starting with the documents
+     *         table, and ordered so that a table always comes after the tables it references
+     */
+    private List<Table> getDocumentTables()
+    {
+        Set<Table> rootTables = new LinkedHashSet<Table>();
+        Set<Table> subclassTables = new LinkedHashSet<Table>();
+        Set<String> entities = new HashSet<String>();
+
+        rootTables.add(getConfiguration().getClassMapping(XWikiDocument.class.getName()).getTable());
+
+        for (Iterator< ? > it = getConfiguration().getClassMappings(); it.hasNext();) {
+            PersistentClass mapping = (PersistentClass) it.next();
+            String rootEntity = mapping.getRootClass().getEntityName();
+            // Classes with a custom mapping don't have a Java class
+            if (DOCUMENT_ENTITIES.contains(rootEntity) || mapping.getRootClass().getClassName() == null) {
+                entities.add(mapping.getEntityName());
+                if (mapping instanceof RootClass) {
+                    rootTables.add(mapping.getTable());
+                } else {
+                    subclassTables.add(mapping.getTable());
+                }
+            }
+        }
+
+        Set<Table> collectionTables = new LinkedHashSet<Table>();
+        for (Iterator< ? > it = getConfiguration().getCollectionMappings(); it.hasNext();) {
+            org.hibernate.mapping.Collection mapping = (org.hibernate.mapping.Collection) it.next();
+            if (entities.contains(mapping.getOwnerEntityName())) {
+                collectionTables.add(mapping.getCollectionTable());
+            }
+        }
+
+        List<Table> tables = new ArrayList<Table>(rootTables);
+        subclassTables.removeAll(rootTables);
+        tables.addAll(subclassTables);
+        collectionTables.removeAll(rootTables);
+        collectionTables.removeAll(subclassTables);
+        tables.addAll(collectionTables);
+
+        return tables;
+    }
+
     /**
      * Verifies if a wiki document exists
      * 
@@ -393,25 +620,17 @@ public void deleteWiki(String wikiName, XWikiContext context) throws XWikiExcept
     public boolean exists(XWikiDocument doc, XWikiContext context) throws XWikiException
     {
         boolean bTransaction = true;
-        MonitorPlugin monitor = Util.getMonitorPlugin(context);
+        long timer = RequestTimings.start(RequestTimings.Phase.STORE_QUERY);
         try {
 
             doc.setStore(this);
             checkHibernate(context);
 
-            // Start monitoring timer
-            if (monitor != null) {
-                monitor.startTimer("hibernate");
-            }
-
             bTransaction = bTransaction && beginTransaction(false, context);
             Session session = getSession(context);
             String fullName = doc.getFullName();
 
             String sql = "select doc.fullName from XWikiDocument as doc where doc.fullName=:fullName";
-            if (monitor != null) {
-                monitor.setTimerDesc("hibernate", sql);
-            }
             Query query = session.createQuery(sql);
             query.setString("fullName", fullName);
             Iterator<String> it = query.list().iterator();
@@ -427,10 +646,7 @@ public boolean exists(XWikiDocument doc, XWikiContext context) throws XWikiExcep
                 XWikiException.ERROR_XWIKI_STORE_HIBERNATE_CHECK_EXISTS_DOC, "Exception while reading document {0}", e,
                 args);
         } finally {
-            // End monitoring timer
-            if (monitor != null) {
-                monitor.endTimer("hibernate");
-            }
+            RequestTimings.end(RequestTimings.Phase.STORE_QUERY, timer);
 
             try {
                 if (bTransaction) {
@@ -443,12 +659,8 @@ public boolean exists(XWikiDocument doc, XWikiContext context) throws XWikiExcep
 
     public void saveXWikiDoc(XWikiDocument doc, XWikiContext context, boolean bTransaction) throws XWikiException
     {
-        MonitorPlugin monitor = Util.getMonitorPlugin(context);
+        long timer = RequestTimings.start(RequestTimings.Phase.STORE_SAVE);
         try {
-            // Start monitoring timer
-            if (monitor != null) {
-                monitor.startTimer("hibernate");
-            }
             doc.setStore(this);
             // Make sure the database name is stored
             doc.getDocumentReference().setWikiReference(new WikiReference(context.getDatabase()));
@@ -661,26 +873,21 @@ else if (prop instanceof NumberClass) {
 
             if (doc.hasElement(XWikiDocument.HAS_OBJECTS)) {
                 // TODO: Delete all objects for which we don't have a name in the Map
-                for (List<BaseObject> objects : doc.getXObjects().values()) {
-                    for (BaseObject obj : objects) {
-                        if (obj != null) {
-                            obj.setDocumentReference(doc.getDocumentReference());
-                            /* If the object doesn't have a GUID, create it before saving */
-                            if (StringUtils.isEmpty(obj.getGuid())) {
-                                obj.setGuid(UUID.randomUUID().toString());
-                            }
-                            saveXWikiCollection(obj, context, false);
-                        }
-                    }
-                }
+                saveXWikiObjects(doc, session, context);
             }
 
-            if (context.getWiki().hasBacklinks(context)) {
+            if (context.getWiki().hasBacklinks(context) && !isLinksUnchanged(doc)) {
                 saveLinks(doc, context, true);
             }
 
             if (bTransaction) {
                 endTransaction(context, true);
+
+                // The objects are now in sync with the database
+                setObjectsClean(doc);
+            } else {
+                // The save is part of a transaction started by the caller which can still be rolled back
+                setObjectsCleanOnCommit(doc, context);
             }
 
             doc.setNew(false);
@@ -700,10 +907,7 @@ else if (prop instanceof NumberClass) {
             } catch (Exception e) {
             }
 
-            // End monitoring timer
-            if (monitor != null) {
-                monitor.endTimer("hibernate");
-            }
+            RequestTimings.end(RequestTimings.Phase.STORE_SAVE, timer);
         }
     }
 
@@ -712,16 +916,230 @@ public void saveXWikiDoc(XWikiDocument doc, XWikiContext context) throws XWikiEx
         saveXWikiDoc(doc, context, true);
     }
 
+    /**
+     * Save the objects of a document. Only the objects and properties which have been modified since they were loaded
+     * or last saved are written. Instead of checking whether each object and each property already exists in the
+     * database, this is done with one query for the objects and one query for the properties of up to
+     * {@link #EXISTENCE_QUERY_CHUNK_SIZE} modified objects. Since the session is flushed on commit, the resulting
+     * statements are sent to the database in JDBC batches when {@code hibernate.jdbc.batch_size} is set.
+     * 
+     * @param doc the document whose objects to save
+     * @param session the current session
+     * @param context the XWiki context
+     * @throws XWikiException if an object has an invalid property
+     */
+    private void saveXWikiObjects(XWikiDocument doc, Session session, XWikiContext context) throws XWikiException
+    {
+        List<BaseObject> dirtyObjects = new ArrayList<BaseObject>();
+        for (List<BaseObject> objects : doc.getXObjects().values()) {
+            for (BaseObject obj : objects) {
+                if (obj != null) {
+                    obj.setDocumentReference(doc.getDocumentReference());
+                    /* If the object doesn't have a GUID, create it before saving */
+                    if (StringUtils.isEmpty(obj.getGuid())) {
+                        obj.setGuid(UUID.randomUUID().toString());
+                    }
+                    if (isDirty(obj)) {
+                        dirtyObjects.add(obj);
+                    }
+                }
+            }
+        }
+
+        if (dirtyObjects.isEmpty()) {
+            return;
+        }
+
+        // Find which of the modified objects and properties already exist in the database
+        Set<Integer> existingObjects = new HashSet<Integer>();
+        Map<Integer, Set<String>> existingProperties = new HashMap<Integer, Set<String>>();
+        for (int i = 0; i < dirtyObjects.size(); i += EXISTENCE_QUERY_CHUNK_SIZE) {
+            List<Integer> ids = new ArrayList<Integer>();
+            for (BaseObject obj : dirtyObjects.subList(i,
+                Math.min(i + EXISTENCE_QUERY_CHUNK_SIZE, dirtyObjects.size()))) {
+                ids.add(obj.getId());
+            }
+
+            Query query = session.createQuery("select obj.id from BaseObject as obj where obj.id in (:ids)");
+            query.setParameterList("ids", ids);
+            existingObjects.addAll((List<Integer>) query.list());
+
+            query = session.createQuery("select prop.id.id, prop.id.name from BaseProperty as prop "
+                + "where prop.id.id in (:ids)");
+            query.setParameterList("ids", ids);
+            for (Object[] result : (List<Object[]>) query.list()) {
+                Set<String> names = existingProperties.get(result[0]);
+                if (names == null) {
+                    names = new HashSet<String>();
+                    existingProperties.put((Integer) result[0], names);
+                }
+                names.add((String) result[1]);
+            }
+        }
+
+        for (BaseObject obj : dirtyObjects) {
+            Set<String> objectProperties = existingProperties.get(obj.getId());
+            if (objectProperties == null) {
+                objectProperties = Collections.emptySet();
+            }
+
+            saveXWikiObject(obj, existingObjects.contains(obj.getId()), objectProperties, session, context);
+        }
+    }
+
+    /**
+     * Save the modified parts of an object.
+     * 
+     * @param object the object to save
+     * @param exists true if the object already exists in the database
+     * @param existingProperties the names of the properties of the object which already exist in the database
+     * @param session the current session
+     * @param context the XWiki context
+     * @throws XWikiException if the object has an invalid property or if the custom mapping fails
+     */
+    private void saveXWikiObject(BaseObject object, boolean exists, Set<String> existingProperties, Session session,
+        XWikiContext context) throws XWikiException
+    {
+        if (!exists) {
+            session.save(BaseObject.class.getName(), object);
+        } else if (object.isDirty()) {
+            session.update(BaseObject.class.getName(), object);
+        }
+
+        BaseClass bclass = object.getXClass(context);
+        List<String> handledProps = new ArrayList<String>();
+        if ((bclass != null) && (bclass.hasCustomMapping()) && context.getWiki().hasCustomMappings()) {
+            // save object using the custom mapping
+            Map<String, Object> objmap = object.getCustomMappingMap();
+            handledProps = bclass.getCustomMappingPropertyList(context);
+            Session dynamicSession = session.getSession(EntityMode.MAP);
+            Query query =
+                session.createQuery("select obj.id from " + bclass.getName() + " as obj where obj.id = :id");
+            query.setInteger("id", object.getId());
+            if (query.uniqueResult() == null) {
+                dynamicSession.save(bclass.getName(), objmap);
+            } else {
+                dynamicSession.update(bclass.getName(), objmap);
+            }
+        }
+
+        if (object.getXClassReference() != null) {
+            // Remove all existing properties
+            if (object.getFieldsToRemove().size() > 0) {
+                for (int i = 0; i < object.getFieldsToRemove().size(); i++) {
+                    BaseProperty prop = (BaseProperty) object.getFieldsToRemove().get(i);
+                    if (!handledProps.contains(prop.getName())) {
+                        session.delete(prop);
+                    }
+                }
+                object.setFieldsToRemove(new ArrayList<BaseProperty>());
+            }
+
+            for (String key : object.getPropertyList()) {
+                BaseProperty prop = (BaseProperty) object.getField(key);
+                if (!prop.getName().equals(key)) {
+                    Object[] args = {key, object.getName()};
+                    throw new XWikiException(XWikiException.MODULE_XWIKI_CLASSES,
+                        XWikiException.ERROR_XWIKI_CLASSES_FIELD_INVALID,
+                        "Field {0} in object {1} has an invalid name", null, args);
+                }
+
+                String pname = prop.getName();
+                if (pname != null && !pname.trim().equals("") && !handledProps.contains(pname)) {
+                    if (!existingProperties.contains(pname)) {
+                        session.save(prop);
+                    } else if (prop.isDirty()) {
+                        session.update(prop);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @param object an object
+     * @return true if the object or one of its properties has been modified since it was loaded or last saved
+     */
+    private boolean isDirty(BaseCollection object)
+    {
+        if (object.isDirty() || !object.getFieldsToRemove().isEmpty()) {
+            return true;
+        }
+
+        for (Object field : object.getFieldList()) {
+            if (((BaseProperty) field).isDirty()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Indicate that the objects of a document and their properties are in sync with the database.
+     * 
+     * @param doc the document which has just been saved
+     */
+    private void setObjectsClean(XWikiDocument doc)
+    {
+        if (doc.hasElement(XWikiDocument.HAS_OBJECTS)) {
+            for (List<BaseObject> objects : doc.getXObjects().values()) {
+                for (BaseObject obj : objects) {
+                    if (obj != null) {
+                        setClean(obj);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Indicate that the objects of a document and their properties are in sync with the database once the current
+     * transaction is committed. If it's rolled back they stay modified so that the next save writes them.
+     * 
+     * @param doc the document which has just been saved in the current transaction
+     * @param context the XWiki context
+     */
+    private void setObjectsCleanOnCommit(final XWikiDocument doc, XWikiContext context)
+    {
+        Transaction transaction = getTransaction(context);
+        if (transaction != null && doc.hasElement(XWikiDocument.HAS_OBJECTS)) {
+            transaction.registerSynchronization(new Synchronization()
+            {
+                public void beforeCompletion()
+                {
+                    // Nothing to do before the commit
+                }
+
+                public void afterCompletion(int status)
+                {
+                    if (status == Status.STATUS_COMMITTED) {
+                        setObjectsClean(doc);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Indicate that an object and its properties are in sync with the database.
+     * 
+     * @param object the object which has just been loaded or saved
+     */
+    private void setClean(BaseCollection object)
+    {
+        object.setDirty(false);
+        for (Object field : object.getFieldList()) {
+            ((BaseProperty) field).setDirty(false);
+        }
+    }
+
     public XWikiDocument loadXWikiDoc(XWikiDocument doc, XWikiContext context) throws XWikiException
     {
         // To change body of implemented methods use Options | File Templates.
         boolean bTransaction = true;
-        MonitorPlugin monitor = Util.getMonitorPlugin(context);
+        long timer = RequestTimings.start(RequestTimings.Phase.STORE_LOAD);
         try {
-            // Start monitoring timer
-            if (monitor != null) {
-                monitor.startTimer("hibernate");
-            }
             doc.setStore(this);
             checkHibernate(context);
 
@@ -811,6 +1229,8 @@ public XWikiDocument loadXWikiDoc(XWikiDocument doc, XWikiContext context) throw
                         loadXWikiCollection(object, doc, context, false, true);
                     }
                     doc.setXObject(object.getNumber(), object);
+                    // The loaded properties have been marked as clean by loadXWikiCollection
+                    object.setDirty(false);
                 }
 
                 // AFAICT this was added as an emergency patch because loading of objects has proven
@@ -834,6 +1254,7 @@ public XWikiDocument loadXWikiDoc(XWikiDocument doc, XWikiContext context) throw
                         obj.setNumber(number.intValue());
                         obj.setStringValue("member", member);
                         doc.setXObject(obj.getNumber(), obj);
+                        setClean(obj);
                     }
                 }
             }
@@ -857,10 +1278,7 @@ public XWikiDocument loadXWikiDoc(XWikiDocument doc, XWikiContext context) throw
             } catch (Exception e) {
             }
 
-            // End monitoring timer
-            if (monitor != null) {
-                monitor.endTimer("hibernate");
-            }
+            RequestTimings.end(RequestTimings.Phase.STORE_LOAD, timer);
         }
 
         log.debug("Loaded XWikiDocument: " + doc.getDocumentReference());
@@ -871,12 +1289,8 @@ public XWikiDocument loadXWikiDoc(XWikiDocument doc, XWikiContext context) throw
     public void deleteXWikiDoc(XWikiDocument doc, XWikiContext context) throws XWikiException
     {
         boolean bTransaction = true;
-        MonitorPlugin monitor = Util.getMonitorPlugin(context);
+        long timer = RequestTimings.start(RequestTimings.Phase.STORE_DELETE);
         try {
-            // Start monitoring timer
-            if (monitor != null) {
-                monitor.startTimer("hibernate");
-            }
             checkHibernate(context);
             SessionFactory sfactory = injectCustomMappingsInSessionFactory(doc, context);
             bTransaction = bTransaction && beginTransaction(sfactory, context);
@@ -940,10 +1354,7 @@ public void deleteXWikiDoc(XWikiDocument doc, XWikiContext context) throws XWiki
             } catch (Exception e) {
             }
 
-            // End monitoring timer
-            if (monitor != null) {
-                monitor.endTimer("hibernate");
-            }
+            RequestTimings.end(RequestTimings.Phase.STORE_DELETE, timer);
         }
     }
 
@@ -1179,6 +1590,7 @@ public void loadXWikiCollection(BaseCollection object1, XWikiDocument doc, XWiki
                         property.setObject(object);
                         property.setName(name);
                         loadXWikiProperty(property, context, false);
+                        property.setDirty(false);
                     } catch (Exception e) {
                         // WORKAROUND IN CASE OF MIXMATCH BETWEEN STRING AND LARGESTRING
                         try {
@@ -1804,21 +2216,50 @@ public void saveLinks(XWikiDocument doc, XWikiContext context, boolean bTransact
             }
             Session session = getSession(context);
 
-            // need to delete existing links before saving the page's one
-            deleteLinks(doc.getId(), context, bTransaction);
-
             // necessary to blank links from doc
             context.remove("links");
 
+            Map<String, XWikiLink> links = new LinkedHashMap<String, XWikiLink>();
             if (doc.getSyntax().equals(Syntax.XWIKI_1_0)) {
-                saveLinks10(doc, context, session);
+                String fullName = doc.getFullName();
+                for (String reference : getLinks10(doc, context)) {
+                    // XWikiLink is the object declared in the Hibernate mapping
+                    XWikiLink link = new XWikiLink();
+                    link.setDocId(doc.getId());
+                    link.setFullName(fullName);
+                    link.setLink(reference);
+
+                    links.put(reference, link);
+                }
             } else {
                 // When not in 1.0 content get WikiLinks directly from XDOM
-                Set<XWikiLink> links = doc.getUniqueWikiLinkedPages(context);
-                for (XWikiLink wikiLink : links) {
-                    session.save(wikiLink);
+                for (XWikiLink wikiLink : doc.getUniqueWikiLinkedPages(context)) {
+                    links.put(wikiLink.getLink(), wikiLink);
                 }
             }
+
+            // Only apply the differences with the stored links instead of deleting and inserting all of them again
+            Query query = session.createQuery("select link.id.link from XWikiLink as link where link.id.docId = :docId");
+            query.setLong("docId", doc.getId());
+            List<String> removedLinks = new ArrayList<String>();
+            for (String storedLink : (List<String>) query.list()) {
+                if (links.remove(storedLink) == null) {
+                    removedLinks.add(storedLink);
+                }
+            }
+
+            for (int i = 0; i < removedLinks.size(); i += EXISTENCE_QUERY_CHUNK_SIZE) {
+                query = session.createQuery("delete from XWikiLink as link where link.id.docId = :docId "
+                    + "and link.id.link in (:links)");
+                query.setLong("docId", doc.getId());
+                query.setParameterList("links",
+                    removedLinks.subList(i, Math.min(i + EXISTENCE_QUERY_CHUNK_SIZE, removedLinks.size())));
+                query.executeUpdate();
+            }
+
+            for (XWikiLink link : links.values()) {
+                session.save(link);
+            }
         } catch (Exception e) {
             throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
                 XWikiException.ERROR_XWIKI_STORE_HIBERNATE_SAVING_LINKS, "Exception while saving links", e);
@@ -1832,7 +2273,27 @@ public void saveLinks(XWikiDocument doc, XWikiContext context, boolean bTransact
         }
     }
 
-    private void saveLinks10(XWikiDocument doc, XWikiContext context, Session session) throws XWikiException
+    /**
+     * The links of a document in a 2.x syntax are extracted from its content only, so they can only have changed if
+     * the content has changed. The links of a 1.0 document are collected by rendering it, which depends on more than
+     * its content (included documents, scripts, etc.), so they are always recomputed.
+     * 
+     * @param doc the document being saved
+     * @return true if the document is not in 1.0 syntax, already exists and its identifier, content and syntax are the
+     *         same as the ones of the document which has been loaded
+     */
+    boolean isLinksUnchanged(XWikiDocument doc)
+    {
+        XWikiDocument originalDocument = doc.getOriginalDocument();
+
+        return originalDocument != null && !originalDocument.isNew() && !doc.getSyntax().equals(Syntax.XWIKI_1_0)
+            && originalDocument.getDocumentReference().equals(doc.getDocumentReference())
+            && originalDocument.getId() == doc.getId()
+            && originalDocument.getSyntax().equals(doc.getSyntax())
+            && StringUtils.equals(originalDocument.getContent(), doc.getContent());
+    }
+
+    private Set<String> getLinks10(XWikiDocument doc, XWikiContext context)
     {
         // call to RenderEngine and converting the list of links into a list of backlinks
         // Note: We need to set the passed document as the current document as the "wiki"
@@ -1863,17 +2324,7 @@ private void saveLinks10(XWikiDocument doc, XWikiContext context, Session sessio
             econtext.setProperty("xwikicontext", context);
         }
 
-        if (links != null) {
-            for (String reference : links) {
-                // XWikiLink is the object declared in the Hibernate mapping
-                XWikiLink link = new XWikiLink();
-                link.setDocId(doc.getId());
-                link.setFullName(doc.getFullName());
-                link.setLink(reference);
-
-                session.save(link);
-            }
-        }
+        return links != null ? new LinkedHashSet<String>(links) : new LinkedHashSet<String>();
     }
 
     public void deleteLinks(long docId, XWikiContext context, boolean bTransaction) throws XWikiException
@@ -2123,12 +2574,8 @@ public <T> List<T> search(String sql, int nb, int start, Object[][] whereParams,
             return null;
         }
 
-        MonitorPlugin monitor = Util.getMonitorPlugin(context);
+        long timer = RequestTimings.start(RequestTimings.Phase.STORE_QUERY);
         try {
-            // Start monitoring timer
-            if (monitor != null) {
-                monitor.startTimer("hibernate");
-            }
             checkHibernate(context);
             bTransaction = beginTransaction(false, context);
             Session session = getSession(context);
@@ -2171,10 +2618,7 @@ public <T> List<T> search(String sql, int nb, int start, Object[][] whereParams,
             } catch (Exception e) {
             }
 
-            // End monitoring timer
-            if (monitor != null) {
-                monitor.endTimer("hibernate");
-            }
+            RequestTimings.end(RequestTimings.Phase.STORE_QUERY, timer);
         }
     }
 
@@ -2214,12 +2658,8 @@ public List search(Query query, int nb, int start, XWikiContext context) throws
             return null;
         }
 
-        MonitorPlugin monitor = Util.getMonitorPlugin(context);
+        long timer = RequestTimings.start(RequestTimings.Phase.STORE_QUERY);
         try {
-            // Start monitoring timer
-            if (monitor != null) {
-                monitor.startTimer("hibernate", query.getQueryString());
-            }
             checkHibernate(context);
             bTransaction = beginTransaction(false, context);
             if (start != 0) {
@@ -2252,10 +2692,7 @@ public List search(Query query, int nb, int start, XWikiContext context) throws
             } catch (Exception e) {
             }
 
-            // End monitoring timer
-            if (monitor != null) {
-                monitor.endTimer("hibernate");
-            }
+            RequestTimings.end(RequestTimings.Phase.STORE_QUERY, timer);
         }
     }
 
@@ -2322,12 +2759,8 @@ private List<Object[]> searchGenericInternal(String sql, int nb, int start, List
         XWikiContext context) throws XWikiException
     {
         boolean bTransaction = false;
-        MonitorPlugin monitor = Util.getMonitorPlugin(context);
+        long timer = RequestTimings.start(RequestTimings.Phase.STORE_QUERY);
         try {
-            // Start monitoring timer
-            if (monitor != null) {
-                monitor.startTimer("hibernate", sql);
-            }
 
             checkHibernate(context);
             bTransaction = beginTransaction(false, context);
@@ -2360,10 +2793,7 @@ private List<Object[]> searchGenericInternal(String sql, int nb, int start, List
             } catch (Exception e) {
             }
 
-            // End monitoring timer
-            if (monitor != null) {
-                monitor.endTimer("hibernate");
-            }
+            RequestTimings.end(RequestTimings.Phase.STORE_QUERY, timer);
         }
     }
 
@@ -2391,7 +2821,7 @@ public List<XWikiDocument> searchDocuments(String wheresql, boolean distinctbyla
         // Search documents
         List<Object[]> documentDatas = new ArrayList<Object[]>();
         boolean bTransaction = true;
-        MonitorPlugin monitor = Util.getMonitorPlugin(context);
+        long timer = RequestTimings.start(RequestTimings.Phase.STORE_QUERY);
         try {
             String sql;
             if (distinctbylanguage) {
@@ -2400,11 +2830,6 @@ public List<XWikiDocument> searchDocuments(String wheresql, boolean distinctbyla
                 sql = createSQLQuery("select distinct doc.space, doc.name", wheresql);
             }
 
-            // Start monitoring timer
-            if (monitor != null) {
-                monitor.startTimer("hibernate", sql);
-            }
-
             checkHibernate(context);
             if (bTransaction) {
                 // Inject everything until we know what's needed
@@ -2440,10 +2865,7 @@ public List<XWikiDocument> searchDocuments(String wheresql, boolean distinctbyla
             } catch (Exception e) {
             }
 
-            // End monitoring timer
-            if (monitor != null) {
-                monitor.endTimer("hibernate");
-            }
+            RequestTimings.end(RequestTimings.Phase.STORE_QUERY, timer);
         }
 
         // Resolve documents. We use two separated sessions because rights service could need to switch database to
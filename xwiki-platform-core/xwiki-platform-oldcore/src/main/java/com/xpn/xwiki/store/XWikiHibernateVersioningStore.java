@@ -19,6 +19,7 @@
  */
 package com.xpn.xwiki.store;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
@@ -28,6 +29,7 @@
 import org.apache.commons.logging.LogFactory;
 import org.hibernate.HibernateException;
 import org.hibernate.Session;
+import org.hibernate.criterion.Disjunction;
 import org.hibernate.criterion.Restrictions;
 import org.suigeneris.jrcs.rcs.Version;
 import org.xwiki.component.annotation.Component;
@@ -55,6 +57,12 @@ public class XWikiHibernateVersioningStore extends XWikiHibernateBaseStore imple
     /** Colon symbol. */
     private static final String COLON = ":";
 
+    /**
+     * The maximum number of versions matched by each query loading several node contents of a document, in order to
+     * keep the size of the generated statement reasonable.
+     */
+    private static final int NODE_CONTENTS_QUERY_CHUNK_SIZE = 200;
+
     /**
      * This allows to initialize our storage engine. The hibernate config file path is taken from xwiki.cfg or directly
      * in the WEB-INF directory.
@@ -312,6 +320,36 @@ public XWikiRCSNodeContent doInHibernate(Session session) throws HibernateExcept
         });
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public List<XWikiRCSNodeContent> loadRCSNodeContents(final List<XWikiRCSNodeId> ids, boolean bTransaction,
+        XWikiContext context) throws XWikiException
+    {
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return executeRead(context, bTransaction, new HibernateCallback<List<XWikiRCSNodeContent>>()
+        {
+            @SuppressWarnings("unchecked")
+            public List<XWikiRCSNodeContent> doInHibernate(Session session) throws HibernateException
+            {
+                List<XWikiRCSNodeContent> contents = new ArrayList<XWikiRCSNodeContent>(ids.size());
+                for (int i = 0; i < ids.size(); i += NODE_CONTENTS_QUERY_CHUNK_SIZE) {
+                    // Composite ids can't be used in an "in" restriction on all databases so match each version.
+                    Disjunction versions = Restrictions.disjunction();
+                    for (XWikiRCSNodeId id : ids.subList(i, Math.min(i + NODE_CONTENTS_QUERY_CHUNK_SIZE, ids.size()))) {
+                        versions.add(Restrictions.and(Restrictions.eq("id.version1", id.getVersion().at(0)),
+                            Restrictions.eq("id.version2", id.getVersion().at(1))));
+                    }
+                    contents.addAll(session.createCriteria(XWikiRCSNodeContent.class)
+                        .add(Restrictions.eq("id.docId", Long.valueOf(ids.get(0).getDocId()))).add(versions).list());
+                }
+                return contents;
+            }
+        });
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -19,6 +19,8 @@
  */
 package com.xpn.xwiki.store;
 
+import java.util.List;
+
 import org.suigeneris.jrcs.rcs.Version;
 import org.xwiki.component.annotation.ComponentRole;
 
@@ -69,4 +71,15 @@ void saveXWikiDocArchive(XWikiDocumentArchive archivedoc, boolean bTransaction,
      */
     XWikiRCSNodeContent loadRCSNodeContent(XWikiRCSNodeId id, boolean bTransaction, XWikiContext context)
         throws XWikiException;
+
+    /**
+     * Load several {@link XWikiRCSNodeContent} of the same document at once. Used when restoring a version requires
+     * applying several patches, in order not to query the store once per patch.
+     * 
+     * @return the loaded rcs node contents, in no particular order, missing nodes are skipped
+     * @param ids = {@link XWikiRCSNodeContent#getId()} of the contents to load, all with the same document id
+     * @since 3.2M1
+     */
+    List<XWikiRCSNodeContent> loadRCSNodeContents(List<XWikiRCSNodeId> ids, boolean bTransaction,
+        XWikiContext context) throws XWikiException;
 }
@@ -310,137 +310,146 @@ protected Principal ldapAuthenticateInContext(String ldapUid, String validXWikiU
         // 2. bind to LDAP => if failed try db
         // ////////////////////////////////////////////////////////////////////
 
-        if (!connector.open(ldapUid, password, context)) {
-            throw new XWikiException(XWikiException.MODULE_XWIKI_USER, XWikiException.ERROR_XWIKI_USER_INIT,
-                "Bind to LDAP server failed.");
-        }
+        try {
+            if (!connector.open(ldapUid, password, context)) {
+                throw new XWikiException(XWikiException.MODULE_XWIKI_USER, XWikiException.ERROR_XWIKI_USER_INIT,
+                    "Bind to LDAP server failed.");
+            }
 
-        // ////////////////////////////////////////////////////////////////////
-        // 3. find XWiki user profile page
-        // ////////////////////////////////////////////////////////////////////
+            // ////////////////////////////////////////////////////////////////////
+            // 3. find XWiki user profile page
+            // ////////////////////////////////////////////////////////////////////
 
-        XWikiDocument userProfile = ldapUtils.getUserProfileByUid(validXWikiUserName, ldapUid, context);
+            XWikiDocument userProfile = ldapUtils.getUserProfileByUid(validXWikiUserName, ldapUid, context);
 
-        // ////////////////////////////////////////////////////////////////////
-        // 4. if group param, verify group membership (& get DN)
-        // ////////////////////////////////////////////////////////////////////
+            // ////////////////////////////////////////////////////////////////////
+            // 4. if group param, verify group membership (& get DN)
+            // ////////////////////////////////////////////////////////////////////
 
-        String ldapDn = null;
-        String filterGroupDN = config.getLDAPParam("ldap_user_group", "", context);
+            String ldapDn = null;
+            String filterGroupDN = config.getLDAPParam("ldap_user_group", "", context);
 
-        if (filterGroupDN.length() > 0) {
-            if (LOG.isDebugEnabled()) {
-                LOG.debug("Checking if the user belongs to the user group: " + filterGroupDN);
-            }
+            if (filterGroupDN.length() > 0) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Checking if the user belongs to the user group: " + filterGroupDN);
+                }
 
-            ldapDn = ldapUtils.isUidInGroup(ldapUid, filterGroupDN, context);
+                ldapDn = ldapUtils.isUidInGroup(ldapUid, filterGroupDN, context);
 
-            if (ldapDn == null) {
-                throw new XWikiException(XWikiException.MODULE_XWIKI_USER, XWikiException.ERROR_XWIKI_USER_INIT,
-                    "LDAP user {0} does not belong to LDAP group {1}.", null, new Object[] {ldapUid, filterGroupDN});
+                if (ldapDn == null) {
+                    throw new XWikiException(XWikiException.MODULE_XWIKI_USER, XWikiException.ERROR_XWIKI_USER_INIT,
+                        "LDAP user {0} does not belong to LDAP group {1}.", null,
+                        new Object[] {ldapUid, filterGroupDN});
+                }
             }
-        }
 
-        // ////////////////////////////////////////////////////////////////////
-        // 5. if exclude group param, verify group membership
-        // ////////////////////////////////////////////////////////////////////
+            // ////////////////////////////////////////////////////////////////////
+            // 5. if exclude group param, verify group membership
+            // ////////////////////////////////////////////////////////////////////
 
-        String excludeGroupDN = config.getLDAPParam("ldap_exclude_group", "", context);
+            String excludeGroupDN = config.getLDAPParam("ldap_exclude_group", "", context);
 
-        if (excludeGroupDN.length() > 0) {
-            if (LOG.isDebugEnabled()) {
-                LOG.debug("Checking if the user does not belongs to the exclude group: " + excludeGroupDN);
-            }
+            if (excludeGroupDN.length() > 0) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Checking if the user does not belongs to the exclude group: " + excludeGroupDN);
+                }
 
-            if (ldapUtils.isUidInGroup(ldapUid, excludeGroupDN, context) != null) {
-                throw new XWikiException(XWikiException.MODULE_XWIKI_USER, XWikiException.ERROR_XWIKI_USER_INIT,
-                    "LDAP user {0} should not belong to LDAP group {1}.", null, new Object[] {ldapUid, filterGroupDN});
+                if (ldapUtils.isUidInGroup(ldapUid, excludeGroupDN, context) != null) {
+                    throw new XWikiException(XWikiException.MODULE_XWIKI_USER, XWikiException.ERROR_XWIKI_USER_INIT,
+                        "LDAP user {0} should not belong to LDAP group {1}.", null,
+                        new Object[] {ldapUid, filterGroupDN});
+                }
             }
-        }
 
-        // ////////////////////////////////////////////////////////////////////
-        // 6. if no dn search for user
-        // ////////////////////////////////////////////////////////////////////
+            // ////////////////////////////////////////////////////////////////////
+            // 6. if no dn search for user
+            // ////////////////////////////////////////////////////////////////////
 
-        List<XWikiLDAPSearchAttribute> searchAttributes = null;
+            List<XWikiLDAPSearchAttribute> searchAttributes = null;
 
-        // if we still don't have a dn, search for it. Also get the attributes, we might need
-        // them
-        if (ldapDn == null) {
-            searchAttributes = ldapUtils.searchUserAttributesByUid(ldapUid, ldapUtils.getAttributeNameTable(context));
+            // if we still don't have a dn, search for it. Also get the attributes, we might need
+            // them
+            if (ldapDn == null) {
+                searchAttributes =
+                    ldapUtils.searchUserAttributesByUid(ldapUid, ldapUtils.getAttributeNameTable(context));
 
-            if (searchAttributes != null) {
-                for (XWikiLDAPSearchAttribute searchAttribute : searchAttributes) {
-                    if ("dn".equals(searchAttribute.name)) {
-                        ldapDn = searchAttribute.value;
+                if (searchAttributes != null) {
+                    for (XWikiLDAPSearchAttribute searchAttribute : searchAttributes) {
+                        if ("dn".equals(searchAttribute.name)) {
+                            ldapDn = searchAttribute.value;
 
-                        break;
+                            break;
+                        }
                     }
                 }
             }
-        }
-
-        if (ldapDn == null) {
-            throw new XWikiException(XWikiException.MODULE_XWIKI_USER, XWikiException.ERROR_XWIKI_USER_INIT,
-                "Can't find LDAP user DN for [" + ldapUid + "]");
-        }
-
-        // ////////////////////////////////////////////////////////////////////
-        // 7. apply validate_password property or if user used for LDAP connection is not the one
-        // authenticated try to bind
-        // ////////////////////////////////////////////////////////////////////
-
-        if ("1".equals(config.getLDAPParam("ldap_validate_password", "0", context))) {
-            String passwordField = config.getLDAPParam("ldap_password_field", "userPassword", context);
-            if (!connector.checkPassword(ldapDn, password, passwordField)) {
-                LOG.debug("Password comparison failed, are you really sure you need validate_password ?"
-                    + " If you don't enable it, it does not mean user credentials are not validated."
-                    + " The goal of this property is to bypass standard LDAP bind"
-                    + " which is usually bad unless you really know what you do.");
 
+            if (ldapDn == null) {
                 throw new XWikiException(XWikiException.MODULE_XWIKI_USER, XWikiException.ERROR_XWIKI_USER_INIT,
-                    "LDAP authentication failed:" + " could not validate the password: wrong password for " + ldapDn);
+                    "Can't find LDAP user DN for [" + ldapUid + "]");
             }
-        } else {
-            String bindDNFormat = config.getLDAPBindDN(context);
-            String bindDN = config.getLDAPBindDN(ldapUid, password, context);
 
-            if (bindDNFormat.equals(bindDN)) {
-                // Validate user credentials
-                connector.bind(ldapDn, password);
+            // ////////////////////////////////////////////////////////////////////
+            // 7. apply validate_password property or if user used for LDAP connection is not the one
+            // authenticated try to bind
+            // ////////////////////////////////////////////////////////////////////
+
+            if ("1".equals(config.getLDAPParam("ldap_validate_password", "0", context))) {
+                String passwordField = config.getLDAPParam("ldap_password_field", "userPassword", context);
+                if (!connector.checkPassword(ldapDn, password, passwordField)) {
+                    LOG.debug("Password comparison failed, are you really sure you need validate_password ?"
+                        + " If you don't enable it, it does not mean user credentials are not validated."
+                        + " The goal of this property is to bypass standard LDAP bind"
+                        + " which is usually bad unless you really know what you do.");
+
+                    throw new XWikiException(XWikiException.MODULE_XWIKI_USER, XWikiException.ERROR_XWIKI_USER_INIT,
+                        "LDAP authentication failed:" + " could not validate the password: wrong password for "
+                            + ldapDn);
+                }
+            } else {
+                String bindDNFormat = config.getLDAPBindDN(context);
+                String bindDN = config.getLDAPBindDN(ldapUid, password, context);
+
+                if (bindDNFormat.equals(bindDN)) {
+                    // Validate user credentials
+                    connector.bind(ldapDn, password);
 
-                // Rebind admin user
-                connector.bind(bindDN, config.getLDAPBindPassword(ldapUid, password, context));
+                    // Rebind admin user
+                    connector.bind(bindDN, config.getLDAPBindPassword(ldapUid, password, context));
 
+                }
             }
-        }
 
-        // ////////////////////////////////////////////////////////////////////
-        // 8. sync user
-        // ////////////////////////////////////////////////////////////////////
+            // ////////////////////////////////////////////////////////////////////
+            // 8. sync user
+            // ////////////////////////////////////////////////////////////////////
 
-        boolean isNewUser = userProfile.isNew();
+            boolean isNewUser = userProfile.isNew();
 
-        syncUser(userProfile, searchAttributes, ldapDn, ldapUid, ldapUtils, context);
+            syncUser(userProfile, searchAttributes, ldapDn, ldapUid, ldapUtils, context);
 
-        // from now on we can enter the application
-        if (local) {
-            principal = new SimplePrincipal(userProfile.getFullName());
-        } else {
-            principal = new SimplePrincipal(context.getDatabase() + ":" + userProfile.getFullName());
-        }
+            // from now on we can enter the application
+            if (local) {
+                principal = new SimplePrincipal(userProfile.getFullName());
+            } else {
+                principal = new SimplePrincipal(context.getDatabase() + ":" + userProfile.getFullName());
+            }
 
-        // ////////////////////////////////////////////////////////////////////
-        // 9. sync groups membership
-        // ////////////////////////////////////////////////////////////////////
+            // ////////////////////////////////////////////////////////////////////
+            // 9. sync groups membership
+            // ////////////////////////////////////////////////////////////////////
 
-        try {
-            syncGroupsMembership(userProfile.getFullName(), ldapDn, isNewUser, ldapUtils, context);
-        } catch (XWikiException e) {
-            LOG.error("Failed to synchronise user's groups membership", e);
-        }
+            try {
+                syncGroupsMembership(userProfile.getFullName(), ldapDn, isNewUser, ldapUtils, context);
+            } catch (XWikiException e) {
+                LOG.error("Failed to synchronise user's groups membership", e);
+            }
 
-        return principal;
+            return principal;
+        } finally {
+            // Give back the connection to the pool
+            connector.close();
+        }
     }
 
     /**
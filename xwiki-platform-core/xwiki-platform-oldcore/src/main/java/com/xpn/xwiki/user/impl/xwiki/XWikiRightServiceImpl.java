@@ -45,6 +45,7 @@
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
 import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.monitor.api.RequestTimings;
 import com.xpn.xwiki.objects.BaseObject;
 import com.xpn.xwiki.objects.classes.GroupsClass;
 import com.xpn.xwiki.user.api.XWikiGroupService;
@@ -156,6 +157,20 @@ public String getRight(String action)
     }
 
     public boolean checkAccess(String action, XWikiDocument doc, XWikiContext context) throws XWikiException
+    {
+        long timer = RequestTimings.start(RequestTimings.Phase.RIGHTS);
+        try {
+            return checkAccessInternal(action, doc, context);
+        } finally {
+            RequestTimings.end(RequestTimings.Phase.RIGHTS, timer);
+        }
+    }
+
+    /**
+     * @see #checkAccess(String, XWikiDocument, XWikiContext)
+     */
+    private boolean checkAccessInternal(String action, XWikiDocument doc, XWikiContext context)
+        throws XWikiException
     {
         if (LOG.isDebugEnabled()) {
             LOG.debug("checkAccess for " + action + ", " + doc.getFullName());
@@ -537,6 +552,20 @@ private void addMemberGroups(String wiki, String prefixedFullName, DocumentRefer
 
     public boolean hasAccessLevel(String accessLevel, String userOrGroupName, String entityReference, boolean user,
         XWikiContext context) throws XWikiException
+    {
+        long timer = RequestTimings.start(RequestTimings.Phase.RIGHTS);
+        try {
+            return hasAccessLevelInternal(accessLevel, userOrGroupName, entityReference, user, context);
+        } finally {
+            RequestTimings.end(RequestTimings.Phase.RIGHTS, timer);
+        }
+    }
+
+    /**
+     * @see #hasAccessLevel(String, String, String, boolean, XWikiContext)
+     */
+    private boolean hasAccessLevelInternal(String accessLevel, String userOrGroupName, String entityReference,
+        boolean user, XWikiContext context) throws XWikiException
     {
         if (LOG.isDebugEnabled()) {
             LOG.debug("hasAccessLevel for " + accessLevel + ", " + userOrGroupName + ", " + entityReference);
@@ -47,9 +47,10 @@
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
 import com.xpn.xwiki.doc.XWikiDocument;
-import com.xpn.xwiki.monitor.api.MonitorPlugin;
+import com.xpn.xwiki.monitor.api.RequestTimings;
 import com.xpn.xwiki.objects.BaseObject;
 import com.xpn.xwiki.plugin.fileupload.FileUploadPlugin;
+import com.xpn.xwiki.store.XWikiHibernateStore;
 
 /**
  * <p>
@@ -124,8 +125,9 @@ public ActionForward execute(ActionMapping mapping, ActionForm form, HttpServlet
 
     public ActionForward execute(XWikiContext context) throws Exception
     {
-        MonitorPlugin monitor = null;
+        long requestTimer = RequestTimings.startRequest();
         FileUploadPlugin fileupload = null;
+        XWikiHibernateStore hibernateStore = null;
         String docName = "";
 
         try {
@@ -147,23 +149,19 @@ public ActionForward execute(XWikiContext context) throws Exception
                 }
             }
 
+            // Reuse the same database session for all the reads of the request
+            hibernateStore = xwiki.getHibernateStore();
+            if (hibernateStore != null) {
+                hibernateStore.startRequest(context);
+            }
+
             // Send global redirection (if any)
             if (sendGlobalRedirect(context.getResponse(), context.getURL().toString(), context)) {
                 return null;
             }
 
-            // Start monitoring timer
-            monitor = (MonitorPlugin) xwiki.getPlugin("monitor", context);
-            if (monitor != null) {
-                monitor.startRequest("", context.getAction(), context.getURL());
-                monitor.startTimer("multipart");
-            }
-
             // Parses multipart so that params in multipart are available for all actions
             fileupload = Utils.handleMultipart(context.getRequest().getHttpServletRequest(), context);
-            if (monitor != null) {
-                monitor.endTimer("multipart");
-            }
 
             XWikiURLFactory urlf = xwiki.getURLFactoryService().createURLFactory(context.getMode(), context);
             context.setURLFactory(urlf);
@@ -177,10 +175,6 @@ public ActionForward execute(XWikiContext context) throws Exception
 
             // Any error before this will be treated using a redirection to an error page
 
-            if (monitor != null) {
-                monitor.startTimer("request");
-            }
-
             VelocityManager velocityManager = Utils.getComponent(VelocityManager.class);
             VelocityContext vcontext = velocityManager.getVelocityContext();
 
@@ -190,22 +184,12 @@ public ActionForward execute(XWikiContext context) throws Exception
                     return null;
                 }
 
-                if (monitor != null) {
-                    monitor.setWikiPage(context.getDoc().getFullName());
-                }
-
                 // Let's handle the notification and make sure it never fails
-                if (monitor != null) {
-                    monitor.startTimer("prenotify");
-                }
                 try {
                     xwiki.getNotificationManager().preverify(context.getDoc(), context.getAction(), context);
                 } catch (Throwable e) {
                     LOG.error("Exception while pre-notifying", e);
                 }
-                if (monitor != null) {
-                    monitor.endTimer("prenotify");
-                }
 
                 String renderResult = null;
                 XWikiDocument doc = context.getDoc();
@@ -292,11 +276,6 @@ public ActionForward execute(XWikiContext context) throws Exception
                     // If we can't flush, then there's nothing more we can send to the client.
                 }
 
-                if (monitor != null) {
-                    monitor.endTimer("request");
-                    monitor.startTimer("notify");
-                }
-
                 // Let's handle the notification and make sure it never fails
                 // This is the old notification mechanism. It is kept here because it is in a
                 // deprecation stage. It will be removed later.
@@ -317,10 +296,6 @@ public ActionForward execute(XWikiContext context) throws Exception
                         + context.getAction() + "]", ex);
                 }
 
-                if (monitor != null) {
-                    monitor.endTimer("notify");
-                }
-
                 // Make sure we cleanup database connections
                 // There could be cases where we have some
                 if ((context != null) && (xwiki != null)) {
@@ -329,15 +304,17 @@ public ActionForward execute(XWikiContext context) throws Exception
             }
         } finally {
             // End request
-            if (monitor != null) {
-                monitor.endRequest();
-            }
+            RequestTimings.endRequest(context != null ? context.getAction() : null, requestTimer);
 
             if (context != null) {
 
                 if (fileupload != null) {
                     fileupload.cleanFileList(context);
                 }
+
+                if (hibernateStore != null) {
+                    hibernateStore.endRequest(context);
+                }
             }
         }
     }
@@ -0,0 +1,247 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.xmlrpc;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.xmlrpc.XmlRpcException;
+import org.apache.xmlrpc.XmlRpcHandler;
+import org.apache.xmlrpc.XmlRpcRequest;
+import org.apache.xmlrpc.XmlRpcRequestConfig;
+import org.apache.xmlrpc.common.XmlRpcInvocationException;
+import org.apache.xmlrpc.server.XmlRpcHandlerMapping;
+
+/**
+ * Implementation of the <code>system.multicall</code> XML-RPC method which executes a list of calls in a single HTTP
+ * request. All the calls are executed one after the other in the XWiki context of the HTTP request, so the context is
+ * only set up once for the whole list.
+ * <p>
+ * The method takes an array of structs containing a <code>methodName</code> and an array of <code>params</code> and
+ * returns an array with, for each call, either a one-element array containing the result of the call or a struct
+ * containing a <code>faultCode</code> and a <code>faultString</code> if the call failed.
+ * 
+ * @version $Id$
+ * @since 3.2M1
+ */
+public class XWikiXmlRpcMulticallHandler implements XmlRpcHandler
+{
+    /**
+     * The name of the XML-RPC method implemented by this handler.
+     */
+    public static final String METHOD_NAME = "system.multicall";
+
+    private static final Log LOG = LogFactory.getLog(XWikiXmlRpcMulticallHandler.class);
+
+    private static final String METHOD_NAME_MEMBER = "methodName";
+
+    private static final String PARAMS_MEMBER = "params";
+
+    private static final String FAULT_CODE_MEMBER = "faultCode";
+
+    private static final String FAULT_STRING_MEMBER = "faultString";
+
+    /**
+     * The maximum number of calls accepted in a single multicall.
+     */
+    static final int MAX_CALLS = 1000;
+
+    /**
+     * A call of the multicall, executed like a standalone request.
+     */
+    private static class Call implements XmlRpcRequest
+    {
+        private final XmlRpcRequestConfig config;
+
+        private final String methodName;
+
+        private final Object[] parameters;
+
+        /**
+         * @param config the configuration of the multicall request
+         * @param methodName the name of the called method
+         * @param parameters the parameters of the call
+         */
+        Call(XmlRpcRequestConfig config, String methodName, Object[] parameters)
+        {
+            this.config = config;
+            this.methodName = methodName;
+            this.parameters = parameters;
+        }
+
+        /**
+         * {@inheritDoc}
+         * 
+         * @see org.apache.xmlrpc.XmlRpcRequest#getConfig()
+         */
+        public XmlRpcRequestConfig getConfig()
+        {
+            return this.config;
+        }
+
+        /**
+         * {@inheritDoc}
+         * 
+         * @see org.apache.xmlrpc.XmlRpcRequest#getMethodName()
+         */
+        public String getMethodName()
+        {
+            return this.methodName;
+        }
+
+        /**
+         * {@inheritDoc}
+         * 
+         * @see org.apache.xmlrpc.XmlRpcRequest#getParameterCount()
+         */
+        public int getParameterCount()
+        {
+            return this.parameters.length;
+        }
+
+        /**
+         * {@inheritDoc}
+         * 
+         * @see org.apache.xmlrpc.XmlRpcRequest#getParameter(int)
+         */
+        public Object getParameter(int index)
+        {
+            return this.parameters[index];
+        }
+    }
+
+    /**
+     * The mapping used to find the handlers of the calls.
+     */
+    private final XmlRpcHandlerMapping mapping;
+
+    /**
+     * @param mapping the mapping used to find the handlers of the calls
+     */
+    public XWikiXmlRpcMulticallHandler(XmlRpcHandlerMapping mapping)
+    {
+        this.mapping = mapping;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see org.apache.xmlrpc.XmlRpcHandler#execute(org.apache.xmlrpc.XmlRpcRequest)
+     */
+    public Object execute(XmlRpcRequest request) throws XmlRpcException
+    {
+        if (request.getParameterCount() != 1) {
+            throw new XmlRpcException(String.format("[%s expects a single array parameter]", METHOD_NAME));
+        }
+
+        Object[] calls = toArray(request.getParameter(0));
+        if (calls == null) {
+            throw new XmlRpcException(String.format("[%s expects a single array parameter]", METHOD_NAME));
+        }
+        if (calls.length > MAX_CALLS) {
+            throw new XmlRpcException(String.format("[%s accepts at most %d calls]", METHOD_NAME, MAX_CALLS));
+        }
+
+        Object[] results = new Object[calls.length];
+        for (int i = 0; i < calls.length; i++) {
+            try {
+                results[i] = new Object[] {execute(request.getConfig(), calls[i])};
+            } catch (XmlRpcException e) {
+                results[i] = createFault(e.code, e);
+            } catch (Exception e) {
+                results[i] = createFault(0, e);
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * @param config the configuration of the multicall request
+     * @param call the struct describing the call
+     * @return the result of the call
+     * @throws XmlRpcException if the call is invalid or fails
+     */
+    private Object execute(XmlRpcRequestConfig config, Object call) throws XmlRpcException
+    {
+        if (!(call instanceof Map)) {
+            throw new XmlRpcException("[A multicall call must be a struct]");
+        }
+
+        Map< ? , ? > callStruct = (Map< ? , ? >) call;
+        Object methodName = callStruct.get(METHOD_NAME_MEMBER);
+        if (!(methodName instanceof String)) {
+            throw new XmlRpcException("[A multicall call must have a methodName]");
+        }
+        if (METHOD_NAME.equals(methodName)) {
+            throw new XmlRpcException(String.format("[Recursive %s is not allowed]", METHOD_NAME));
+        }
+
+        Object[] parameters = callStruct.containsKey(PARAMS_MEMBER) ? toArray(callStruct.get(PARAMS_MEMBER))
+            : new Object[0];
+        if (parameters == null) {
+            throw new XmlRpcException(String.format("[The params of the call to '%s' must be an array]", methodName));
+        }
+
+        return this.mapping.getHandler((String) methodName).execute(
+            new Call(config, (String) methodName, parameters));
+    }
+
+    /**
+     * @param code the fault code
+     * @param e the exception which made the call fail
+     * @return the struct describing the failed call
+     */
+    private Map<String, Object> createFault(int code, Exception e)
+    {
+        // Report the exception thrown by the called method rather than the reflection wrapper, like it's done for
+        // single calls.
+        Throwable cause = e;
+        if (e instanceof XmlRpcInvocationException && e.getCause() != null) {
+            cause = e.getCause();
+        }
+
+        LOG.debug(String.format("Call of %s failed", METHOD_NAME), cause);
+
+        Map<String, Object> fault = new HashMap<String, Object>();
+        fault.put(FAULT_CODE_MEMBER, code);
+        fault.put(FAULT_STRING_MEMBER, cause.getMessage() != null ? cause.getMessage() : cause.getClass().getName());
+
+        return fault;
+    }
+
+    /**
+     * @param value an XML-RPC array, which can be received as an object array or as a list
+     * @return the array, null if the value is not an array
+     */
+    private Object[] toArray(Object value)
+    {
+        if (value instanceof Object[]) {
+            return (Object[]) value;
+        } else if (value instanceof List) {
+            return ((List< ? >) value).toArray();
+        }
+
+        return null;
+    }
+}
@@ -24,6 +24,7 @@
 import java.net.URL;
 
 import org.apache.xmlrpc.XmlRpcException;
+import org.apache.xmlrpc.XmlRpcHandler;
 import org.apache.xmlrpc.XmlRpcRequest;
 import org.apache.xmlrpc.server.PropertyHandlerMapping;
 import org.apache.xmlrpc.server.RequestProcessorFactoryFactory;
@@ -42,7 +43,21 @@ public class XWikiXmlRpcServlet extends XmlRpcServlet
     @Override
     protected PropertyHandlerMapping newPropertyHandlerMapping(URL url) throws IOException, XmlRpcException
     {
-        PropertyHandlerMapping mapping = new PropertyHandlerMapping();
+        PropertyHandlerMapping mapping = new PropertyHandlerMapping()
+        {
+            private final XmlRpcHandler multicallHandler = new XWikiXmlRpcMulticallHandler(this);
+
+            @Override
+            public XmlRpcHandler getHandler(String handlerName) throws XmlRpcException
+            {
+                // system.multicall allows to execute several calls in a single HTTP request.
+                if (XWikiXmlRpcMulticallHandler.METHOD_NAME.equals(handlerName)) {
+                    return this.multicallHandler;
+                }
+
+                return super.getHandler(handlerName);
+            }
+        };
         RequestProcessorFactoryFactory factory = new RequestSpecificProcessorFactoryFactory()
         {
             @Override
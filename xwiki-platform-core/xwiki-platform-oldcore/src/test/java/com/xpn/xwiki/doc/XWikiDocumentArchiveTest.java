@@ -19,7 +19,9 @@
  */
 package com.xpn.xwiki.doc;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 
 import org.jmock.Mock;
 import org.suigeneris.jrcs.rcs.Version;
@@ -29,6 +31,9 @@
 import com.xpn.xwiki.XWikiConfig;
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.rcs.XWikiRCSNodeContent;
+import com.xpn.xwiki.doc.rcs.XWikiRCSNodeInfo;
+import com.xpn.xwiki.store.XWikiVersioningStoreInterface;
 import com.xpn.xwiki.test.AbstractBridgedXWikiComponentTestCase;
 import com.xpn.xwiki.user.api.XWikiRightService;
 
@@ -325,6 +330,77 @@ public void testVerifyDiffAndFullRevisionAlgorithm() throws Exception
         assertFalse(archive.getNode(new Version(6, 1)).isDiff());
     }
 
+    /**
+     * Verify that full revisions keep being created at regular intervals after revisions are deleted, so that the
+     * number of patches needed to load any revision stays bounded.
+     */
+    public void testFullRevisionIntervalAfterRemoveVersions() throws Exception
+    {
+        XWikiDocument doc = new XWikiDocument(new DocumentReference("Test", "Test", "Test"));
+        XWikiDocumentArchive archive = new XWikiDocumentArchive(doc.getId());
+        doc.setDocumentArchive(archive);
+        String author = "XWiki.some author";
+
+        for (int i = 1; i <= 7; i++) {
+            addRevisionToHistory(archive, doc, "content " + i + ".1", author, i + ".1");
+        }
+        assertFalse(archive.getNode(new Version(5, 1)).isDiff());
+
+        archive.removeVersions(new Version(3, 1), new Version(4, 1), context);
+
+        for (int i = 8; i <= 11; i++) {
+            addRevisionToHistory(archive, doc, "content " + i + ".1", author, i + ".1");
+        }
+        // 10.1 is the 5th revision since the full 5.1 revision (6.1, 7.1, 8.1, 9.1, 10.1)
+        assertTrue(archive.getNode(new Version(9, 1)).isDiff());
+        assertFalse(archive.getNode(new Version(10, 1)).isDiff());
+        assertEquals(new Version(10, 1), archive.getNearestFullVersion(new Version(6, 1)));
+
+        assertEquals("content 6.1", archive.loadDocument(new Version(6, 1), context).getContent());
+        assertEquals("content 2.1", archive.loadDocument(new Version(2, 1), context).getContent());
+    }
+
+    /**
+     * Verify that the contents needed to restore a revision which are not loaded yet are fetched from the store with a
+     * single call instead of one call per node.
+     */
+    public void testLoadDocumentFetchesTheMissingContentsAtOnce() throws Exception
+    {
+        XWikiDocument doc = new XWikiDocument(new DocumentReference("Test", "Test", "Test"));
+        XWikiDocumentArchive archive = new XWikiDocumentArchive(doc.getId());
+        doc.setDocumentArchive(archive);
+        String author = "XWiki.some author";
+
+        for (int i = 1; i <= 4; i++) {
+            addRevisionToHistory(archive, doc, "content " + i + ".1", author, i + ".1");
+        }
+        assertEquals(new Version(4, 1), archive.getNearestFullVersion(new Version(1, 1)));
+
+        // Simulate an archive freshly loaded from the store: the node contents are not loaded yet
+        List<XWikiRCSNodeContent> contents = new ArrayList<XWikiRCSNodeContent>();
+        List<XWikiRCSNodeInfo> nodes = new ArrayList<XWikiRCSNodeInfo>();
+        for (XWikiRCSNodeInfo node : archive.getNodes()) {
+            contents.add(node.getContent(null));
+            XWikiRCSNodeInfo loadedNode = new XWikiRCSNodeInfo(node.getId());
+            loadedNode.setDiff(node.isDiff());
+            loadedNode.setAuthor(node.getAuthor());
+            loadedNode.setComment(node.getComment());
+            loadedNode.setDate(node.getDate());
+            nodes.add(loadedNode);
+        }
+        XWikiDocumentArchive loadedArchive = new XWikiDocumentArchive(doc.getId());
+        loadedArchive.setNodes(nodes);
+
+        Mock mockVersioningStore = mock(XWikiVersioningStoreInterface.class);
+        mockVersioningStore.expects(once()).method("loadRCSNodeContents").with(ANYTHING, eq(true), same(this.context))
+            .will(returnValue(contents));
+        this.mockXWiki.stubs().method("getVersioningStore").will(returnValue(mockVersioningStore.proxy()));
+
+        assertEquals("content 1.1", loadedArchive.loadDocument(new Version(1, 1), this.context).getContent());
+        // Everything needed is loaded now
+        assertEquals("content 2.1", loadedArchive.loadDocument(new Version(2, 1), this.context).getContent());
+    }
+
     private void addRevisionToHistory(XWikiDocumentArchive archive, XWikiDocument document, String content,
         String author, String comment) throws XWikiException
     {
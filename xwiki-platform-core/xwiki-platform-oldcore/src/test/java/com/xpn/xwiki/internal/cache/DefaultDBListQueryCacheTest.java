@@ -0,0 +1,180 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.cache;
+
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.observation.event.Event;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.objects.classes.ListItem;
+import com.xpn.xwiki.test.AbstractBridgedXWikiComponentTestCase;
+
+/**
+ * Unit test for {@link DefaultDBListQueryCache}.
+ * 
+ * @version $Id$
+ */
+public class DefaultDBListQueryCacheTest extends AbstractBridgedXWikiComponentTestCase
+{
+    private static final String CLASS_QUERY =
+        "select prop.value from BaseObject as obj, StringProperty as prop where obj.className='Space.Class' "
+            + "and prop.id.id=obj.id and prop.id.name='name'";
+
+    private static final String OTHER_CLASS_QUERY =
+        "select prop.value from BaseObject as obj, StringProperty as prop where obj.className='Space.Other' "
+            + "and prop.id.id=obj.id and prop.id.name='name'";
+
+    private static final String ANY_DOCUMENT_QUERY = "select doc.name from XWikiDocument as doc";
+
+    private static final String PROPERTY = "Space.Class.property";
+
+    private DBListQueryCache cache;
+
+    private ObservationManager observation;
+
+    private List<ListItem> result = Arrays.asList(new ListItem("value"));
+
+    @Before
+    public void setUp() throws Exception
+    {
+        super.setUp();
+
+        this.cache = getComponentManager().lookup(DBListQueryCache.class);
+        this.observation = getComponentManager().lookup(ObservationManager.class);
+    }
+
+    private void set(String wiki, String query)
+    {
+        this.cache.set(this.result, wiki, PROPERTY, query, this.cache.getGeneration(wiki));
+    }
+
+    private XWikiDocument createDocument(String wiki, String className)
+    {
+        XWikiDocument document = new XWikiDocument(new DocumentReference(wiki, "Space", "Page"));
+        if (className != null) {
+            BaseObject object = new BaseObject();
+            object.setXClassReference(new DocumentReference(wiki, "Space", className));
+            document.addXObject(object);
+        }
+
+        return document;
+    }
+
+    private void notify(Event event, XWikiDocument document)
+    {
+        this.observation.notify(event, document, getContext());
+    }
+
+    @Test
+    public void testGetSet()
+    {
+        set("wiki", CLASS_QUERY);
+
+        Assert.assertEquals(this.result, this.cache.get("wiki", PROPERTY, CLASS_QUERY));
+        Assert.assertNull(this.cache.get("otherwiki", PROPERTY, CLASS_QUERY));
+        Assert.assertNull(this.cache.get("wiki", PROPERTY, OTHER_CLASS_QUERY));
+    }
+
+    @Test
+    public void testDocumentSaveInvalidatesTheQueriesOnItsClasses()
+    {
+        set("wiki", CLASS_QUERY);
+        set("wiki", OTHER_CLASS_QUERY);
+        set("otherwiki", CLASS_QUERY);
+
+        XWikiDocument document = createDocument("wiki", "Class");
+        notify(new DocumentUpdatedEvent(document.getDocumentReference()), document);
+
+        Assert.assertNull(this.cache.get("wiki", PROPERTY, CLASS_QUERY));
+        Assert.assertEquals(this.result, this.cache.get("wiki", PROPERTY, OTHER_CLASS_QUERY));
+        Assert.assertEquals(this.result, this.cache.get("otherwiki", PROPERTY, CLASS_QUERY));
+    }
+
+    @Test
+    public void testDocumentCreationInvalidatesTheQueriesOnItsClasses()
+    {
+        set("wiki", CLASS_QUERY);
+
+        XWikiDocument document = createDocument("wiki", "Class");
+        notify(new DocumentCreatedEvent(document.getDocumentReference()), document);
+
+        Assert.assertNull(this.cache.get("wiki", PROPERTY, CLASS_QUERY));
+    }
+
+    @Test
+    public void testDocumentDeleteInvalidatesTheQueriesOnTheClassesItHad()
+    {
+        set("wiki", CLASS_QUERY);
+        set("wiki", OTHER_CLASS_QUERY);
+
+        // The deleted document is the original document of the event source
+        XWikiDocument deletedDocument = createDocument("wiki", "Class");
+        XWikiDocument document = createDocument("wiki", null);
+        document.setOriginalDocument(deletedDocument);
+        notify(new DocumentDeletedEvent(document.getDocumentReference()), document);
+
+        Assert.assertNull(this.cache.get("wiki", PROPERTY, CLASS_QUERY));
+        Assert.assertEquals(this.result, this.cache.get("wiki", PROPERTY, OTHER_CLASS_QUERY));
+    }
+
+    @Test
+    public void testAnyDocumentSaveInvalidatesTheQueriesWithoutClass()
+    {
+        set("wiki", ANY_DOCUMENT_QUERY);
+        set("otherwiki", ANY_DOCUMENT_QUERY);
+
+        XWikiDocument document = createDocument("wiki", null);
+        notify(new DocumentUpdatedEvent(document.getDocumentReference()), document);
+
+        Assert.assertNull(this.cache.get("wiki", PROPERTY, ANY_DOCUMENT_QUERY));
+        Assert.assertEquals(this.result, this.cache.get("otherwiki", PROPERTY, ANY_DOCUMENT_QUERY));
+    }
+
+    @Test
+    public void testResultOfQueryExecutedDuringAModificationIsNotCached()
+    {
+        long generation = this.cache.getGeneration("wiki");
+
+        // A document is saved while the query is being executed
+        XWikiDocument document = createDocument("wiki", "Class");
+        notify(new DocumentUpdatedEvent(document.getDocumentReference()), document);
+
+        this.cache.set(this.result, "wiki", PROPERTY, CLASS_QUERY, generation);
+
+        Assert.assertNull(this.cache.get("wiki", PROPERTY, CLASS_QUERY));
+
+        // The modification is done, the next result can be cached
+        set("wiki", CLASS_QUERY);
+
+        Assert.assertEquals(this.result, this.cache.get("wiki", PROPERTY, CLASS_QUERY));
+    }
+}
@@ -28,6 +28,7 @@
 import org.xwiki.bridge.event.DocumentUpdatedEvent;
 import org.xwiki.cache.config.CacheConfiguration;
 import org.xwiki.cache.eviction.LRUEvictionConfiguration;
+import org.xwiki.cache.offheap.OffHeapConfiguration;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.observation.ObservationManager;
 
@@ -102,4 +103,192 @@ public void testEventBasedCleanup() throws Exception
         Assert.assertNull(this.cache.get(this.document.getDocumentReference()));
         Assert.assertNull(this.cache.get(this.document.getDocumentReference(), "ext1", "ext2"));
     }
+
+    @Test
+    public void testRemove() throws Exception
+    {
+        this.cache.set("data", this.document.getDocumentReference(), "ext1");
+        this.cache.set("data2", this.document.getDocumentReference(), "ext2");
+
+        this.cache.remove("data", this.document.getDocumentReference(), "ext1");
+
+        Assert.assertNull(this.cache.get(this.document.getDocumentReference(), "ext1"));
+        Assert.assertEquals("data2", this.cache.get(this.document.getDocumentReference(), "ext2"));
+    }
+
+    @Test
+    public void testEscapedExtensions() throws Exception
+    {
+        this.cache.set("data", this.document.getDocumentReference(), "a:b", "c");
+        this.cache.set("data2", this.document.getDocumentReference(), "a", "b:c");
+
+        Assert.assertEquals("data", this.cache.get(this.document.getDocumentReference(), "a:b", "c"));
+        Assert.assertEquals("data2", this.cache.get(this.document.getDocumentReference(), "a", "b:c"));
+    }
+
+    @Test
+    public void testWeightBasedEviction() throws Exception
+    {
+        DefaultDocumentCache<String> weightedCache =
+            (DefaultDocumentCache<String>) getComponentManager().lookup(DocumentCache.class);
+
+        CacheConfiguration cacheConfiguration = new CacheConfiguration();
+        cacheConfiguration.setConfigurationId("documentcachetest.weighted");
+        cacheConfiguration.put(LRUEvictionConfiguration.CONFIGURATIONID, new LRUEvictionConfiguration());
+        weightedCache.create(cacheConfiguration, new DocumentCacheWeigher<String>()
+        {
+            public long getWeight(String data)
+            {
+                return data.length();
+            }
+        }, 10);
+
+        try {
+            DocumentReference documentReference = this.document.getDocumentReference();
+
+            weightedCache.set("12345", documentReference, "ext1");
+            weightedCache.set("1234", documentReference, "ext2");
+            Assert.assertEquals(9, weightedCache.getWeight());
+
+            weightedCache.set("123", documentReference, "ext3");
+
+            Assert.assertNull(weightedCache.get(documentReference, "ext1"));
+            Assert.assertEquals("1234", weightedCache.get(documentReference, "ext2"));
+            Assert.assertEquals("123", weightedCache.get(documentReference, "ext3"));
+            Assert.assertEquals(7, weightedCache.getWeight());
+
+            getComponentManager().lookup(ObservationManager.class).notify(
+                new DocumentUpdatedEvent(documentReference), this.document, getContext());
+
+            Assert.assertNull(weightedCache.get(documentReference, "ext2"));
+            Assert.assertEquals(0, weightedCache.getWeight());
+        } finally {
+            weightedCache.dispose();
+        }
+    }
+
+    @Test
+    public void testWeightBasedEvictionRemovesTheLeastRecentlyUsedEntries() throws Exception
+    {
+        DefaultDocumentCache<String> weightedCache =
+            (DefaultDocumentCache<String>) getComponentManager().lookup(DocumentCache.class);
+
+        CacheConfiguration cacheConfiguration = new CacheConfiguration();
+        cacheConfiguration.setConfigurationId("documentcachetest.lru");
+        cacheConfiguration.put(LRUEvictionConfiguration.CONFIGURATIONID, new LRUEvictionConfiguration());
+        weightedCache.create(cacheConfiguration, new DocumentCacheWeigher<String>()
+        {
+            public long getWeight(String data)
+            {
+                return data.length();
+            }
+        }, 10);
+
+        try {
+            DocumentReference documentReference = this.document.getDocumentReference();
+
+            weightedCache.set("12345", documentReference, "ext1");
+            weightedCache.set("1234", documentReference, "ext2");
+            Assert.assertEquals("12345", weightedCache.get(documentReference, "ext1"));
+
+            weightedCache.set("123", documentReference, "ext3");
+
+            Assert.assertEquals("12345", weightedCache.get(documentReference, "ext1"));
+            Assert.assertNull(weightedCache.get(documentReference, "ext2"));
+            Assert.assertEquals("123", weightedCache.get(documentReference, "ext3"));
+            Assert.assertEquals(8, weightedCache.getWeight());
+        } finally {
+            weightedCache.dispose();
+        }
+    }
+
+    @Test
+    public void testWeightBasedEvictionKeepsEntriesInTheOffHeapTier() throws Exception
+    {
+        DefaultDocumentCache<String> weightedCache =
+            (DefaultDocumentCache<String>) getComponentManager().lookup(DocumentCache.class);
+
+        CacheConfiguration cacheConfiguration = new CacheConfiguration();
+        cacheConfiguration.setConfigurationId("documentcachetest.offheap");
+        cacheConfiguration.put(LRUEvictionConfiguration.CONFIGURATIONID, new LRUEvictionConfiguration());
+        OffHeapConfiguration offHeap = new OffHeapConfiguration();
+        offHeap.setCapacity(1024 * 1024);
+        cacheConfiguration.put(OffHeapConfiguration.CONFIGURATIONID, offHeap);
+        weightedCache.create(cacheConfiguration, new DocumentCacheWeigher<String>()
+        {
+            public long getWeight(String data)
+            {
+                return data.length();
+            }
+        }, 10);
+
+        try {
+            DocumentReference documentReference = this.document.getDocumentReference();
+
+            weightedCache.set("12345", documentReference, "ext1");
+            weightedCache.set("1234", documentReference, "ext2");
+            weightedCache.set("123", documentReference, "ext3");
+            Assert.assertEquals(7, weightedCache.getWeight());
+
+            // Moved back from the off heap tier, the least recently used entry is evicted to make room for it
+            Assert.assertEquals("12345", weightedCache.get(documentReference, "ext1"));
+            Assert.assertEquals(8, weightedCache.getWeight());
+
+            // The entries in the off heap tier are removed too when the document is modified
+            getComponentManager().lookup(ObservationManager.class).notify(
+                new DocumentUpdatedEvent(documentReference), this.document, getContext());
+
+            Assert.assertNull(weightedCache.get(documentReference, "ext1"));
+            Assert.assertNull(weightedCache.get(documentReference, "ext2"));
+            Assert.assertNull(weightedCache.get(documentReference, "ext3"));
+            Assert.assertEquals(0, weightedCache.getWeight());
+        } finally {
+            weightedCache.dispose();
+        }
+    }
+
+    @Test
+    public void testDataIsNotKeptWhenTheDocumentIsModifiedWhileSettingIt() throws Exception
+    {
+        final DocumentReference documentReference = this.document.getDocumentReference();
+
+        DefaultDocumentCache<String> weightedCache =
+            (DefaultDocumentCache<String>) getComponentManager().lookup(DocumentCache.class);
+
+        CacheConfiguration cacheConfiguration = new CacheConfiguration();
+        cacheConfiguration.setConfigurationId("documentcachetest.race");
+        cacheConfiguration.put(LRUEvictionConfiguration.CONFIGURATIONID, new LRUEvictionConfiguration());
+        // The weigher is called by #set after the key has been indexed and before the data is stored, which makes it
+        // possible to modify the document right in the middle
+        weightedCache.create(cacheConfiguration, new DocumentCacheWeigher<String>()
+        {
+            public long getWeight(String data)
+            {
+                if (data.equals("stale")) {
+                    try {
+                        getComponentManager().lookup(ObservationManager.class).notify(
+                            new DocumentUpdatedEvent(documentReference), document, getContext());
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+
+                return data.length();
+            }
+        }, 100);
+
+        try {
+            weightedCache.set("stale", documentReference, "ext");
+
+            Assert.assertNull(weightedCache.get(documentReference, "ext"));
+            Assert.assertEquals(0, weightedCache.getWeight());
+
+            weightedCache.set("fresh", documentReference, "ext");
+
+            Assert.assertEquals("fresh", weightedCache.get(documentReference, "ext"));
+            Assert.assertEquals(5, weightedCache.getWeight());
+        } finally {
+            weightedCache.dispose();
+        }
+    }
 }
@@ -20,6 +20,8 @@
 package com.xpn.xwiki.internal.cache.rendering;
 
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 
 import org.jmock.Mock;
 import org.junit.Before;
@@ -27,9 +29,11 @@
 import org.xwiki.bridge.event.DocumentUpdatedEvent;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.observation.ObservationManager;
+import org.xwiki.observation.event.ApplicationStoppedEvent;
 import org.xwiki.test.MockConfigurationSource;
 
 import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.doc.XWikiDocument;
 import com.xpn.xwiki.test.AbstractBridgedXWikiComponentTestCase;
 
@@ -64,6 +68,14 @@ public void setUp() throws Exception
         this.renderingCache = getComponentManager().lookup(RenderingCache.class);
     }
 
+    @Override
+    protected void tearDown() throws Exception
+    {
+        this.renderingCache.dispose();
+
+        super.tearDown();
+    }
+
     @Override
     protected void registerComponents() throws Exception
     {
@@ -92,4 +104,115 @@ public void testGetSetRenderedContent() throws Exception
         assertNull("renderedContent", this.renderingCache.getRenderedContent(this.document.getDocumentReference(),
             "source", getContext()));
     }
+
+    @Test
+    public void testRenderedContentDependsOnSource() throws Exception
+    {
+        getConfigurationSource().setProperty("core.renderingcache.documents",
+            Collections.singletonList(this.document.getPrefixedFullName()));
+
+        this.renderingCache.setRenderedContent(this.document.getDocumentReference(), "source", "renderedContent",
+            getContext());
+
+        assertNull(this.renderingCache.getRenderedContent(this.document.getDocumentReference(), "source2",
+            getContext()));
+
+        getContext().setLanguage("fr");
+
+        assertNull(this.renderingCache.getRenderedContent(this.document.getDocumentReference(), "source",
+            getContext()));
+    }
+
+    @Test
+    public void testStaleWhileRevalidate() throws Exception
+    {
+        MockConfigurationSource source = getConfigurationSource();
+
+        source.setProperty("core.renderingcache.documents", Collections.singletonList(this.document
+            .getPrefixedFullName()));
+        source.setProperty("core.renderingcache.duration", 0);
+        source.setProperty("core.renderingcache.maxstaleness", 60);
+
+        final DocumentReference documentReference = this.document.getDocumentReference();
+
+        this.renderingCache.setRenderedContent(documentReference, "source", "renderedContent", getContext());
+
+        RenderingCacheRenderer renderer = new RenderingCacheRenderer()
+        {
+            public String render(XWikiContext context)
+            {
+                renderingCache.setRenderedContent(documentReference, "source", "newRenderedContent", context);
+
+                return "newRenderedContent";
+            }
+        };
+
+        // The result is immediately stale so it's returned while being refreshed
+        assertEquals("renderedContent", this.renderingCache.getRenderedContent(documentReference, "source", renderer,
+            getContext()));
+        assertEquals(1, this.renderingCache.getStatistics().getStaleHits());
+
+        for (int i = 0; i < 50 && this.renderingCache.getStatistics().getRefreshes() == 0; ++i) {
+            Thread.sleep(100);
+        }
+
+        assertEquals(1, this.renderingCache.getStatistics().getRefreshes());
+        assertEquals("newRenderedContent", this.renderingCache.getRenderedContent(documentReference, "source",
+            renderer, getContext()));
+
+        // Without a renderer stale results are not returned
+        assertNull(this.renderingCache.getRenderedContent(documentReference, "source", getContext()));
+    }
+
+    private Set<Thread> getRefresherThreads()
+    {
+        Set<Thread> threads = new HashSet<Thread>();
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.isAlive() && thread.getName().equals("Rendering cache refresher")) {
+                threads.add(thread);
+            }
+        }
+
+        return threads;
+    }
+
+    @Test
+    public void testRefresherIsStoppedWithTheApplication() throws Exception
+    {
+        MockConfigurationSource source = getConfigurationSource();
+
+        source.setProperty("core.renderingcache.documents", Collections.singletonList(this.document
+            .getPrefixedFullName()));
+        source.setProperty("core.renderingcache.duration", 0);
+        source.setProperty("core.renderingcache.maxstaleness", 60);
+
+        Set<Thread> previousThreads = getRefresherThreads();
+
+        final DocumentReference documentReference = this.document.getDocumentReference();
+        this.renderingCache.setRenderedContent(documentReference, "source", "renderedContent", getContext());
+        RenderingCacheRenderer renderer = new RenderingCacheRenderer()
+        {
+            public String render(XWikiContext context)
+            {
+                renderingCache.setRenderedContent(documentReference, "source", "newRenderedContent", context);
+
+                return "newRenderedContent";
+            }
+        };
+
+        // Start the refresher thread
+        this.renderingCache.getRenderedContent(documentReference, "source", renderer, getContext());
+        Set<Thread> threads = getRefresherThreads();
+        threads.removeAll(previousThreads);
+        assertEquals(1, threads.size());
+
+        getComponentManager().lookup(ObservationManager.class).notify(new ApplicationStoppedEvent(), null);
+
+        Thread thread = threads.iterator().next();
+        thread.join(5000);
+        assertFalse(thread.isAlive());
+
+        // Stale results are still returned, they can't be refreshed in the background anymore
+        assertNotNull(this.renderingCache.getRenderedContent(documentReference, "source", renderer, getContext()));
+    }
 }
@@ -0,0 +1,98 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.monitor.api;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link TimingHistogram}.
+ * 
+ * @version $Id$
+ */
+public class TimingHistogramTest
+{
+    private TimingHistogram histogram;
+
+    @Before
+    public void setUp()
+    {
+        this.histogram = new TimingHistogram();
+    }
+
+    @Test
+    public void testEmpty()
+    {
+        Assert.assertEquals(0, this.histogram.getCount());
+        Assert.assertEquals(0, this.histogram.getMeanTime(), 0);
+        Assert.assertEquals(0, this.histogram.getPercentile(99), 0);
+        Assert.assertEquals(0, this.histogram.getMaxTime(), 0);
+    }
+
+    @Test
+    public void testStatistics()
+    {
+        // 1ms to 1000ms
+        for (int i = 1; i <= 1000; ++i) {
+            this.histogram.record(i * 1000000L);
+        }
+
+        Assert.assertEquals(1000, this.histogram.getCount());
+        Assert.assertEquals(500500, this.histogram.getTotalTime(), 0.001);
+        Assert.assertEquals(500.5, this.histogram.getMeanTime(), 0.001);
+        Assert.assertEquals(1000, this.histogram.getMaxTime(), 0);
+        Assert.assertEquals(1000, this.histogram.getPercentile(100), 0);
+        assertAround(500, this.histogram.getPercentile(50));
+        assertAround(900, this.histogram.getPercentile(90));
+        assertAround(990, this.histogram.getPercentile(99));
+    }
+
+    @Test
+    public void testBuckets()
+    {
+        long previousUpperBound = -1;
+        for (long micros : new long[] {0, 1, 15, 16, 17, 31, 32, 1000, 123456789, Long.MAX_VALUE}) {
+            int bucket = TimingHistogram.getBucket(micros);
+            long upperBound = TimingHistogram.getBucketUpperBound(bucket);
+
+            Assert.assertTrue(micros <= upperBound);
+            Assert.assertTrue(bucket == 0 || micros > TimingHistogram.getBucketUpperBound(bucket - 1));
+            Assert.assertTrue(upperBound > previousUpperBound);
+            previousUpperBound = upperBound;
+        }
+    }
+
+    @Test
+    public void testReset()
+    {
+        this.histogram.record(1000000L);
+        this.histogram.reset();
+
+        Assert.assertEquals(0, this.histogram.getCount());
+        Assert.assertEquals(0, this.histogram.getMaxTime(), 0);
+    }
+
+    private void assertAround(double expected, double actual)
+    {
+        Assert.assertTrue("Expected around [" + expected + "] but got [" + actual + "]",
+            Math.abs(actual - expected) <= expected * 0.07);
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.plugin.ldap;
+
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.unboundid.ldap.listener.InMemoryDirectoryServer;
+import com.unboundid.ldap.listener.InMemoryDirectoryServerConfig;
+import com.unboundid.ldap.listener.InMemoryListenerConfig;
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiConfig;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.test.AbstractBridgedXWikiComponentTestCase;
+import com.xpn.xwiki.web.XWikiEngineContext;
+
+/**
+ * Test {@link XWikiLDAPConnection} pooling and {@link XWikiLDAPUtils} nested groups resolution against an embedded
+ * in-memory LDAP server.
+ * 
+ * @version $Id$
+ */
+public class XWikiLDAPConnectionTest extends AbstractBridgedXWikiComponentTestCase
+{
+    private static final String BASE_DN = "o=sevenSeas";
+
+    private static final String ADMIN_DN = "cn=admin," + BASE_DN;
+
+    private static final String ADMIN_PASSWORD = "secret";
+
+    private static final String GROUPS_DN = "ou=groups," + BASE_DN;
+
+    private static final String PEOPLE_DN = "ou=people," + BASE_DN;
+
+    private static final String TOP_GROUP_DN = "cn=top," + GROUPS_DN;
+
+    private static final String MIDDLE_GROUP_DN = "cn=middle," + GROUPS_DN;
+
+    private static final String BOTTOM_GROUP_DN = "cn=bottom," + GROUPS_DN;
+
+    private InMemoryDirectoryServer server;
+
+    private XWikiContext xcontext;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+
+        InMemoryDirectoryServerConfig config = new InMemoryDirectoryServerConfig(BASE_DN);
+        config.addAdditionalBindCredentials(ADMIN_DN, ADMIN_PASSWORD);
+        // Use a fixed port so that the server can be restarted on the same address
+        config.setListenerConfigs(InMemoryListenerConfig.createLDAPConfig("default", getFreePort()));
+        this.server = new InMemoryDirectoryServer(config);
+        this.server.add("dn: " + BASE_DN, "objectClass: organization", "o: sevenSeas");
+        this.server.add("dn: " + PEOPLE_DN, "objectClass: organizationalUnit", "ou: people");
+        this.server.add("dn: " + GROUPS_DN, "objectClass: organizationalUnit", "ou: groups");
+        for (String user : new String[] {"user1", "user2", "user3"}) {
+            this.server.add("dn: cn=" + user + "," + PEOPLE_DN, "objectClass: person", "cn: " + user, "sn: " + user);
+        }
+        this.server.add("dn: " + TOP_GROUP_DN, "objectClass: groupOfNames", "cn: top", "member: " + MIDDLE_GROUP_DN,
+            "member: cn=user1," + PEOPLE_DN);
+        this.server.add("dn: " + MIDDLE_GROUP_DN, "objectClass: groupOfNames", "cn: middle",
+            "member: " + BOTTOM_GROUP_DN, "member: cn=user2," + PEOPLE_DN);
+        // Loop back to the top group
+        this.server.add("dn: " + BOTTOM_GROUP_DN, "objectClass: groupOfNames", "cn: bottom",
+            "member: " + TOP_GROUP_DN, "member: cn=user3," + PEOPLE_DN);
+        this.server.startListening();
+
+        this.xcontext = new XWikiContext();
+        new XWiki(new XWikiConfig(), this.xcontext)
+        {
+            @Override
+            public void initXWiki(XWikiConfig config, XWikiContext context, XWikiEngineContext engine_context,
+                boolean noupdate) throws XWikiException
+            {
+                context.setWiki(this);
+                setConfig(config);
+            }
+
+            @Override
+            public String getXWikiPreference(String prefname, String default_value, XWikiContext context)
+            {
+                return default_value;
+            }
+        };
+
+        XWikiLDAPConnectionPool.getInstance().clear();
+        XWikiLDAPStatistics.getInstance().reset();
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        XWikiLDAPConnectionPool.getInstance().clear();
+        this.server.shutDown(true);
+
+        super.tearDown();
+    }
+
+    private static int getFreePort() throws Exception
+    {
+        ServerSocket socket = new ServerSocket(0);
+        try {
+            return socket.getLocalPort();
+        } finally {
+            socket.close();
+        }
+    }
+
+    private XWikiLDAPConnection open(String loginDN, String password) throws XWikiLDAPException
+    {
+        XWikiLDAPConnection connection = new XWikiLDAPConnection();
+        connection.open("localhost", this.server.getListenPort(), loginDN, password, null, false, this.xcontext);
+
+        return connection;
+    }
+
+    public void testConnectionIsReused() throws Exception
+    {
+        open(ADMIN_DN, ADMIN_PASSWORD).close();
+        open(ADMIN_DN, ADMIN_PASSWORD).close();
+
+        XWikiLDAPStatistics statistics = XWikiLDAPStatistics.getInstance();
+        assertEquals(1, statistics.getCreatedConnections());
+        assertEquals(1, statistics.getReusedConnections());
+        assertEquals(2, statistics.getCount(XWikiLDAPStatistics.OPERATION_BIND));
+        assertEquals(0, statistics.getActiveConnections());
+        assertEquals(1, statistics.getIdleConnections());
+    }
+
+    public void testReusedConnectionChecksCredentials() throws Exception
+    {
+        open(ADMIN_DN, ADMIN_PASSWORD).close();
+
+        try {
+            open(ADMIN_DN, "wrong");
+            fail("Should have failed to bind with a wrong password");
+        } catch (XWikiLDAPException expected) {
+            // expected
+        }
+
+        // The connection is still usable and has been given back to the pool
+        assertEquals(0, XWikiLDAPConnectionPool.getInstance().getActiveCount());
+        assertEquals(1, XWikiLDAPConnectionPool.getInstance().getIdleCount());
+    }
+
+    public void testClosedConnectionIsReplaced() throws Exception
+    {
+        open(ADMIN_DN, ADMIN_PASSWORD).close();
+
+        // Restart the server, which closes the pooled connection
+        this.server.shutDown(true);
+        this.server.startListening();
+
+        XWikiLDAPConnection connection = open(ADMIN_DN, ADMIN_PASSWORD);
+        assertNotNull(connection.searchLDAP(TOP_GROUP_DN, null, null, com.novell.ldap.LDAPConnection.SCOPE_BASE));
+        connection.close();
+
+        assertEquals(0, XWikiLDAPConnectionPool.getInstance().getActiveCount());
+    }
+
+    public void testMaxActiveConnections() throws Exception
+    {
+        XWikiLDAPConnection connection = open(ADMIN_DN, ADMIN_PASSWORD);
+        try {
+            // Configured after open() which configures the pool from the (empty) LDAP configuration
+            XWikiLDAPConnectionPool.getInstance().configure(1, 1, 300000, 100);
+
+            XWikiLDAPConnectionPool.getInstance().borrow("ldap://other:389");
+            fail("Should have failed to get a second connection");
+        } catch (XWikiLDAPException expected) {
+            // expected
+        } finally {
+            connection.close();
+        }
+    }
+
+    public void testNestedGroupsWithGraph() throws Exception
+    {
+        XWikiLDAPConnection connection = open(ADMIN_DN, ADMIN_PASSWORD);
+        try {
+            XWikiLDAPUtils ldapUtils = new XWikiLDAPUtils(connection);
+            ldapUtils.setUidAttributeName("cn");
+            ldapUtils.setBaseDN(BASE_DN);
+
+            XWikiLDAPGroupGraph graph = ldapUtils.getGroupGraph(this.xcontext);
+            assertNotNull(graph);
+            assertEquals(3, graph.size());
+
+            XWikiLDAPStatistics.getInstance().reset();
+
+            Map<String, String> members = new HashMap<String, String>();
+            List<String> subgroups = new ArrayList<String>();
+            assertTrue(ldapUtils.getGroupMembers(TOP_GROUP_DN, members, subgroups, graph, this.xcontext));
+
+            assertEquals(3, members.size());
+            assertEquals("user1", members.get(("cn=user1," + PEOPLE_DN).toLowerCase()));
+            assertEquals("user2", members.get(("cn=user2," + PEOPLE_DN).toLowerCase()));
+            assertEquals("user3", members.get(("cn=user3," + PEOPLE_DN).toLowerCase()));
+            assertEquals(3, subgroups.size());
+
+            // Everything has been resolved from the graph
+            assertEquals(0, XWikiLDAPStatistics.getInstance().getCount(XWikiLDAPStatistics.OPERATION_SEARCH));
+
+            // Same result than with one search per group and user
+            Map<String, String> searchedMembers = new HashMap<String, String>();
+            assertTrue(ldapUtils.getGroupMembers(TOP_GROUP_DN, searchedMembers, new ArrayList<String>(),
+                this.xcontext));
+            assertEquals(members, searchedMembers);
+            assertTrue(XWikiLDAPStatistics.getInstance().getCount(XWikiLDAPStatistics.OPERATION_SEARCH) >= 6);
+        } finally {
+            connection.close();
+        }
+    }
+}
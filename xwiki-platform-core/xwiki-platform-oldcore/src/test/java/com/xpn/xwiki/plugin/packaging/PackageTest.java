@@ -20,13 +20,19 @@
 package com.xpn.xwiki.plugin.packaging;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
 
+import org.apache.commons.io.IOUtils;
 import org.jmock.Mock;
 import org.xwiki.model.reference.DocumentReference;
 
@@ -56,6 +62,8 @@ protected void setUp() throws Exception
 
         // clone calls getVersioningStore but returning null will be satisfactory for the test.
         this.mockXWiki.stubs().method("getVersioningStore").will(returnValue(null));
+        // The streaming export serializes the documents without transaction when there's no Hibernate store.
+        this.mockXWiki.stubs().method("getHibernateStore").will(returnValue(null));
 
         getContext().setWiki((XWiki) this.mockXWiki.proxy());
     }
@@ -83,6 +91,60 @@ public void testImportWithHeterogeneousEncodingInFiles() throws Exception
             this.pack.getFiles().get(1).getDoc().getContent());
     }
 
+    public void testStreamingExport() throws Exception
+    {
+        for (int i = 0; i < 5; i++) {
+            XWikiDocument doc = new XWikiDocument(new DocumentReference("Wiki", "Main", "Document" + i));
+            doc.setContent("content " + i);
+            this.pack.add(doc, getContext());
+        }
+        this.pack.setWithVersions(false);
+        this.pack.setExportThreads(2);
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        this.pack.export(baos, getContext());
+
+        List<String> entries = new ArrayList<String>();
+        ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(baos.toByteArray()));
+        for (ZipEntry entry = zis.getNextEntry(); entry != null; entry = zis.getNextEntry()) {
+            entries.add(entry.getName());
+        }
+
+        // Documents are written in the package order, whatever the order in which they have been serialized
+        assertEquals(Arrays.asList("Main/Document0.xml", "Main/Document1.xml", "Main/Document2.xml",
+            "Main/Document3.xml", "Main/Document4.xml", "package.xml"), entries);
+        assertEquals(5, this.pack.getExportedDocuments());
+        assertEquals(baos.size(), this.pack.getExportedBytes());
+    }
+
+    public void testStreamingExportLoadsStoredDocumentsWhenSerializing() throws Exception
+    {
+        XWikiDocument storedDoc = new XWikiDocument(new DocumentReference("Wiki", "Main", "Stored"));
+        storedDoc.setContent("stored content");
+        storedDoc.setNew(false);
+        storedDoc.setContentDirty(false);
+        storedDoc.setMetaDataDirty(false);
+        this.mockXWiki.stubs().method("getDocument").will(returnValue(storedDoc));
+
+        this.pack.setWithVersions(false);
+        this.pack.setExportThreads(2);
+        this.pack.add(storedDoc, getContext());
+
+        // The package only keeps the identity of the document until it's exported
+        DocumentInfo docinfo = this.pack.getFiles().get(0);
+        assertTrue(docinfo.isLoadedOnExport());
+        assertEquals("", docinfo.getDoc().getContent());
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        this.pack.export(baos, getContext());
+
+        ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(baos.toByteArray()));
+        ZipEntry entry = zis.getNextEntry();
+        assertEquals("Main/Stored.xml", entry.getName());
+        assertTrue(IOUtils.toString(zis, "UTF-8").contains("<content>stored content</content>"));
+        assertEquals(1, this.pack.getExportedDocuments());
+    }
+
     private String getPackageXML(XWikiDocument docs[])
     {
         StringBuilder sb = new StringBuilder();
@@ -0,0 +1,306 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.store;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.apache.commons.dbcp.BasicDataSource;
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.integration.junit4.JMock;
+import org.jmock.integration.junit4.JUnit4Mockery;
+import org.jmock.lib.legacy.ClassImposteriser;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.xwiki.component.util.ReflectionUtils;
+
+/**
+ * Unit tests for the schema affinity of {@link DBCPConnectionProvider}.
+ * 
+ * @version $Id$
+ */
+@RunWith(JMock.class)
+public class DBCPConnectionProviderTest
+{
+    private Mockery mockery = new JUnit4Mockery()
+    {
+        {
+            setImposteriser(ClassImposteriser.INSTANCE);
+        }
+    };
+
+    private BasicDataSource dataSource;
+
+    private DBCPConnectionProvider provider;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.dataSource = this.mockery.mock(BasicDataSource.class);
+
+        this.provider = new DBCPConnectionProvider();
+        ReflectionUtils.setFieldValue(this.provider, "ds", this.dataSource);
+        ReflectionUtils.setFieldValue(this.provider, "schemaAffinity", true);
+    }
+
+    private void configurePool(final int maxIdle, final boolean testOnBorrow)
+    {
+        this.mockery.checking(new Expectations()
+        {
+            {
+                allowing(dataSource).getMaxIdle();
+                will(returnValue(maxIdle));
+                allowing(dataSource).getMaxActive();
+                will(returnValue(8));
+                allowing(dataSource).getNumActive();
+                will(returnValue(1));
+                allowing(dataSource).getNumIdle();
+                will(returnValue(0));
+                allowing(dataSource).getMinEvictableIdleTimeMillis();
+                will(returnValue(1800000L));
+                allowing(dataSource).getTestOnBorrow();
+                will(returnValue(testOnBorrow));
+                allowing(dataSource).getValidationQuery();
+                will(returnValue("select 1"));
+            }
+        });
+    }
+
+    /**
+     * @return a connection expected to be rolled back when kept aside
+     */
+    private Connection mockConnection(String name) throws SQLException
+    {
+        final Connection connection = this.mockery.mock(Connection.class, name);
+        this.mockery.checking(new Expectations()
+        {
+            {
+                allowing(connection).isClosed();
+                will(returnValue(false));
+                allowing(connection).getAutoCommit();
+                will(returnValue(false));
+                allowing(connection).isReadOnly();
+                will(returnValue(false));
+                allowing(connection).rollback();
+            }
+        });
+
+        return connection;
+    }
+
+    /**
+     * Simulate a transaction: request a connection for the schema, switch it if needed and release it.
+     */
+    private Connection use(String schema) throws SQLException
+    {
+        this.provider.setRequestedSchema(schema);
+        Connection connection = this.provider.getConnection();
+        this.provider.setRequestedSchema(null);
+        if (!this.provider.isBoundToSchema(connection, schema)) {
+            this.provider.setBoundSchema(connection, schema);
+        }
+        this.provider.closeConnection(connection);
+
+        return connection;
+    }
+
+    @Test
+    public void testReleasedConnectionIsReusedForTheSameSchema() throws Exception
+    {
+        configurePool(8, false);
+        final Connection connection = mockConnection("connection");
+        this.mockery.checking(new Expectations()
+        {
+            {
+                oneOf(dataSource).getConnection();
+                will(returnValue(connection));
+            }
+        });
+
+        Assert.assertSame(connection, use("wiki"));
+        Assert.assertEquals(1, this.provider.getAffineConnections());
+
+        Assert.assertSame(connection, use("wiki"));
+        Assert.assertEquals(1, this.provider.getAffineConnections());
+
+        Assert.assertEquals(2, this.provider.getConnectionRequests());
+        Assert.assertEquals(1, this.provider.getAffinityHits());
+        Assert.assertEquals(1, this.provider.getSchemaSwitches());
+        Assert.assertEquals(1, this.provider.getAvoidedSchemaSwitches());
+        Assert.assertEquals(0, this.provider.getActiveConnections());
+
+        this.provider.reset();
+
+        Assert.assertEquals(0, this.provider.getConnectionRequests());
+        Assert.assertEquals(0, this.provider.getAffinityHits());
+        Assert.assertEquals(0, this.provider.getSchemaSwitches());
+        Assert.assertEquals(0, this.provider.getAvoidedSchemaSwitches());
+    }
+
+    @Test
+    public void testConnectionBoundToAnotherSchemaIsReusedWhenThePoolIsExhausted() throws Exception
+    {
+        configurePool(8, false);
+        final Connection connection = mockConnection("connection");
+        this.mockery.checking(new Expectations()
+        {
+            {
+                oneOf(dataSource).getConnection();
+                will(returnValue(connection));
+            }
+        });
+
+        use("wiki1");
+
+        Assert.assertSame(connection, use("wiki2"));
+        Assert.assertEquals(0, this.provider.getAffinityHits());
+        Assert.assertEquals(2, this.provider.getSchemaSwitches());
+        Assert.assertEquals(0, this.provider.getAvoidedSchemaSwitches());
+    }
+
+    @Test
+    public void testConnectionIsNotKeptAboveMaxIdle() throws Exception
+    {
+        configurePool(0, false);
+
+        final Connection connection = mockConnection("connection");
+        this.mockery.checking(new Expectations()
+        {
+            {
+                oneOf(dataSource).getConnection();
+                will(returnValue(connection));
+                oneOf(connection).close();
+            }
+        });
+
+        use("wiki");
+
+        Assert.assertEquals(0, this.provider.getAffineConnections());
+    }
+
+    @Test
+    public void testConnectionWithoutSchemaIsNotKept() throws Exception
+    {
+        configurePool(8, false);
+        final Connection connection = mockConnection("connection");
+        this.mockery.checking(new Expectations()
+        {
+            {
+                oneOf(dataSource).getConnection();
+                will(returnValue(connection));
+                oneOf(connection).close();
+            }
+        });
+
+        this.provider.closeConnection(this.provider.getConnection());
+
+        Assert.assertEquals(0, this.provider.getAffineConnections());
+    }
+
+    @Test
+    public void testExpiredConnectionIsGivenBackToThePool() throws Exception
+    {
+        configurePool(8, false);
+        ReflectionUtils.setFieldValue(this.provider, "affinityMaxIdleTime", 1L);
+
+        final Connection connection = mockConnection("connection");
+        final Connection otherConnection = mockConnection("otherConnection");
+        this.mockery.checking(new Expectations()
+        {
+            {
+                oneOf(dataSource).getConnection();
+                will(returnValue(connection));
+                oneOf(connection).close();
+                oneOf(dataSource).getConnection();
+                will(returnValue(otherConnection));
+            }
+        });
+
+        use("wiki");
+        Thread.sleep(20);
+
+        Assert.assertSame(otherConnection, use("wiki"));
+        Assert.assertEquals(0, this.provider.getAffinityHits());
+    }
+
+    @Test
+    public void testKeptConnectionIsValidatedWhenTakenBack() throws Exception
+    {
+        configurePool(8, true);
+
+        final Connection connection = mockConnection("connection");
+        final Statement statement = this.mockery.mock(Statement.class);
+        final ResultSet result = this.mockery.mock(ResultSet.class);
+        this.mockery.checking(new Expectations()
+        {
+            {
+                oneOf(dataSource).getConnection();
+                will(returnValue(connection));
+                oneOf(connection).createStatement();
+                will(returnValue(statement));
+                oneOf(statement).executeQuery("select 1");
+                will(returnValue(result));
+                oneOf(result).next();
+                will(returnValue(true));
+                oneOf(result).close();
+                oneOf(statement).close();
+            }
+        });
+
+        use("wiki");
+
+        Assert.assertSame(connection, use("wiki"));
+        Assert.assertEquals(1, this.provider.getAffinityHits());
+        Assert.assertEquals(0, this.provider.getInvalidAffineConnections());
+    }
+
+    @Test
+    public void testInvalidKeptConnectionIsGivenBackToThePool() throws Exception
+    {
+        configurePool(8, true);
+
+        final Connection connection = mockConnection("connection");
+        final Connection otherConnection = mockConnection("otherConnection");
+        this.mockery.checking(new Expectations()
+        {
+            {
+                oneOf(dataSource).getConnection();
+                will(returnValue(connection));
+                oneOf(connection).createStatement();
+                will(throwException(new SQLException("Connection reset")));
+                oneOf(connection).close();
+                oneOf(dataSource).getConnection();
+                will(returnValue(otherConnection));
+            }
+        });
+
+        use("wiki");
+
+        Assert.assertSame(otherConnection, use("wiki"));
+        Assert.assertEquals(0, this.provider.getAffinityHits());
+        Assert.assertEquals(1, this.provider.getInvalidAffineConnections());
+        Assert.assertEquals(1, this.provider.getAffineConnections());
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.store;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link DocumentExistenceIndex}.
+ * 
+ * @version $Id$
+ */
+public class DocumentExistenceIndexTest
+{
+    private DocumentExistenceIndex index;
+
+    @Before
+    public void setUp()
+    {
+        this.index = new DocumentExistenceIndex();
+    }
+
+    @Test
+    public void testNotBuilt()
+    {
+        Assert.assertNull(this.index.exists("wiki", "Space.Page"));
+
+        // Changes to a wiki which is not indexed are ignored
+        this.index.add("wiki", "Space.Page");
+        Assert.assertNull(this.index.exists("wiki", "Space.Page"));
+    }
+
+    @Test
+    public void testBuild()
+    {
+        Assert.assertTrue(this.index.startBuilding("wiki"));
+        Assert.assertFalse(this.index.startBuilding("wiki"));
+        Assert.assertNull(this.index.exists("wiki", "Space.Page"));
+
+        this.index.build("wiki", Arrays.asList("Space.Page", "Main.WebHome"));
+
+        Assert.assertTrue(this.index.exists("wiki", "Space.Page"));
+        Assert.assertTrue(this.index.exists("wiki", "Main.WebHome"));
+        Assert.assertFalse(this.index.exists("wiki", "Space.Missing"));
+        Assert.assertNull(this.index.exists("otherwiki", "Space.Page"));
+        Assert.assertFalse(this.index.startBuilding("wiki"));
+    }
+
+    @Test
+    public void testCancelBuilding()
+    {
+        Assert.assertTrue(this.index.startBuilding("wiki"));
+        this.index.cancelBuilding("wiki");
+
+        Assert.assertNull(this.index.exists("wiki", "Space.Page"));
+        Assert.assertTrue(this.index.startBuilding("wiki"));
+    }
+
+    @Test
+    public void testAddAndRemove()
+    {
+        this.index.startBuilding("wiki");
+        this.index.build("wiki", Collections.<String> emptyList());
+
+        this.index.add("wiki", "Space.Page");
+        Assert.assertTrue(this.index.exists("wiki", "Space.Page"));
+
+        this.index.remove("wiki", "Space.Page");
+        Assert.assertFalse(this.index.exists("wiki", "Space.Page"));
+
+        // Removing a missing document does nothing
+        this.index.remove("wiki", "Space.Page");
+        Assert.assertFalse(this.index.exists("wiki", "Space.Page"));
+    }
+
+    @Test
+    public void testChangesWhileBuilding()
+    {
+        this.index.startBuilding("wiki");
+
+        // Changes done after the list of documents has been loaded
+        this.index.add("wiki", "Space.Created");
+        this.index.remove("wiki", "Space.Deleted");
+
+        this.index.build("wiki", Arrays.asList("Space.Page", "Space.Deleted"));
+
+        Assert.assertTrue(this.index.exists("wiki", "Space.Page"));
+        Assert.assertTrue(this.index.exists("wiki", "Space.Created"));
+        Assert.assertFalse(this.index.exists("wiki", "Space.Deleted"));
+    }
+
+    @Test
+    public void testManyDocuments()
+    {
+        List<String> documents = new ArrayList<String>();
+        for (int i = 0; i < 10000; ++i) {
+            documents.add("Space" + (i % 100) + ".Page" + i);
+        }
+
+        this.index.startBuilding("wiki");
+        this.index.build("wiki", documents.subList(0, 5000));
+        for (String document : documents.subList(5000, documents.size())) {
+            this.index.add("wiki", document);
+        }
+
+        // Remove one document out of two to exercise the removal of colliding entries
+        for (int i = 0; i < documents.size(); i += 2) {
+            this.index.remove("wiki", documents.get(i));
+        }
+
+        for (int i = 0; i < documents.size(); ++i) {
+            Assert.assertEquals(documents.get(i), i % 2 == 1, this.index.exists("wiki", documents.get(i)));
+        }
+    }
+
+    @Test
+    public void testRemoveWiki()
+    {
+        this.index.startBuilding("wiki");
+        this.index.build("wiki", Arrays.asList("Space.Page"));
+
+        this.index.removeWiki("wiki");
+
+        Assert.assertNull(this.index.exists("wiki", "Space.Page"));
+    }
+}
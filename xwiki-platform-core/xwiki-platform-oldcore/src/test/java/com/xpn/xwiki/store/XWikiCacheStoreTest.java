@@ -0,0 +1,234 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.store;
+
+import java.util.Arrays;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+
+import org.hibernate.Transaction;
+import org.jmock.Expectations;
+import org.jmock.api.Invocation;
+import org.jmock.lib.action.CustomAction;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheFactory;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.observation.remote.RemoteObservationManagerContext;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.test.AbstractBridgedComponentTestCase;
+
+/**
+ * Unit tests for the index of existing documents maintained by {@link XWikiCacheStore}.
+ * 
+ * @version $Id$
+ */
+public class XWikiCacheStoreTest extends AbstractBridgedComponentTestCase
+{
+    private static final String FULLNAME = "Space.Page";
+
+    private XWikiHibernateStore mockStore;
+
+    private RemoteObservationManagerContext mockRemoteContext;
+
+    private XWikiCacheStore cacheStore;
+
+    private XWikiDocument document;
+
+    private XWikiDocument translation;
+
+    /**
+     * The synchronization registered on the transaction of the last save or delete.
+     */
+    private Synchronization synchronization;
+
+    @Before
+    @Override
+    public void setUp() throws Exception
+    {
+        super.setUp();
+
+        final XWiki mockXWiki = getMockery().mock(XWiki.class);
+        final CacheFactory mockCacheFactory = getMockery().mock(CacheFactory.class);
+        final Cache< ? > mockCache = getMockery().mock(Cache.class);
+        this.mockStore = getMockery().mock(XWikiHibernateStore.class);
+        this.mockRemoteContext = registerMockComponent(RemoteObservationManagerContext.class);
+
+        getContext().setWiki(mockXWiki);
+        getContext().setDatabase("wiki");
+
+        getMockery().checking(new Expectations()
+        {
+            {
+                allowing(mockXWiki).Param(with(any(String.class)));
+                will(returnValue(null));
+                allowing(mockXWiki).Param("xwiki.store.cache.existenceindex", "1");
+                will(returnValue("1"));
+                allowing(mockXWiki).getCacheFactory();
+                will(returnValue(mockCacheFactory));
+                allowing(mockCacheFactory).newCache(with(any(CacheConfiguration.class)));
+                will(returnValue(mockCache));
+                allowing(mockCache).get(with(any(String.class)));
+                will(returnValue(null));
+                ignoring(mockCache);
+
+                allowing(mockStore).search("select distinct doc.fullName from XWikiDocument as doc", 0, 0,
+                    getContext());
+                will(returnValue(Arrays.asList(FULLNAME)));
+            }
+        });
+
+        this.cacheStore = new XWikiCacheStore(this.mockStore, getContext());
+
+        this.document = new XWikiDocument(new DocumentReference("wiki", "Space", "Page"));
+        this.translation = new XWikiDocument(new DocumentReference("wiki", "Space", "Page"));
+        this.translation.setLanguage("fr");
+
+        // Build the index of the wiki
+        Assert.assertTrue(this.cacheStore.exists(new XWikiDocument(new DocumentReference("wiki", "Space", "Page")),
+            getContext()));
+    }
+
+    private Boolean isIndexed()
+    {
+        return this.cacheStore.getExistenceIndex().exists("wiki", FULLNAME);
+    }
+
+    /**
+     * @param transaction the write transaction the store is in after the save or delete, null if it's committed
+     */
+    private void setTransaction(final Transaction transaction)
+    {
+        getMockery().checking(new Expectations()
+        {
+            {
+                allowing(mockStore).getWriteTransaction(getContext());
+                will(returnValue(transaction));
+                if (transaction != null) {
+                    oneOf(transaction).registerSynchronization(with(any(Synchronization.class)));
+                    will(new CustomAction("record the synchronization")
+                    {
+                        public Object invoke(Invocation invocation)
+                        {
+                            synchronization = (Synchronization) invocation.getParameter(0);
+                            return null;
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    @Test
+    public void testDeletingTheDefaultLanguageKeepsTheDocumentWhileTranslationsRemain() throws Exception
+    {
+        setTransaction(null);
+        getMockery().checking(new Expectations()
+        {
+            {
+                oneOf(mockStore).deleteXWikiDoc(document, getContext());
+                oneOf(mockStore).exists(document, getContext());
+                will(returnValue(true));
+                oneOf(mockStore).deleteXWikiDoc(translation, getContext());
+                oneOf(mockStore).exists(translation, getContext());
+                will(returnValue(false));
+            }
+        });
+
+        this.cacheStore.deleteXWikiDoc(this.document, getContext());
+
+        Assert.assertEquals(Boolean.TRUE, isIndexed());
+
+        this.cacheStore.deleteXWikiDoc(this.translation, getContext());
+
+        Assert.assertEquals(Boolean.FALSE, isIndexed());
+    }
+
+    @Test
+    public void testRemoteDeletionOfTheDefaultLanguageKeepsTheDocumentWhileTranslationsRemain() throws Exception
+    {
+        setTransaction(null);
+        getMockery().checking(new Expectations()
+        {
+            {
+                allowing(mockRemoteContext).isRemoteState();
+                will(returnValue(true));
+                oneOf(mockStore).exists(document, getContext());
+                will(returnValue(true));
+            }
+        });
+
+        this.cacheStore.onEvent(new DocumentDeletedEvent(this.document.getDocumentReference()), this.document,
+            getContext());
+
+        Assert.assertEquals(Boolean.TRUE, isIndexed());
+    }
+
+    @Test
+    public void testDeletionRolledBackEvictsTheIndex() throws Exception
+    {
+        final Transaction mockTransaction = getMockery().mock(Transaction.class);
+        setTransaction(mockTransaction);
+        getMockery().checking(new Expectations()
+        {
+            {
+                oneOf(mockStore).deleteXWikiDoc(document, getContext());
+                oneOf(mockStore).exists(document, getContext());
+                will(returnValue(false));
+            }
+        });
+
+        this.cacheStore.deleteXWikiDoc(this.document, getContext());
+
+        Assert.assertEquals(Boolean.FALSE, isIndexed());
+
+        this.synchronization.afterCompletion(Status.STATUS_ROLLEDBACK);
+
+        // The index will be built again from what has really been committed
+        Assert.assertNull(isIndexed());
+    }
+
+    @Test
+    public void testSaveCommittedIsKeptInTheIndex() throws Exception
+    {
+        final XWikiDocument newDocument = new XWikiDocument(new DocumentReference("wiki", "Space", "NewPage"));
+        final Transaction mockTransaction = getMockery().mock(Transaction.class);
+        setTransaction(mockTransaction);
+        getMockery().checking(new Expectations()
+        {
+            {
+                oneOf(mockStore).saveXWikiDoc(newDocument, getContext(), true);
+            }
+        });
+
+        this.cacheStore.saveXWikiDoc(newDocument, getContext());
+        this.synchronization.afterCompletion(Status.STATUS_COMMITTED);
+
+        Assert.assertEquals(Boolean.TRUE, this.cacheStore.getExistenceIndex().exists("wiki", "Space.NewPage"));
+        Assert.assertEquals(Boolean.TRUE, isIndexed());
+    }
+}
@@ -0,0 +1,345 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.store;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.suigeneris.jrcs.rcs.Version;
+import org.xwiki.model.reference.DocumentReference;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiConfig;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiAttachment;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.objects.BaseProperty;
+import com.xpn.xwiki.test.AbstractBridgedComponentTestCase;
+
+/**
+ * Copies the same wiki with {@link XWikiHibernateStore#copyWiki(String, String, XWikiContext)} and document by
+ * document with {@link XWiki#copyWiki(String, String, String, boolean, boolean, XWikiContext)}, in an in-memory HSQLDB
+ * database, and checks that both copies contain the same documents, objects, attachments and history.
+ * <p>
+ * The wiki names are upper case since HSQLDB folds the unquoted schema names used by Hibernate to upper case while
+ * the schemas of the wikis are created with quoted names.
+ * 
+ * @version $Id$
+ */
+public class XWikiHibernateStoreCopyWikiTest extends AbstractBridgedComponentTestCase
+{
+    private static final String SOURCE_WIKI = "TEMPLATE";
+
+    private static final String BULK_WIKI = "BULK";
+
+    private static final String DOCUMENT_WIKI = "DOCUMENTS";
+
+    private static final String SPACE = "Test";
+
+    private XWiki xwiki;
+
+    private XWikiHibernateStore store;
+
+    @Before
+    @Override
+    public void setUp() throws Exception
+    {
+        super.setUp();
+
+        XWikiConfig config = new XWikiConfig();
+        config.setProperty("xwiki.virtual", "1");
+        config.setProperty("xwiki.store.hibernate.path", "/hibernate-copywiki.cfg.xml");
+        config.setProperty("xwiki.store.cache", "0");
+        config.setProperty("xwiki.recyclebin", "0");
+        config.setProperty("storage.attachment.recyclebin", "0");
+        config.setProperty("xwiki.render.velocity.macrolist", "");
+
+        this.xwiki = new XWiki(config, getContext())
+        {
+            protected void registerWikiMacros()
+            {
+            }
+
+            // Avoid all the error at XWiki initialization
+            @Override
+            public String getXWikiPreference(String prefname, String defaultValue, XWikiContext context)
+            {
+                if (prefname.equals("plugins") || prefname.startsWith("macros_")) {
+                    return defaultValue;
+                } else {
+                    return super.getXWikiPreference(prefname, defaultValue, context);
+                }
+            }
+        };
+        getContext().setWiki(this.xwiki);
+        getContext().setUser("XWiki.Admin");
+
+        this.store = this.xwiki.getHibernateStore();
+
+        for (String wiki : Arrays.asList(SOURCE_WIKI, BULK_WIKI, DOCUMENT_WIKI)) {
+            this.store.createWiki(wiki, getContext());
+            getContext().setDatabase(wiki);
+            this.store.updateSchema(getContext(), true);
+            getContext().setDatabase(getContext().getMainXWiki());
+        }
+
+        createSourceWiki();
+    }
+
+    @After
+    @Override
+    public void tearDown() throws Exception
+    {
+        getContext().setDatabase(getContext().getMainXWiki());
+        this.store.shutdownHibernate(getContext());
+
+        super.tearDown();
+    }
+
+    /**
+     * Fill the source wiki with a class, documents with objects, a translation, attachments and several versions.
+     */
+    private void createSourceWiki() throws Exception
+    {
+        XWikiContext context = getContext();
+        context.setDatabase(SOURCE_WIKI);
+
+        DocumentReference classReference = new DocumentReference(SOURCE_WIKI, SPACE, "TestClass");
+        XWikiDocument classDocument = new XWikiDocument(classReference);
+        classDocument.getXClass().addTextField("name", "Name", 30);
+        classDocument.getXClass().addNumberField("age", "Age", 5, "integer");
+        classDocument.getXClass().addTextAreaField("description", "Description", 40, 5);
+        this.xwiki.saveDocument(classDocument, "Create the class", context);
+
+        XWikiDocument page = new XWikiDocument(new DocumentReference(SOURCE_WIKI, SPACE, "Page"));
+        page.setDefaultLanguage("en");
+        page.setContent("first version");
+        BaseObject object = page.newXObject(classReference, context);
+        object.setStringValue("name", "first");
+        object.setIntValue("age", 1);
+        object.setLargeStringValue("description", "first object");
+        page.addAttachment("file.txt", "attachment content".getBytes("UTF-8"), context);
+        this.xwiki.saveDocument(page, "First version", context);
+
+        page = this.xwiki.getDocument(page.getDocumentReference(), context);
+        page.setContent("second version");
+        object = page.newXObject(classReference, context);
+        object.setStringValue("name", "second");
+        object.setIntValue("age", 2);
+        page.addAttachment("file.txt", "updated attachment content".getBytes("UTF-8"), context);
+        page.addAttachment("other.bin", new byte[] {0, 1, 2, 3}, context);
+        // The copies are not minor edits, whatever the last edit was
+        this.xwiki.saveDocument(page, "Second version", true, context);
+
+        XWikiDocument translation = new XWikiDocument(page.getDocumentReference());
+        translation.setLanguage("fr");
+        translation.setDefaultLanguage("en");
+        translation.setTranslation(1);
+        translation.setContent("traduction");
+        this.xwiki.saveDocument(translation, "Translation", context);
+
+        XWikiDocument other = new XWikiDocument(new DocumentReference(SOURCE_WIKI, "Other", "WebHome"));
+        other.setContent("other space");
+        this.xwiki.saveDocument(other, "Other space", context);
+
+        context.setDatabase(context.getMainXWiki());
+    }
+
+    @Test
+    public void testBulkCopyMatchesDocumentByDocumentCopy() throws Exception
+    {
+        XWikiContext context = getContext();
+
+        Assert.assertTrue(this.store.copyWiki(SOURCE_WIKI, BULK_WIKI, context));
+        Assert.assertEquals(3, this.xwiki.copyWiki(SOURCE_WIKI, DOCUMENT_WIKI, null, false, false, context));
+
+        // Nothing is copied in a wiki which already contains documents
+        Assert.assertFalse(this.store.copyWiki(SOURCE_WIKI, BULK_WIKI, context));
+
+        List<String> bulkNames = getDocumentNames(BULK_WIKI);
+        Assert.assertEquals(Arrays.asList("Other.WebHome", "Test.Page", "Test.TestClass"), bulkNames);
+        Assert.assertEquals(bulkNames, getDocumentNames(DOCUMENT_WIKI));
+
+        for (String name : bulkNames) {
+            DocumentReference bulkReference = getReference(BULK_WIKI, name);
+            DocumentReference documentReference = getReference(DOCUMENT_WIKI, name);
+
+            context.setDatabase(BULK_WIKI);
+            XWikiDocument bulkDocument = this.xwiki.getDocument(bulkReference, context);
+            context.setDatabase(DOCUMENT_WIKI);
+            XWikiDocument document = this.xwiki.getDocument(documentReference, context);
+
+            assertCopiedDocument(SOURCE_WIKI + ':' + name, bulkDocument, document);
+
+            context.setDatabase(BULK_WIKI);
+            List<String> bulkTranslations = bulkDocument.getTranslationList(context);
+            context.setDatabase(DOCUMENT_WIKI);
+            Assert.assertEquals(bulkTranslations, document.getTranslationList(context));
+
+            for (String language : bulkTranslations) {
+                context.setDatabase(BULK_WIKI);
+                XWikiDocument bulkTranslation = bulkDocument.getTranslatedDocument(language, context);
+                context.setDatabase(DOCUMENT_WIKI);
+                XWikiDocument translation = document.getTranslatedDocument(language, context);
+
+                Assert.assertEquals(language, bulkTranslation.getLanguage());
+                assertCopiedDocument(SOURCE_WIKI + ':' + name, bulkTranslation, translation);
+            }
+        }
+
+        context.setDatabase(BULK_WIKI);
+        XWikiDocument page = this.xwiki.getDocument(getReference(BULK_WIKI, "Test.Page"), context);
+        Assert.assertEquals(Arrays.asList("fr"), page.getTranslationList(context));
+        Assert.assertEquals(2, page.getXObjects(new DocumentReference(BULK_WIKI, SPACE, "TestClass")).size());
+        Assert.assertEquals(2, page.getAttachmentList().size());
+    }
+
+    private List<String> getDocumentNames(String wiki) throws Exception
+    {
+        String database = getContext().getDatabase();
+        try {
+            getContext().setDatabase(wiki);
+            return this.store.search("select distinct doc.fullName from XWikiDocument as doc order by doc.fullName",
+                0, 0, getContext());
+        } finally {
+            getContext().setDatabase(database);
+        }
+    }
+
+    private DocumentReference getReference(String wiki, String fullName)
+    {
+        int index = fullName.indexOf('.');
+
+        return new DocumentReference(wiki, fullName.substring(0, index), fullName.substring(index + 1));
+    }
+
+    /**
+     * @param source the serialized reference of the source document
+     * @param bulkDocument the document copied by {@link XWikiHibernateStore#copyWiki(String, String, XWikiContext)}
+     * @param document the document copied by {@link XWiki#copyDocument(DocumentReference, DocumentReference, String,
+     *            boolean, XWikiContext)}
+     */
+    private void assertCopiedDocument(String source, XWikiDocument bulkDocument, XWikiDocument document)
+        throws Exception
+    {
+        XWikiContext context = getContext();
+
+        Assert.assertFalse(bulkDocument.isNew());
+        Assert.assertFalse(document.isNew());
+
+        // The copied document markers
+        Assert.assertEquals("Copied from " + source, bulkDocument.getComment());
+        Assert.assertEquals(document.getComment(), bulkDocument.getComment());
+        Assert.assertFalse(bulkDocument.isMinorEdit());
+        Assert.assertEquals(document.isMinorEdit(), bulkDocument.isMinorEdit());
+
+        Assert.assertEquals(document.getId(), bulkDocument.getId());
+        Assert.assertEquals(document.getVersion(), bulkDocument.getVersion());
+        Assert.assertEquals(document.getLanguage(), bulkDocument.getLanguage());
+        Assert.assertEquals(document.getDefaultLanguage(), bulkDocument.getDefaultLanguage());
+        Assert.assertEquals(document.getTranslation(), bulkDocument.getTranslation());
+        Assert.assertEquals(document.getContent(), bulkDocument.getContent());
+        Assert.assertEquals(document.getTitle(), bulkDocument.getTitle());
+        Assert.assertEquals(document.getSyntaxId(), bulkDocument.getSyntaxId());
+        Assert.assertEquals(document.getAuthor(), bulkDocument.getAuthor());
+        Assert.assertEquals(document.getCreator(), bulkDocument.getCreator());
+        Assert.assertEquals(document.getXClassXML(), bulkDocument.getXClassXML());
+
+        // Objects, ignoring their GUID which is regenerated by the document by document copy
+        Map<DocumentReference, List<BaseObject>> bulkObjects = bulkDocument.getXObjects();
+        Map<DocumentReference, List<BaseObject>> objects = document.getXObjects();
+        Assert.assertEquals(getLocalReferences(objects.keySet()), getLocalReferences(bulkObjects.keySet()));
+        for (Map.Entry<DocumentReference, List<BaseObject>> entry : bulkObjects.entrySet()) {
+            List<BaseObject> bulkClassObjects = entry.getValue();
+            DocumentReference classReference = new DocumentReference(document.getWikiName(),
+                entry.getKey().getLastSpaceReference().getName(), entry.getKey().getName());
+            List<BaseObject> classObjects = document.getXObjects(classReference);
+            Assert.assertEquals(classObjects.size(), bulkClassObjects.size());
+            for (int i = 0; i < bulkClassObjects.size(); i++) {
+                assertCopiedObject(classObjects.get(i), bulkClassObjects.get(i));
+            }
+        }
+
+        // Attachments
+        List<XWikiAttachment> bulkAttachments = bulkDocument.getAttachmentList();
+        List<XWikiAttachment> attachments = document.getAttachmentList();
+        Assert.assertEquals(attachments.size(), bulkAttachments.size());
+        for (XWikiAttachment bulkAttachment : bulkAttachments) {
+            XWikiAttachment attachment = document.getAttachment(bulkAttachment.getFilename());
+            Assert.assertNotNull(attachment);
+            Assert.assertEquals(attachment.getVersion(), bulkAttachment.getVersion());
+            Assert.assertEquals(attachment.getFilesize(), bulkAttachment.getFilesize());
+            context.setDatabase(document.getWikiName());
+            byte[] content = attachment.getContent(context);
+            context.setDatabase(bulkDocument.getWikiName());
+            Assert.assertArrayEquals(content, bulkAttachment.getContent(context));
+        }
+
+        // History
+        context.setDatabase(document.getWikiName());
+        List<String> versions = toStrings(document.getRevisions(context));
+        context.setDatabase(bulkDocument.getWikiName());
+        Assert.assertEquals(versions, toStrings(bulkDocument.getRevisions(context)));
+    }
+
+    private void assertCopiedObject(BaseObject object, BaseObject bulkObject)
+    {
+        if (object == null || bulkObject == null) {
+            Assert.assertSame(object, bulkObject);
+            return;
+        }
+
+        Assert.assertEquals(object.getNumber(), bulkObject.getNumber());
+        Assert.assertEquals(object.getPropertyList(), bulkObject.getPropertyList());
+        for (String propertyName : bulkObject.getPropertyList()) {
+            Assert.assertEquals(((BaseProperty) object.get(propertyName)).getValue(),
+                ((BaseProperty) bulkObject.get(propertyName)).getValue());
+        }
+    }
+
+    private Set<String> getLocalReferences(Iterable<DocumentReference> references)
+    {
+        Set<String> names = new TreeSet<String>();
+        for (DocumentReference reference : references) {
+            names.add(reference.getLastSpaceReference().getName() + '.' + reference.getName());
+        }
+
+        return names;
+    }
+
+    private List<String> toStrings(Version[] versions)
+    {
+        List<String> strings = new ArrayList<String>();
+        for (Version version : versions) {
+            strings.add(version.toString());
+        }
+
+        return strings;
+    }
+}
@@ -0,0 +1,359 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.store;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.jmock.Expectations;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.xwiki.model.reference.DocumentReference;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.objects.BaseProperty;
+import com.xpn.xwiki.objects.ListProperty;
+import com.xpn.xwiki.test.AbstractBridgedComponentTestCase;
+
+/**
+ * Counts the statements sent by {@link XWikiHibernateStore#saveXWikiDoc(XWikiDocument, XWikiContext, boolean)} when
+ * saving the objects of a document, for some typical edits of a document having {@link #OBJECTS} objects with
+ * {@link #PROPERTIES} properties each. The document is saved in a transaction started by the caller.
+ * 
+ * @version $Id$
+ * @since 3.2M1
+ */
+public class XWikiHibernateStoreObjectsSaveTest extends AbstractBridgedComponentTestCase
+{
+    private static final int OBJECTS = 100;
+
+    private static final int PROPERTIES = 3;
+
+    private static final DocumentReference CLASS_REFERENCE = new DocumentReference("xwiki", "Space", "Class");
+
+    /**
+     * A session recording the statements it receives, simulating a database which contains the objects and properties
+     * of {@link #existingObjects}.
+     */
+    private class CountingSession implements InvocationHandler
+    {
+        private int queries;
+
+        private int inserts;
+
+        private int updates;
+
+        private int deletes;
+
+        private boolean documentExists;
+
+        private Set<Integer> existingObjects = new HashSet<Integer>();
+
+        public Object invoke(Object proxy, Method method, Object[] args)
+        {
+            String name = method.getName();
+            if (name.equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            } else if (name.equals("equals")) {
+                return proxy == args[0];
+            } else if (name.equals("createQuery")) {
+                this.queries++;
+                return createQuery((String) args[0]);
+            } else if (name.equals("save")) {
+                this.inserts++;
+            } else if (name.equals("update")) {
+                this.updates++;
+            } else if (name.equals("delete")) {
+                this.deletes++;
+            }
+
+            return null;
+        }
+
+        private Query createQuery(final String statement)
+        {
+            return (Query) Proxy.newProxyInstance(getClass().getClassLoader(), new Class< ? >[] {Query.class},
+                new InvocationHandler()
+                {
+                    private Collection< ? > ids;
+
+                    public Object invoke(Object proxy, Method method, Object[] args)
+                    {
+                        String name = method.getName();
+                        if (name.equals("setParameterList")) {
+                            this.ids = (Collection< ? >) args[1];
+                        } else if (name.equals("uniqueResult")) {
+                            return documentExists ? Long.valueOf(1) : null;
+                        } else if (name.equals("list")) {
+                            return list(statement, this.ids);
+                        }
+
+                        return method.getReturnType() == Query.class ? proxy : null;
+                    }
+                });
+        }
+
+        private List<Object> list(String statement, Collection< ? > ids)
+        {
+            List<Object> result = new ArrayList<Object>();
+            for (Object id : ids) {
+                if (this.existingObjects.contains(id)) {
+                    if (statement.contains("BaseProperty")) {
+                        for (int i = 0; i < PROPERTIES; i++) {
+                            result.add(new Object[] {id, "property" + i});
+                        }
+                    } else {
+                        result.add(id);
+                    }
+                }
+            }
+
+            return result;
+        }
+
+        public int getStatements()
+        {
+            return this.queries + this.inserts + this.updates + this.deletes;
+        }
+    }
+
+    /**
+     * A transaction started by the caller of the save, which commits or rolls back its synchronizations on demand.
+     */
+    private class CallerTransaction implements InvocationHandler
+    {
+        private List<Synchronization> synchronizations = new ArrayList<Synchronization>();
+
+        public Object invoke(Object proxy, Method method, Object[] args)
+        {
+            String name = method.getName();
+            if (name.equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            } else if (name.equals("equals")) {
+                return proxy == args[0];
+            } else if (name.equals("registerSynchronization")) {
+                this.synchronizations.add((Synchronization) args[0]);
+            }
+
+            return null;
+        }
+
+        public void end(int status)
+        {
+            for (Synchronization synchronization : this.synchronizations) {
+                synchronization.afterCompletion(status);
+            }
+            this.synchronizations.clear();
+        }
+    }
+
+    private XWikiHibernateStore store;
+
+    private CountingSession session;
+
+    private CallerTransaction transaction;
+
+    private XWikiDocument document;
+
+    @Before
+    @Override
+    public void setUp() throws Exception
+    {
+        super.setUp();
+
+        final XWiki xwiki = getMockery().mock(XWiki.class);
+        getContext().setWiki(xwiki);
+
+        getMockery().checking(new Expectations()
+        {
+            {
+                allowing(xwiki).getPlugin("monitor", getContext());
+                will(returnValue(null));
+                allowing(xwiki).hasVersioning(getContext());
+                will(returnValue(false));
+                allowing(xwiki).hasBacklinks(getContext());
+                will(returnValue(false));
+                allowing(xwiki).getXClass(with(any(DocumentReference.class)), with(same(getContext())));
+                will(returnValue(null));
+            }
+        });
+
+        this.store = new XWikiHibernateStore("whatever");
+        this.session = new CountingSession();
+        this.store.setSession((Session) Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class< ? >[] {Session.class}, this.session), getContext());
+        this.transaction = new CallerTransaction();
+        this.store.setTransaction((Transaction) Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class< ? >[] {Transaction.class}, this.transaction), getContext());
+
+        this.document = new XWikiDocument(new DocumentReference("xwiki", "Space", "Page"));
+        this.document.setContentDirty(false);
+        this.document.setMetaDataDirty(false);
+        for (int i = 0; i < OBJECTS; i++) {
+            BaseObject object = new BaseObject();
+            object.setXClassReference(CLASS_REFERENCE);
+            for (int j = 0; j < PROPERTIES - 1; j++) {
+                object.setStringValue("property" + j, "value" + j);
+            }
+            object.setStringListValue("property" + (PROPERTIES - 1), new ArrayList<String>());
+            this.document.addXObject(object);
+        }
+    }
+
+    /**
+     * Simulate the loading of the document from the database.
+     */
+    private void load()
+    {
+        this.session.documentExists = true;
+        for (BaseObject object : this.document.getXObjects(CLASS_REFERENCE)) {
+            object.setGuid("guid" + object.getNumber());
+            object.setDirty(false);
+            for (Object property : object.getFieldList()) {
+                ((BaseProperty) property).setDirty(false);
+            }
+            this.session.existingObjects.add(object.getId());
+        }
+    }
+
+    private void save() throws Exception
+    {
+        this.session.queries = 0;
+        this.session.inserts = 0;
+        this.session.updates = 0;
+        this.session.deletes = 0;
+
+        this.store.saveXWikiDoc(this.document, getContext(), false);
+    }
+
+    @Test
+    public void saveNewDocument() throws Exception
+    {
+        save();
+
+        // Document existence, object existence and property existence
+        Assert.assertEquals(3, this.session.queries);
+        Assert.assertEquals(1 + OBJECTS + OBJECTS * PROPERTIES, this.session.inserts);
+        Assert.assertEquals(0, this.session.updates);
+    }
+
+    @Test
+    public void saveUnmodifiedDocument() throws Exception
+    {
+        load();
+        save();
+
+        // Only the document itself is checked and updated
+        Assert.assertEquals(2, this.session.getStatements());
+    }
+
+    @Test
+    public void saveOneModifiedProperty() throws Exception
+    {
+        load();
+        this.document.getXObject(CLASS_REFERENCE, OBJECTS / 2).setStringValue("property0", "modified");
+        save();
+
+        Assert.assertEquals(3, this.session.queries);
+        Assert.assertEquals(0, this.session.inserts);
+        // The document and the modified property
+        Assert.assertEquals(2, this.session.updates);
+    }
+
+    @Test
+    public void saveSameValue() throws Exception
+    {
+        load();
+        this.document.getXObject(CLASS_REFERENCE, 0).setStringValue("property0", "value0");
+        save();
+
+        Assert.assertEquals(2, this.session.getStatements());
+    }
+
+    @Test
+    public void saveListModifiedInPlace() throws Exception
+    {
+        load();
+        ((ListProperty) this.document.getXObject(CLASS_REFERENCE, 0).getField("property" + (PROPERTIES - 1)))
+            .getList().add("item");
+        save();
+
+        Assert.assertEquals(3, this.session.queries);
+        Assert.assertEquals(2, this.session.updates);
+    }
+
+    @Test
+    public void saveNewObject() throws Exception
+    {
+        load();
+        BaseObject object = new BaseObject();
+        object.setXClassReference(CLASS_REFERENCE);
+        object.setStringValue("property0", "value");
+        this.document.addXObject(object);
+        save();
+
+        Assert.assertEquals(3, this.session.queries);
+        // The object and its property
+        Assert.assertEquals(2, this.session.inserts);
+        Assert.assertEquals(1, this.session.updates);
+    }
+
+    @Test
+    public void saveTwiceOnlySavesOnce() throws Exception
+    {
+        load();
+        this.document.getXObject(CLASS_REFERENCE, 0).setStringValue("property0", "modified");
+        save();
+        this.transaction.end(Status.STATUS_COMMITTED);
+        save();
+
+        Assert.assertEquals(2, this.session.getStatements());
+    }
+
+    @Test
+    public void saveAgainAfterRollback() throws Exception
+    {
+        load();
+        this.document.getXObject(CLASS_REFERENCE, 0).setStringValue("property0", "modified");
+        save();
+        this.transaction.end(Status.STATUS_ROLLEDBACK);
+        save();
+
+        // The modified property has not been written to the database, it's saved again
+        Assert.assertEquals(3, this.session.queries);
+        Assert.assertEquals(2, this.session.updates);
+    }
+}
@@ -19,13 +19,35 @@
  */
 package com.xpn.xwiki.store;
 
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.doc.XWikiLink;
+import com.xpn.xwiki.store.hibernate.HibernateSessionFactory;
 import com.xpn.xwiki.test.AbstractBridgedComponentTestCase;
+import org.hibernate.FlushMode;
 import org.hibernate.HibernateException;
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
 import org.hibernate.Transaction;
 import org.jmock.Expectations;
+import org.jmock.api.Invocation;
+import org.jmock.lib.action.CustomAction;
 import org.junit.Assert;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.rendering.syntax.Syntax;
 
 /**
  * Unit tests for the {@link XWikiHibernateStore} class.
@@ -91,4 +113,331 @@ public void testEndTransactionWhenSQLBatchUpdateExceptionThrown() throws Excepti
                 + "SQL next exception = [java.sql.SQLException: nextexception2]]", e.getMessage());
         }
     }
+
+    @org.junit.Test
+    public void testKeptReadSessionIsClosedAtEndRequestAndNotInheritedByClones() throws Exception
+    {
+        final XWikiHibernateStore store = new XWikiHibernateStore("whatever");
+
+        final XWiki mockXWiki = getMockery().mock(XWiki.class);
+        final Session mockSession = getMockery().mock(Session.class, "session");
+        final Transaction mockTransaction = getMockery().mock(Transaction.class, "transaction");
+        final Session mockCloneSession = getMockery().mock(Session.class, "cloneSession");
+        final Transaction mockCloneTransaction = getMockery().mock(Transaction.class, "cloneTransaction");
+
+        getMockery().checking(new Expectations() {{
+            allowing(mockXWiki).Param("xwiki.store.hibernate.readsession.reuse", "0"); will(returnValue("1"));
+            // The read transaction ends with the read, only the session is kept
+            oneOf(mockTransaction).rollback();
+            oneOf(mockSession).clear();
+        }});
+        getContext().setWiki(mockXWiki);
+
+        store.startRequest(getContext());
+
+        // End of a read: the session is kept for the next reads of the request
+        store.setSession(mockSession, getContext());
+        store.setTransaction(mockTransaction, getContext());
+        getContext().put("hibreadsession", Boolean.TRUE);
+        store.endTransaction(getContext(), false);
+
+        // A thread using a clone of the request context neither reuses nor closes the kept session and does not keep
+        // its own read sessions
+        getMockery().checking(new Expectations() {{
+            oneOf(mockCloneTransaction).rollback();
+            oneOf(mockCloneSession).close();
+        }});
+        final XWikiContext cloneContext = (XWikiContext) getContext().clone();
+        final Throwable[] cloneError = new Throwable[1];
+        Thread thread = new Thread(new Runnable()
+        {
+            public void run()
+            {
+                try {
+                    store.setSession(mockCloneSession, cloneContext);
+                    store.setTransaction(mockCloneTransaction, cloneContext);
+                    cloneContext.put("hibreadsession", Boolean.TRUE);
+                    store.endTransaction(cloneContext, false);
+                    store.endRequest(cloneContext);
+                } catch (Throwable e) {
+                    cloneError[0] = e;
+                }
+            }
+        });
+        thread.start();
+        thread.join();
+        Assert.assertNull(cloneError[0]);
+
+        // The end of the request closes the kept session
+        getMockery().checking(new Expectations() {{
+            oneOf(mockSession).close();
+        }});
+        store.endRequest(getContext());
+        getMockery().assertIsSatisfied();
+
+        // Nothing is kept anymore
+        store.endRequest(getContext());
+    }
+
+    @org.junit.Test
+    public void testWriteDuringReadUsesItsOwnSession() throws Exception
+    {
+        XWikiHibernateStore store = new XWikiHibernateStore("whatever");
+
+        final XWiki mockXWiki = getMockery().mock(XWiki.class);
+        final HibernateSessionFactory mockHibernateSessionFactory = getMockery().mock(HibernateSessionFactory.class);
+        final SessionFactory mockSessionFactory = getMockery().mock(SessionFactory.class);
+        final Session mockReadSession = getMockery().mock(Session.class, "readSession");
+        final Transaction mockReadTransaction = getMockery().mock(Transaction.class, "readTransaction");
+        final Session mockWriteSession = getMockery().mock(Session.class, "writeSession");
+        final Transaction mockWriteTransaction = getMockery().mock(Transaction.class, "writeTransaction");
+
+        getMockery().checking(new Expectations() {{
+            allowing(mockXWiki).isVirtualMode(); will(returnValue(false));
+            allowing(mockHibernateSessionFactory).getSessionFactory(); will(returnValue(mockSessionFactory));
+        }});
+        getContext().setWiki(mockXWiki);
+        ReflectionUtils.setFieldValue(store, "sessionFactory", mockHibernateSessionFactory);
+
+        // A read is in progress
+        store.setSession(mockReadSession, getContext());
+        store.setTransaction(mockReadTransaction, getContext());
+        getContext().put("hibreadsession", Boolean.TRUE);
+
+        // The write gets its own writable session, which is committed
+        getMockery().checking(new Expectations() {{
+            oneOf(mockSessionFactory).openSession(); will(returnValue(mockWriteSession));
+            oneOf(mockWriteSession).beginTransaction(); will(returnValue(mockWriteTransaction));
+            allowing(mockWriteSession).setFlushMode(FlushMode.COMMIT);
+            oneOf(mockWriteTransaction).commit();
+            oneOf(mockWriteSession).close();
+        }});
+        Assert.assertTrue(store.beginTransaction(getContext()));
+        Assert.assertSame(mockWriteSession, store.getSession(getContext()));
+        store.endTransaction(getContext(), true);
+        getMockery().assertIsSatisfied();
+
+        // The read continues with its own session
+        Assert.assertSame(mockReadSession, store.getSession(getContext()));
+        Assert.assertSame(mockReadTransaction, store.getTransaction(getContext()));
+        Assert.assertFalse(store.beginTransaction(false, getContext()));
+    }
+
+    /**
+     * Measure the work done against the database for a page view doing {@code READS} reads, without and with the
+     * reuse of the read session. The latency can't be measured without a real database but each opened session costs
+     * a connection checkout and a schema switch in virtual mode, and each transaction a begin and an end round-trip.
+     */
+    @org.junit.Test
+    public void testReadSessionReuseSavesSessionsPerPageView() throws Exception
+    {
+        final int reads = 20;
+
+        int[] withoutReuse = countPageViewOperations(reads, "0");
+        Assert.assertEquals(reads, withoutReuse[0]);
+        Assert.assertEquals(reads, withoutReuse[1]);
+
+        int[] withReuse = countPageViewOperations(reads, "1");
+        // A single session for the whole page view
+        Assert.assertEquals(1, withReuse[0]);
+        // But still one short transaction per read so that no connection is held between two reads
+        Assert.assertEquals(reads, withReuse[1]);
+    }
+
+    /**
+     * @return the number of opened sessions and of begun transactions
+     */
+    private int[] countPageViewOperations(int reads, final String reuse) throws Exception
+    {
+        XWikiHibernateStore store = new XWikiHibernateStore("whatever");
+
+        final int[] counters = new int[2];
+        final SessionFactory[] sessionFactory = new SessionFactory[1];
+        final Transaction transaction = (Transaction) Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class< ? >[] {Transaction.class}, new InvocationHandler()
+            {
+                public Object invoke(Object proxy, Method method, Object[] args)
+                {
+                    return null;
+                }
+            });
+        final InvocationHandler sessionHandler = new InvocationHandler()
+        {
+            public Object invoke(Object proxy, Method method, Object[] args)
+            {
+                String name = method.getName();
+                if (name.equals("beginTransaction")) {
+                    counters[1]++;
+                    return transaction;
+                } else if (name.equals("isOpen")) {
+                    return Boolean.TRUE;
+                } else if (name.equals("getSessionFactory")) {
+                    return sessionFactory[0];
+                } else if (name.equals("hashCode")) {
+                    return System.identityHashCode(proxy);
+                } else if (name.equals("equals")) {
+                    return proxy == args[0];
+                }
+                return null;
+            }
+        };
+        sessionFactory[0] = (SessionFactory) Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class< ? >[] {SessionFactory.class}, new InvocationHandler()
+            {
+                public Object invoke(Object proxy, Method method, Object[] args)
+                {
+                    if (method.getName().equals("openSession")) {
+                        counters[0]++;
+                        return Proxy.newProxyInstance(getClass().getClassLoader(), new Class< ? >[] {Session.class},
+                            sessionHandler);
+                    }
+                    return null;
+                }
+            });
+
+        final XWiki mockXWiki = getMockery().mock(XWiki.class, "xwiki" + reuse);
+        final HibernateSessionFactory mockHibernateSessionFactory =
+            getMockery().mock(HibernateSessionFactory.class, "hibernateSessionFactory" + reuse);
+        getMockery().checking(new Expectations() {{
+            allowing(mockXWiki).isVirtualMode(); will(returnValue(false));
+            allowing(mockXWiki).Param("xwiki.store.hibernate.readsession.reuse", "0"); will(returnValue(reuse));
+            allowing(mockHibernateSessionFactory).getSessionFactory(); will(returnValue(sessionFactory[0]));
+        }});
+        getContext().setWiki(mockXWiki);
+        ReflectionUtils.setFieldValue(store, "sessionFactory", mockHibernateSessionFactory);
+
+        store.startRequest(getContext());
+        for (int i = 0; i < reads; i++) {
+            store.executeRead(getContext(), true, new XWikiHibernateBaseStore.HibernateCallback<Object>()
+            {
+                public Object doInHibernate(Session session)
+                {
+                    return null;
+                }
+            });
+        }
+        store.endRequest(getContext());
+
+        return counters;
+    }
+
+    @org.junit.Test
+    public void testCopiedDocumentsAreMarkedLikeDocumentByDocumentCopy() throws Exception
+    {
+        XWikiHibernateStore store = new XWikiHibernateStore("whatever");
+
+        final Session mockSession = getMockery().mock(Session.class);
+        final Query mockMarkQuery = getMockery().mock(Query.class, "mark");
+        final Query mockNamesQuery = getMockery().mock(Query.class, "names");
+        final Query mockEscapedQuery = getMockery().mock(Query.class, "escaped");
+
+        // The comment saved by XWiki#copyDocument when copying documents one by one
+        EntityReferenceSerializer<String> serializer = getComponentManager().lookup(EntityReferenceSerializer.class);
+        final String escapedComment =
+            "Copied from " + serializer.serialize(new DocumentReference("template", "Main", "Some.Page"));
+        Assert.assertEquals("Copied from template:Main.Some\\.Page", escapedComment);
+
+        getMockery().checking(new Expectations() {{
+            oneOf(mockSession).createQuery("update XWikiDocument set comment = concat(:prefix, fullName), "
+                + "minorEdit1 = :minorEdit");
+            will(returnValue(mockMarkQuery));
+            oneOf(mockMarkQuery).setString("prefix", "Copied from template:");
+            oneOf(mockMarkQuery).setBoolean("minorEdit", false);
+            oneOf(mockMarkQuery).executeUpdate(); will(returnValue(3));
+
+            oneOf(mockSession).createQuery("select distinct doc.space, doc.name from XWikiDocument as doc");
+            will(returnValue(mockNamesQuery));
+            oneOf(mockNamesQuery).list();
+            will(returnValue(Arrays.asList(new Object[] {"Main", "WebHome"}, new Object[] {"Main", "Some.Page"})));
+
+            // Only the document whose name needs to be escaped is updated again
+            oneOf(mockSession).createQuery("update XWikiDocument set comment = :comment "
+                + "where space = :space and name = :name");
+            will(returnValue(mockEscapedQuery));
+            oneOf(mockEscapedQuery).setString("comment", escapedComment);
+            oneOf(mockEscapedQuery).setString("space", "Main");
+            oneOf(mockEscapedQuery).setString("name", "Some.Page");
+            oneOf(mockEscapedQuery).executeUpdate(); will(returnValue(1));
+        }});
+
+        store.markCopiedDocuments("template", mockSession);
+    }
+
+    @org.junit.Test
+    public void testSaveLinksOnlyAppliesTheDifferences() throws Exception
+    {
+        XWikiHibernateStore store = new XWikiHibernateStore("whatever");
+
+        final Session mockSession = getMockery().mock(Session.class);
+        final Query mockSelectQuery = getMockery().mock(Query.class, "select");
+        final Query mockDeleteQuery = getMockery().mock(Query.class, "delete");
+        store.setSession(mockSession, getContext());
+
+        final XWikiDocument document = new XWikiDocument(new DocumentReference("wiki", "Space", "Page"));
+        document.setSyntax(Syntax.XWIKI_2_0);
+        document.setContent("[[Kept]] [[Added]]");
+
+        final List<XWikiLink> savedLinks = new ArrayList<XWikiLink>();
+
+        getMockery().checking(new Expectations() {{
+            oneOf(mockSession).createQuery("select link.id.link from XWikiLink as link where link.id.docId = :docId");
+            will(returnValue(mockSelectQuery));
+            oneOf(mockSelectQuery).setLong("docId", document.getId());
+            oneOf(mockSelectQuery).list(); will(returnValue(Arrays.asList("Space.Kept", "Space.Removed")));
+
+            oneOf(mockSession).createQuery("delete from XWikiLink as link where link.id.docId = :docId "
+                + "and link.id.link in (:links)");
+            will(returnValue(mockDeleteQuery));
+            oneOf(mockDeleteQuery).setLong("docId", document.getId());
+            oneOf(mockDeleteQuery).setParameterList("links", Arrays.asList("Space.Removed"));
+            oneOf(mockDeleteQuery).executeUpdate(); will(returnValue(1));
+
+            oneOf(mockSession).save(with(any(XWikiLink.class)));
+            will(new CustomAction("save link")
+            {
+                public Object invoke(Invocation invocation) throws Throwable
+                {
+                    savedLinks.add((XWikiLink) invocation.getParameter(0));
+                    return null;
+                }
+            });
+        }});
+
+        store.saveLinks(document, getContext(), false);
+
+        Assert.assertEquals(1, savedLinks.size());
+        Assert.assertEquals("Space.Added", savedLinks.get(0).getLink());
+        Assert.assertEquals("Space.Page", savedLinks.get(0).getFullName());
+        Assert.assertEquals(document.getId(), savedLinks.get(0).getDocId());
+    }
+
+    @org.junit.Test
+    public void testLinksAreRecomputedWhenTheyMayHaveChanged() throws Exception
+    {
+        XWikiHibernateStore store = new XWikiHibernateStore("whatever");
+
+        XWikiDocument document = new XWikiDocument(new DocumentReference("wiki", "Space", "Page"));
+        document.setSyntax(Syntax.XWIKI_2_0);
+        document.setContent("[[Link]]");
+
+        // New document
+        Assert.assertFalse(store.isLinksUnchanged(document));
+
+        XWikiDocument originalDocument = document.clone();
+        originalDocument.setNew(false);
+        document.setOriginalDocument(originalDocument);
+        Assert.assertTrue(store.isLinksUnchanged(document));
+
+        document.setContent("[[Other link]]");
+        Assert.assertFalse(store.isLinksUnchanged(document));
+
+        document.setContent("[[Link]]");
+        document.setSyntax(Syntax.XWIKI_2_1);
+        Assert.assertFalse(store.isLinksUnchanged(document));
+
+        // The links of a 1.0 document depend on more than its content
+        document.setSyntax(Syntax.XWIKI_1_0);
+        originalDocument.setSyntax(Syntax.XWIKI_1_0);
+        Assert.assertFalse(store.isLinksUnchanged(document));
+    }
 }
@@ -0,0 +1,141 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.store;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.hibernate.Criteria;
+import org.hibernate.Session;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.suigeneris.jrcs.rcs.Version;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.rcs.XWikiRCSNodeContent;
+import com.xpn.xwiki.doc.rcs.XWikiRCSNodeId;
+
+/**
+ * Unit tests for {@link XWikiHibernateVersioningStore}.
+ * 
+ * @version $Id$
+ * @since 3.2M1
+ */
+public class XWikiHibernateVersioningStoreTest
+{
+    private static final long DOCUMENT_ID = 42;
+
+    /**
+     * A session counting the criteria queries it executes, each of them returning one node content.
+     */
+    private class CountingSession implements InvocationHandler
+    {
+        private int queries;
+
+        public Object invoke(Object proxy, Method method, Object[] args)
+        {
+            String name = method.getName();
+            if (name.equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            } else if (name.equals("equals")) {
+                return proxy == args[0];
+            } else if (name.equals("createCriteria")) {
+                return createCriteria();
+            }
+
+            return null;
+        }
+
+        private Criteria createCriteria()
+        {
+            return (Criteria) Proxy.newProxyInstance(getClass().getClassLoader(), new Class< ? >[] {Criteria.class},
+                new InvocationHandler()
+                {
+                    public Object invoke(Object proxy, Method method, Object[] args)
+                    {
+                        if (method.getName().equals("list")) {
+                            queries++;
+                            return Collections.singletonList(new XWikiRCSNodeContent(new XWikiRCSNodeId(
+                                DOCUMENT_ID, new Version(queries, 1))));
+                        }
+
+                        return method.getReturnType() == Criteria.class ? proxy : null;
+                    }
+                });
+        }
+    }
+
+    private XWikiHibernateVersioningStore store;
+
+    private CountingSession session;
+
+    private XWikiContext context;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.context = new XWikiContext();
+
+        this.store = new XWikiHibernateVersioningStore();
+        this.session = new CountingSession();
+        this.store.setSession((Session) Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class< ? >[] {Session.class}, this.session), this.context);
+    }
+
+    private List<XWikiRCSNodeId> createIds(int count)
+    {
+        List<XWikiRCSNodeId> ids = new ArrayList<XWikiRCSNodeId>();
+        for (int i = 1; i <= count; i++) {
+            ids.add(new XWikiRCSNodeId(DOCUMENT_ID, new Version(i, 1)));
+        }
+
+        return ids;
+    }
+
+    @Test
+    public void testLoadRCSNodeContentsWithoutIds() throws Exception
+    {
+        Assert.assertTrue(this.store.loadRCSNodeContents(createIds(0), false, this.context).isEmpty());
+        Assert.assertEquals(0, this.session.queries);
+    }
+
+    @Test
+    public void testLoadRCSNodeContentsUsesOneQueryForFewNodes() throws Exception
+    {
+        Assert.assertEquals(1, this.store.loadRCSNodeContents(createIds(10), false, this.context).size());
+        Assert.assertEquals(1, this.session.queries);
+    }
+
+    @Test
+    public void testLoadRCSNodeContentsSplitsTheQueryForManyNodes() throws Exception
+    {
+        List<XWikiRCSNodeContent> contents = this.store.loadRCSNodeContents(createIds(450), false, this.context);
+
+        Assert.assertEquals(3, this.session.queries);
+        // The results of all the queries are returned
+        Assert.assertEquals(3, contents.size());
+        Assert.assertEquals(new Version(3, 1), contents.get(2).getId().getVersion());
+    }
+}
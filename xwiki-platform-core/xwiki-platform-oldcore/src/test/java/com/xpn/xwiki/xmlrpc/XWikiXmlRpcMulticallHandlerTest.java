@@ -0,0 +1,217 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.xmlrpc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.xmlrpc.XmlRpcException;
+import org.apache.xmlrpc.XmlRpcHandler;
+import org.apache.xmlrpc.XmlRpcRequest;
+import org.apache.xmlrpc.XmlRpcRequestConfig;
+import org.apache.xmlrpc.common.XmlRpcInvocationException;
+import org.apache.xmlrpc.server.XmlRpcHandlerMapping;
+import org.apache.xmlrpc.server.XmlRpcNoSuchHandlerException;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link XWikiXmlRpcMulticallHandler}.
+ * 
+ * @version $Id$
+ */
+public class XWikiXmlRpcMulticallHandlerTest
+{
+    /**
+     * The names of the methods which have been executed.
+     */
+    private List<String> executed = new ArrayList<String>();
+
+    private XWikiXmlRpcMulticallHandler handler;
+
+    /**
+     * Execute the calls: {@code echo} returns its first parameter, {@code fail} throws an XML-RPC fault,
+     * {@code error} fails like a method throwing an exception, other methods don't exist.
+     */
+    private class Mapping implements XmlRpcHandlerMapping
+    {
+        public XmlRpcHandler getHandler(final String handlerName) throws XmlRpcException
+        {
+            if (!Arrays.asList("echo", "fail", "error").contains(handlerName)) {
+                throw new XmlRpcNoSuchHandlerException("No such handler: " + handlerName);
+            }
+
+            return new XmlRpcHandler()
+            {
+                public Object execute(XmlRpcRequest request) throws XmlRpcException
+                {
+                    executed.add(handlerName);
+                    if (handlerName.equals("fail")) {
+                        throw new XmlRpcException(42, "Failed");
+                    } else if (handlerName.equals("error")) {
+                        throw new XmlRpcInvocationException(0, "Reflection wrapper", new IllegalStateException(
+                            "Method error"));
+                    }
+
+                    return request.getParameter(0);
+                }
+            };
+        }
+    }
+
+    @Before
+    public void setUp()
+    {
+        this.handler = new XWikiXmlRpcMulticallHandler(new Mapping());
+    }
+
+    private XmlRpcRequest createRequest(final Object... parameters)
+    {
+        return new XmlRpcRequest()
+        {
+            public XmlRpcRequestConfig getConfig()
+            {
+                return null;
+            }
+
+            public String getMethodName()
+            {
+                return XWikiXmlRpcMulticallHandler.METHOD_NAME;
+            }
+
+            public int getParameterCount()
+            {
+                return parameters.length;
+            }
+
+            public Object getParameter(int index)
+            {
+                return parameters[index];
+            }
+        };
+    }
+
+    private Map<String, Object> createCall(String methodName, Object params)
+    {
+        Map<String, Object> call = new HashMap<String, Object>();
+        call.put("methodName", methodName);
+        call.put("params", params);
+
+        return call;
+    }
+
+    private Object[] execute(Object... calls) throws XmlRpcException
+    {
+        Object[] results = (Object[]) this.handler.execute(createRequest(new Object[] {calls}));
+        Assert.assertEquals(calls.length, results.length);
+
+        return results;
+    }
+
+    private void assertFault(Object result, int code, String message)
+    {
+        Map< ? , ? > fault = (Map< ? , ? >) result;
+        Assert.assertEquals(code, fault.get("faultCode"));
+        Assert.assertEquals(message, fault.get("faultString"));
+    }
+
+    @Test
+    public void testResultsAreReturnedInOrder() throws Exception
+    {
+        Object[] results =
+            execute(createCall("echo", new Object[] {"first"}), createCall("echo", Arrays.asList("second")));
+
+        Assert.assertArrayEquals(new Object[] {"first"}, (Object[]) results[0]);
+        Assert.assertArrayEquals(new Object[] {"second"}, (Object[]) results[1]);
+    }
+
+    @Test
+    public void testFailingCallsDoNotStopTheMulticall() throws Exception
+    {
+        Object[] results =
+            execute(createCall("fail", new Object[0]), createCall("error", new Object[0]), createCall("missing",
+                new Object[0]), "not a struct", createCall("echo", "not an array"), createCall("echo",
+                new Object[] {"last"}));
+
+        assertFault(results[0], 42, "Failed");
+        // The exception of the method is reported rather than the reflection wrapper.
+        assertFault(results[1], 0, "Method error");
+        Assert.assertEquals(0, ((Map< ? , ? >) results[2]).get("faultCode"));
+        Assert.assertEquals(0, ((Map< ? , ? >) results[3]).get("faultCode"));
+        Assert.assertEquals(0, ((Map< ? , ? >) results[4]).get("faultCode"));
+        Assert.assertArrayEquals(new Object[] {"last"}, (Object[]) results[5]);
+        Assert.assertEquals(Arrays.asList("fail", "error", "echo"), this.executed);
+    }
+
+    @Test
+    public void testRecursiveMulticallIsRejected() throws Exception
+    {
+        Object nested = new Object[] {createCall("echo", new Object[] {"nested"})};
+        Object[] results =
+            execute(createCall(XWikiXmlRpcMulticallHandler.METHOD_NAME, new Object[] {nested}), createCall("echo",
+                new Object[] {"after"}));
+
+        Assert.assertEquals(0, ((Map< ? , ? >) results[0]).get("faultCode"));
+        Assert.assertArrayEquals(new Object[] {"after"}, (Object[]) results[1]);
+        Assert.assertEquals(Arrays.asList("echo"), this.executed);
+    }
+
+    @Test
+    public void testTooManyCalls()
+    {
+        Object[] calls = new Object[XWikiXmlRpcMulticallHandler.MAX_CALLS + 1];
+        Arrays.fill(calls, createCall("echo", new Object[] {"call"}));
+
+        try {
+            this.handler.execute(createRequest(new Object[] {calls}));
+            Assert.fail("A multicall with too many calls should be rejected");
+        } catch (XmlRpcException expected) {
+            // Expected
+        }
+        Assert.assertTrue(this.executed.isEmpty());
+    }
+
+    @Test
+    public void testMaximumNumberOfCalls() throws Exception
+    {
+        Object[] calls = new Object[XWikiXmlRpcMulticallHandler.MAX_CALLS];
+        Arrays.fill(calls, createCall("echo", new Object[] {"call"}));
+
+        execute(calls);
+
+        Assert.assertEquals(XWikiXmlRpcMulticallHandler.MAX_CALLS, this.executed.size());
+    }
+
+    @Test(expected = XmlRpcException.class)
+    public void testParameterMustBeAnArray() throws Exception
+    {
+        this.handler.execute(createRequest("not an array"));
+    }
+
+    @Test(expected = XmlRpcException.class)
+    public void testSingleParameterIsExpected() throws Exception
+    {
+        this.handler.execute(createRequest(new Object[0], new Object[0]));
+    }
+}
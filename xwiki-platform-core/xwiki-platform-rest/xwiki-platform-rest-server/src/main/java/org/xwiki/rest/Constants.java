@@ -46,4 +46,10 @@
      * The key used to store the current HTTP request object in the current Restlet context.
      */
     public static final String HTTP_REQUEST = "httpRequest";
+
+    /**
+     * The key used to store, in the Restlet application context, the restlet used to dispatch the sub-requests of a
+     * batch request once the request has been authenticated.
+     */
+    public static final String BATCH_DISPATCHER = "batchDispatcher";
 }
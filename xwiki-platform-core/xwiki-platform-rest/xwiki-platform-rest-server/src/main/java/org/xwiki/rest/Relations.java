@@ -32,6 +32,8 @@
 
     public static final String WADL = "wadl";
 
+    public static final String NEXT = "next";
+
     public static final String WIKIS = "http://www.xwiki.org/rel/wikis";
 
     public static final String SPACES = "http://www.xwiki.org/rel/spaces";
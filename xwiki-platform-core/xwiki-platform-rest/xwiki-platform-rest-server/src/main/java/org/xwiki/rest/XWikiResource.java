@@ -19,6 +19,7 @@
  */
 package org.xwiki.rest;
 
+import java.util.Date;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -26,10 +27,17 @@
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.CacheControl;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriBuilder;
 import javax.ws.rs.core.UriInfo;
+import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.Response.Status;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.xwiki.component.annotation.InstantiationStrategy;
 import org.xwiki.component.annotation.Requirement;
 import org.xwiki.component.descriptor.ComponentInstantiationStrategy;
@@ -38,8 +46,11 @@
 import org.xwiki.component.phase.InitializationException;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.query.QueryManager;
+import org.xwiki.rest.internal.ContinuationToken;
+import org.xwiki.rest.model.jaxb.Link;
 import org.xwiki.rest.model.jaxb.ObjectFactory;
 
+import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
 import com.xpn.xwiki.api.Document;
 import com.xpn.xwiki.doc.XWikiDocument;
@@ -64,6 +75,15 @@ public class XWikiResource implements XWikiRestComponent, Initializable
     @Context
     protected UriInfo uriInfo;
 
+    /**
+     * <p>
+     * The current request, used to evaluate the preconditions of conditional requests (If-None-Match,
+     * If-Modified-Since).
+     * </p>
+     */
+    @Context
+    protected Request request;
+
     /**
      * <p>
      * The logger to be used to output log messages.
@@ -133,6 +153,46 @@ public boolean isCreated()
         }
     }
 
+    /**
+     * <p>
+     * The version of a representation, sent to the client as an entity tag and a last modification date so that it
+     * can later ask for the representation only if it has changed.
+     * </p>
+     */
+    protected static class RepresentationVersion
+    {
+        /**
+         * <p>
+         * The entity tag of the representation.
+         * </p>
+         */
+        private EntityTag tag;
+
+        /**
+         * <p>
+         * The last modification date of the representation, truncated to the second as in HTTP headers, null if it's
+         * not known.
+         * </p>
+         */
+        private Date lastModified;
+
+        public RepresentationVersion(EntityTag tag, Date lastModified)
+        {
+            this.tag = tag;
+            this.lastModified = lastModified;
+        }
+
+        public EntityTag getTag()
+        {
+            return tag;
+        }
+
+        public Date getLastModified()
+        {
+            return lastModified;
+        }
+    }
+
     /**
      * <p>
      * Resource initialization.
@@ -230,6 +290,163 @@ public DocumentInfo getDocumentInfo(String wikiName, String spaceName, String pa
         return new DocumentInfo(doc, !existed);
     }
 
+    /**
+     * <p>
+     * Retrieve a document from the document cache, without building the API document. This is used to get the
+     * metadata of a document (version, date, attachments) as cheaply as possible.
+     * </p>
+     * 
+     * @param wikiName The wiki name.
+     * @param spaceName The space name.
+     * @param pageName The page name.
+     * @return The document, or null if it doesn't exist or if the current user is not allowed to view it.
+     * @throws XWikiException If the document cannot be retrieved.
+     */
+    protected XWikiDocument getViewableDocument(String wikiName, String spaceName, String pageName)
+        throws XWikiException
+    {
+        XWikiContext context = Utils.getXWikiContext(componentManager);
+        String database = context.getDatabase();
+
+        /* This try is just needed for executing the finally clause. */
+        try {
+            context.setDatabase(wikiName);
+
+            XWikiDocument document =
+                context.getWiki().getDocument(new DocumentReference(wikiName, spaceName, pageName), context);
+
+            if (document.isNew()) {
+                return null;
+            }
+
+            String pageId = Utils.getPageId(wikiName, spaceName, pageName);
+            if (!context.getWiki().getRightService().hasAccessLevel("view", context.getUser(), pageId, context)) {
+                return null;
+            }
+
+            return document;
+        } finally {
+            context.setDatabase(database);
+        }
+    }
+
+    /**
+     * <p>
+     * Compare the current version of a representation built from a document with the version the client already has.
+     * The current version is computed from the document metadata only, so that unmodified representations don't need
+     * to be built.
+     * </p>
+     * 
+     * @param wikiName The wiki name.
+     * @param spaceName The space name.
+     * @param pageName The page name.
+     * @param variant Identifies the representation among all the ones built from the same document (the page, its
+     *            objects, a range of its attachments, etc.).
+     * @return The current version of the representation, or null if the document doesn't exist or cannot be viewed by
+     *         the current user, in which case the request must go on and fail as usual.
+     * @throws XWikiException If the document cannot be retrieved.
+     * @throws WebApplicationException NOT_MODIFIED if the client already has the current version of the representation.
+     */
+    protected RepresentationVersion checkPageVersion(String wikiName, String spaceName, String pageName,
+        String variant) throws XWikiException
+    {
+        XWikiDocument document = getViewableDocument(wikiName, spaceName, pageName);
+        if (document == null) {
+            return null;
+        }
+
+        return checkVersion(String.format("%s:%s:%d", variant, document.getVersion(), document.getDate().getTime()),
+            document.getDate());
+    }
+
+    /**
+     * <p>
+     * Compare the current version of a representation with the version the client already has.
+     * </p>
+     * 
+     * @param version A string which changes each time the representation changes.
+     * @param lastModified The last modification date of the representation, null when the representation can change
+     *            without being modified (for example when it depends on rights), in which case only the entity tag is
+     *            used.
+     * @return The current version of the representation.
+     * @throws WebApplicationException NOT_MODIFIED if the client already has the current version of the representation.
+     */
+    protected RepresentationVersion checkVersion(String version, Date lastModified)
+    {
+        /* The representation depends on the rights of the user so the same URI can have different versions. */
+        EntityTag tag = new EntityTag(DigestUtils.md5Hex(Utils.getXWikiUser(componentManager) + ':' + version), true);
+
+        ResponseBuilder builder;
+        Date date = null;
+        if (lastModified != null) {
+            date = new Date(lastModified.getTime() / 1000 * 1000);
+            builder = request.evaluatePreconditions(date, tag);
+        } else {
+            builder = request.evaluatePreconditions(tag);
+        }
+        if (builder != null) {
+            throw new WebApplicationException(builder.tag(tag).cacheControl(getCacheControl()).build());
+        }
+
+        return new RepresentationVersion(tag, date);
+    }
+
+    /**
+     * <p>
+     * Build a successful response with the version of the representation, so that the client can later send a
+     * conditional request.
+     * </p>
+     * 
+     * @param entity The representation.
+     * @param version The version of the representation, null if it is not known.
+     * @return The response.
+     */
+    protected Response buildResponse(Object entity, RepresentationVersion version)
+    {
+        ResponseBuilder builder = Response.ok(entity);
+        if (version != null) {
+            builder.tag(version.getTag()).cacheControl(getCacheControl());
+            if (version.getLastModified() != null) {
+                builder.lastModified(version.getLastModified());
+            }
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * @return The cache control of versioned representations: they depend on the current user and must be revalidated.
+     */
+    private CacheControl getCacheControl()
+    {
+        CacheControl cacheControl = new CacheControl();
+        cacheControl.setPrivate(true);
+        cacheControl.setNoCache(true);
+        cacheControl.setNoTransform(false);
+
+        return cacheControl;
+    }
+
+    /**
+     * <p>
+     * Create the link to the next page of a paginated resource. The link is the current request URI where the offset
+     * is replaced by a continuation token, so that the next page is found directly from the last element of the
+     * current page whatever its depth.
+     * </p>
+     * 
+     * @param token The continuation token identifying the last element of the current page.
+     * @return The link to the next page.
+     */
+    protected Link createNextLink(ContinuationToken token)
+    {
+        Link link = objectFactory.createLink();
+        link.setHref(UriBuilder.fromUri(uriInfo.getRequestUri()).replaceQueryParam("start", (Object[]) null)
+            .replaceQueryParam(ContinuationToken.PARAMETER, token.toString()).build().toString());
+        link.setRel(Relations.NEXT);
+
+        return link;
+    }
+
     /**
      * <p>
      * A special GET method that produces the ad-hoc "uritemplate" media type used for retrieving the URI template
@@ -66,6 +66,12 @@ public Restlet createRoot()
 
         router.attach(jaxRsRoot);
 
+        /*
+         * The sub-requests of a batch request are dispatched directly to the router since the batch request has
+         * already gone through the setup/cleanup and authentication filters.
+         */
+        getContext().getAttributes().put(Constants.BATCH_DISPATCHER, router);
+
         /* Build the actual chain */
         setupCleanupFilter.setNext(xwikiAuthentication);
         xwikiAuthentication.setNext(router);
@@ -0,0 +1,139 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.rest.internal;
+
+import java.io.UnsupportedEncodingException;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response.Status;
+
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Opaque token given to the clients of a paginated resource to get the elements following the last one they received
+ * (keyset pagination). It holds the values of the sort key of the last received element, so that the next page is
+ * found with an indexed comparison instead of scanning and discarding all the previous elements as with an offset.
+ * 
+ * @version $Id$
+ * @since 3.2M1
+ */
+public final class ContinuationToken
+{
+    /**
+     * The name of the query parameter holding the token.
+     */
+    public static final String PARAMETER = "continuation";
+
+    /**
+     * Separate the values in the decoded token.
+     */
+    private static final char SEPARATOR = ':';
+
+    /**
+     * The encoding of the decoded token.
+     */
+    private static final String ENCODING = "UTF-8";
+
+    /**
+     * The values of the sort key.
+     */
+    private final String[] values;
+
+    /**
+     * @param values the values of the sort key of the last element of a page
+     */
+    public ContinuationToken(Object... values)
+    {
+        this.values = new String[values.length];
+        for (int i = 0; i < values.length; i++) {
+            this.values[i] = String.valueOf(values[i]);
+        }
+    }
+
+    /**
+     * @param token a token sent by a client
+     * @param size the expected number of values
+     * @return the parsed token
+     * @throws WebApplicationException BAD_REQUEST if the token is not valid
+     */
+    public static ContinuationToken parse(String token, int size)
+    {
+        String[] values;
+        try {
+            values = StringUtils.split(new String(Hex.decodeHex(token.toCharArray()), ENCODING), SEPARATOR);
+        } catch (DecoderException e) {
+            throw new WebApplicationException(e, Status.BAD_REQUEST);
+        } catch (UnsupportedEncodingException e) {
+            throw new WebApplicationException(e, Status.INTERNAL_SERVER_ERROR);
+        }
+
+        if (values.length != size) {
+            throw new WebApplicationException(Status.BAD_REQUEST);
+        }
+
+        return new ContinuationToken((Object[]) values);
+    }
+
+    /**
+     * @param index the index of the value in the sort key
+     * @return the value
+     * @throws WebApplicationException BAD_REQUEST if the value is not a number
+     */
+    public long getLong(int index)
+    {
+        try {
+            return Long.parseLong(this.values[index]);
+        } catch (NumberFormatException e) {
+            throw new WebApplicationException(e, Status.BAD_REQUEST);
+        }
+    }
+
+    /**
+     * @param index the index of the value in the sort key
+     * @return the value
+     * @throws WebApplicationException BAD_REQUEST if the value is not a number
+     */
+    public int getInt(int index)
+    {
+        try {
+            return Integer.parseInt(this.values[index]);
+        } catch (NumberFormatException e) {
+            throw new WebApplicationException(e, Status.BAD_REQUEST);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        try {
+            return new String(Hex.encodeHex(StringUtils.join(this.values, SEPARATOR).getBytes(ENCODING)));
+        } catch (UnsupportedEncodingException e) {
+            // Can't happen, UTF-8 is always available.
+            throw new RuntimeException(e);
+        }
+    }
+}
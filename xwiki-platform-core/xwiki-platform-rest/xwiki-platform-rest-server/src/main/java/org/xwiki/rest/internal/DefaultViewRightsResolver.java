@@ -0,0 +1,471 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.rest.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.eviction.LRUEvictionConfiguration;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.context.Execution;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.observation.event.Event;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryManager;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.user.api.XWikiRightService;
+import com.xpn.xwiki.user.impl.xwiki.XWikiRightServiceImpl;
+
+/**
+ * Default implementation of {@link ViewRightsResolver}.
+ * <p>
+ * With the default right service, the view right on a document which does not hold any {@code XWiki.XWikiRights}
+ * object only depends on its space (and the wiki preferences). So the documents holding rights are found with a
+ * single query and checked one by one, while the right service is called only once per space for all the other
+ * documents. The decisions are kept for a short time for each user so that paging through search results does not
+ * check the same documents again.
+ * 
+ * @version $Id$
+ * @since 3.2M1
+ */
+@Component
+@Singleton
+public class DefaultViewRightsResolver implements ViewRightsResolver, Initializable
+{
+    /**
+     * Identifier of the cache of the decisions.
+     */
+    private static final String NAME = "rest.search.viewrights";
+
+    /**
+     * The maximum number of decisions kept in the cache.
+     */
+    private static final int CACHE_SIZE = 10000;
+
+    /**
+     * The number of seconds a decision is kept in the cache.
+     */
+    private static final int CACHE_DURATION = 30;
+
+    /**
+     * The right which is resolved.
+     */
+    private static final String VIEW = "view";
+
+    /**
+     * The class of the objects holding the rights of a document.
+     */
+    private static final String RIGHTS_CLASS = "XWiki.XWikiRights";
+
+    /**
+     * The classes of the objects which, when modified, can change the decisions kept in the cache.
+     */
+    private static final List<String> WATCHED_CLASSES =
+        Arrays.asList(RIGHTS_CLASS, "XWiki.XWikiGlobalRights", "XWiki.XWikiGroups");
+
+    /**
+     * The events which can change the decisions kept in the cache.
+     */
+    private static final List<Event> EVENTS =
+        Arrays.<Event> asList(new DocumentCreatedEvent(), new DocumentUpdatedEvent(), new DocumentDeletedEvent());
+
+    /**
+     * Separate the user from the entity in the keys of the cache.
+     */
+    private static final char KEY_SEPARATOR = '|';
+
+    /**
+     * Used to get the XWiki context.
+     */
+    @Inject
+    private Execution execution;
+
+    /**
+     * Used to create the cache of the decisions.
+     */
+    @Inject
+    private CacheManager cacheManager;
+
+    /**
+     * Used to find the documents holding rights.
+     */
+    @Inject
+    private QueryManager queryManager;
+
+    /**
+     * Used to register the listener flushing the cache when rights change.
+     */
+    @Inject
+    private ObservationManager observationManager;
+
+    /**
+     * Used to serialize the references of the checked documents and spaces.
+     */
+    @Inject
+    private EntityReferenceSerializer<String> serializer;
+
+    /**
+     * The logger to log.
+     */
+    @Inject
+    private Logger logger;
+
+    /**
+     * The view decisions, indexed by user and document or space.
+     */
+    private Cache<Boolean> decisions;
+
+    /**
+     * Identifies this instance in the rights version, so that a version is not reused after a restart.
+     */
+    private final String rightsEpoch = Long.toString(System.currentTimeMillis(), Character.MAX_RADIX);
+
+    /**
+     * The number of times rights or groups have been modified.
+     */
+    private final AtomicLong rightsChanges = new AtomicLong();
+
+    /**
+     * Flush the cache of the decisions when rights or groups are modified.
+     * 
+     * @version $Id$
+     */
+    private class Listener implements EventListener
+    {
+        /**
+         * {@inheritDoc}
+         * 
+         * @see org.xwiki.observation.EventListener#getName()
+         */
+        public String getName()
+        {
+            return NAME;
+        }
+
+        /**
+         * {@inheritDoc}
+         * 
+         * @see org.xwiki.observation.EventListener#getEvents()
+         */
+        public List<Event> getEvents()
+        {
+            return EVENTS;
+        }
+
+        /**
+         * {@inheritDoc}
+         * 
+         * @see org.xwiki.observation.EventListener#onEvent(org.xwiki.observation.event.Event, java.lang.Object,
+         *      java.lang.Object)
+         */
+        public void onEvent(Event event, Object source, Object data)
+        {
+            XWikiDocument document = (XWikiDocument) source;
+
+            if (holdsRights(document) || holdsRights(document.getOriginalDocument())) {
+                decisions.removeAll();
+                // Only once the cache is flushed, so that a new version is never computed from the old decisions
+                rightsChanges.incrementAndGet();
+            }
+        }
+
+        /**
+         * @param document a document
+         * @return true if the document contains objects which can change the view right of a user
+         */
+        private boolean holdsRights(XWikiDocument document)
+        {
+            if (document != null) {
+                for (String className : WATCHED_CLASSES) {
+                    if (document.getObject(className) != null) {
+                        return true;
+                    }
+                }
+            }
+
+            return false;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see org.xwiki.component.phase.Initializable#initialize()
+     */
+    public void initialize() throws InitializationException
+    {
+        CacheConfiguration configuration = new CacheConfiguration();
+        configuration.setConfigurationId(NAME);
+        LRUEvictionConfiguration lru = new LRUEvictionConfiguration();
+        lru.setMaxEntries(CACHE_SIZE);
+        lru.setTimeToLive(CACHE_DURATION);
+        configuration.put(LRUEvictionConfiguration.CONFIGURATIONID, lru);
+
+        try {
+            this.decisions = this.cacheManager.createNewCache(configuration);
+        } catch (CacheException e) {
+            throw new InitializationException("Failed to create the view rights cache", e);
+        }
+
+        this.observationManager.addListener(new Listener());
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see org.xwiki.rest.internal.ViewRightsResolver#getViewableDocuments(java.util.Collection)
+     */
+    public Set<DocumentReference> getViewableDocuments(Collection<DocumentReference> documents)
+    {
+        XWikiContext context = (XWikiContext) this.execution.getContext().getProperty("xwikicontext");
+
+        // Start with the decisions which are already known.
+        Map<DocumentReference, Boolean> resolved = new HashMap<DocumentReference, Boolean>();
+        List<DocumentReference> unresolved = new ArrayList<DocumentReference>();
+        for (DocumentReference document : new LinkedHashSet<DocumentReference>(documents)) {
+            Boolean decision = this.decisions.get(getKey(document, context));
+            if (decision != null) {
+                resolved.put(document, decision);
+            } else {
+                unresolved.add(document);
+            }
+        }
+
+        if (!unresolved.isEmpty()) {
+            if (isResolvableBySpace(context.getWiki().getRightService())) {
+                resolveBySpace(unresolved, resolved, context);
+            } else {
+                for (DocumentReference document : unresolved) {
+                    resolved.put(document, resolve(document, context));
+                }
+            }
+        }
+
+        Set<DocumentReference> viewable = new LinkedHashSet<DocumentReference>();
+        for (DocumentReference document : documents) {
+            if (Boolean.TRUE.equals(resolved.get(document))) {
+                viewable.add(document);
+            }
+        }
+
+        return viewable;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see org.xwiki.rest.internal.ViewRightsResolver#getRightsVersion()
+     */
+    public String getRightsVersion()
+    {
+        return this.rightsEpoch + KEY_SEPARATOR + this.rightsChanges.get();
+    }
+
+    /**
+     * @param rightService the configured right service
+     * @return true if the right service is known to give the same decision to all the documents of a space which
+     *         don't hold any rights object
+     */
+    boolean isResolvableBySpace(XWikiRightService rightService)
+    {
+        // Another right service (or a subclass of the default one) could decide differently for documents of the same
+        // space, in which case each document has to be checked.
+        return rightService.getClass() == XWikiRightServiceImpl.class;
+    }
+
+    /**
+     * Check the documents holding rights one by one, and the other documents once per space.
+     * 
+     * @param documents the documents to check
+     * @param resolved where to put the decisions
+     * @param context the XWiki context
+     */
+    private void resolveBySpace(List<DocumentReference> documents, Map<DocumentReference, Boolean> resolved,
+        XWikiContext context)
+    {
+        Set<String> documentsWithRights = getDocumentsWithRights(documents);
+
+        for (DocumentReference document : documents) {
+            if (documentsWithRights == null || documentsWithRights.contains(getRightsKey(document))) {
+                resolved.put(document, resolve(document, context));
+            } else {
+                String spaceKey = getKey(document.getLastSpaceReference(), context);
+                Boolean decision = this.decisions.get(spaceKey);
+                if (decision == null) {
+                    // Any document of the space without rights of its own gets the same decision.
+                    decision = resolve(document, context);
+                    this.decisions.set(spaceKey, decision);
+                } else {
+                    this.decisions.set(getKey(document, context), decision);
+                }
+                resolved.put(document, decision);
+            }
+        }
+    }
+
+    /**
+     * @param documents the documents to check
+     * @return the {@link #getRightsKey(DocumentReference) keys} of the provided documents holding rights objects, null
+     *         if it could not be determined
+     */
+    private Set<String> getDocumentsWithRights(List<DocumentReference> documents)
+    {
+        Map<String, List<DocumentReference>> documentsByWiki = new HashMap<String, List<DocumentReference>>();
+        for (DocumentReference document : documents) {
+            String wiki = document.getWikiReference().getName();
+            List<DocumentReference> wikiDocuments = documentsByWiki.get(wiki);
+            if (wikiDocuments == null) {
+                wikiDocuments = new ArrayList<DocumentReference>();
+                documentsByWiki.put(wiki, wikiDocuments);
+            }
+            wikiDocuments.add(document);
+        }
+
+        Set<String> documentsWithRights = new HashSet<String>();
+        for (Map.Entry<String, List<DocumentReference>> entry : documentsByWiki.entrySet()) {
+            List<String> names = getDocumentsWithRights(entry.getKey(), entry.getValue());
+            if (names == null) {
+                return null;
+            }
+            for (String name : names) {
+                documentsWithRights.add(entry.getKey() + KEY_SEPARATOR + name);
+            }
+        }
+
+        return documentsWithRights;
+    }
+
+    /**
+     * @param wiki the wiki of the documents
+     * @param documents documents from the same wiki
+     * @return the local names of the provided documents holding rights objects, null if it could not be determined
+     */
+    private List<String> getDocumentsWithRights(String wiki, List<DocumentReference> documents)
+    {
+        StringBuilder statement =
+            new StringBuilder("select distinct obj.name from BaseObject as obj where obj.className = :className "
+                + "and obj.name in (");
+        for (int i = 0; i < documents.size(); i++) {
+            if (i > 0) {
+                statement.append(", ");
+            }
+            statement.append(":doc").append(i);
+        }
+        statement.append(')');
+
+        try {
+            Query query = this.queryManager.createQuery(statement.toString(), Query.HQL);
+            query.setWiki(wiki);
+            query.bindValue("className", RIGHTS_CLASS);
+            for (int i = 0; i < documents.size(); i++) {
+                query.bindValue("doc" + i, getLocalName(documents.get(i)));
+            }
+
+            return query.<String> execute();
+        } catch (QueryException e) {
+            this.logger.warn("Failed to find the documents holding rights, checking them one by one", e);
+
+            return null;
+        }
+    }
+
+    /**
+     * Ask the right service and remember the decision.
+     * 
+     * @param document the document to check
+     * @param context the XWiki context
+     * @return true if the current user can view the document
+     */
+    private boolean resolve(DocumentReference document, XWikiContext context)
+    {
+        boolean decision;
+        try {
+            decision =
+                context.getWiki().getRightService()
+                    .hasAccessLevel(VIEW, context.getUser(), this.serializer.serialize(document), context);
+        } catch (Exception e) {
+            // Same as the XWiki API: a failing check denies the access.
+            decision = false;
+        }
+
+        this.decisions.set(getKey(document, context), decision);
+
+        return decision;
+    }
+
+    /**
+     * @param document a document reference
+     * @return the key identifying the document in the set of documents holding rights
+     */
+    private String getRightsKey(DocumentReference document)
+    {
+        return document.getWikiReference().getName() + KEY_SEPARATOR + getLocalName(document);
+    }
+
+    /**
+     * @param document a document reference
+     * @return the name of the document without the wiki, as stored in the database
+     */
+    private String getLocalName(DocumentReference document)
+    {
+        return document.getLastSpaceReference().getName() + '.' + document.getName();
+    }
+
+    /**
+     * @param reference the checked document or space
+     * @param context the XWiki context
+     * @return the key of the decision of the current user in the cache
+     */
+    private String getKey(EntityReference reference, XWikiContext context)
+    {
+        DocumentReference userReference = context.getUserReference();
+        String user = userReference != null ? this.serializer.serialize(userReference) : XWikiRightService.GUEST_USER;
+
+        return user + KEY_SEPARATOR + reference.getType() + KEY_SEPARATOR + this.serializer.serialize(reference);
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.rest.internal;
+
+import java.util.Collection;
+import java.util.Set;
+
+import org.xwiki.component.annotation.ComponentRole;
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * Resolve the view right of the current user on a set of documents at once, typically the documents returned by a
+ * search query.
+ * 
+ * @version $Id$
+ * @since 3.2M1
+ */
+@ComponentRole
+public interface ViewRightsResolver
+{
+    /**
+     * @param documents the documents to check, all from the same wiki
+     * @return the documents the current user is allowed to view, in the order in which they were provided
+     */
+    Set<DocumentReference> getViewableDocuments(Collection<DocumentReference> documents);
+
+    /**
+     * @return a value which changes each time rights or groups are modified, to be included in the version of the
+     *         representations filtered according to the view right
+     */
+    String getRightsVersion();
+}
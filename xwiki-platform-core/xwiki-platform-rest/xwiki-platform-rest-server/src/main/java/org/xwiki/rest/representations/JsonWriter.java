@@ -0,0 +1,245 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.rest.representations;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+import javax.xml.bind.DatatypeConverter;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.rest.XWikiRestComponent;
+import org.xwiki.rest.model.jaxb.ObjectFactory;
+
+/**
+ * <p>
+ * Write the REST model objects as compact JSON: no indentation, and null or empty properties are left out. The JSON
+ * is written directly to the response stream while walking the model, without building an intermediate tree or
+ * string.
+ * </p>
+ * <p>
+ * Each model object becomes a JSON object whose keys are the names of the fields of the model class, so that lists
+ * get their plural name (e.g. <code>links</code>, <code>pageSummaries</code>). Dates and binary contents are written
+ * like in the XML representation (binary contents encoded in base64).
+ * </p>
+ * 
+ * @version $Id$
+ * @since 3.2M1
+ */
+@Component("org.xwiki.rest.representations.JsonWriter")
+@Provider
+@Produces(MediaType.APPLICATION_JSON)
+public class JsonWriter implements MessageBodyWriter<Object>, XWikiRestComponent
+{
+    /**
+     * The package of the model classes.
+     */
+    private static final Package MODEL_PACKAGE = ObjectFactory.class.getPackage();
+
+    /**
+     * The encoding of the JSON representations.
+     */
+    private static final String ENCODING = "UTF-8";
+
+    /**
+     * The fields of the model classes, including the inherited ones.
+     */
+    private static final ConcurrentMap<Class< ? >, List<Field>> FIELDS =
+        new ConcurrentHashMap<Class< ? >, List<Field>>();
+
+    public boolean isWriteable(Class< ? > type, Type genericType, Annotation[] annotations, MediaType mediaType)
+    {
+        return type.getPackage() == MODEL_PACKAGE;
+    }
+
+    public long getSize(Object t, Class< ? > type, Type genericType, Annotation[] annotations, MediaType mediaType)
+    {
+        return -1;
+    }
+
+    public void writeTo(Object t, Class< ? > type, Type genericType, Annotation[] annotations, MediaType mediaType,
+        MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream) throws IOException,
+        WebApplicationException
+    {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(entityStream, ENCODING));
+        writeValue(t, writer);
+        /* Don't close the stream, it belongs to the container */
+        writer.flush();
+    }
+
+    /**
+     * @param value the value to write
+     * @param writer where to write
+     * @throws IOException if the value cannot be written
+     */
+    private void writeValue(Object value, Writer writer) throws IOException
+    {
+        if (value instanceof String) {
+            writeString((String) value, writer);
+        } else if (value instanceof Number || value instanceof Boolean) {
+            writer.write(value.toString());
+        } else if (value instanceof Calendar) {
+            writeString(DatatypeConverter.printDateTime((Calendar) value), writer);
+        } else if (value instanceof byte[]) {
+            writeString(DatatypeConverter.printBase64Binary((byte[]) value), writer);
+        } else if (value instanceof Collection) {
+            writeArray((Collection< ? >) value, writer);
+        } else if (value.getClass().getPackage() == MODEL_PACKAGE && !value.getClass().isEnum()) {
+            writeObject(value, writer);
+        } else {
+            writeString(value.toString(), writer);
+        }
+    }
+
+    /**
+     * @param collection the collection to write
+     * @param writer where to write
+     * @throws IOException if the collection cannot be written
+     */
+    private void writeArray(Collection< ? > collection, Writer writer) throws IOException
+    {
+        writer.write('[');
+        boolean first = true;
+        for (Object element : collection) {
+            if (element != null) {
+                if (!first) {
+                    writer.write(',');
+                }
+                writeValue(element, writer);
+                first = false;
+            }
+        }
+        writer.write(']');
+    }
+
+    /**
+     * @param object the model object to write
+     * @param writer where to write
+     * @throws IOException if the object cannot be written
+     */
+    private void writeObject(Object object, Writer writer) throws IOException
+    {
+        writer.write('{');
+        boolean first = true;
+        for (Field field : getFields(object.getClass())) {
+            Object value;
+            try {
+                value = field.get(object);
+            } catch (IllegalAccessException e) {
+                /* Can't happen, the fields are made accessible */
+                continue;
+            }
+
+            if (value == null || (value instanceof Collection && ((Collection< ? >) value).isEmpty())) {
+                continue;
+            }
+
+            if (!first) {
+                writer.write(',');
+            }
+            writeString(field.getName(), writer);
+            writer.write(':');
+            writeValue(value, writer);
+            first = false;
+        }
+        writer.write('}');
+    }
+
+    /**
+     * @param string the string to write
+     * @param writer where to write
+     * @throws IOException if the string cannot be written
+     */
+    private void writeString(String string, Writer writer) throws IOException
+    {
+        writer.write('"');
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            switch (c) {
+                case '"':
+                    writer.write("\\\"");
+                    break;
+                case '\\':
+                    writer.write("\\\\");
+                    break;
+                case '\n':
+                    writer.write("\\n");
+                    break;
+                case '\r':
+                    writer.write("\\r");
+                    break;
+                case '\t':
+                    writer.write("\\t");
+                    break;
+                default:
+                    /* Also escape the line separators which are not valid in JavaScript strings */
+                    if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                        writer.write(String.format("\\u%04x", (int) c));
+                    } else {
+                        writer.write(c);
+                    }
+            }
+        }
+        writer.write('"');
+    }
+
+    /**
+     * @param type a model class
+     * @return the fields of the class holding the model properties, starting with the inherited ones
+     */
+    private List<Field> getFields(Class< ? > type)
+    {
+        List<Field> fields = FIELDS.get(type);
+        if (fields == null) {
+            fields = new ArrayList<Field>();
+            if (type.getSuperclass() != null && type.getSuperclass().getPackage() == MODEL_PACKAGE) {
+                fields.addAll(getFields(type.getSuperclass()));
+            }
+            for (Field field : type.getDeclaredFields()) {
+                if (!Modifier.isStatic(field.getModifiers()) && !Modifier.isTransient(field.getModifiers())) {
+                    field.setAccessible(true);
+                    fields.add(field);
+                }
+            }
+            FIELDS.put(type, fields);
+        }
+
+        return fields;
+    }
+}
@@ -24,16 +24,20 @@
 import java.util.ArrayList;
 import java.util.Formatter;
 import java.util.List;
+import java.util.Set;
 
 import javax.ws.rs.core.UriBuilder;
 import javax.ws.rs.core.UriBuilderException;
 
 import org.apache.commons.lang.StringUtils;
+import org.xwiki.component.annotation.Requirement;
+import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.query.Query;
 import org.xwiki.query.QueryException;
 import org.xwiki.rest.Relations;
 import org.xwiki.rest.Utils;
 import org.xwiki.rest.XWikiResource;
+import org.xwiki.rest.internal.ViewRightsResolver;
 import org.xwiki.rest.model.jaxb.Link;
 import org.xwiki.rest.model.jaxb.SearchResult;
 import org.xwiki.rest.resources.objects.ObjectResource;
@@ -50,6 +54,17 @@ public class BaseSearchResult extends XWikiResource
 {
     protected static final String SEARCH_TEMPLATE_INFO = "q={keywords}(&scope={content|name|title|spaces|objects})*";
 
+    /**
+     * The maximum number of query results whose view right is resolved at once.
+     */
+    private static final int RIGHTS_BATCH_SIZE = 100;
+
+    /**
+     * Used to filter the results the current user is not allowed to view.
+     */
+    @Requirement
+    protected ViewRightsResolver viewRightsResolver;
+
     protected static enum SearchScope
     {
         SPACES,
@@ -170,38 +185,43 @@ protected List<SearchResult> searchPages(List<SearchScope> searchScopes, String
             }
 
             if (hasProgrammingRights) {
-                f.format(") order by doc.fullName asc");
+                f.format(") order by doc.fullName asc, doc.language asc");
             } else {
-                f.format(") and doc.space<>'XWiki' and doc.space<>'Admin' and doc.space<>'Panels' and doc.name<>'WebPreferences' order by doc.fullName asc");
+                f.format(") and doc.space<>'XWiki' and doc.space<>'Admin' and doc.space<>'Panels' and doc.name<>'WebPreferences' order by doc.fullName asc, doc.language asc");
             }
 
             String query = f.toString();
 
-            List<Object> queryResult = null;
+            /*
+             * Fetch the results by batches, resolving the view right on each batch at once, until enough visible results
+             * have been found.
+             */
+            int batchSize = number > 0 ? Math.min(number, RIGHTS_BATCH_SIZE) : RIGHTS_BATCH_SIZE;
+            int offset = 0;
+            List<Object> queryResult;
+            do {
+                queryResult = executeSearch(query, keywords, space, offset, batchSize);
+                offset += batchSize;
+
+                Set<DocumentReference> viewableDocuments = getViewableDocuments(queryResult, wikiName);
+
+                for (Object object : queryResult) {
+                    if (number > 0 && result.size() >= number) {
+                        break;
+                    }
 
-            /* This is needed because if the :space placeholder is not in the query, setting it would cause an exception */
-            if (space != null) {
-                queryResult =
-                    queryManager.createQuery(query, Query.XWQL)
-                        .bindValue("keywords", String.format("%%%s%%", keywords.toUpperCase()))
-                        .bindValue("space", space).setLimit(number).execute();
-            } else {
-                queryResult =
-                    queryManager.createQuery(query, Query.XWQL)
-                        .bindValue("keywords", String.format("%%%s%%", keywords.toUpperCase())).setLimit(number)
-                        .execute();
-            }
+                    Object[] fields = (Object[]) object;
 
-            for (Object object : queryResult) {
-                Object[] fields = (Object[]) object;
+                    String spaceName = (String) fields[1];
+                    String pageName = (String) fields[2];
+                    String language = (String) fields[3];
 
-                String spaceName = (String) fields[1];
-                String pageName = (String) fields[2];
-                String language = (String) fields[3];
+                    if (!viewableDocuments.contains(new DocumentReference(wikiName, spaceName, pageName))) {
+                        continue;
+                    }
 
-                String pageId = Utils.getPageId(wikiName, spaceName, pageName);
+                    String pageId = Utils.getPageId(wikiName, spaceName, pageName);
 
-                if (Utils.getXWikiApi(componentManager).hasAccessLevel("view", pageId)) {
                     SearchResult searchResult = objectFactory.createSearchResult();
                     searchResult.setType("page");
                     searchResult.setId(pageId);
@@ -237,7 +257,7 @@ protected List<SearchResult> searchPages(List<SearchScope> searchScopes, String
 
                     result.add(searchResult);
                 }
-            }
+            } while (queryResult.size() == batchSize && (number <= 0 || result.size() < number));
 
             return result;
         } finally {
@@ -290,6 +310,13 @@ protected List<SearchResult> searchSpaces(String keywords, String wikiName, bool
                 queryManager.createQuery(query, Query.XWQL)
                     .bindValue("keywords", String.format("%%%s%%", keywords.toUpperCase())).setLimit(number).execute();
 
+            /* Resolve the view right on all the space home pages at once */
+            List<DocumentReference> webHomes = new ArrayList<DocumentReference>();
+            for (Object object : queryResult) {
+                webHomes.add(new DocumentReference(wikiName, (String) object, "WebHome"));
+            }
+            Set<DocumentReference> viewableWebHomes = viewRightsResolver.getViewableDocuments(webHomes);
+
             for (Object object : queryResult) {
 
                 String spaceName = (String) object;
@@ -311,8 +338,8 @@ protected List<SearchResult> searchSpaces(String keywords, String wikiName, bool
 
                 /* Add a link to the webhome if it exists */
                 String webHomePageId = Utils.getPageId(wikiName, spaceName, "WebHome");
-                if (Utils.getXWikiApi(componentManager).exists(webHomePageId)
-                    && Utils.getXWikiApi(componentManager).hasAccessLevel("view", webHomePageId)) {
+                if (viewableWebHomes.contains(new DocumentReference(wikiName, spaceName, "WebHome"))
+                    && Utils.getXWikiApi(componentManager).exists(webHomePageId)) {
                     String pageUri =
                         UriBuilder.fromUri(uriInfo.getBaseUri()).path(PageResource.class)
                             .build(wikiName, spaceName, "WebHome").toString();
@@ -369,40 +396,41 @@ protected List<SearchResult> searchObjects(String keywords, String wikiName, Str
             }
 
             if (hasProgrammingRights) {
-                f.format(" order by doc.fullName asc");
+                f.format(" order by doc.fullName asc, obj.className asc, obj.number asc");
             } else {
-                f.format(" and doc.space<>'XWiki' and doc.space<>'Admin' and doc.space<>'Panels' and doc.name<>'WebPreferences' order by doc.fullName asc");
+                f.format(" and doc.space<>'XWiki' and doc.space<>'Admin' and doc.space<>'Panels' and doc.name<>'WebPreferences' order by doc.fullName asc, obj.className asc, obj.number asc");
             }
 
             String query = f.toString();
 
-            List<Object> queryResult = null;
+            /* Fetch the results by batches and filter them as in searchPages() */
+            int batchSize = number > 0 ? Math.min(number, RIGHTS_BATCH_SIZE) : RIGHTS_BATCH_SIZE;
+            int offset = 0;
+            List<Object> queryResult;
+            do {
+                queryResult = executeSearch(query, keywords, space, offset, batchSize);
+                offset += batchSize;
 
-            /* This is needed because if the :space placeholder is not in the query, setting it would cause an exception */
-            if (space != null) {
-                queryResult =
-                    queryManager.createQuery(query, Query.XWQL)
-                        .bindValue("keywords", String.format("%%%s%%", keywords.toUpperCase()))
-                        .bindValue("space", space).setLimit(number).execute();
-            } else {
-                queryResult =
-                    queryManager.createQuery(query, Query.XWQL)
-                        .bindValue("keywords", String.format("%%%s%%", keywords.toUpperCase())).setLimit(number)
-                        .execute();
-            }
+                Set<DocumentReference> viewableDocuments = getViewableDocuments(queryResult, wikiName);
 
-            for (Object object : queryResult) {
-                Object[] fields = (Object[]) object;
+                for (Object object : queryResult) {
+                    if (number > 0 && result.size() >= number) {
+                        break;
+                    }
+
+                    Object[] fields = (Object[]) object;
 
-                String spaceName = (String) fields[1];
-                String pageName = (String) fields[2];
-                String className = (String) fields[3];
-                int objectNumber = (Integer) fields[4];
+                    String spaceName = (String) fields[1];
+                    String pageName = (String) fields[2];
+                    String className = (String) fields[3];
+                    int objectNumber = (Integer) fields[4];
 
-                String id = Utils.getObjectId(wikiName, spaceName, pageName, className, objectNumber);
+                    if (!viewableDocuments.contains(new DocumentReference(wikiName, spaceName, pageName))) {
+                        continue;
+                    }
+
+                    String id = Utils.getObjectId(wikiName, spaceName, pageName, className, objectNumber);
 
-                String pageId = Utils.getPageId(wikiName, spaceName, pageName);
-                if (Utils.getXWikiApi(componentManager).hasAccessLevel("view", pageId)) {
                     SearchResult searchResult = objectFactory.createSearchResult();
                     searchResult.setType("object");
                     searchResult.setId(id);
@@ -431,7 +459,7 @@ protected List<SearchResult> searchObjects(String keywords, String wikiName, Str
 
                     result.add(searchResult);
                 }
-            }
+            } while (queryResult.size() == batchSize && (number <= 0 || result.size() < number));
 
             return result;
         } finally {
@@ -439,6 +467,51 @@ protected List<SearchResult> searchObjects(String keywords, String wikiName, Str
         }
     }
 
+    /**
+     * Execute one batch of a page or object search query.
+     * 
+     * @param statement the XWQL statement of the search
+     * @param keywords the searched keywords
+     * @param space the space where to search, null to search in the whole wiki
+     * @param offset the index of the first result to return
+     * @param limit the maximum number of results to return
+     * @return the query results
+     * @throws QueryException if the query fails
+     */
+    private List<Object> executeSearch(String statement, String keywords, String space, int offset, int limit)
+        throws QueryException
+    {
+        Query query =
+            queryManager.createQuery(statement, Query.XWQL).bindValue("keywords",
+                String.format("%%%s%%", keywords.toUpperCase()));
+
+        /* This is needed because if the :space placeholder is not in the query, setting it would cause an exception */
+        if (space != null) {
+            query.bindValue("space", space);
+        }
+
+        return query.setOffset(offset).setLimit(limit).execute();
+    }
+
+    /**
+     * Resolve the view right on the documents of a batch of page or object search results at once.
+     * 
+     * @param queryResult the query results, holding the space and the name of the document in their second and third
+     *            columns
+     * @param wikiName the wiki where the search is done
+     * @return the documents of the results the current user is allowed to view
+     */
+    private Set<DocumentReference> getViewableDocuments(List<Object> queryResult, String wikiName)
+    {
+        List<DocumentReference> documents = new ArrayList<DocumentReference>(queryResult.size());
+        for (Object object : queryResult) {
+            Object[] fields = (Object[]) object;
+            documents.add(new DocumentReference(wikiName, (String) fields[1], (String) fields[2]));
+        }
+
+        return viewRightsResolver.getViewableDocuments(documents);
+    }
+
     /**
      * Return a list of {@link SearchScope} objects by parsing the strings provided in the search scope strings. If the
      * list doesn't contain any valid scope string, then CONTENT is added by default.
@@ -0,0 +1,304 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.rest.resources;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.logging.Level;
+
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response.Status;
+
+import org.apache.commons.lang.StringUtils;
+import org.restlet.Context;
+import org.restlet.Restlet;
+import org.restlet.data.Form;
+import org.restlet.data.MediaType;
+import org.restlet.data.Method;
+import org.restlet.data.Preference;
+import org.restlet.data.Reference;
+import org.restlet.data.Request;
+import org.restlet.data.Response;
+import org.restlet.resource.Representation;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.rest.Constants;
+import org.xwiki.rest.Utils;
+import org.xwiki.rest.XWikiResource;
+import org.xwiki.rest.model.jaxb.Batch;
+import org.xwiki.rest.model.jaxb.BatchRequest;
+import org.xwiki.rest.model.jaxb.BatchResult;
+import org.xwiki.rest.model.jaxb.BatchResults;
+
+import com.noelios.restlet.http.HttpConstants;
+import com.xpn.xwiki.XWikiContext;
+
+/**
+ * Execute several GET requests on the REST API in a single HTTP request. The sub-requests are dispatched internally in
+ * the context of the batch request: the XWiki context is set up and the user is authenticated only once for the whole
+ * batch. The result of each sub-request (status, media type, character set and raw content) is returned in the same
+ * order as the requests. The content is kept as bytes, so that binary representations such as attachments are not
+ * altered.
+ * <p>
+ * The contents are marshalled with the rest of the results, so they have to be held in memory until the batch is
+ * complete. To bound that memory, the total size of the contents of a batch is limited: a sub-request whose content
+ * does not fit in what is left gets the {@code 413} status and no content, and should be requested on its own.
+ * Batches can't be nested.
+ * 
+ * @version $Id$
+ * @since 3.2M1
+ */
+@Component("org.xwiki.rest.resources.BatchResource")
+@Path("/batch")
+public class BatchResource extends XWikiResource
+{
+    /**
+     * The maximum number of sub-requests accepted in a single batch.
+     */
+    static final int MAX_REQUESTS = 100;
+
+    /**
+     * The maximum total size, in bytes, of the contents returned by a single batch.
+     */
+    static final int MAX_CONTENT_SIZE = 10 * 1024 * 1024;
+
+    /**
+     * The status of the sub-requests whose content exceeds the size left in the batch.
+     */
+    static final int CONTENT_TOO_LARGE = 413;
+
+    private static final String SLASH = "/";
+
+    /**
+     * The path of this resource, relative to the root of the REST API.
+     */
+    private static final String BATCH_PATH = "batch";
+
+    /**
+     * Thrown when a content exceeds the size left in the batch.
+     */
+    private static class ContentTooLargeException extends IOException
+    {
+        /**
+         * Serialization identifier.
+         */
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Buffer a content, failing as soon as it exceeds a given size so that a large representation is never read
+     * entirely.
+     */
+    private static class LimitedOutputStream extends OutputStream
+    {
+        /**
+         * The bytes written so far.
+         */
+        private final ByteArrayOutputStream content = new ByteArrayOutputStream();
+
+        /**
+         * The maximum number of bytes accepted.
+         */
+        private final int limit;
+
+        /**
+         * @param limit the maximum number of bytes accepted
+         */
+        LimitedOutputStream(int limit)
+        {
+            this.limit = limit;
+        }
+
+        @Override
+        public void write(int b) throws IOException
+        {
+            checkLimit(1);
+            this.content.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            checkLimit(len);
+            this.content.write(b, off, len);
+        }
+
+        /**
+         * @return the bytes written
+         */
+        public byte[] toByteArray()
+        {
+            return this.content.toByteArray();
+        }
+
+        /**
+         * @param len the number of bytes about to be written
+         * @throws ContentTooLargeException if the limit would be exceeded
+         */
+        private void checkLimit(int len) throws ContentTooLargeException
+        {
+            if (len > this.limit - this.content.size()) {
+                throw new ContentTooLargeException();
+            }
+        }
+    }
+
+    @POST
+    public BatchResults executeBatch(Batch batch)
+    {
+        if (batch.getBatchRequests().size() > MAX_REQUESTS) {
+            throw new WebApplicationException(Status.BAD_REQUEST);
+        }
+
+        Restlet dispatcher = (Restlet) Context.getCurrent().getAttributes().get(Constants.BATCH_DISPATCHER);
+        Request batchRequest = Response.getCurrent().getRequest();
+        Reference rootRef = batchRequest.getRootRef();
+        if (dispatcher == null || rootRef == null) {
+            throw new WebApplicationException(Status.INTERNAL_SERVER_ERROR);
+        }
+
+        String root = rootRef.toString();
+        if (!root.endsWith(SLASH)) {
+            root += SLASH;
+        }
+
+        XWikiContext xwikiContext = Utils.getXWikiContext(componentManager);
+
+        BatchResults batchResults = objectFactory.createBatchResults();
+        int remainingSize = MAX_CONTENT_SIZE;
+        for (BatchRequest subRequest : batch.getBatchRequests()) {
+            // Make sure a sub-request doesn't change the wiki of the following ones.
+            String database = xwikiContext.getDatabase();
+            try {
+                BatchResult result = execute(subRequest, dispatcher, batchRequest, root, rootRef, remainingSize);
+                if (result.getContent() != null) {
+                    remainingSize -= result.getContent().length;
+                }
+                batchResults.getBatchResults().add(result);
+            } finally {
+                xwikiContext.setDatabase(database);
+            }
+        }
+
+        return batchResults;
+    }
+
+    /**
+     * @param subRequest the sub-request to execute
+     * @param dispatcher the restlet handling the authenticated requests
+     * @param batchRequest the batch request
+     * @param root the root URI of the REST API, ending with a slash
+     * @param rootRef the root reference of the REST API
+     * @param maxContentSize the maximum size of the content of the sub-request
+     * @return the result of the sub-request
+     */
+    private BatchResult execute(BatchRequest subRequest, Restlet dispatcher, Request batchRequest, String root,
+        Reference rootRef, int maxContentSize)
+    {
+        BatchResult result = objectFactory.createBatchResult();
+        result.setId(subRequest.getId());
+        result.setUri(subRequest.getUri());
+
+        String uri = subRequest.getUri();
+        if (uri == null) {
+            result.setStatus(Status.BAD_REQUEST.getStatusCode());
+
+            return result;
+        }
+
+        /* Only resources of the REST API can be requested, given either relative to its root or as absolute URIs */
+        if (!uri.startsWith(root)) {
+            if (uri.indexOf("://") >= 0) {
+                result.setStatus(Status.BAD_REQUEST.getStatusCode());
+
+                return result;
+            }
+            uri = root + (uri.startsWith(SLASH) ? uri.substring(1) : uri);
+        }
+
+        /* Only GET is dispatched so a batch can't be requested anyway, but make it explicit */
+        if (isBatch(uri.substring(root.length()))) {
+            result.setStatus(Status.BAD_REQUEST.getStatusCode());
+
+            return result;
+        }
+
+        Reference resourceRef = new Reference(uri);
+        resourceRef.setBaseRef(rootRef);
+
+        Request request = new Request(Method.GET, resourceRef);
+        request.setRootRef(rootRef);
+        request.getClientInfo().setAddress(batchRequest.getClientInfo().getAddress());
+        request.getClientInfo().setAgent(batchRequest.getClientInfo().getAgent());
+
+        Form headers = new Form();
+        MediaType mediaType =
+            subRequest.getMediaType() != null ? MediaType.valueOf(subRequest.getMediaType())
+                : MediaType.APPLICATION_XML;
+        request.getClientInfo().getAcceptedMediaTypes().add(new Preference<MediaType>(mediaType));
+        headers.add(HttpConstants.HEADER_ACCEPT, mediaType.toString());
+        request.getAttributes().put(HttpConstants.ATTRIBUTE_HEADERS, headers);
+
+        Response response = new Response(request);
+        try {
+            dispatcher.handle(request, response);
+
+            result.setStatus(response.getStatus().getCode());
+            Representation entity = response.getEntity();
+            if (entity != null && entity.isAvailable()) {
+                if (entity.getMediaType() != null) {
+                    result.setMediaType(entity.getMediaType().toString());
+                }
+                if (entity.getCharacterSet() != null) {
+                    result.setCharacterSet(entity.getCharacterSet().getName());
+                }
+                LimitedOutputStream content = new LimitedOutputStream(maxContentSize);
+                entity.write(content);
+                result.setContent(content.toByteArray());
+            }
+        } catch (ContentTooLargeException e) {
+            logger.log(Level.FINE, String.format("The response of [%s] does not fit in the batch", uri));
+            result.setStatus(CONTENT_TOO_LARGE);
+            result.setMediaType(null);
+            result.setCharacterSet(null);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, String.format("Failed to read the response of [%s]", uri), e);
+            result.setStatus(Status.INTERNAL_SERVER_ERROR.getStatusCode());
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, String.format("Failed to execute [%s]", uri), e);
+            result.setStatus(Status.INTERNAL_SERVER_ERROR.getStatusCode());
+        }
+
+        return result;
+    }
+
+    /**
+     * @param path the path of a sub-request, relative to the root of the REST API
+     * @return true if the sub-request targets the batch resource
+     */
+    private boolean isBatch(String path)
+    {
+        String resourcePath = StringUtils.substringBefore(path, "?");
+
+        return BATCH_PATH.equals(StringUtils.strip(resourcePath, SLASH));
+    }
+}
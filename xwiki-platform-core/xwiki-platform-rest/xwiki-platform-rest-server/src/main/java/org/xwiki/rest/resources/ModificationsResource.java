@@ -35,6 +35,7 @@
 import org.xwiki.rest.DomainObjectFactory;
 import org.xwiki.rest.Utils;
 import org.xwiki.rest.XWikiResource;
+import org.xwiki.rest.internal.ContinuationToken;
 import org.xwiki.rest.model.jaxb.History;
 import org.xwiki.rest.model.jaxb.HistorySummary;
 
@@ -52,8 +53,8 @@ public class ModificationsResource extends XWikiResource
     public History getModifications(@PathParam("wikiName") String wikiName,
         @QueryParam("start") @DefaultValue("0") Integer start,
         @QueryParam("number") @DefaultValue("25") Integer number,
-        @QueryParam("order") @DefaultValue("desc") String order, @QueryParam("date") @DefaultValue("0") Long ts)
-        throws XWikiException, QueryException
+        @QueryParam("order") @DefaultValue("desc") String order, @QueryParam("date") @DefaultValue("0") Long ts,
+        @QueryParam(ContinuationToken.PARAMETER) String continuation) throws XWikiException, QueryException
     {
         String database = Utils.getXWikiContext(componentManager).getDatabase();
 
@@ -63,17 +64,45 @@ public History getModifications(@PathParam("wikiName") String wikiName,
         try {
             Utils.getXWikiContext(componentManager).setDatabase(wikiName);
 
-            String query =
-                String
-                    .format(
-                        "select doc.space, doc.name, doc.language, rcs.id, rcs.date, rcs.author from XWikiRCSNodeInfo as rcs, XWikiDocument as doc where rcs.id.docId=doc.id and rcs.date > :date order by rcs.date %s, rcs.id.version1 %s, rcs.id.version2 %s",
-                        order, order, order);
+            /* The order is inserted in the query so only accept the two valid values */
+            String sortOrder = "asc".equalsIgnoreCase(order) ? "asc" : "desc";
+
+            StringBuilder query =
+                new StringBuilder(
+                    "select doc.space, doc.name, doc.language, rcs.id, rcs.date, rcs.author from XWikiRCSNodeInfo as rcs, XWikiDocument as doc where rcs.id.docId=doc.id and rcs.date > :date");
+
+            /*
+             * With a continuation token only select the modifications following the last one of the previous page
+             * (keyset pagination), instead of making the database skip all the previous modifications.
+             */
+            ContinuationToken token = null;
+            if (continuation != null) {
+                token = ContinuationToken.parse(continuation, 4);
+                query.append(String.format(
+                    " and (rcs.date %1$s :lastDate or (rcs.date = :lastDate and (rcs.id.docId %1$s :lastDocId"
+                        + " or (rcs.id.docId = :lastDocId and (rcs.id.version1 %1$s :lastVersion1"
+                        + " or (rcs.id.version1 = :lastVersion1 and rcs.id.version2 %1$s :lastVersion2))))))",
+                    sortOrder.equals("asc") ? ">" : "<"));
+            }
+
+            /* The sort key must be unique for the keyset pagination to be exact */
+            query.append(String.format(
+                " order by rcs.date %1$s, rcs.id.docId %1$s, rcs.id.version1 %1$s, rcs.id.version2 %1$s", sortOrder));
+
+            Query modificationsQuery =
+                queryManager.createQuery(query.toString(), Query.XWQL).bindValue("date", new Date(ts)).setLimit(number);
+            if (token != null) {
+                modificationsQuery.bindValue("lastDate", new Date(token.getLong(0)))
+                    .bindValue("lastDocId", token.getLong(1)).bindValue("lastVersion1", token.getInt(2))
+                    .bindValue("lastVersion2", token.getInt(3));
+            } else {
+                modificationsQuery.setOffset(start);
+            }
 
             List<Object> queryResult = null;
-            queryResult =
-                queryManager.createQuery(query, Query.XWQL).bindValue("date", new Date(ts)).setLimit(number).setOffset(
-                    start).execute();
+            queryResult = modificationsQuery.execute();
 
+            ContinuationToken lastToken = null;
             for (Object object : queryResult) {
                 Object[] fields = (Object[]) object;
 
@@ -93,6 +122,15 @@ public History getModifications(@PathParam("wikiName") String wikiName,
                         pageName, language, nodeId.getVersion(), modifier, modified);
 
                 history.getHistorySummaries().add(historySummary);
+
+                lastToken =
+                    new ContinuationToken(timestamp.getTime(), nodeId.getDocId(), nodeId.getVersion().at(0), nodeId
+                        .getVersion().at(1));
+            }
+
+            /* There might be more modifications */
+            if (number > 0 && queryResult.size() == number) {
+                history.getLinks().add(createNextLink(lastToken));
             }
         } finally {
             Utils.getXWikiContext(componentManager).setDatabase(database);
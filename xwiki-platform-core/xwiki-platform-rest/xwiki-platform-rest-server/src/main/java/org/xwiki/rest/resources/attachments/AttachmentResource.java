@@ -19,6 +19,8 @@
  */
 package org.xwiki.rest.resources.attachments;
 
+import java.io.InputStream;
+
 import javax.ws.rs.DELETE;
 import javax.ws.rs.GET;
 import javax.ws.rs.PUT;
@@ -49,15 +51,28 @@ public Response getAttachment(@PathParam("wikiName") String wikiName, @PathParam
         @PathParam("pageName") String pageName, @PathParam("attachmentName") String attachmentName)
         throws XWikiException
     {
-        DocumentInfo documentInfo = getDocumentInfo(wikiName, spaceName, pageName, null, null, true, false);
-        Document doc = documentInfo.getDocument();
+        XWikiDocument xwikiDocument = getViewableDocument(wikiName, spaceName, pageName);
+        if (xwikiDocument == null) {
+            /* Fail as usual: not found or unauthorized */
+            getDocumentInfo(wikiName, spaceName, pageName, null, null, true, false);
+            throw new WebApplicationException(Status.UNAUTHORIZED);
+        }
 
-        final com.xpn.xwiki.api.Attachment xwikiAttachment = doc.getAttachment(attachmentName);
+        XWikiAttachment xwikiAttachment = xwikiDocument.getAttachment(attachmentName);
         if (xwikiAttachment == null) {
             throw new WebApplicationException(Status.NOT_FOUND);
         }
 
-        return Response.ok().type(xwikiAttachment.getMimeType()).entity(xwikiAttachment.getContent()).build();
+        /* Answer with 304 Not Modified before loading the content if the client already has it */
+        RepresentationVersion version =
+            checkVersion(String.format("attachment:%s:%s:%d", attachmentName, xwikiAttachment.getVersion(),
+                xwikiAttachment.getDate().getTime()), xwikiAttachment.getDate());
+
+        /* Stream the content instead of copying it in a byte array */
+        InputStream content = xwikiAttachment.getContentInputStream(Utils.getXWikiContext(componentManager));
+
+        return Response.fromResponse(buildResponse(content, version))
+            .type(xwikiAttachment.getMimeType(Utils.getXWikiContext(componentManager))).build();
     }
 
     @PUT
@@ -43,7 +43,6 @@
 
 import org.xwiki.component.annotation.Component;
 import org.xwiki.rest.Utils;
-import org.xwiki.rest.model.jaxb.Attachments;
 import org.xwiki.rest.resources.BaseAttachmentsResource;
 
 import com.xpn.xwiki.XWikiException;
@@ -59,14 +58,18 @@ public class AttachmentsResource extends BaseAttachmentsResource
     private static String FORM_FILENAME_FIELD = "filename";
 
     @GET
-    public Attachments getAttachments(@PathParam("wikiName") String wikiName, @PathParam("spaceName") String spaceName,
+    public Response getAttachments(@PathParam("wikiName") String wikiName, @PathParam("spaceName") String spaceName,
         @PathParam("pageName") String pageName, @QueryParam("start") @DefaultValue("0") Integer start,
         @QueryParam("number") @DefaultValue("-1") Integer number) throws XWikiException
     {
+        /* Answer with 304 Not Modified before building the attachments if the client already has them */
+        RepresentationVersion version =
+            checkPageVersion(wikiName, spaceName, pageName, String.format("attachments:%d:%d", start, number));
+
         DocumentInfo documentInfo = getDocumentInfo(wikiName, spaceName, pageName, null, null, true, false);
         Document doc = documentInfo.getDocument();
 
-        return getAttachmentsForDocument(doc, start, number);
+        return buildResponse(getAttachmentsForDocument(doc, start, number), version);
     }
 
     @POST
@@ -33,6 +33,7 @@
 import org.xwiki.rest.DomainObjectFactory;
 import org.xwiki.rest.Utils;
 import org.xwiki.rest.XWikiResource;
+import org.xwiki.rest.internal.ContinuationToken;
 import org.xwiki.rest.model.jaxb.ObjectSummary;
 import org.xwiki.rest.model.jaxb.Objects;
 
@@ -50,8 +51,8 @@ public class AllObjectsForClassNameResource extends XWikiResource
 {
     @GET
     public Objects getObjects(@PathParam("wikiName") String wikiName, @PathParam("className") String className,
-        @QueryParam("start") @DefaultValue("0") Integer start, @QueryParam("number") @DefaultValue("-1") Integer number)
-        throws XWikiException, QueryException
+        @QueryParam("start") @DefaultValue("0") Integer start, @QueryParam("number") @DefaultValue("-1") Integer number,
+        @QueryParam(ContinuationToken.PARAMETER) String continuation) throws XWikiException, QueryException
     {
         String database = Utils.getXWikiContext(componentManager).getDatabase();
 
@@ -64,11 +65,31 @@ public Objects getObjects(@PathParam("wikiName") String wikiName, @PathParam("cl
             String query =
                 "select doc, obj from BaseObject as obj, XWikiDocument as doc where obj.name=doc.fullName and obj.className=:className";
 
+            /*
+             * With a continuation token only select the objects following the last one of the previous page (keyset
+             * pagination), instead of making the database skip all the previous objects.
+             */
+            ContinuationToken token = null;
+            if (continuation != null) {
+                token = ContinuationToken.parse(continuation, 1);
+                query += " and obj.id > :lastId";
+            }
+
+            /* Sort on a unique key so that pages are consistent */
+            query += " order by obj.id";
+
+            Query objectsQuery =
+                queryManager.createQuery(query, Query.XWQL).bindValue("className", className).setLimit(number);
+            if (token != null) {
+                objectsQuery.bindValue("lastId", token.getInt(0));
+            } else {
+                objectsQuery.setOffset(start);
+            }
+
             List<Object> queryResult = null;
-            queryResult =
-                queryManager.createQuery(query, Query.XWQL).bindValue("className", className).setLimit(number)
-                    .setOffset(start).execute();
+            queryResult = objectsQuery.execute();
 
+            int lastId = 0;
             for (Object object : queryResult) {
                 Object[] fields = (Object[]) object;
 
@@ -76,6 +97,7 @@ public Objects getObjects(@PathParam("wikiName") String wikiName, @PathParam("cl
                 xwikiDocument.setDatabase(wikiName);
                 Document doc = new Document(xwikiDocument, Utils.getXWikiContext(componentManager));
                 BaseObject xwikiObject = (BaseObject) fields[1];
+                lastId = xwikiObject.getId();
 
                 ObjectSummary objectSummary =
                     DomainObjectFactory.createObjectSummary(objectFactory, uriInfo.getBaseUri(), Utils
@@ -83,6 +105,11 @@ public Objects getObjects(@PathParam("wikiName") String wikiName, @PathParam("cl
 
                 objects.getObjectSummaries().add(objectSummary);
             }
+
+            /* There might be more objects */
+            if (number > 0 && queryResult.size() == number) {
+                objects.getLinks().add(createNextLink(new ContinuationToken(lastId)));
+            }
         } finally {
             Utils.getXWikiContext(componentManager).setDatabase(database);
         }
@@ -55,10 +55,14 @@
 public class ObjectsResource extends BaseObjectsResource
 {
     @GET
-    public Objects getObjects(@PathParam("wikiName") String wikiName, @PathParam("spaceName") String spaceName,
+    public Response getObjects(@PathParam("wikiName") String wikiName, @PathParam("spaceName") String spaceName,
         @PathParam("pageName") String pageName, @QueryParam("start") @DefaultValue("0") Integer start,
         @QueryParam("number") @DefaultValue("-1") Integer number) throws XWikiException
     {
+        /* Answer with 304 Not Modified before building the objects if the client already has them */
+        RepresentationVersion version =
+            checkPageVersion(wikiName, spaceName, pageName, String.format("objects:%d:%d", start, number));
+
         DocumentInfo documentInfo = getDocumentInfo(wikiName, spaceName, pageName, null, null, true, false);
 
         Document doc = documentInfo.getDocument();
@@ -80,7 +84,7 @@ public Objects getObjects(@PathParam("wikiName") String wikiName, @PathParam("sp
             }
         }
 
-        return objects;
+        return buildResponse(objects, version);
     }
 
     @POST
@@ -42,15 +42,21 @@
 public class PageResource extends ModifiablePageResource
 {
     @GET
-    public Page getPage(@PathParam("wikiName") String wikiName, @PathParam("spaceName") String spaceName,
+    public Response getPage(@PathParam("wikiName") String wikiName, @PathParam("spaceName") String spaceName,
         @PathParam("pageName") String pageName) throws XWikiException
     {
+        /* Answer with 304 Not Modified before building the page if the client already has it */
+        RepresentationVersion version = checkPageVersion(wikiName, spaceName, pageName, "page");
+
         DocumentInfo documentInfo = getDocumentInfo(wikiName, spaceName, pageName, null, null, true, false);
 
         Document doc = documentInfo.getDocument();
 
-        return DomainObjectFactory.createPage(objectFactory, uriInfo.getBaseUri(), uriInfo.getAbsolutePath(), doc,
-            false, Utils.getXWikiApi(componentManager));
+        Page page =
+            DomainObjectFactory.createPage(objectFactory, uriInfo.getBaseUri(), uriInfo.getAbsolutePath(), doc, false,
+                Utils.getXWikiApi(componentManager));
+
+        return buildResponse(page, version);
     }
 
     @PUT
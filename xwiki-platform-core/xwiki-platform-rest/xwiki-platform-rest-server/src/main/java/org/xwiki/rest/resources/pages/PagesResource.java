@@ -19,6 +19,7 @@
  */
 package org.xwiki.rest.resources.pages;
 
+import java.util.Date;
 import java.util.List;
 import java.util.regex.Pattern;
 
@@ -27,12 +28,16 @@
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Response;
 
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.annotation.Requirement;
+import org.xwiki.query.Query;
 import org.xwiki.query.QueryException;
 import org.xwiki.rest.DomainObjectFactory;
 import org.xwiki.rest.Utils;
 import org.xwiki.rest.XWikiResource;
+import org.xwiki.rest.internal.ViewRightsResolver;
 import org.xwiki.rest.model.jaxb.Pages;
 
 import com.xpn.xwiki.XWikiException;
@@ -45,8 +50,15 @@
 @Path("/wikis/{wikiName}/spaces/{spaceName}/pages")
 public class PagesResource extends XWikiResource
 {
+    /**
+     * Used to include the state of the rights in the version of the list, since it only contains the pages the current
+     * user is allowed to view.
+     */
+    @Requirement
+    private ViewRightsResolver viewRightsResolver;
+
     @GET
-    public Pages getPages(@PathParam("wikiName") String wikiName, @PathParam("spaceName") String spaceName,
+    public Response getPages(@PathParam("wikiName") String wikiName, @PathParam("spaceName") String spaceName,
         @QueryParam("start") @DefaultValue("0") Integer start,
         @QueryParam("number") @DefaultValue("-1") Integer number, @QueryParam("parentId") String parentFilterExpression)
         throws XWikiException, QueryException
@@ -55,10 +67,31 @@ public Pages getPages(@PathParam("wikiName") String wikiName, @PathParam("spaceN
 
         Pages pages = objectFactory.createPages();
 
+        RepresentationVersion version = null;
+
         /* This try is just needed for executing the finally clause. Exceptions are actually re-thrown. */
         try {
             Utils.getXWikiContext(componentManager).setDatabase(wikiName);
 
+            /*
+             * Answer with 304 Not Modified before loading the pages if the client already has them. Creating, modifying
+             * or deleting a page of the space changes the number of documents or their last modification date.
+             * Modifying rights or groups, possibly outside of the space, changes the pages the user can view. The parent
+             * filter depends on documents outside of the space so the version can't be known in that case.
+             */
+            List<Object[]> spaceState =
+                queryManager.createQuery(
+                    "select count(doc.id), max(doc.date) from XWikiDocument as doc where doc.space = :space", Query.HQL)
+                    .bindValue("space", spaceName).execute();
+            if (parentFilterExpression == null && !spaceState.isEmpty() && spaceState.get(0)[1] != null) {
+                Date lastModified = (Date) spaceState.get(0)[1];
+                /* No Last-Modified date: the rights can change the list without modifying any page of the space. */
+                version =
+                    checkVersion(String.format("pages:%s:%s:%d:%d:%s:%d:%s", wikiName, spaceName, start, number,
+                        spaceState.get(0)[0], lastModified.getTime(), this.viewRightsResolver.getRightsVersion()),
+                        null);
+            }
+
             /* Use an explicit query to improve performance */
             List<String> pageNames =
                 queryManager.getNamedQuery("getSpaceDocsName").bindValue("space", spaceName).setOffset(start).setLimit(
@@ -109,6 +142,6 @@ public Pages getPages(@PathParam("wikiName") String wikiName, @PathParam("spaceN
             Utils.getXWikiContext(componentManager).setDatabase(database);
         }
 
-        return pages;
+        return buildResponse(pages, version);
     }
 }
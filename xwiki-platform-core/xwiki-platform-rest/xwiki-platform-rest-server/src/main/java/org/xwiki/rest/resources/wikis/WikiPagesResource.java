@@ -38,6 +38,7 @@
 import org.xwiki.rest.Relations;
 import org.xwiki.rest.Utils;
 import org.xwiki.rest.XWikiResource;
+import org.xwiki.rest.internal.ContinuationToken;
 import org.xwiki.rest.model.jaxb.Link;
 import org.xwiki.rest.model.jaxb.PageSummary;
 import org.xwiki.rest.model.jaxb.Pages;
@@ -58,7 +59,8 @@ public class WikiPagesResource extends XWikiResource
     public Pages getPages(@PathParam("wikiName") String wikiName,
         @QueryParam("start") @DefaultValue("0") Integer start, @QueryParam("name") @DefaultValue("") String name,
         @QueryParam("space") @DefaultValue("") String space, @QueryParam("author") @DefaultValue("") String author,
-        @QueryParam("number") @DefaultValue("25") Integer number) throws QueryException, XWikiException
+        @QueryParam("number") @DefaultValue("25") Integer number,
+        @QueryParam(ContinuationToken.PARAMETER) String continuation) throws QueryException, XWikiException
     {
         String database = Utils.getXWikiContext(componentManager).getDatabase();
 
@@ -108,20 +110,40 @@ public Pages getPages(@PathParam("wikiName") String wikiName,
                 f.format(")");
             }
 
+            /*
+             * With a continuation token only select the pages following the last one of the previous page (keyset
+             * pagination), instead of making the database skip all the previous pages.
+             */
+            ContinuationToken token = null;
+            if (continuation != null) {
+                token = ContinuationToken.parse(continuation, 1);
+                f.format(filters.isEmpty() ? " where doc.id > :lastId" : " and doc.id > :lastId");
+            }
+
+            /* Sort on a unique key so that pages are consistent */
+            f.format(" order by doc.id");
+
             String queryString = f.toString();
 
             /* Execute the query by filling the parameters */
-            Query query = queryManager.createQuery(queryString, Query.XWQL).setLimit(number).setOffset(start);
+            Query query = queryManager.createQuery(queryString, Query.XWQL).setLimit(number);
             for (String param : filters.keySet()) {
                 query.bindValue(param, String.format("%%%s%%", filters.get(param).toUpperCase()));
             }
+            if (token != null) {
+                query.bindValue("lastId", token.getLong(0));
+            } else {
+                query.setOffset(start);
+            }
 
             List<Object> queryResult = null;
             queryResult = query.execute();
 
             /* Get the results and populate the returned representation */
+            long lastId = 0;
             for (Object object : queryResult) {
                 XWikiDocument xwikiDocument = (XWikiDocument) object;
+                lastId = xwikiDocument.getId();
                 xwikiDocument.setDatabase(wikiName);
 
                 Document doc = new Document(xwikiDocument, Utils.getXWikiContext(componentManager));
@@ -159,6 +181,11 @@ public Pages getPages(@PathParam("wikiName") String wikiName,
                 pages.getPageSummaries().add(pageSummary);
 
             }
+
+            /* There might be more pages */
+            if (number > 0 && queryResult.size() == number) {
+                pages.getLinks().add(createNextLink(new ContinuationToken(lastId)));
+            }
         } finally {
             Utils.getXWikiContext(componentManager).setDatabase(database);
         }
@@ -0,0 +1,349 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.rest.internal;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jmock.Expectations;
+import org.jmock.api.Invocation;
+import org.jmock.lib.action.CustomAction;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.context.Execution;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryManager;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.test.AbstractBridgedComponentTestCase;
+import com.xpn.xwiki.user.api.XWikiRightService;
+
+/**
+ * Unit tests for {@link DefaultViewRightsResolver}.
+ * 
+ * @version $Id$
+ */
+public class DefaultViewRightsResolverTest extends AbstractBridgedComponentTestCase
+{
+    private static final String USER = "XWiki.Alice";
+
+    private static final DocumentReference WITH_RIGHTS = new DocumentReference("xwiki", "Space", "WithRights");
+
+    private static final DocumentReference WITHOUT_RIGHTS = new DocumentReference("xwiki", "Space", "WithoutRights");
+
+    private static final DocumentReference WITHOUT_RIGHTS2 = new DocumentReference("xwiki", "Space", "WithoutRights2");
+
+    private static final DocumentReference OTHER_SPACE = new DocumentReference("xwiki", "Other", "Page");
+
+    private XWikiRightService rightService;
+
+    private QueryManager queryManager;
+
+    private Query query;
+
+    private EventListener listener;
+
+    private boolean defaultRightService = true;
+
+    private DefaultViewRightsResolver resolver;
+
+    @Before
+    @Override
+    public void setUp() throws Exception
+    {
+        super.setUp();
+
+        final XWiki xwiki = getMockery().mock(XWiki.class);
+        this.rightService = getMockery().mock(XWikiRightService.class);
+        final CacheManager cacheManager = getMockery().mock(CacheManager.class);
+        final ObservationManager observationManager = getMockery().mock(ObservationManager.class);
+        this.queryManager = getMockery().mock(QueryManager.class);
+        this.query = getMockery().mock(Query.class);
+
+        getMockery().checking(new Expectations()
+        {
+            {
+                allowing(xwiki).getRightService();
+                will(returnValue(rightService));
+                allowing(cacheManager).createNewCache(with(any(CacheConfiguration.class)));
+                will(returnValue(createCache()));
+                oneOf(observationManager).addListener(with(any(EventListener.class)));
+                will(new CustomAction("capture the listener")
+                {
+                    public Object invoke(Invocation invocation)
+                    {
+                        listener = (EventListener) invocation.getParameter(0);
+                        return null;
+                    }
+                });
+                allowing(query).setWiki("xwiki");
+                will(returnValue(query));
+                allowing(query).bindValue(with(any(String.class)), with(any(Object.class)));
+                will(returnValue(query));
+            }
+        });
+
+        getContext().setWiki(xwiki);
+        getContext().setUserReference(new DocumentReference("xwiki", "XWiki", "Alice"));
+
+        this.resolver = new DefaultViewRightsResolver()
+        {
+            @Override
+            boolean isResolvableBySpace(XWikiRightService rightService)
+            {
+                // The right service is a mock so it can't be the default implementation
+                return defaultRightService;
+            }
+        };
+        ReflectionUtils.setFieldValue(this.resolver, "execution", getComponentManager().lookup(Execution.class));
+        ReflectionUtils.setFieldValue(this.resolver, "cacheManager", cacheManager);
+        ReflectionUtils.setFieldValue(this.resolver, "queryManager", this.queryManager);
+        ReflectionUtils.setFieldValue(this.resolver, "observationManager", observationManager);
+        ReflectionUtils.setFieldValue(this.resolver, "serializer",
+            getComponentManager().lookup(EntityReferenceSerializer.class));
+        ReflectionUtils.setFieldValue(this.resolver, "logger", getMockery().mock(Logger.class));
+        this.resolver.initialize();
+    }
+
+    /**
+     * @return a cache keeping its entries in a map
+     */
+    @SuppressWarnings("unchecked")
+    private Cache<Boolean> createCache()
+    {
+        final Map<String, Object> entries = new HashMap<String, Object>();
+
+        return (Cache<Boolean>) Proxy.newProxyInstance(getClass().getClassLoader(), new Class< ? >[] {Cache.class},
+            new InvocationHandler()
+            {
+                public Object invoke(Object proxy, Method method, Object[] args)
+                {
+                    String name = method.getName();
+                    if (name.equals("get")) {
+                        return entries.get(args[0]);
+                    } else if (name.equals("set")) {
+                        entries.put((String) args[0], args[1]);
+                    } else if (name.equals("remove")) {
+                        entries.remove(args[0]);
+                    } else if (name.equals("removeAll")) {
+                        entries.clear();
+                    }
+                    return null;
+                }
+            });
+    }
+
+    private void expectRightsQuery(final String... documentsWithRights)
+    {
+        getMockery().checking(new Expectations()
+        {
+            {
+                oneOf(queryManager).createQuery(with(any(String.class)), with(Query.HQL));
+                will(returnValue(query));
+                oneOf(query).execute();
+                will(returnValue(Arrays.asList(documentsWithRights)));
+            }
+        });
+    }
+
+    private void expectViewCheck(final DocumentReference document, final boolean allowed) throws Exception
+    {
+        getMockery().checking(new Expectations()
+        {
+            {
+                oneOf(rightService).hasAccessLevel("view", USER,
+                    "xwiki:" + document.getLastSpaceReference().getName() + '.' + document.getName(), getContext());
+                will(returnValue(allowed));
+            }
+        });
+    }
+
+    private Set<DocumentReference> getViewableDocuments(DocumentReference... documents)
+    {
+        return this.resolver.getViewableDocuments(Arrays.asList(documents));
+    }
+
+    private Set<DocumentReference> set(DocumentReference... documents)
+    {
+        return new LinkedHashSet<DocumentReference>(Arrays.asList(documents));
+    }
+
+    private XWikiDocument createDocument(DocumentReference reference, String className)
+    {
+        XWikiDocument document = new XWikiDocument(reference);
+        if (className != null) {
+            BaseObject object = new BaseObject();
+            object.setClassName(className);
+            document.addObject(className, object);
+        }
+        document.setOriginalDocument(new XWikiDocument(reference));
+
+        return document;
+    }
+
+    @Test
+    public void testDocumentsWithAndWithoutRightsObjects() throws Exception
+    {
+        expectRightsQuery("Space.WithRights");
+        // The document holding rights is checked on its own, the right service is asked only once for the documents
+        // of the space which don't hold any rights
+        expectViewCheck(WITH_RIGHTS, false);
+        expectViewCheck(WITHOUT_RIGHTS, true);
+
+        Assert.assertEquals(set(WITHOUT_RIGHTS, WITHOUT_RIGHTS2),
+            getViewableDocuments(WITH_RIGHTS, WITHOUT_RIGHTS, WITHOUT_RIGHTS2));
+    }
+
+    @Test
+    public void testSpaceLevelDeny() throws Exception
+    {
+        expectRightsQuery("Space.WithRights");
+        expectViewCheck(WITH_RIGHTS, true);
+        expectViewCheck(WITHOUT_RIGHTS, false);
+        expectViewCheck(OTHER_SPACE, true);
+
+        // The deny of the space applies to all its documents without rights, not to the other spaces nor to the
+        // documents allowing the view right themselves
+        Assert.assertEquals(set(WITH_RIGHTS, OTHER_SPACE),
+            getViewableDocuments(WITH_RIGHTS, WITHOUT_RIGHTS, WITHOUT_RIGHTS2, OTHER_SPACE));
+    }
+
+    @Test
+    public void testDecisionsAreCached() throws Exception
+    {
+        expectRightsQuery();
+        expectViewCheck(WITHOUT_RIGHTS, true);
+
+        Assert.assertEquals(set(WITHOUT_RIGHTS), getViewableDocuments(WITHOUT_RIGHTS));
+        // No new check
+        Assert.assertEquals(set(WITHOUT_RIGHTS), getViewableDocuments(WITHOUT_RIGHTS));
+    }
+
+    @Test
+    public void testCacheIsFlushedWhenRightsChange() throws Exception
+    {
+        assertCacheFlushedBy(createDocument(WITH_RIGHTS, "XWiki.XWikiRights"));
+    }
+
+    @Test
+    public void testCacheIsFlushedWhenGlobalRightsChange() throws Exception
+    {
+        assertCacheFlushedBy(createDocument(new DocumentReference("xwiki", "XWiki", "XWikiPreferences"),
+            "XWiki.XWikiGlobalRights"));
+    }
+
+    @Test
+    public void testCacheIsFlushedWhenGroupsChange() throws Exception
+    {
+        assertCacheFlushedBy(createDocument(new DocumentReference("xwiki", "XWiki", "XWikiAdminGroup"),
+            "XWiki.XWikiGroups"));
+    }
+
+    @Test
+    public void testCacheIsFlushedWhenRightsAreRemoved() throws Exception
+    {
+        XWikiDocument document = createDocument(WITH_RIGHTS, null);
+        document.setOriginalDocument(createDocument(WITH_RIGHTS, "XWiki.XWikiRights"));
+
+        assertCacheFlushedBy(document);
+    }
+
+    @Test
+    public void testCacheIsKeptWhenOtherDocumentsChange() throws Exception
+    {
+        expectRightsQuery();
+        expectViewCheck(WITHOUT_RIGHTS, true);
+        Assert.assertEquals(set(WITHOUT_RIGHTS), getViewableDocuments(WITHOUT_RIGHTS));
+
+        XWikiDocument document = createDocument(OTHER_SPACE, "Some.Class");
+        this.listener.onEvent(new DocumentUpdatedEvent(OTHER_SPACE), document, getContext());
+
+        // Still cached
+        Assert.assertEquals(set(WITHOUT_RIGHTS), getViewableDocuments(WITHOUT_RIGHTS));
+    }
+
+    @Test
+    public void testRightsVersionChangesWhenRightsChange() throws Exception
+    {
+        String version = this.resolver.getRightsVersion();
+
+        XWikiDocument document = createDocument(OTHER_SPACE, "Some.Class");
+        this.listener.onEvent(new DocumentUpdatedEvent(OTHER_SPACE), document, getContext());
+        Assert.assertEquals(version, this.resolver.getRightsVersion());
+
+        document = createDocument(new DocumentReference("xwiki", "XWiki", "XWikiAdminGroup"), "XWiki.XWikiGroups");
+        this.listener.onEvent(new DocumentUpdatedEvent(document.getDocumentReference()), document, getContext());
+        Assert.assertFalse(version.equals(this.resolver.getRightsVersion()));
+    }
+
+    private void assertCacheFlushedBy(XWikiDocument document) throws Exception
+    {
+        expectRightsQuery();
+        expectViewCheck(WITHOUT_RIGHTS, true);
+        Assert.assertEquals(set(WITHOUT_RIGHTS), getViewableDocuments(WITHOUT_RIGHTS));
+
+        this.listener.onEvent(new DocumentUpdatedEvent(document.getDocumentReference()), document, getContext());
+
+        // The view right has been revoked
+        expectRightsQuery();
+        expectViewCheck(WITHOUT_RIGHTS, false);
+        Assert.assertEquals(Collections.emptySet(), getViewableDocuments(WITHOUT_RIGHTS));
+    }
+
+    @Test
+    public void testFallbackWithAnotherRightService() throws Exception
+    {
+        this.defaultRightService = false;
+
+        // Each document is checked, without looking for the documents holding rights
+        getMockery().checking(new Expectations()
+        {
+            {
+                never(queryManager);
+            }
+        });
+        expectViewCheck(WITHOUT_RIGHTS, true);
+        expectViewCheck(WITHOUT_RIGHTS2, false);
+
+        List<DocumentReference> documents = Arrays.asList(WITHOUT_RIGHTS, WITHOUT_RIGHTS2);
+        Assert.assertEquals(set(WITHOUT_RIGHTS), this.resolver.getViewableDocuments(documents));
+    }
+}
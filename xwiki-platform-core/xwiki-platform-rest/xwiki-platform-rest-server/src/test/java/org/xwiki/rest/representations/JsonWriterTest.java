@@ -0,0 +1,239 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.rest.representations;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import javax.ws.rs.core.MediaType;
+import javax.xml.bind.DatatypeConverter;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.xwiki.rest.model.jaxb.BatchResult;
+import org.xwiki.rest.model.jaxb.Link;
+import org.xwiki.rest.model.jaxb.ObjectSummary;
+import org.xwiki.rest.model.jaxb.Objects;
+import org.xwiki.rest.model.jaxb.Page;
+import org.xwiki.rest.model.jaxb.PageSummary;
+import org.xwiki.rest.model.jaxb.Pages;
+
+/**
+ * Unit tests for {@link JsonWriter}: the written JSON is parsed back and compared with the model objects.
+ * 
+ * @version $Id$
+ */
+public class JsonWriterTest
+{
+    private JsonWriter writer;
+
+    @Before
+    public void setUp()
+    {
+        this.writer = new JsonWriter();
+    }
+
+    private JSONObject write(Object object) throws IOException
+    {
+        Assert.assertTrue(this.writer.isWriteable(object.getClass(), object.getClass(), null,
+            MediaType.APPLICATION_JSON_TYPE));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        this.writer.writeTo(object, object.getClass(), object.getClass(), null, MediaType.APPLICATION_JSON_TYPE, null,
+            out);
+
+        return JSONObject.fromObject(out.toString("UTF-8"));
+    }
+
+    private Link createLink(String rel, String href)
+    {
+        Link link = new Link();
+        link.setRel(rel);
+        link.setHref(href);
+
+        return link;
+    }
+
+    private PageSummary createPageSummary(String name)
+    {
+        PageSummary pageSummary = new PageSummary();
+        pageSummary.setId("xwiki:Main." + name);
+        pageSummary.setFullName("Main." + name);
+        pageSummary.setWiki("xwiki");
+        pageSummary.setSpace("Main");
+        pageSummary.setName(name);
+        pageSummary.getLinks().add(createLink("http://www.xwiki.org/rel/page", "http://host/pages/" + name));
+
+        return pageSummary;
+    }
+
+    private void assertLinks(JSONArray expectedRelAndHref, JSONObject json)
+    {
+        JSONArray links = json.getJSONArray("links");
+        Assert.assertEquals(expectedRelAndHref.size() / 2, links.size());
+        for (int i = 0; i < links.size(); i++) {
+            Assert.assertEquals(expectedRelAndHref.getString(2 * i), links.getJSONObject(i).getString("rel"));
+            Assert.assertEquals(expectedRelAndHref.getString(2 * i + 1), links.getJSONObject(i).getString("href"));
+            // Null properties are left out
+            Assert.assertFalse(links.getJSONObject(i).has("type"));
+        }
+    }
+
+    @Test
+    public void testPage() throws Exception
+    {
+        Calendar modified = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        modified.setTimeInMillis(1300000000000L);
+
+        Page page = new Page();
+        page.setId("xwiki:Main.WebHome");
+        page.setFullName("Main.WebHome");
+        page.setWiki("xwiki");
+        page.setSpace("Main");
+        page.setName("WebHome");
+        page.setTitle("Caf\u00e9 \"Home\"");
+        page.setVersion("2.1");
+        page.setMajorVersion(2);
+        page.setMinorVersion(1);
+        page.setModified(modified);
+        page.setContent("= Title =\n\t{{velocity}}$a \\ b{{/velocity}}\r\n\u0001\u2028");
+        page.getLinks().add(createLink("http://www.xwiki.org/rel/space", "http://host/spaces/Main"));
+        page.getLinks().add(createLink("http://www.xwiki.org/rel/history", "http://host/pages/WebHome/history"));
+
+        JSONObject json = write(page);
+
+        Assert.assertEquals(page.getId(), json.getString("id"));
+        Assert.assertEquals(page.getFullName(), json.getString("fullName"));
+        Assert.assertEquals(page.getTitle(), json.getString("title"));
+        Assert.assertEquals(page.getVersion(), json.getString("version"));
+        Assert.assertEquals(2, json.getInt("majorVersion"));
+        Assert.assertEquals(1, json.getInt("minorVersion"));
+        Assert.assertEquals(page.getContent(), json.getString("content"));
+        Assert.assertEquals(modified.getTimeInMillis(),
+            DatatypeConverter.parseDateTime(json.getString("modified")).getTimeInMillis());
+        assertLinks(JSONArray.fromObject(new String[] {"http://www.xwiki.org/rel/space", "http://host/spaces/Main",
+            "http://www.xwiki.org/rel/history", "http://host/pages/WebHome/history"}), json);
+
+        // Null properties are left out
+        Assert.assertFalse(json.has("parent"));
+        Assert.assertFalse(json.has("created"));
+        Assert.assertFalse(json.has("translations"));
+    }
+
+    @Test
+    public void testPages() throws Exception
+    {
+        Pages pages = new Pages();
+        pages.getPageSummaries().add(createPageSummary("Page1"));
+        pages.getPageSummaries().add(createPageSummary("Page2"));
+
+        JSONObject json = write(pages);
+
+        // Empty collections are left out
+        Assert.assertFalse(json.has("links"));
+
+        JSONArray pageSummaries = json.getJSONArray("pageSummaries");
+        Assert.assertEquals(2, pageSummaries.size());
+        for (int i = 0; i < pageSummaries.size(); i++) {
+            PageSummary expected = pages.getPageSummaries().get(i);
+            JSONObject pageSummary = pageSummaries.getJSONObject(i);
+            Assert.assertEquals(expected.getId(), pageSummary.getString("id"));
+            Assert.assertEquals(expected.getFullName(), pageSummary.getString("fullName"));
+            Assert.assertEquals(expected.getWiki(), pageSummary.getString("wiki"));
+            Assert.assertEquals(expected.getSpace(), pageSummary.getString("space"));
+            Assert.assertEquals(expected.getName(), pageSummary.getString("name"));
+            assertLinks(JSONArray.fromObject(new String[] {expected.getLinks().get(0).getRel(),
+                expected.getLinks().get(0).getHref()}), pageSummary);
+        }
+    }
+
+    @Test
+    public void testEmptyPages() throws Exception
+    {
+        Assert.assertTrue(write(new Pages()).isEmpty());
+    }
+
+    @Test
+    public void testObjects() throws Exception
+    {
+        Objects objects = new Objects();
+        for (int i = 0; i < 3; i++) {
+            ObjectSummary objectSummary = new ObjectSummary();
+            objectSummary.setId("xwiki:Main.WebHome:guid" + i);
+            objectSummary.setGuid("guid" + i);
+            objectSummary.setPageId("xwiki:Main.WebHome");
+            objectSummary.setClassName("XWiki.TagClass");
+            objectSummary.setNumber(i);
+            objectSummary.setHeadline("tag" + i);
+            objectSummary.getLinks().add(createLink("http://www.xwiki.org/rel/object", "http://host/objects/" + i));
+            objects.getObjectSummaries().add(objectSummary);
+        }
+
+        JSONObject json = write(objects);
+
+        JSONArray objectSummaries = json.getJSONArray("objectSummaries");
+        Assert.assertEquals(3, objectSummaries.size());
+        for (int i = 0; i < objectSummaries.size(); i++) {
+            ObjectSummary expected = objects.getObjectSummaries().get(i);
+            JSONObject objectSummary = objectSummaries.getJSONObject(i);
+            Assert.assertEquals(expected.getId(), objectSummary.getString("id"));
+            Assert.assertEquals(expected.getGuid(), objectSummary.getString("guid"));
+            Assert.assertEquals(expected.getPageId(), objectSummary.getString("pageId"));
+            Assert.assertEquals(expected.getClassName(), objectSummary.getString("className"));
+            Assert.assertEquals(expected.getNumber(), objectSummary.getInt("number"));
+            Assert.assertEquals(expected.getHeadline(), objectSummary.getString("headline"));
+            assertLinks(JSONArray.fromObject(new String[] {expected.getLinks().get(0).getRel(),
+                expected.getLinks().get(0).getHref()}), objectSummary);
+        }
+    }
+
+    @Test
+    public void testBinaryContent() throws Exception
+    {
+        byte[] content = new byte[256];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+
+        BatchResult batchResult = new BatchResult();
+        batchResult.setUri("wikis/xwiki/spaces/Main/pages/WebHome/attachments/image.png");
+        batchResult.setStatus(200);
+        batchResult.setMediaType("image/png");
+        batchResult.setContent(content);
+
+        JSONObject json = write(batchResult);
+
+        Assert.assertEquals(200, json.getInt("status"));
+        Assert.assertEquals("image/png", json.getString("mediaType"));
+        Assert.assertArrayEquals(content, DatatypeConverter.parseBase64Binary(json.getString("content")));
+    }
+
+    @Test
+    public void testOnlyModelObjectsAreWriteable()
+    {
+        Assert.assertFalse(this.writer.isWriteable(String.class, String.class, null, MediaType.APPLICATION_JSON_TYPE));
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.rest.resources;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response.Status;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.restlet.Context;
+import org.restlet.Restlet;
+import org.restlet.data.MediaType;
+import org.restlet.data.Method;
+import org.restlet.data.Reference;
+import org.restlet.data.Request;
+import org.restlet.data.Response;
+import org.restlet.resource.OutputRepresentation;
+import org.restlet.resource.Representation;
+import org.restlet.resource.StringRepresentation;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.rest.Constants;
+import org.xwiki.rest.model.jaxb.Batch;
+import org.xwiki.rest.model.jaxb.BatchRequest;
+import org.xwiki.rest.model.jaxb.BatchResult;
+import org.xwiki.rest.model.jaxb.BatchResults;
+
+import com.xpn.xwiki.test.AbstractBridgedComponentTestCase;
+
+/**
+ * Unit tests for {@link BatchResource}.
+ * 
+ * @version $Id$
+ */
+public class BatchResourceTest extends AbstractBridgedComponentTestCase
+{
+    private static final String ROOT = "http://localhost:8080/xwiki/rest/";
+
+    private static final int CHUNK_SIZE = 8192;
+
+    /**
+     * The representations returned by the dispatcher, indexed by the path of the sub-requests.
+     */
+    private Map<String, Representation> representations = new HashMap<String, Representation>();
+
+    /**
+     * The paths of the sub-requests handled by the dispatcher.
+     */
+    private List<String> dispatched = new ArrayList<String>();
+
+    private BatchResource resource;
+
+    /**
+     * A lazy representation of the given size, counting the bytes actually written.
+     */
+    private static class LargeRepresentation extends OutputRepresentation
+    {
+        private final long size;
+
+        private long written;
+
+        LargeRepresentation(long size)
+        {
+            super(MediaType.APPLICATION_OCTET_STREAM);
+            this.size = size;
+        }
+
+        @Override
+        public void write(OutputStream outputStream) throws IOException
+        {
+            byte[] chunk = new byte[CHUNK_SIZE];
+            while (this.written < this.size) {
+                int length = (int) Math.min(chunk.length, this.size - this.written);
+                outputStream.write(chunk, 0, length);
+                this.written += length;
+            }
+        }
+    }
+
+    @Before
+    @Override
+    public void setUp() throws Exception
+    {
+        super.setUp();
+
+        Restlet dispatcher = new Restlet()
+        {
+            @Override
+            public void handle(Request request, Response response)
+            {
+                String path = request.getResourceRef().toString().substring(ROOT.length());
+                dispatched.add(path);
+                if (path.equals("failing")) {
+                    throw new RuntimeException("Failed sub-request");
+                }
+
+                Representation representation = representations.get(path);
+                if (representation != null) {
+                    response.setEntity(representation);
+                    response.setStatus(org.restlet.data.Status.SUCCESS_OK);
+                } else {
+                    response.setStatus(org.restlet.data.Status.CLIENT_ERROR_NOT_FOUND);
+                }
+            }
+        };
+
+        Context context = new Context();
+        context.getAttributes().put(Constants.BATCH_DISPATCHER, dispatcher);
+        Context.setCurrent(context);
+
+        Request batchRequest = new Request(Method.POST, ROOT + "batch");
+        batchRequest.setRootRef(new Reference(ROOT));
+        Response.setCurrent(new Response(batchRequest));
+
+        this.resource = new BatchResource();
+        ReflectionUtils.setFieldValue(this.resource, "componentManager", getComponentManager());
+        this.resource.initialize();
+    }
+
+    @After
+    @Override
+    public void tearDown() throws Exception
+    {
+        Context.setCurrent(null);
+        Response.setCurrent(null);
+
+        super.tearDown();
+    }
+
+    private Batch createBatch(String... uris)
+    {
+        Batch batch = new Batch();
+        for (String uri : uris) {
+            BatchRequest request = new BatchRequest();
+            request.setUri(uri);
+            batch.getBatchRequests().add(request);
+        }
+
+        return batch;
+    }
+
+    private List<BatchResult> execute(String... uris)
+    {
+        BatchResults results = this.resource.executeBatch(createBatch(uris));
+        Assert.assertEquals(uris.length, results.getBatchResults().size());
+
+        return results.getBatchResults();
+    }
+
+    @Test
+    public void testResultsAreReturnedInOrder()
+    {
+        this.representations.put("wikis", new StringRepresentation("wikis", MediaType.APPLICATION_XML));
+        this.representations.put("syntaxes", new StringRepresentation("syntaxes", MediaType.APPLICATION_XML));
+
+        List<BatchResult> results = execute("/syntaxes", "missing", ROOT + "wikis");
+
+        Assert.assertEquals(200, results.get(0).getStatus());
+        Assert.assertEquals("syntaxes", new String(results.get(0).getContent()));
+        Assert.assertEquals(MediaType.APPLICATION_XML.toString(), results.get(0).getMediaType());
+        Assert.assertEquals(404, results.get(1).getStatus());
+        Assert.assertNull(results.get(1).getContent());
+        Assert.assertEquals(200, results.get(2).getStatus());
+        Assert.assertEquals("wikis", new String(results.get(2).getContent()));
+    }
+
+    @Test
+    public void testTooManyRequests()
+    {
+        String[] uris = new String[BatchResource.MAX_REQUESTS + 1];
+        for (int i = 0; i < uris.length; i++) {
+            uris[i] = "wikis";
+        }
+
+        try {
+            this.resource.executeBatch(createBatch(uris));
+            Assert.fail("A batch with too many requests should be rejected");
+        } catch (WebApplicationException expected) {
+            Assert.assertEquals(Status.BAD_REQUEST.getStatusCode(), expected.getResponse().getStatus());
+        }
+        Assert.assertTrue(this.dispatched.isEmpty());
+    }
+
+    @Test
+    public void testContentSizeIsLimited()
+    {
+        LargeRepresentation huge = new LargeRepresentation(Integer.MAX_VALUE * 2L);
+        this.representations.put("first", new LargeRepresentation(BatchResource.MAX_CONTENT_SIZE - 10));
+        this.representations.put("huge", huge);
+        this.representations.put("tooLarge", new LargeRepresentation(11));
+        this.representations.put("small", new LargeRepresentation(10));
+
+        List<BatchResult> results = execute("first", "huge", "tooLarge", "small");
+
+        Assert.assertEquals(200, results.get(0).getStatus());
+        Assert.assertEquals(BatchResource.MAX_CONTENT_SIZE - 10, results.get(0).getContent().length);
+        // The huge representation is not read entirely.
+        Assert.assertEquals(BatchResource.CONTENT_TOO_LARGE, results.get(1).getStatus());
+        Assert.assertNull(results.get(1).getContent());
+        Assert.assertNull(results.get(1).getMediaType());
+        Assert.assertTrue(huge.written <= CHUNK_SIZE);
+        Assert.assertEquals(BatchResource.CONTENT_TOO_LARGE, results.get(2).getStatus());
+        Assert.assertNull(results.get(2).getContent());
+        // What is left in the batch can still be used.
+        Assert.assertEquals(200, results.get(3).getStatus());
+        Assert.assertEquals(10, results.get(3).getContent().length);
+    }
+
+    @Test
+    public void testNestedBatchIsRejected()
+    {
+        List<BatchResult> results = execute("batch", "/batch/", "batch?media=json", ROOT + "batch");
+
+        for (BatchResult result : results) {
+            Assert.assertEquals(Status.BAD_REQUEST.getStatusCode(), result.getStatus());
+        }
+        Assert.assertTrue(this.dispatched.isEmpty());
+    }
+
+    @Test
+    public void testUriOutsideOfTheApiIsRejected()
+    {
+        List<BatchResult> results = execute("http://example.com/xwiki/rest/wikis");
+
+        Assert.assertEquals(Status.BAD_REQUEST.getStatusCode(), results.get(0).getStatus());
+        Assert.assertTrue(this.dispatched.isEmpty());
+    }
+
+    @Test
+    public void testFailingSubRequestDoesNotStopTheBatch()
+    {
+        this.representations.put("wikis", new StringRepresentation("wikis", MediaType.APPLICATION_XML));
+
+        List<BatchResult> results = execute("failing", "wikis");
+
+        Assert.assertEquals(Status.INTERNAL_SERVER_ERROR.getStatusCode(), results.get(0).getStatus());
+        Assert.assertEquals(200, results.get(1).getStatus());
+        Assert.assertEquals("wikis", new String(results.get(1).getContent()));
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.rest.resources.pages;
+
+import java.util.Collections;
+import java.util.Date;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+
+import org.jmock.Expectations;
+import org.jmock.api.Invocation;
+import org.jmock.lib.action.CustomAction;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryManager;
+import org.xwiki.rest.internal.ViewRightsResolver;
+
+import com.xpn.xwiki.test.AbstractBridgedComponentTestCase;
+
+/**
+ * Unit tests for the conditional requests on {@link PagesResource}.
+ * 
+ * @version $Id$
+ */
+public class PagesResourceTest extends AbstractBridgedComponentTestCase
+{
+    private static final String WIKI = "xwiki";
+
+    private static final String SPACE = "Space";
+
+    /**
+     * The number of documents in the space.
+     */
+    private long count = 2;
+
+    /**
+     * The last modification date of the space.
+     */
+    private Date date = new Date(1300000000000L);
+
+    /**
+     * The version of the rights.
+     */
+    private String rightsVersion = "0";
+
+    /**
+     * The entity tag sent by the client in the If-None-Match header.
+     */
+    private EntityTag ifNoneMatch;
+
+    /**
+     * The entity tag of the last response.
+     */
+    private EntityTag tag;
+
+    private PagesResource resource;
+
+    @Before
+    @Override
+    public void setUp() throws Exception
+    {
+        super.setUp();
+
+        final QueryManager queryManager = getMockery().mock(QueryManager.class);
+        final Query spaceQuery = getMockery().mock(Query.class, "spaceQuery");
+        final Query namesQuery = getMockery().mock(Query.class, "namesQuery");
+        final Request request = getMockery().mock(Request.class);
+        final ViewRightsResolver viewRightsResolver = getMockery().mock(ViewRightsResolver.class);
+
+        getMockery().checking(new Expectations()
+        {
+            {
+                allowing(queryManager).createQuery(with(any(String.class)), with(Query.HQL));
+                will(returnValue(spaceQuery));
+                allowing(spaceQuery).bindValue("space", SPACE);
+                will(returnValue(spaceQuery));
+                allowing(spaceQuery).execute();
+                will(new CustomAction("return the state of the space")
+                {
+                    public Object invoke(Invocation invocation)
+                    {
+                        return Collections.singletonList(new Object[] {count, date});
+                    }
+                });
+
+                // No page is listed, only the version of the list matters
+                allowing(queryManager).getNamedQuery("getSpaceDocsName");
+                will(returnValue(namesQuery));
+                allowing(namesQuery).bindValue("space", SPACE);
+                will(returnValue(namesQuery));
+                allowing(namesQuery).setOffset(with(any(Integer.class)));
+                will(returnValue(namesQuery));
+                allowing(namesQuery).setLimit(with(any(Integer.class)));
+                will(returnValue(namesQuery));
+                allowing(namesQuery).execute();
+                will(returnValue(Collections.emptyList()));
+
+                allowing(viewRightsResolver).getRightsVersion();
+                will(new CustomAction("return the version of the rights")
+                {
+                    public Object invoke(Invocation invocation)
+                    {
+                        return rightsVersion;
+                    }
+                });
+
+                // The Last-Modified date can't tell whether the rights changed
+                never(request).evaluatePreconditions(with(any(Date.class)), with(any(EntityTag.class)));
+                allowing(request).evaluatePreconditions(with(any(EntityTag.class)));
+                will(new CustomAction("evaluate If-None-Match")
+                {
+                    public Object invoke(Invocation invocation)
+                    {
+                        tag = (EntityTag) invocation.getParameter(0);
+
+                        return tag.equals(ifNoneMatch) ? Response.notModified() : null;
+                    }
+                });
+            }
+        });
+
+        this.resource = new PagesResource();
+        ReflectionUtils.setFieldValue(this.resource, "componentManager", getComponentManager());
+        ReflectionUtils.setFieldValue(this.resource, "queryManager", queryManager);
+        ReflectionUtils.setFieldValue(this.resource, "request", request);
+        ReflectionUtils.setFieldValue(this.resource, "viewRightsResolver", viewRightsResolver);
+        this.resource.initialize();
+    }
+
+    /**
+     * @return the status of the response to a request sending the tag of the previous response
+     */
+    private int getPages() throws Exception
+    {
+        this.ifNoneMatch = this.tag;
+
+        try {
+            return this.resource.getPages(WIKI, SPACE, 0, -1, null).getStatus();
+        } catch (WebApplicationException e) {
+            return e.getResponse().getStatus();
+        }
+    }
+
+    @Test
+    public void testNotModifiedUntilAPageChanges() throws Exception
+    {
+        Assert.assertEquals(200, getPages());
+        Assert.assertEquals(304, getPages());
+
+        this.date = new Date(this.date.getTime() + 1000);
+
+        Assert.assertEquals(200, getPages());
+        Assert.assertEquals(304, getPages());
+
+        this.count--;
+
+        Assert.assertEquals(200, getPages());
+    }
+
+    @Test
+    public void testNotModifiedUntilRightsChange() throws Exception
+    {
+        Assert.assertEquals(200, getPages());
+        Assert.assertEquals(304, getPages());
+
+        // Rights modified outside of the space
+        this.rightsVersion = "1";
+
+        Assert.assertEquals(200, getPages());
+        Assert.assertEquals(304, getPages());
+    }
+
+    @Test
+    public void testVersionDependsOnTheUser() throws Exception
+    {
+        Assert.assertEquals(200, getPages());
+
+        getContext().setUser("XWiki.Alice");
+
+        Assert.assertEquals(200, getPages());
+    }
+}
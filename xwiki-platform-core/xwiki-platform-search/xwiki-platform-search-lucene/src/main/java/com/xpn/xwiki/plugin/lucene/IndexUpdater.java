@@ -22,6 +22,7 @@
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Random;
 
@@ -37,6 +38,7 @@
 import org.xwiki.bridge.event.DocumentCreatedEvent;
 import org.xwiki.bridge.event.DocumentDeletedEvent;
 import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.bridge.event.WikiCopiedEvent;
 import org.xwiki.bridge.event.WikiDeletedEvent;
 import org.xwiki.context.Execution;
 import org.xwiki.model.reference.WikiReference;
@@ -73,7 +75,7 @@ public class IndexUpdater extends AbstractXWikiRunnable implements EventListener
 
     private static final List<Event> EVENTS = Arrays.<Event> asList(new DocumentUpdatedEvent(),
         new DocumentCreatedEvent(), new DocumentDeletedEvent(), new AttachmentAddedEvent(),
-        new AttachmentDeletedEvent());
+        new AttachmentDeletedEvent(), new WikiCopiedEvent());
 
     /**
      * Collecting all the fields for using up in search
@@ -422,6 +424,10 @@ public void onEvent(Event event, Object source, Object data)
                 addAttachment((XWikiDocument) source, ((AbstractAttachmentEvent) event).getName(), context, true);
             } else if (event instanceof WikiDeletedEvent) {
                 addWiki((String) source, true);
+            } else if (event instanceof WikiCopiedEvent) {
+                // The copied documents have not been saved one by one so index the whole wiki at once
+                this.plugin.startIndex(Collections.singletonList(((WikiCopiedEvent) event).getWikiId()), "", false,
+                    false, context);
             }
         } catch (Exception e) {
             LOG.error("error in notify", e);
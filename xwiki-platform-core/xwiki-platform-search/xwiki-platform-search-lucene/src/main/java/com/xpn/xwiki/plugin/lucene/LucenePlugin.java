@@ -57,6 +57,7 @@
 import com.xpn.xwiki.api.Api;
 import com.xpn.xwiki.doc.XWikiAttachment;
 import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.monitor.api.RequestTimings;
 import com.xpn.xwiki.plugin.XWikiDefaultPlugin;
 import com.xpn.xwiki.plugin.XWikiPluginInterface;
 import com.xpn.xwiki.web.Utils;
@@ -346,11 +347,18 @@ private SearchResults search(String query, Sort sort, String virtualWikiNames, S
     {
         MultiSearcher searcher = new MultiSearcher(indexes);
 
-        // Enhance the base query with wiki names and languages.
-        Query q = buildQuery(query, virtualWikiNames, languages);
+        Query q;
+        Hits hits;
+        long timer = RequestTimings.start(RequestTimings.Phase.LUCENE);
+        try {
+            // Enhance the base query with wiki names and languages.
+            q = buildQuery(query, virtualWikiNames, languages);
 
-        // Perform the actual search
-        Hits hits = (sort == null) ? searcher.search(q) : searcher.search(q, sort);
+            // Perform the actual search
+            hits = (sort == null) ? searcher.search(q) : searcher.search(q, sort);
+        } finally {
+            RequestTimings.end(RequestTimings.Phase.LUCENE, timer);
+        }
         if (LOG.isDebugEnabled()) {
             LOG.debug("query " + q + " returned " + hits.length() + " hits");
         }
@@ -0,0 +1,89 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store.locks.striped.internal;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.xwiki.store.locks.preemptive.internal.PreemptiveLock;
+
+/**
+ * A preemptive lock which is also its own {@link ReadWriteLock}.
+ * Merging the lock, the read/write view and the reference to the locked object into a single
+ * instance means that getting a new lock costs only this object and the weak reference which points to it.
+ *
+ * @version $Id$
+ * @since 3.2M1
+ */
+public class StripedLock extends PreemptiveLock implements ReadWriteLock
+{
+    /**
+     * A strong reference on the object to make sure that the
+     * mere existence of the lock will keep it in the map.
+     */
+    private final Object lockMapReference;
+
+    /**
+     * The Constructor.
+     *
+     * @param toLockOn the object which this lock is for.
+     * @param locksHeldByThread see {@link PreemptiveLock#PreemptiveLock(ThreadLocal, Map)}.
+     * @param lockBlockingThread see {@link PreemptiveLock#PreemptiveLock(ThreadLocal, Map)},
+     *        this map must be safe for concurrent access.
+     */
+    public StripedLock(final Object toLockOn,
+                       final ThreadLocal<Set<PreemptiveLock>> locksHeldByThread,
+                       final Map<Thread, PreemptiveLock> lockBlockingThread)
+    {
+        super(locksHeldByThread, lockBlockingThread);
+        this.lockMapReference = toLockOn;
+    }
+
+    /**
+     * @return the object which this lock is for.
+     */
+    public Object getLockedObject()
+    {
+        return this.lockMapReference;
+    }
+
+    /**
+     * {@inheritDoc}
+     * Currently using the same lock for reading and writing.
+     *
+     * @see java.util.concurrent.locks.ReadWriteLock#readLock()
+     */
+    public Lock readLock()
+    {
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.util.concurrent.locks.ReadWriteLock#writeLock()
+     */
+    public Lock writeLock()
+    {
+        return this;
+    }
+}
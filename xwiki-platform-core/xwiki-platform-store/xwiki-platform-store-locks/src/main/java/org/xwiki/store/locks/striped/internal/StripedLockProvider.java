@@ -0,0 +1,151 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store.locks.striped.internal;
+
+import java.lang.ref.WeakReference;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.store.locks.LockProvider;
+import org.xwiki.store.locks.preemptive.internal.PreemptiveLock;
+
+/**
+ * A provider of preemptive locks which does not serialize all callers on a single monitor.
+ * Locks are kept in a number of independent maps (stripes) chosen by the hash code of the locked object
+ * so threads asking for locks on different objects rarely contend, and the registry of which thread is
+ * blocked on which lock is a concurrent map so deadlock detection keeps working without a global monitor.
+ * The guarantees are the same as those of the preemptive lock provider: locks never deadlock and users
+ * must not begin doing work until they have all of their locks.
+ *
+ * @version $Id$
+ * @since 3.2M1
+ */
+@Component
+@Named("striped")
+@Singleton
+public class StripedLockProvider implements LockProvider
+{
+    /** The default number of stripes, must be a power of 2. */
+    private static final int DEFAULT_STRIPES = 64;
+
+    /** Maps which hold locks by the object so that the same lock is used for any equivilent object. */
+    private final Map<Object, WeakReference<StripedLock>>[] stripes;
+
+    /** Mask to apply to a spread hash code in order to get the index of a stripe. */
+    private final int stripeMask;
+
+    /** Used by PreemptiveLock. */
+    private final ThreadLocal<Set<PreemptiveLock>> locksHeldByThread =
+        new ThreadLocal<Set<PreemptiveLock>>() {
+            protected Set<PreemptiveLock> initialValue()
+            {
+                return new HashSet<PreemptiveLock>();
+            }
+        };
+
+    /** Used by PreemptiveLock, concurrent because it is shared by all locks from this provider. */
+    private final Map<Thread, PreemptiveLock> lockBlockingThread =
+        new ConcurrentHashMap<Thread, PreemptiveLock>();
+
+    /** Constructor for component manager. */
+    public StripedLockProvider()
+    {
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     * Constructor with a given number of stripes.
+     *
+     * @param minimumStripes the minimum number of stripes to use, will be rounded up to a power of 2.
+     */
+    @SuppressWarnings("unchecked")
+    public StripedLockProvider(final int minimumStripes)
+    {
+        int count = 1;
+        while (count < minimumStripes) {
+            count <<= 1;
+        }
+        this.stripes = new Map[count];
+        for (int i = 0; i < count; i++) {
+            this.stripes[i] = new WeakHashMap<Object, WeakReference<StripedLock>>();
+        }
+        this.stripeMask = count - 1;
+    }
+
+    /**
+     * Get a lock for an object.
+     * If the object is equal to another object gotten through this function then
+     * the lock will be identical. As long as the lock is referenced IE: not garbage collected,
+     * the original object will be referenced as well so holding locks on large objects will
+     * cause memory leakage. Because of the guarantee of the same lock being used for equivilent
+     * objects, you can get locks as needed and throw them out when you are done with them.
+     *
+     * @param toLockOn the object to get a lock for.
+     * @return a lock for this object and any which are equal.
+     */
+    public ReadWriteLock getLock(final Object toLockOn)
+    {
+        final Map<Object, WeakReference<StripedLock>> stripe = this.stripes[this.stripeFor(toLockOn)];
+        synchronized (stripe) {
+            final WeakReference<StripedLock> lock = stripe.get(toLockOn);
+            StripedLock strongLock = null;
+            if (lock != null) {
+                strongLock = lock.get();
+            }
+            if (strongLock == null) {
+                strongLock = new StripedLock(toLockOn, this.locksHeldByThread, this.lockBlockingThread);
+                stripe.put(toLockOn, new WeakReference<StripedLock>(strongLock));
+            }
+            return strongLock;
+        }
+    }
+
+    /**
+     * @return the number of stripes used by this provider.
+     */
+    public int getStripeCount()
+    {
+        return this.stripes.length;
+    }
+
+    /**
+     * Find the stripe which holds the lock for a given object.
+     * The hash code is spread so that objects whose hash codes only differ in the upper bits,
+     * which is common for strings with a shared suffix, do not all land in the same stripe.
+     *
+     * @param toLockOn the object to find the stripe for.
+     * @return the index of the stripe.
+     */
+    private int stripeFor(final Object toLockOn)
+    {
+        int h = toLockOn.hashCode();
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return h & this.stripeMask;
+    }
+}
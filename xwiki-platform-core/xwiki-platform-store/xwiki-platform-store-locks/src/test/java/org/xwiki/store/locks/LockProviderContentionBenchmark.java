@@ -0,0 +1,122 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store.locks;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.Lock;
+
+import org.xwiki.store.locks.preemptive.internal.PreemptiveLockProvider;
+import org.xwiki.store.locks.striped.internal.StripedLockProvider;
+
+/**
+ * Compares the throughput of lock providers when many threads get, lock and unlock locks for
+ * attachments at the same time. This is not run as part of the build, run it by hand with:
+ * <code>java -cp ... org.xwiki.store.locks.LockProviderContentionBenchmark [threads] [operations] [keys]</code>
+ *
+ * @version $Id$
+ * @since 3.2M1
+ */
+public final class LockProviderContentionBenchmark
+{
+    /** Utility class. */
+    private LockProviderContentionBenchmark()
+    {
+    }
+
+    /**
+     * Run the benchmark.
+     *
+     * @param args number of threads, number of operations per thread and number of distinct keys.
+     * @throws Exception if a worker is interrupted.
+     */
+    public static void main(final String[] args) throws Exception
+    {
+        final int threads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        final int operations = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+        final int keys = args.length > 2 ? Integer.parseInt(args[2]) : 10000;
+
+        // Warm up both providers before measuring.
+        run(new PreemptiveLockProvider(), threads, operations / 10, keys);
+        run(new StripedLockProvider(), threads, operations / 10, keys);
+
+        report("preemptive", run(new PreemptiveLockProvider(), threads, operations, keys), threads, operations);
+        report("striped", run(new StripedLockProvider(), threads, operations, keys), threads, operations);
+    }
+
+    /**
+     * Have a number of threads each get and lock a series of keys.
+     *
+     * @param provider the lock provider to test.
+     * @param threads the number of concurrent threads.
+     * @param operations the number of get/lock/unlock sequences done by each thread.
+     * @param keys the number of distinct objects which are locked.
+     * @return the elapsed time in nanoseconds.
+     * @throws InterruptedException if interrupted while waiting for the workers.
+     */
+    private static long run(final LockProvider provider,
+                            final int threads,
+                            final int operations,
+                            final int keys) throws InterruptedException
+    {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            final int seed = t;
+            new Thread(new Runnable() {
+                public void run()
+                {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    int key = seed;
+                    for (int i = 0; i < operations; i++) {
+                        // Cheap pseudo random walk over the keys so threads do not march in step.
+                        key = (key * 1103515245 + 12345) & Integer.MAX_VALUE;
+                        final Lock lock = provider.getLock("attachment-" + (key % keys)).writeLock();
+                        lock.lock();
+                        lock.unlock();
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        final long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        return System.nanoTime() - begin;
+    }
+
+    /**
+     * Print the result of a run.
+     *
+     * @param name the name of the provider.
+     * @param nanos the elapsed time.
+     * @param threads the number of threads.
+     * @param operations the number of operations per thread.
+     */
+    private static void report(final String name, final long nanos, final int threads, final int operations)
+    {
+        final double seconds = nanos / 1e9;
+        System.out.println(String.format("%-12s %8.3f s %12.0f ops/s",
+            name, seconds, (threads * (double) operations) / seconds));
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store.locks.striped.internal;
+
+import java.util.concurrent.locks.Lock;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for {@link StripedLockProvider}.
+ *
+ * @version $Id$
+ * @since 3.2M1
+ */
+public class StripedLockProviderTest
+{
+    private int aliceState;
+
+    @Test
+    public void sameLockForEqualObjectsTest()
+    {
+        final StripedLockProvider provider = new StripedLockProvider();
+        Assert.assertSame(provider.getLock(new String("X")), provider.getLock(new String("X")));
+        Assert.assertNotSame(provider.getLock("X"), provider.getLock("Y"));
+        Assert.assertSame(provider.getLock("X").readLock(), provider.getLock("X").writeLock());
+    }
+
+    @Test
+    public void stripeCountIsPowerOfTwoTest()
+    {
+        Assert.assertEquals(1, new StripedLockProvider(1).getStripeCount());
+        Assert.assertEquals(8, new StripedLockProvider(5).getStripeCount());
+        Assert.assertEquals(64, new StripedLockProvider().getStripeCount());
+    }
+
+    @Test(expected=IllegalMonitorStateException.class)
+    public void unlockWithoutLockTest()
+    {
+        final StripedLockProvider provider = new StripedLockProvider();
+        provider.getLock("X").writeLock().unlock();
+    }
+
+    @Test
+    public synchronized void deadlockTest() throws Exception
+    {
+        // A single stripe makes sure that both locks share a map, which is the worst case.
+        final StripedLockProvider provider = new StripedLockProvider(1);
+        final Lock lockX = provider.getLock("X").writeLock();
+        final Lock lockY = provider.getLock("Y").writeLock();
+
+        new Thread(new Runnable() {
+            public void run()
+            {
+                lockX.lock();
+                setAliceState(1);
+                synchronized (lockX) {
+                    try {
+                        lockX.wait();
+                    } catch (Exception e) { }
+                }
+                lockY.lock();
+                setAliceState(2);
+            }
+        }).start();
+
+        lockY.lock();
+
+        while (aliceState != 1) {
+            this.wait(1);
+        }
+        trigger(lockX);
+
+        int i = 0;
+        while (lockX.tryLock() == false) {
+            trigger(lockX);
+            Thread.sleep(1);
+            i++;
+            Assert.assertTrue(i < 100);
+        }
+
+        lockX.unlock();
+        lockY.unlock();
+
+        i = 0;
+        while (aliceState != 2) {
+            this.wait(1);
+            i++;
+            Assert.assertTrue(i < 10000);
+        }
+    }
+
+    private static void trigger(Object o)
+    {
+        synchronized (o) {
+            o.notifyAll();
+        }
+    }
+
+    private synchronized void setAliceState(int state)
+    {
+        this.aliceState = state;
+        this.notifyAll();
+    }
+}
@@ -20,8 +20,10 @@
 package com.xpn.xwiki.plugin.webdav.resources.domain;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.jackrabbit.server.io.IOUtil;
 import org.apache.jackrabbit.webdav.DavConstants;
 import org.apache.jackrabbit.webdav.DavException;
@@ -35,6 +37,7 @@
 import com.xpn.xwiki.doc.XWikiDocument;
 import com.xpn.xwiki.plugin.webdav.resources.XWikiDavResource;
 import com.xpn.xwiki.plugin.webdav.resources.partial.AbstractDavFile;
+import com.xpn.xwiki.plugin.webdav.utils.XWikiDavByteRange;
 
 /**
  * The DAV resource representing an {@link XWikiAttachment}.
@@ -43,6 +46,26 @@
  */
 public class DavAttachment extends AbstractDavFile
 {
+    /**
+     * The HTTP header used by clients to request a part of the attachment.
+     */
+    private static final String HEADER_RANGE = "Range";
+
+    /**
+     * The HTTP header used by clients to request a part of the attachment only if it didn't change.
+     */
+    private static final String HEADER_IF_RANGE = "If-Range";
+
+    /**
+     * The HTTP header indicating which part of the attachment is sent.
+     */
+    private static final String HEADER_CONTENT_RANGE = "Content-Range";
+
+    /**
+     * The HTTP header advertising the support of range requests.
+     */
+    private static final String HEADER_ACCEPT_RANGES = "Accept-Ranges";
+
     /**
      * The {@link XWikiAttachment} represented by this resource.
      */
@@ -95,24 +118,71 @@ public void spool(OutputContext outputContext) throws IOException
         if (!getContext().hasAccess("view", attachment.getDoc().getFullName())) {
             throw new IOException("Access rights violation.");
         }
+        String eTag = DavConstants.modificationDateFormat.format(getModificationTime());
         outputContext.setContentLanguage(attachment.getDoc().getLanguage());
-        outputContext.setContentLength(attachment.getFilesize());
         outputContext.setContentType(getContext().getMimeType(attachment));
-        outputContext.setETag(DavConstants.modificationDateFormat.format(getModificationTime()));
+        outputContext.setETag(eTag);
         outputContext.setModificationTime(getModificationTime());
+        outputContext.setProperty(HEADER_ACCEPT_RANGES, XWikiDavByteRange.BYTES_UNIT);
+
+        // The size stored in the attachment metadata is an int, ask the content for the real size.
+        long size;
+        try {
+            size = getContext().getContentSize(attachment);
+        } catch (DavException ex) {
+            throw new IOException(ex.getMessage());
+        }
+        XWikiDavByteRange range = getRequestedRange(eTag, size);
+        if (range == null) {
+            range = XWikiDavByteRange.full(size);
+        } else if (!range.isSatisfiable()) {
+            getContext().setResponseStatus(DavServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            outputContext.setProperty(HEADER_CONTENT_RANGE, range.getContentRange());
+            outputContext.setContentLength(0);
+            return;
+        } else {
+            getContext().setResponseStatus(DavServletResponse.SC_PARTIAL_CONTENT);
+            outputContext.setProperty(HEADER_CONTENT_RANGE, range.getContentRange());
+        }
+        outputContext.setContentLength(range.getLength());
+
         if (exists()) {
             OutputStream out = outputContext.getOutputStream();
             if (null != out) {
+                // Stream the content so that the memory used here doesn't depend on the size of the attachment. Note
+                // that only the attachment stores able to stream (e.g. the "file" store) keep the whole transfer out
+                // of the heap, the default hibernate store loads the content in memory before it can be read.
+                InputStream in = null;
                 try {
-                    out.write(getContext().getContent(attachment));
+                    in = getContext().getContentInputStream(attachment);
+                    range.copy(in, out);
                     out.flush();
                 } catch (DavException ex) {
                     throw new IOException(ex.getMessage());
+                } finally {
+                    IOUtils.closeQuietly(in);
                 }
             }
         }
     }
 
+    /**
+     * Returns the range of the attachment requested by the client, if any.
+     * 
+     * @param eTag the current entity tag of the attachment.
+     * @param size the size of the attachment.
+     * @return the requested range or null if the whole attachment should be sent.
+     */
+    private XWikiDavByteRange getRequestedRange(String eTag, long size)
+    {
+        // Only send a part of the attachment if it didn't change since the client got the other parts.
+        String ifRange = getContext().getRequestHeader(HEADER_IF_RANGE);
+        if (ifRange != null && !ifRange.equals(eTag) && !ifRange.equals("\"" + eTag + '"')) {
+            return null;
+        }
+        return XWikiDavByteRange.parse(getContext().getRequestHeader(HEADER_RANGE), size);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -182,14 +182,15 @@ public void addMember(DavResource resource, InputContext inputContext) throws Da
             getContext().saveDocument(childDoc);
         } else if (isFile) {
             String fName = resource.getDisplayName();
-            byte[] data = getContext().getFileContentAsBytes(inputContext.getInputStream());
             if (fName.equals(DavWikiFile.WIKI_TXT)) {
+                byte[] data = getContext().getFileContentAsBytes(inputContext.getInputStream());
                 doc.setContent(new String(data));
                 getContext().saveDocument(doc);
             } else if (fName.equals(DavWikiFile.WIKI_XML)) {
                 throw new DavException(DavServletResponse.SC_METHOD_NOT_ALLOWED);
             } else {
-                getContext().addAttachment(doc, data, fName);
+                // Stream the uploaded file to the attachment instead of reading it in memory.
+                getContext().addAttachment(doc, inputContext.getInputStream(), fName);
             }
         } else {
             throw new DavException(DavServletResponse.SC_INTERNAL_SERVER_ERROR);
@@ -0,0 +1,228 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.plugin.webdav.utils;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * A range of bytes of a resource, as requested through the HTTP Range header. Also used to copy the content of a
+ * resource between two streams through a fixed size buffer, so that the memory used by a transfer doesn't depend on
+ * the size of the resource.
+ * 
+ * @version $Id$
+ * @since 3.2M1
+ */
+public class XWikiDavByteRange
+{
+    /**
+     * The unit of the ranges supported by the webdav server.
+     */
+    public static final String BYTES_UNIT = "bytes";
+
+    /**
+     * Size of the buffer used to copy the content.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Prefix of the value of the Range header.
+     */
+    private static final String RANGE_PREFIX = BYTES_UNIT + '=';
+
+    /**
+     * Index of the first byte of the range.
+     */
+    private final long first;
+
+    /**
+     * Index of the last byte of the range (inclusive).
+     */
+    private final long last;
+
+    /**
+     * Total size of the resource.
+     */
+    private final long total;
+
+    /**
+     * Creates a new range.
+     * 
+     * @param first index of the first byte of the range.
+     * @param last index of the last byte of the range (inclusive).
+     * @param total total size of the resource.
+     */
+    public XWikiDavByteRange(long first, long last, long total)
+    {
+        this.first = first;
+        this.last = last;
+        this.total = total;
+    }
+
+    /**
+     * Creates a range covering the whole resource.
+     * 
+     * @param total total size of the resource.
+     * @return the range of the whole resource.
+     */
+    public static XWikiDavByteRange full(long total)
+    {
+        return new XWikiDavByteRange(0, total - 1, total);
+    }
+
+    /**
+     * Parses the value of a Range header. Only a single range is supported, requests for several ranges are answered
+     * with the whole resource, which is allowed by RFC 2616.
+     * 
+     * @param header the value of the Range header, may be null.
+     * @param total total size of the resource.
+     * @return the requested range or null if the whole resource should be sent.
+     */
+    public static XWikiDavByteRange parse(String header, long total)
+    {
+        if (header == null || !header.startsWith(RANGE_PREFIX) || header.indexOf(',') != -1) {
+            return null;
+        }
+
+        String spec = header.substring(RANGE_PREFIX.length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash == -1) {
+            return null;
+        }
+
+        String firstValue = spec.substring(0, dash).trim();
+        String lastValue = spec.substring(dash + 1).trim();
+        if (!StringUtils.isNumeric(firstValue) || !StringUtils.isNumeric(lastValue)
+            || (firstValue.length() == 0 && lastValue.length() == 0)) {
+            return null;
+        }
+
+        try {
+            long first;
+            long last;
+            if (firstValue.length() == 0) {
+                // Suffix range: the last N bytes.
+                first = Math.max(0, total - Long.parseLong(lastValue));
+                last = total - 1;
+            } else {
+                first = Long.parseLong(firstValue);
+                last = lastValue.length() == 0 ? total - 1 : Math.min(Long.parseLong(lastValue), total - 1);
+                if (last < first && first < total) {
+                    return null;
+                }
+            }
+
+            return new XWikiDavByteRange(first, last, total);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return true if the range overlaps with the resource, false if a 416 response should be sent.
+     */
+    public boolean isSatisfiable()
+    {
+        return this.first < this.total && this.first <= this.last;
+    }
+
+    /**
+     * @return index of the first byte of the range.
+     */
+    public long getFirst()
+    {
+        return this.first;
+    }
+
+    /**
+     * @return the number of bytes of the range.
+     */
+    public long getLength()
+    {
+        return isSatisfiable() ? this.last - this.first + 1 : 0;
+    }
+
+    /**
+     * @return the value of the Content-Range header of a response containing this range.
+     */
+    public String getContentRange()
+    {
+        if (isSatisfiable()) {
+            return BYTES_UNIT + ' ' + this.first + '-' + this.last + '/' + this.total;
+        }
+        return BYTES_UNIT + " */" + this.total;
+    }
+
+    /**
+     * Copies the bytes of this range from the content of the resource to the given output stream.
+     * 
+     * @param in the content of the whole resource.
+     * @param out the stream where to write the range.
+     * @return the number of bytes written.
+     * @throws IOException if an error occurs while reading or writing, or if the content is shorter than expected.
+     */
+    public long copy(InputStream in, OutputStream out) throws IOException
+    {
+        long toSkip = this.first;
+        while (toSkip > 0) {
+            long skipped = in.skip(toSkip);
+            if (skipped <= 0) {
+                // Some streams refuse to skip, read instead.
+                if (in.read() == -1) {
+                    throw new EOFException("Content ended before the start of the range");
+                }
+                skipped = 1;
+            }
+            toSkip -= skipped;
+        }
+
+        return copy(in, out, getLength());
+    }
+
+    /**
+     * Copies at most the given number of bytes from a stream to another.
+     * 
+     * @param in the stream to read from.
+     * @param out the stream to write to.
+     * @param length the maximum number of bytes to copy, a negative value to copy everything.
+     * @return the number of bytes copied.
+     * @throws IOException if an error occurs while reading or writing.
+     */
+    public static long copy(InputStream in, OutputStream out, long length) throws IOException
+    {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long copied = 0;
+        while (length < 0 || copied < length) {
+            int toRead = length < 0 ? BUFFER_SIZE : (int) Math.min(BUFFER_SIZE, length - copied);
+            int read = in.read(buffer, 0, toRead);
+            if (read == -1) {
+                break;
+            }
+            out.write(buffer, 0, read);
+            copied += read;
+        }
+
+        return copied;
+    }
+}
@@ -19,6 +19,7 @@
  */
 package com.xpn.xwiki.plugin.webdav.utils;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.List;
@@ -104,6 +105,18 @@
      */
     private LockManager lockManager;
 
+    /**
+     * Creates a webdav context around an already initialized xwiki context, used by the tests.
+     * 
+     * @param request dav request.
+     * @param xwikiContext xwiki context.
+     */
+    XWikiDavContext(DavServletRequest request, XWikiContext xwikiContext)
+    {
+        this.request = request;
+        this.xwikiContext = xwikiContext;
+    }
+
     /**
      * Creates a new xwiki webdav context.
      * 
@@ -258,7 +271,10 @@ public String getMimeType(XWikiAttachment attachment)
      * @param attachment xwiki attachment.
      * @return attachment content as a byte array.
      * @throws DavException if an error occurs while reading the attachment.
+     * @deprecated since 3.2M1 use {@link #getContentInputStream(XWikiAttachment)} which doesn't load the whole
+     *             content in memory
      */
+    @Deprecated
     public byte[] getContent(XWikiAttachment attachment) throws DavException
     {
         try {
@@ -268,6 +284,65 @@ public byte[] getContent(XWikiAttachment attachment) throws DavException
         }
     }
 
+    /**
+     * Returns the content of the attachment as a stream. The content is read without being held in memory only when
+     * the attachment store is able to stream it (e.g. the "file" attachment store), the default hibernate store loads
+     * the whole content when the attachment content is loaded.
+     * 
+     * @param attachment xwiki attachment.
+     * @return an input stream for reading the attachment content, to be closed by the caller.
+     * @throws DavException if an error occurs while reading the attachment.
+     * @since 3.2M1
+     */
+    public InputStream getContentInputStream(XWikiAttachment attachment) throws DavException
+    {
+        try {
+            return attachment.getContentInputStream(xwikiContext);
+        } catch (XWikiException ex) {
+            throw new DavException(DavServletResponse.SC_INTERNAL_SERVER_ERROR, ex);
+        }
+    }
+
+    /**
+     * Returns the real size of the attachment content.
+     * 
+     * @param attachment xwiki attachment.
+     * @return the size of the attachment content in bytes, which can be bigger than {@link Integer#MAX_VALUE}.
+     * @throws DavException if an error occurs while loading the attachment content.
+     * @since 3.2M1
+     */
+    public long getContentSize(XWikiAttachment attachment) throws DavException
+    {
+        try {
+            return attachment.getLongContentSize(xwikiContext);
+        } catch (XWikiException ex) {
+            throw new DavException(DavServletResponse.SC_INTERNAL_SERVER_ERROR, ex);
+        }
+    }
+
+    /**
+     * Returns the value of a header of the current request.
+     * 
+     * @param name name of the header.
+     * @return the value of the header, null if it's not present.
+     * @since 3.2M1
+     */
+    public String getRequestHeader(String name)
+    {
+        return request.getHeader(name);
+    }
+
+    /**
+     * Sets the status of the response, used for partial content responses which are not handled by jackrabbit.
+     * 
+     * @param status the HTTP status code.
+     * @since 3.2M1
+     */
+    public void setResponseStatus(int status)
+    {
+        xwikiContext.getResponse().setStatus(status);
+    }
+
     /**
      * Utility method for reading a given input stream into a byte array.
      * 
@@ -291,8 +366,28 @@ public byte[] getFileContentAsBytes(InputStream in) throws DavException
      * @param data Data to be put into the attachment (file content).
      * @param doc The document to which the attachment is made.
      * @throws DavException Indicates an internal error.
+     * @deprecated since 3.2M1 use {@link #addAttachment(XWikiDocument, InputStream, String)} which doesn't need the
+     *             whole content in memory
      */
+    @Deprecated
     public void addAttachment(XWikiDocument doc, byte[] data, String attachmentName) throws DavException
+    {
+        addAttachment(doc, new ByteArrayInputStream(data), attachmentName);
+    }
+
+    /**
+     * Adds an attachment to the {@link XWikiDocument} represented by this resource. The content is streamed to the
+     * attachment content, which is backed by a temporary file, so that big files can be received with a small heap.
+     * The attachment store then saves this content: the "file" attachment store streams it to its own file while the
+     * default hibernate store loads it in memory to save it.
+     * 
+     * @param attachmentName Name of this attachment.
+     * @param data Data to be put into the attachment (file content).
+     * @param doc The document to which the attachment is made.
+     * @throws DavException Indicates an internal error.
+     * @since 3.2M1
+     */
+    public void addAttachment(XWikiDocument doc, InputStream data, String attachmentName) throws DavException
     {
         int i = attachmentName.indexOf("\\");
         if (i == -1) {
@@ -306,7 +401,11 @@ public void addAttachment(XWikiDocument doc, byte[] data, String attachmentName)
             doc.getAttachmentList().add(attachment);
         }
 
-        attachment.setContent(data);
+        try {
+            attachment.setContent(data);
+        } catch (IOException ex) {
+            throw new DavException(DavServletResponse.SC_INTERNAL_SERVER_ERROR, ex);
+        }
         attachment.setFilename(filename);
         attachment.setAuthor(xwikiContext.getUser());
 
@@ -0,0 +1,267 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.plugin.webdav.resources.domain;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Date;
+
+import org.apache.jackrabbit.webdav.DavLocatorFactory;
+import org.apache.jackrabbit.webdav.DavResource;
+import org.apache.jackrabbit.webdav.DavResourceLocator;
+import org.apache.jackrabbit.webdav.DavServletResponse;
+import org.apache.jackrabbit.webdav.io.OutputContext;
+import org.apache.jackrabbit.webdav.lock.LockManager;
+import org.apache.jackrabbit.webdav.lock.Scope;
+import org.apache.jackrabbit.webdav.lock.Type;
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.integration.junit4.JMock;
+import org.jmock.integration.junit4.JUnit4Mockery;
+import org.jmock.lib.legacy.ClassImposteriser;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import com.xpn.xwiki.doc.XWikiAttachment;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.plugin.webdav.utils.XWikiDavContext;
+import com.xpn.xwiki.plugin.webdav.utils.XWikiDavUserStorage;
+
+/**
+ * Unit tests for {@link DavAttachment}.
+ * 
+ * @version $Id$
+ */
+@RunWith(JMock.class)
+public class DavAttachmentTest
+{
+    private static final String CONTENT = "0123456789";
+
+    private Mockery mockery = new JUnit4Mockery()
+    {
+        {
+            setImposteriser(ClassImposteriser.INSTANCE);
+        }
+    };
+
+    private XWikiDavContext mockContext;
+
+    private XWikiAttachment mockAttachment;
+
+    private OutputContext mockOutputContext;
+
+    private ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+    private DavAttachment davAttachment;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.mockContext = this.mockery.mock(XWikiDavContext.class);
+        this.mockAttachment = this.mockery.mock(XWikiAttachment.class);
+        this.mockOutputContext = this.mockery.mock(OutputContext.class);
+
+        final DavPage mockPage = this.mockery.mock(DavPage.class);
+        final XWikiDocument mockDocument = this.mockery.mock(XWikiDocument.class);
+        final DavResourceLocator mockPageLocator = this.mockery.mock(DavResourceLocator.class, "pageLocator");
+        final DavResourceLocator mockLocator = this.mockery.mock(DavResourceLocator.class, "attachmentLocator");
+        final DavLocatorFactory mockLocatorFactory =
+            this.mockery.mock(DavLocatorFactory.class);
+        final LockManager mockLockManager = this.mockery.mock(LockManager.class);
+        final Date date = new Date();
+
+        this.mockery.checking(new Expectations()
+        {
+            {
+                allowing(mockPage).getLocator();
+                will(returnValue(mockPageLocator));
+                allowing(mockPage).getContext();
+                will(returnValue(mockContext));
+                allowing(mockPage).exists();
+                will(returnValue(true));
+                allowing(mockPage).getDocument();
+                will(returnValue(mockDocument));
+                allowing(mockPageLocator).getFactory();
+                will(returnValue(mockLocatorFactory));
+                allowing(mockPageLocator).getPrefix();
+                will(returnValue("/xwiki/webdav"));
+                allowing(mockPageLocator).getWorkspacePath();
+                will(returnValue(null));
+                allowing(mockPageLocator).getResourcePath();
+                will(returnValue("/spaces/Main/WebHome"));
+                allowing(mockLocatorFactory).createResourceLocator("/xwiki/webdav", null,
+                    "/spaces/Main/WebHome/file.bin");
+                will(returnValue(mockLocator));
+                allowing(mockLocator).getResourcePath();
+                will(returnValue("/spaces/Main/WebHome/file.bin"));
+
+                allowing(mockContext).getUserStorage();
+                will(returnValue(new XWikiDavUserStorage()));
+                allowing(mockContext).getLockManager();
+                will(returnValue(mockLockManager));
+                allowing(mockLockManager).getLock(with(any(Type.class)), with(any(Scope.class)),
+                    with(any(DavResource.class)));
+                will(returnValue(null));
+                allowing(mockContext).getMimeType(mockAttachment);
+                will(returnValue("application/octet-stream"));
+                allowing(mockContext).hasAccess("view", "Main.WebHome");
+                will(returnValue(true));
+
+                allowing(mockDocument).getAttachment("file.bin");
+                will(returnValue(mockAttachment));
+                allowing(mockDocument).getLanguage();
+                will(returnValue(""));
+                allowing(mockDocument).getFullName();
+                will(returnValue("Main.WebHome"));
+                allowing(mockAttachment).getDoc();
+                will(returnValue(mockDocument));
+                allowing(mockAttachment).getDate();
+                will(returnValue(date));
+                allowing(mockAttachment).getFilesize();
+                will(returnValue(CONTENT.length()));
+
+                allowing(mockOutputContext).setContentLanguage("");
+                allowing(mockOutputContext).setContentType("application/octet-stream");
+                allowing(mockOutputContext).setETag(with(any(String.class)));
+                allowing(mockOutputContext).setModificationTime(with(any(long.class)));
+                allowing(mockOutputContext).setProperty("Accept-Ranges", "bytes");
+                allowing(mockOutputContext).getOutputStream();
+                will(returnValue(output));
+            }
+        });
+
+        this.davAttachment = new DavAttachment();
+        this.davAttachment.init(mockPage, "file.bin", "/file.bin");
+    }
+
+    private void setRequest(final long size, final String range, final String ifRange) throws Exception
+    {
+        this.mockery.checking(new Expectations()
+        {
+            {
+                allowing(mockContext).getContentSize(mockAttachment);
+                will(returnValue(size));
+                allowing(mockContext).getRequestHeader("Range");
+                will(returnValue(range));
+                allowing(mockContext).getRequestHeader("If-Range");
+                will(returnValue(ifRange));
+                allowing(mockContext).getContentInputStream(mockAttachment);
+                will(returnValue(new ByteArrayInputStream(CONTENT.getBytes("UTF-8"))));
+            }
+        });
+    }
+
+    @Test
+    public void testSpoolWholeAttachment() throws Exception
+    {
+        setRequest(CONTENT.length(), null, null);
+
+        this.mockery.checking(new Expectations()
+        {
+            {
+                oneOf(mockOutputContext).setContentLength(10L);
+                never(mockContext).setResponseStatus(with(any(int.class)));
+            }
+        });
+
+        this.davAttachment.spool(this.mockOutputContext);
+
+        Assert.assertEquals(CONTENT, this.output.toString("UTF-8"));
+    }
+
+    @Test
+    public void testSpoolRange() throws Exception
+    {
+        setRequest(CONTENT.length(), "bytes=2-5", null);
+
+        this.mockery.checking(new Expectations()
+        {
+            {
+                oneOf(mockContext).setResponseStatus(DavServletResponse.SC_PARTIAL_CONTENT);
+                oneOf(mockOutputContext).setProperty("Content-Range", "bytes 2-5/10");
+                oneOf(mockOutputContext).setContentLength(4L);
+            }
+        });
+
+        this.davAttachment.spool(this.mockOutputContext);
+
+        Assert.assertEquals("2345", this.output.toString("UTF-8"));
+    }
+
+    @Test
+    public void testSpoolRangeOfModifiedAttachment() throws Exception
+    {
+        setRequest(CONTENT.length(), "bytes=2-5", "\"an old etag\"");
+
+        this.mockery.checking(new Expectations()
+        {
+            {
+                never(mockContext).setResponseStatus(with(any(int.class)));
+                oneOf(mockOutputContext).setContentLength(10L);
+            }
+        });
+
+        this.davAttachment.spool(this.mockOutputContext);
+
+        Assert.assertEquals(CONTENT, this.output.toString("UTF-8"));
+    }
+
+    @Test
+    public void testSpoolUnsatisfiableRange() throws Exception
+    {
+        setRequest(CONTENT.length(), "bytes=20-", null);
+
+        this.mockery.checking(new Expectations()
+        {
+            {
+                oneOf(mockContext).setResponseStatus(DavServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                oneOf(mockOutputContext).setProperty("Content-Range", "bytes */10");
+                oneOf(mockOutputContext).setContentLength(0L);
+            }
+        });
+
+        this.davAttachment.spool(this.mockOutputContext);
+
+        Assert.assertEquals(0, this.output.size());
+    }
+
+    @Test
+    public void testSpoolRangeOfAttachmentBiggerThan2GB() throws Exception
+    {
+        // The metadata size of such an attachment overflows, the size has to come from the content
+        long size = 3L * 1024 * 1024 * 1024;
+        setRequest(size, "bytes=0-9", null);
+
+        this.mockery.checking(new Expectations()
+        {
+            {
+                oneOf(mockContext).setResponseStatus(DavServletResponse.SC_PARTIAL_CONTENT);
+                oneOf(mockOutputContext).setProperty("Content-Range", "bytes 0-9/3221225472");
+                oneOf(mockOutputContext).setContentLength(10L);
+            }
+        });
+
+        this.davAttachment.spool(this.mockOutputContext);
+
+        Assert.assertEquals(CONTENT, this.output.toString("UTF-8"));
+    }
+}
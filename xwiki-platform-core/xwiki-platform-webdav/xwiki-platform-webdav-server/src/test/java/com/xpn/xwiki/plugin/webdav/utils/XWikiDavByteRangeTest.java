@@ -0,0 +1,173 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.plugin.webdav.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link XWikiDavByteRange}.
+ * 
+ * @version $Id$
+ */
+public class XWikiDavByteRangeTest
+{
+    /**
+     * Size of the content streamed by {@link #testCopyMultiGigabyteContent()}: more than 2GB and more than the maximum
+     * heap of the JVM running the tests, whatever the surefire configuration is.
+     */
+    private static final long BIG_SIZE = Math.max(3L * 1024 * 1024 * 1024, Runtime.getRuntime().maxMemory()) + 17;
+
+    /**
+     * A stream generating a predictable content without holding it in memory.
+     */
+    static class GeneratedInputStream extends InputStream
+    {
+        private final long size;
+
+        private long position;
+
+        GeneratedInputStream(long size)
+        {
+            this.size = size;
+        }
+
+        @Override
+        public int read()
+        {
+            return this.position < this.size ? valueAt(this.position++) : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len)
+        {
+            if (this.position >= this.size) {
+                return -1;
+            }
+            int count = (int) Math.min(len, this.size - this.position);
+            for (int i = 0; i < count; i++) {
+                b[off + i] = (byte) valueAt(this.position++);
+            }
+            return count;
+        }
+
+        @Override
+        public long skip(long n)
+        {
+            long skipped = Math.min(n, this.size - this.position);
+            this.position += skipped;
+            return skipped;
+        }
+    }
+
+    /**
+     * A stream counting and checking the bytes written to it without holding them in memory.
+     */
+    static class CheckingOutputStream extends OutputStream
+    {
+        private long position;
+
+        CheckingOutputStream(long start)
+        {
+            this.position = start;
+        }
+
+        @Override
+        public void write(int b) throws IOException
+        {
+            if ((byte) b != (byte) valueAt(this.position)) {
+                throw new IOException("Unexpected byte at position " + this.position);
+            }
+            this.position++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            for (int i = off; i < off + len; i++) {
+                write(b[i]);
+            }
+        }
+    }
+
+    static int valueAt(long position)
+    {
+        return (int) (position % 251);
+    }
+
+    @Test
+    public void testParseNoRange()
+    {
+        Assert.assertNull(XWikiDavByteRange.parse(null, 100));
+        Assert.assertNull(XWikiDavByteRange.parse("items=0-10", 100));
+        Assert.assertNull(XWikiDavByteRange.parse("bytes=0-10,20-30", 100));
+        Assert.assertNull(XWikiDavByteRange.parse("bytes=a-b", 100));
+        Assert.assertNull(XWikiDavByteRange.parse("bytes=-", 100));
+        Assert.assertNull(XWikiDavByteRange.parse("bytes=10-5", 100));
+    }
+
+    @Test
+    public void testParseRange()
+    {
+        XWikiDavByteRange range = XWikiDavByteRange.parse("bytes=10-19", 100);
+        Assert.assertTrue(range.isSatisfiable());
+        Assert.assertEquals(10, range.getFirst());
+        Assert.assertEquals(10, range.getLength());
+        Assert.assertEquals("bytes 10-19/100", range.getContentRange());
+
+        range = XWikiDavByteRange.parse("bytes=90-", 100);
+        Assert.assertEquals("bytes 90-99/100", range.getContentRange());
+
+        range = XWikiDavByteRange.parse("bytes=90-500", 100);
+        Assert.assertEquals("bytes 90-99/100", range.getContentRange());
+
+        range = XWikiDavByteRange.parse("bytes=-30", 100);
+        Assert.assertEquals("bytes 70-99/100", range.getContentRange());
+    }
+
+    @Test
+    public void testParseUnsatisfiableRange()
+    {
+        XWikiDavByteRange range = XWikiDavByteRange.parse("bytes=100-", 100);
+        Assert.assertFalse(range.isSatisfiable());
+        Assert.assertEquals(0, range.getLength());
+        Assert.assertEquals("bytes */100", range.getContentRange());
+    }
+
+    /**
+     * Streams a content bigger than the heap of the JVM to make sure the memory used by a transfer doesn't depend on
+     * the size of the content.
+     */
+    @Test
+    public void testCopyMultiGigabyteContent() throws IOException
+    {
+        Assert.assertEquals(BIG_SIZE,
+            XWikiDavByteRange.full(BIG_SIZE).copy(new GeneratedInputStream(BIG_SIZE), new CheckingOutputStream(0)));
+
+        long first = BIG_SIZE - 1024L * 1024 * 1024;
+        XWikiDavByteRange range = XWikiDavByteRange.parse("bytes=" + first + '-', BIG_SIZE);
+        Assert.assertEquals(1024L * 1024 * 1024,
+            range.copy(new GeneratedInputStream(BIG_SIZE), new CheckingOutputStream(first)));
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.plugin.webdav.utils;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.jackrabbit.webdav.DavServletRequest;
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.integration.junit4.JMock;
+import org.jmock.integration.junit4.JUnit4Mockery;
+import org.jmock.lib.legacy.ClassImposteriser;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiAttachment;
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Unit tests for {@link XWikiDavContext}.
+ * 
+ * @version $Id$
+ */
+@RunWith(JMock.class)
+public class XWikiDavContextTest
+{
+    /**
+     * Size of the uploaded content, way bigger than the threshold under which the attachment content is kept in
+     * memory.
+     */
+    private static final long SIZE = 32L * 1024 * 1024 + 17;
+
+    private Mockery mockery = new JUnit4Mockery()
+    {
+        {
+            setImposteriser(ClassImposteriser.INSTANCE);
+        }
+    };
+
+    private XWikiContext mockXWikiContext;
+
+    private XWikiDocument mockDocument;
+
+    private List<XWikiAttachment> attachments = new ArrayList<XWikiAttachment>();
+
+    private XWikiDavContext davContext;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        final XWiki mockXWiki = this.mockery.mock(XWiki.class);
+        this.mockDocument = this.mockery.mock(XWikiDocument.class);
+        this.mockXWikiContext = this.mockery.mock(XWikiContext.class);
+
+        this.mockery.checking(new Expectations()
+        {
+            {
+                allowing(mockXWikiContext).getWiki();
+                will(returnValue(mockXWiki));
+                allowing(mockXWikiContext).getUser();
+                will(returnValue("XWiki.Admin"));
+
+                allowing(mockDocument).getAttachment("file.bin");
+                will(returnValue(null));
+                allowing(mockDocument).getAttachmentList();
+                will(returnValue(attachments));
+                allowing(mockDocument).setAuthor("XWiki.Admin");
+                allowing(mockDocument).isNew();
+                will(returnValue(false));
+                oneOf(mockXWiki).saveDocument(mockDocument, "[WEBDAV] Attachment file.bin added.", mockXWikiContext);
+                // The content uploaded is kept by the attachment, it's never loaded again from the store.
+                never(mockDocument).loadAttachmentContent(with(any(XWikiAttachment.class)),
+                    with(any(XWikiContext.class)));
+            }
+        });
+
+        this.davContext = new XWikiDavContext(this.mockery.mock(DavServletRequest.class), this.mockXWikiContext);
+    }
+
+    /**
+     * Uploads a content and downloads it back, both as streams going through the file backing the attachment content.
+     */
+    @Test
+    public void testUploadAndDownloadBigAttachment() throws Exception
+    {
+        this.davContext.addAttachment(this.mockDocument, new XWikiDavByteRangeTest.GeneratedInputStream(SIZE),
+            "/file.bin");
+
+        Assert.assertEquals(1, this.attachments.size());
+        XWikiAttachment attachment = this.attachments.get(0);
+        Assert.assertEquals("file.bin", attachment.getFilename());
+        Assert.assertEquals("XWiki.Admin", attachment.getAuthor());
+        Assert.assertSame(this.mockDocument, attachment.getDoc());
+        Assert.assertEquals(SIZE, this.davContext.getContentSize(attachment));
+
+        InputStream in = this.davContext.getContentInputStream(attachment);
+        try {
+            Assert.assertEquals(SIZE,
+                XWikiDavByteRange.full(SIZE).copy(in, new XWikiDavByteRangeTest.CheckingOutputStream(0)));
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+
+        long first = SIZE - 1024;
+        in = this.davContext.getContentInputStream(attachment);
+        try {
+            Assert.assertEquals(1024, XWikiDavByteRange.parse("bytes=" + first + '-', SIZE).copy(in,
+                new XWikiDavByteRangeTest.CheckingOutputStream(first)));
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+}
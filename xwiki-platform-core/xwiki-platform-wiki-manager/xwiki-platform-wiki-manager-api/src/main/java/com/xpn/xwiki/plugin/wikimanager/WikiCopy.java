@@ -27,6 +27,8 @@
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.xwiki.bridge.event.WikiCopiedEvent;
+import org.xwiki.observation.ObservationManager;
 import org.xwiki.rendering.syntax.Syntax;
 
 import com.xpn.xwiki.XWiki;
@@ -43,6 +45,12 @@
 import com.xpn.xwiki.plugin.packaging.PackageAPI;
 import com.xpn.xwiki.plugin.wikimanager.doc.XWikiServer;
 import com.xpn.xwiki.plugin.wikimanager.doc.XWikiServerClass;
+import com.xpn.xwiki.store.VoidAttachmentVersioningStore;
+import com.xpn.xwiki.store.XWikiHibernateAttachmentStore;
+import com.xpn.xwiki.store.XWikiHibernateStore;
+import com.xpn.xwiki.store.XWikiHibernateVersioningStore;
+import com.xpn.xwiki.store.hibernate.HibernateAttachmentVersioningStore;
+import com.xpn.xwiki.web.Utils;
 
 /**
  * Utility classe used to fill a newly created wiki.
@@ -154,8 +162,12 @@ public void copyWiki(String sourceWiki, String targetWiki, String comment, XWiki
     {
         XWiki xwiki = context.getWiki();
 
-        // Copy all the wiki
-        xwiki.copyWiki(sourceWiki, targetWiki, null, context);
+        // Copy all the wiki. The copied documents are reset to version 1.1 unless configured otherwise, which can
+        // only be done document by document.
+        boolean reset = xwiki.ParamAsLong("xwiki.virtual.template.resethistory", 1) == 1;
+        if (reset || !copyWikiStore(sourceWiki, targetWiki, context)) {
+            xwiki.copyWiki(sourceWiki, targetWiki, null, false, reset, context);
+        }
 
         String database = context.getDatabase();
         try {
@@ -193,6 +205,52 @@ public void copyWiki(String sourceWiki, String targetWiki, String comment, XWiki
         }
     }
 
+    /**
+     * Copy all documents from <code>sourceWiki</code> wiki to <code>targetWiki</code> wiki directly at the database
+     * level, which is a lot faster than copying documents one by one.
+     * <p>
+     * This is only possible when documents, attachments and history are all stored in the same database and the
+     * target wiki is empty. The copied documents keep their history, like when they are copied one by one without
+     * reset. Since the copied documents are not saved one by one, a single {@link WikiCopiedEvent} is
+     * sent once the copy is done so that caches and indexes are updated.
+     * 
+     * @param sourceWiki the wiki from where to copy documents.
+     * @param targetWiki the wiki where to copy documents.
+     * @param context the XWiki context.
+     * @return true if the wiki has been copied, false if the documents have to be copied one by one.
+     */
+    private boolean copyWikiStore(String sourceWiki, String targetWiki, XWikiContext context)
+    {
+        XWiki xwiki = context.getWiki();
+
+        if (xwiki.ParamAsLong("xwiki.virtual.template.storecopy", 1) == 0) {
+            return false;
+        }
+
+        XWikiHibernateStore store = xwiki.getHibernateStore();
+        if (store == null || !(xwiki.getAttachmentStore() instanceof XWikiHibernateAttachmentStore)
+            || !(xwiki.getVersioningStore() instanceof XWikiHibernateVersioningStore)
+            || !(xwiki.getAttachmentVersioningStore() instanceof HibernateAttachmentVersioningStore
+            || xwiki.getAttachmentVersioningStore() instanceof VoidAttachmentVersioningStore)) {
+            return false;
+        }
+
+        try {
+            if (!store.copyWiki(sourceWiki, targetWiki, context)) {
+                return false;
+            }
+        } catch (XWikiException e) {
+            LOGGER.warn("Failed to copy wiki [" + sourceWiki + "] into wiki [" + targetWiki
+                + "] at the database level, copying documents one by one", e);
+
+            return false;
+        }
+
+        Utils.getComponent(ObservationManager.class).notify(new WikiCopiedEvent(targetWiki), sourceWiki, context);
+
+        return true;
+    }
+
     /**
      * Import XAR package into wiki.
      * 
@@ -0,0 +1,130 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package com.xpn.xwiki.plugin.wikimanager;
+
+import org.jmock.Mock;
+import org.jmock.core.Constraint;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.store.XWikiHibernateAttachmentStore;
+import com.xpn.xwiki.store.XWikiHibernateStore;
+import com.xpn.xwiki.store.XWikiHibernateVersioningStore;
+import com.xpn.xwiki.store.hibernate.HibernateAttachmentVersioningStore;
+import com.xpn.xwiki.test.AbstractBridgedXWikiComponentTestCase;
+
+/**
+ * Unit tests for {@link com.xpn.xwiki.plugin.wikimanager.WikiCopy}.
+ * 
+ * @version $Id$
+ */
+public class WikiCopyTest extends AbstractBridgedXWikiComponentTestCase
+{
+    private static final String TEMPLATE_WIKI_NAME = "template";
+
+    private static final String TARGET_WIKI_NAME = "wikitosave";
+
+    private Mock mockXWiki;
+
+    private Mock mockXWikiStore;
+
+    private WikiCopy wikiCopy;
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see junit.framework.TestCase#setUp()
+     */
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+
+        this.mockXWiki = mock(XWiki.class, new Class[] {}, new Object[] {});
+        this.mockXWiki.stubs().method("ParamAsLong").will(returnValue(1L));
+        // The store level copy is only used when keeping the history of the template documents
+        this.mockXWiki.stubs().method("ParamAsLong").with(eq("xwiki.virtual.template.resethistory"), ANYTHING).will(
+            returnValue(0L));
+        this.mockXWiki.stubs().method("getPluginApi").will(returnValue(null));
+        this.mockXWiki.stubs().method("getAttachmentStore").will(returnValue(new XWikiHibernateAttachmentStore()));
+        this.mockXWiki.stubs().method("getVersioningStore").will(returnValue(new XWikiHibernateVersioningStore()));
+        this.mockXWiki.stubs().method("getAttachmentVersioningStore").will(
+            returnValue(new HibernateAttachmentVersioningStore()));
+
+        this.mockXWikiStore = mock(XWikiHibernateStore.class, new Class[] {}, new Object[] {});
+        this.mockXWiki.stubs().method("getHibernateStore").will(returnValue(this.mockXWikiStore.proxy()));
+
+        getContext().setWiki((XWiki) this.mockXWiki.proxy());
+
+        this.wikiCopy = new WikiCopy(null);
+    }
+
+    public void testCopyWikiAtStoreLevel() throws XWikiException
+    {
+        this.mockXWikiStore.expects(once()).method("copyWiki").with(eq(TEMPLATE_WIKI_NAME), eq(TARGET_WIKI_NAME),
+            isA(XWikiContext.class)).will(returnValue(true));
+        this.mockXWiki.expects(never()).method("copyWiki");
+
+        this.wikiCopy.copyWiki(TEMPLATE_WIKI_NAME, TARGET_WIKI_NAME, "", getContext());
+    }
+
+    public void testCopyWikiWhenStoreLevelCopyIsNotSupported() throws XWikiException
+    {
+        this.mockXWikiStore.expects(once()).method("copyWiki").will(returnValue(false));
+        this.mockXWiki.expects(once()).method("copyWiki").with(
+            new Constraint[] {eq(TEMPLATE_WIKI_NAME), eq(TARGET_WIKI_NAME), NULL, eq(false), eq(false),
+            isA(XWikiContext.class)}).will(returnValue(0));
+
+        this.wikiCopy.copyWiki(TEMPLATE_WIKI_NAME, TARGET_WIKI_NAME, "", getContext());
+    }
+
+    public void testCopyWikiWhenStoreLevelCopyFails() throws XWikiException
+    {
+        this.mockXWikiStore.expects(once()).method("copyWiki").will(
+            throwException(new XWikiException(XWikiException.MODULE_XWIKI_STORE,
+                XWikiException.ERROR_XWIKI_STORE_HIBERNATE_COPY_DATABASE, "Copy failed")));
+        this.mockXWiki.expects(once()).method("copyWiki").will(returnValue(0));
+
+        this.wikiCopy.copyWiki(TEMPLATE_WIKI_NAME, TARGET_WIKI_NAME, "", getContext());
+    }
+
+    public void testCopyWikiWhenStoreLevelCopyIsDisabled() throws XWikiException
+    {
+        this.mockXWiki.stubs().method("ParamAsLong").will(returnValue(0L));
+        this.mockXWikiStore.expects(never()).method("copyWiki");
+        this.mockXWiki.expects(once()).method("copyWiki").will(returnValue(0));
+
+        this.wikiCopy.copyWiki(TEMPLATE_WIKI_NAME, TARGET_WIKI_NAME, "", getContext());
+    }
+
+    public void testCopyWikiResettingHistoryCopiesDocumentsOneByOne() throws XWikiException
+    {
+        this.mockXWiki.stubs().method("ParamAsLong").with(eq("xwiki.virtual.template.resethistory"), ANYTHING).will(
+            returnValue(1L));
+        this.mockXWikiStore.expects(never()).method("copyWiki");
+        this.mockXWiki.expects(once()).method("copyWiki").with(
+            new Constraint[] {eq(TEMPLATE_WIKI_NAME), eq(TARGET_WIKI_NAME), NULL, eq(false), eq(true),
+            isA(XWikiContext.class)}).will(returnValue(0));
+
+        this.wikiCopy.copyWiki(TEMPLATE_WIKI_NAME, TARGET_WIKI_NAME, "", getContext());
+    }
+}